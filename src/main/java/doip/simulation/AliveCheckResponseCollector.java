@@ -1,7 +1,10 @@
 package doip.simulation;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -18,6 +21,13 @@ import doip.library.message.DoipTcpRoutingActivationRequest;
 import doip.library.message.DoipTcpRoutingActivationResponse;
 import doip.simulation.standard.StandardTcpConnectionGateway;
 
+/**
+ * Collects the alive check responses of the connections on which an alive
+ * check has been performed. If the connections are given to the
+ * constructor, the future will be completed as soon as each of them has
+ * answered or has been closed. Otherwise, or if not all connections
+ * answer, the owner of the collector completes it by calling complete().
+ */
 public class AliveCheckResponseCollector implements DoipTcpConnectionListener {
 		
 	private static Logger logger = LogManager.getLogger(AliveCheckResponseCollector.class);
@@ -25,23 +35,95 @@ public class AliveCheckResponseCollector implements DoipTcpConnectionListener {
 	private volatile HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> responseMap =
 			new HashMap<StandardTcpConnectionGateway, LinkedList<Integer>>();
 
+	/**
+	 * Connections on which the alive check has been performed and which
+	 * did neither answer nor have been closed yet
+	 */
+	private HashSet<StandardTcpConnectionGateway> pendingConnections =
+			new HashSet<StandardTcpConnectionGateway>();
+
+	/**
+	 * Will be completed with a copy of the responses when the alive check
+	 * is finished
+	 */
+	private CompletableFuture<HashMap<StandardTcpConnectionGateway, LinkedList<Integer>>> future =
+			new CompletableFuture<HashMap<StandardTcpConnectionGateway, LinkedList<Integer>>>();
+
+	public AliveCheckResponseCollector() {
+	}
+
+	/**
+	 * Constructor for an alive check which shall be finished as soon as all
+	 * given connections have answered or have been closed.
+	 * @param conns The connections on which the alive check will be performed
+	 */
+	public AliveCheckResponseCollector(List<StandardTcpConnectionGateway> conns) {
+		this.pendingConnections.addAll(conns);
+		if (this.pendingConnections.isEmpty()) {
+			this.complete();
+		}
+	}
+
 	public HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> getAliveCheckResponses() {
 		return responseMap;
 	}
+
+	/**
+	 * Returns the future which will be completed with the alive check
+	 * responses.
+	 * @return The future
+	 */
+	public CompletableFuture<HashMap<StandardTcpConnectionGateway, LinkedList<Integer>>> getFuture() {
+		return future;
+	}
+
+	/**
+	 * Finishes the alive check with the responses which have been received
+	 * until now, e.g. because the timeout for the alive check expired.
+	 * Responses which will be received later will be ignored.
+	 */
+	public void complete() {
+		HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> responses = null;
+		synchronized (this) {
+			responses = new HashMap<StandardTcpConnectionGateway, LinkedList<Integer>>(responseMap);
+		}
+		// The future will be completed outside of the lock because the
+		// dependent actions of the future might stop connections
+		this.future.complete(responses);
+	}
 	
-	private synchronized void addAliveCheckResponse(StandardTcpConnectionGateway conn, DoipTcpAliveCheckResponse response) {
-		LinkedList<Integer> responseList = null;
-		if (responseMap.containsKey(conn)) {
-			responseList = responseMap.get(conn);
-		} else {
-			responseList = new LinkedList<Integer>();
-			responseMap.put(conn, responseList);
+	private void addAliveCheckResponse(StandardTcpConnectionGateway conn, DoipTcpAliveCheckResponse response) {
+		boolean finished = false;
+		synchronized (this) {
+			if (future.isDone()) {
+				return;
+			}
+			LinkedList<Integer> responseList = null;
+			if (responseMap.containsKey(conn)) {
+				responseList = responseMap.get(conn);
+			} else {
+				responseList = new LinkedList<Integer>();
+				responseMap.put(conn, responseList);
+			}
+			responseList.add(response.getSourceAddress());
+			finished = pendingConnections.remove(conn) && pendingConnections.isEmpty();
+		}
+		if (finished) {
+			logger.debug("All connections have answered the alive check");
+			this.complete();
 		}
-		responseList.add(response.getSourceAddress());
 	}
 
 	@Override
 	public void onConnectionClosed(DoipTcpConnection doipTcpConnection) {
+		boolean finished = false;
+		synchronized (this) {
+			finished = pendingConnections.remove(doipTcpConnection) && pendingConnections.isEmpty();
+		}
+		if (finished) {
+			logger.debug("All connections have answered the alive check or have been closed");
+			this.complete();
+		}
 	}
 
 	@Override
@@ -1,7 +1,9 @@
 package doip.simulation;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -9,6 +11,9 @@ import org.apache.logging.log4j.Logger;
 import doip.library.message.UdsMessage;
 import doip.library.util.LookupTable;
 import doip.simulation.api.Ecu;
+import doip.simulation.lookup.LookupCache;
+import doip.simulation.lookup.LookupTableRepository;
+import doip.simulation.lookup.MappedLookupFile;
 
 public abstract class EcuBase implements Ecu {
 
@@ -21,6 +26,66 @@ public abstract class EcuBase implements Ecu {
 
 	private LinkedList<EcuListener> listeners = new LinkedList<EcuListener>();
 
+	/**
+	 * Shared pool of worker threads. If it is null the ECU will process its
+	 * requests in an own thread. If it is not null the ECU will not create
+	 * an own thread, instead it will process its requests as tasks in this
+	 * pool.
+	 */
+	private volatile EcuWorkerPool workerPool = null;
+
+	/**
+	 * Defines which kind of thread the ECU will create if it does not use
+	 * a shared worker pool.
+	 */
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	/**
+	 * Scheduler for delayed responses and response pending messages. It can
+	 * be shared by many ECUs.
+	 */
+	private volatile ResponseScheduler responseScheduler = null;
+
+	/**
+	 * Cache for responses of the lookup table. It can be shared by many
+	 * ECUs. If it is null no cache will be used.
+	 */
+	private volatile LookupCache lookupCache = null;
+
+	/**
+	 * The lookup table which is currently used. It is null as long as the
+	 * lookup table of the configuration is used. It will be replaced by an
+	 * atomic swap, so requests which are processed at the same time still
+	 * use the old table and new requests will use the new table.
+	 */
+	private AtomicReference<LookupTable> runtimeLookupTable = new AtomicReference<LookupTable>(null);
+
+	/**
+	 * The runtime lookup table which has been loaded by reloadLookupTable()
+	 * with entries from the lookup table repository. Its entries are shared
+	 * with other ECUs.
+	 */
+	private volatile LookupTable sharedRuntimeLookupTable = null;
+
+	/**
+	 * Copy of the shared runtime lookup table which will be returned by
+	 * getRuntimeLookupTable(). It will be created on first use.
+	 */
+	private LookupTable runtimeLookupTableCopy = null;
+
+	/**
+	 * The table from which runtimeLookupTableCopy has been created
+	 */
+	private LookupTable runtimeLookupTableCopySource = null;
+
+	private final Object runtimeLookupTableCopyLock = new Object();
+
+	/**
+	 * The binary lookup file which is currently used. It is null as long as
+	 * the binary lookup file of the configuration is used.
+	 */
+	private AtomicReference<MappedLookupFile> runtimeBinaryLookupFile = new AtomicReference<MappedLookupFile>(null);
+
 	public EcuBase(EcuConfig config) {
 		if (config.getName() == null) {
 			throw new IllegalArgumentException("The value of 'name' in class EcuConfig is null, it must not be null");
@@ -43,9 +108,131 @@ public abstract class EcuBase implements Ecu {
 		return this.getConfig().getUdsLookupTable();
 	}
 
+	/**
+	 * Returns the lookup table which is currently used. If its entries are
+	 * shared with other ECUs by the lookup table repository a copy will be
+	 * returned, so its results can be changed (for example by
+	 * LookupTable.findResultAndApplyModifiers()) without changing the
+	 * results of other ECUs. Changes of the copy have no effect on the ECU.
+	 * 
+	 * @return The lookup table or a copy of it
+	 */
 	@Override
 	public LookupTable getRuntimeLookupTable() {
-		return this.getConfig().getUdsLookupTable();
+		LookupTable table = this.runtimeLookupTable.get();
+		if (table == null) {
+			return this.getConfig().getUdsLookupTable();
+		}
+		if (table != this.sharedRuntimeLookupTable) {
+			return table;
+		}
+		synchronized (this.runtimeLookupTableCopyLock) {
+			if (this.runtimeLookupTableCopySource != table) {
+				this.runtimeLookupTableCopy = LookupTableRepository.copy(table, this.getConfig().createLookupTable());
+				this.runtimeLookupTableCopySource = table;
+			}
+			return this.runtimeLookupTableCopy;
+		}
+	}
+
+	/**
+	 * Returns the lookup table which is currently used without copying it.
+	 * Its entries may be shared with other ECUs, they must not be changed.
+	 * 
+	 * @return The lookup table
+	 */
+	protected LookupTable getSharedRuntimeLookupTable() {
+		LookupTable table = this.runtimeLookupTable.get();
+		if (table != null) {
+			return table;
+		}
+		return this.getConfig().getSharedUdsLookupTable();
+	}
+
+	/**
+	 * Replaces the lookup table which is used at runtime. Requests which are
+	 * currently processed will still use the old table.
+	 * 
+	 * @param table The new lookup table. If it is null the lookup table of
+	 *              the configuration will be used again.
+	 */
+	public void setRuntimeLookupTable(LookupTable table) {
+		logger.trace(">>> public void setRuntimeLookupTable(LookupTable table)");
+		if (table != this.sharedRuntimeLookupTable) {
+			this.sharedRuntimeLookupTable = null;
+		}
+		synchronized (this.runtimeLookupTableCopyLock) {
+			// Don't keep the old table alive
+			this.runtimeLookupTableCopy = null;
+			this.runtimeLookupTableCopySource = null;
+		}
+		this.runtimeLookupTable.set(table);
+		this.onLookupTableReplaced();
+		logger.trace("<<< public void setRuntimeLookupTable(LookupTable table)");
+	}
+
+	/**
+	 * Returns the binary lookup file which is used at runtime.
+	 * 
+	 * @return The binary lookup file or null if the ECU does not use a
+	 *         binary lookup file
+	 */
+	public MappedLookupFile getRuntimeBinaryLookupFile() {
+		MappedLookupFile file = this.runtimeBinaryLookupFile.get();
+		if (file != null) {
+			return file;
+		}
+		return this.getConfig().getBinaryLookupFile();
+	}
+
+	/**
+	 * Replaces the binary lookup file which is used at runtime. Requests
+	 * which are currently processed will still use the old file.
+	 * 
+	 * @param file The new binary lookup file. If it is null the binary
+	 *             lookup file of the configuration will be used again.
+	 */
+	public void setRuntimeBinaryLookupFile(MappedLookupFile file) {
+		logger.trace(">>> public void setRuntimeBinaryLookupFile(MappedLookupFile file)");
+		this.runtimeBinaryLookupFile.set(file);
+		this.onLookupTableReplaced();
+		logger.trace("<<< public void setRuntimeBinaryLookupFile(MappedLookupFile file)");
+	}
+
+	/**
+	 * Loads the configured lookup files again and replaces the lookup table
+	 * which is used at runtime. If the files could not be loaded the current
+	 * lookup table will still be used.
+	 * 
+	 * @throws IOException If a file could not be read
+	 */
+	public void reloadLookupTable() throws IOException {
+		logger.trace(">>> public void reloadLookupTable()");
+		EcuConfig config = this.getConfig();
+		MappedLookupFile file = config.reloadBinaryLookupFile();
+		if (file != null) {
+			logger.info("Reloaded binary lookup file of ECU '{}'", this.getName());
+			this.setRuntimeBinaryLookupFile(file);
+		} else {
+			LookupTable table = config.reloadUdsLookupTable();
+			if (table != null) {
+				logger.info("Reloaded lookup table of ECU '{}' with {} entries",
+						this.getName(), table.getLookupEntries().size());
+				if (config.getLookupTableRepository() != null) {
+					this.sharedRuntimeLookupTable = table;
+				}
+				this.setRuntimeLookupTable(table);
+			}
+		}
+		logger.trace("<<< public void reloadLookupTable()");
+	}
+
+	/**
+	 * Will be called after the lookup table or the binary lookup file which
+	 * is used at runtime has been replaced. Subclasses can prepare the new
+	 * table here, so the next request does not need to do it.
+	 */
+	protected void onLookupTableReplaced() {
 	}
 
 
@@ -84,13 +271,114 @@ public abstract class EcuBase implements Ecu {
 		logger.trace("<<< public void onSendUdsMessage(UdsMessage message)");
 	}
 
+	/**
+	 * Sends a negative response with NRC 0x78 (request correctly received,
+	 * response pending) for the given request.
+	 * 
+	 * @param request The request for which the final response will be sent
+	 *                later
+	 */
+	public void sendResponsePending(UdsMessage request) {
+		logger.trace(">>> public void sendResponsePending(UdsMessage request)");
+		byte[] requestMessage = request.getMessage();
+		byte[] responseMessage = new byte[] { 0x7F, 0x00, 0x78 };
+		if (requestMessage.length > 0) {
+			responseMessage[1] = requestMessage[0];
+		}
+		UdsMessage response = new UdsMessage(
+				this.getConfig().getPhysicalAddress(), request.getSourceAdrress(),
+				UdsMessage.PHYSICAL, responseMessage);
+		this.onSendUdsMessage(response);
+		logger.trace("<<< public void sendResponsePending(UdsMessage request)");
+	}
+
 	public void setConfig(EcuConfig config) {
 		this.config = config;
 	}
 
+	public ThreadMode getThreadMode() {
+		return threadMode;
+	}
+
+	public void setThreadMode(ThreadMode threadMode) {
+		this.threadMode = threadMode;
+	}
+
+	public EcuWorkerPool getWorkerPool() {
+		return workerPool;
+	}
+
+	/**
+	 * Sets the pool of worker threads in which the requests will be
+	 * processed. It must be called before the ECU will be started.
+	 * 
+	 * @param workerPool The shared worker pool or null if the ECU shall
+	 *                   use an own thread.
+	 */
+	public void setWorkerPool(EcuWorkerPool workerPool) {
+		this.workerPool = workerPool;
+	}
+
+	public ResponseScheduler getResponseScheduler() {
+		return responseScheduler;
+	}
+
+	/**
+	 * Sets the scheduler for delayed responses. It must be called before the
+	 * ECU will be started.
+	 * 
+	 * @param responseScheduler The shared scheduler or null if the ECU shall
+	 *                          create an own scheduler when the first
+	 *                          response needs to be delayed.
+	 */
+	public void setResponseScheduler(ResponseScheduler responseScheduler) {
+		this.responseScheduler = responseScheduler;
+	}
+
+	public LookupCache getLookupCache() {
+		return lookupCache;
+	}
+
+	/**
+	 * Sets the cache for responses of the lookup table.
+	 * 
+	 * @param lookupCache The cache, it can be shared with other ECUs. If it
+	 *                    is null no cache will be used.
+	 */
+	public void setLookupCache(LookupCache lookupCache) {
+		this.lookupCache = lookupCache;
+	}
+
 	public abstract void start();
 
 	public abstract void stop();
 
 	public abstract void putRequest(UdsMessage request);
+
+	/**
+	 * Hands over a new request like "putRequest(...)", but returns false
+	 * without handling the request if the ECU would have to wait for space
+	 * in its request queue. In that case the caller shall hand over the
+	 * request with "putRequestAndWait(...)" by a thread which may block. The
+	 * default implementation calls "putRequest(...)".
+	 * 
+	 * @param request The new request
+	 * @return True if the request has been handled
+	 */
+	public boolean offerRequest(UdsMessage request) {
+		this.putRequest(request);
+		return true;
+	}
+
+	/**
+	 * Hands over a new request and waits for space in the request queue if
+	 * the ECU has been configured to do so. Must not be called by a thread
+	 * which handles many connections. The default implementation calls
+	 * "putRequest(...)".
+	 * 
+	 * @param request The new request
+	 */
+	public void putRequestAndWait(UdsMessage request) {
+		this.putRequest(request);
+	}
 }
@@ -1,6 +1,8 @@
 package doip.simulation;
 
 import java.io.IOException;
+import java.util.LinkedList;
+import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -8,8 +10,14 @@ import org.apache.logging.log4j.Logger;
 import doip.library.properties.EmptyPropertyValue;
 import doip.library.properties.MissingProperty;
 import doip.library.properties.PropertyFile;
+import doip.library.util.Conversion;
 import doip.library.util.Helper;
+import doip.library.util.LookupEntry;
 import doip.library.util.LookupTable;
+import doip.simulation.lookup.DidStore;
+import doip.simulation.lookup.LookupTableRepository;
+import doip.simulation.lookup.MappedLookupFile;
+import doip.simulation.lookup.ResponseTemplateTable;
 
 /**
  * Stores the configuration for an ECU
@@ -21,10 +29,146 @@ public class EcuConfig {
 	private int physicalAddress = 0;
 	private int functionalAddress = 0;
 	private LookupTable udsLookupTable = null;
+
+	/**
+	 * True if the entries of the lookup table have been taken from the
+	 * lookup table repository, so they are shared with other ECUs
+	 */
+	private boolean udsLookupTableShared = false;
+
+	/**
+	 * Copy of the lookup table which will be returned by
+	 * getUdsLookupTable() if the entries are shared with other ECUs. It will
+	 * be created on first use.
+	 */
+	private LookupTable udsLookupTableCopy = null;
 	
+	/**
+	 * Maximum number of bytes of a request which will be used for the
+	 * lookup. The value 0 means that the whole request will be used.
+	 */
 	private int maxByteArraySizeLookup = 0;
 	
 	private int maxByteArraySizeLogging = 0;
+	
+	/**
+	 * Number of requests which can be queued while the ECU is busy. The
+	 * value 0 means that there is no queue and every request which will be
+	 * received while the ECU is busy will be handled by the overflow policy.
+	 */
+	private int requestQueueSize = 0;
+	
+	/**
+	 * Defines what happens with a new request if the queue is full. If there
+	 * is no queue the policy BLOCK behaves like BUSY_REPEAT_REQUEST.
+	 */
+	private QueueOverflowPolicy requestQueueOverflowPolicy = QueueOverflowPolicy.BUSY_REPEAT_REQUEST;
+	
+	/**
+	 * Maximum time in milliseconds to wait for space in the queue if the
+	 * overflow policy is BLOCK
+	 */
+	private int requestQueueTimeout = 1000;
+	
+	/**
+	 * If true the ECU has an own processing lane for each tester (source
+	 * address). Requests of different testers will then be processed in
+	 * parallel.
+	 */
+	private boolean requestLanePerTester = false;
+	
+	/**
+	 * Number of threads which will be used to process the lanes if there is
+	 * a lane per tester and no shared worker pool. The value 0 means that
+	 * the number of available processors will be used.
+	 */
+	private int requestLaneThreads = 0;
+	
+	/**
+	 * Delays of responses for requests with a given prefix. If more than one
+	 * delay matches a request the one with the longest prefix will be used.
+	 */
+	private LinkedList<ResponseDelay> responseDelays = new LinkedList<ResponseDelay>();
+	
+	/**
+	 * Interval in milliseconds in which a response pending message
+	 * (NRC 0x78) will be sent while a delayed response is pending. The value
+	 * 0 means that no response pending message will be sent.
+	 */
+	private int responsePendingInterval = 2000;
+	
+	/**
+	 * Model for the time P2 until the ECU responds to a request. If it is
+	 * null the ECU responds as fast as possible.
+	 */
+	private LatencyModel latencyP2 = null;
+	
+	/**
+	 * Model for the additional time P2* of long-running requests. If it is
+	 * not null every request is long-running, after P2 a response pending
+	 * message (NRC 0x78) will be sent and the final response after P2*.
+	 */
+	private LatencyModel latencyP2Star = null;
+	
+	/**
+	 * Number of responses which will be stored in the lookup cache of the
+	 * ECU. The value 0 means that the ECU has no own cache.
+	 */
+	private int lookupCacheSize = 0;
+	
+	/**
+	 * Repository which parses every .uds file only once and shares the
+	 * entries with other ECUs. If it is null every ECU parses its files.
+	 */
+	private LookupTableRepository lookupTableRepository = LookupTableRepository.getShared();
+	
+	/**
+	 * Binary lookup file which has been created by the UdsCompiler. If it is
+	 * not null it will be used instead of the lookup table.
+	 */
+	private MappedLookupFile binaryLookupFile = null;
+	
+	/**
+	 * Path of the configuration file, the .uds files and the binary lookup
+	 * file are relative to this path. It will be used to reload the files.
+	 */
+	private String udsPath = null;
+	
+	/**
+	 * Names of the .uds files separated by a semicolon, null if no .uds
+	 * files have been configured.
+	 */
+	private String udsFiles = null;
+	
+	/**
+	 * Name of the binary lookup file, null if no binary lookup file has been
+	 * configured.
+	 */
+	private String udsBinary = null;
+	
+	/**
+	 * If true the lookup files will be watched and the lookup table of the
+	 * ECU will be reloaded when one of the files has been changed.
+	 */
+	private boolean udsReloadWatch = false;
+	
+	/**
+	 * Data of the DIDs which will be handled without the lookup table. Every
+	 * ECU gets its own copy. It is null if no DID files have been configured.
+	 */
+	private DidStore didStore = null;
+	
+	/**
+	 * Templates for responses with dynamic fields. It is null if no template
+	 * files have been configured.
+	 */
+	private ResponseTemplateTable responseTemplates = null;
+	
+	/**
+	 * If true the hits and match times of the entries of the lookup table
+	 * will be recorded.
+	 */
+	private boolean lookupStatistics = false;
 
 	public int getFunctionalAddress() {
 		return functionalAddress;
@@ -38,7 +182,32 @@ public class EcuConfig {
 		return physicalAddress;
 	}
 
-	public LookupTable getUdsLookupTable() {
+	/**
+	 * Returns the lookup table of the configuration. If its entries are
+	 * shared with other ECUs by the lookup table repository a copy will be
+	 * returned, so its results can be changed (for example by
+	 * LookupTable.findResultAndApplyModifiers()) without changing the
+	 * results of other ECUs. Changes of the copy have no effect on the ECU.
+	 * 
+	 * @return The lookup table or a copy of it
+	 */
+	public synchronized LookupTable getUdsLookupTable() {
+		if (!this.udsLookupTableShared) {
+			return udsLookupTable;
+		}
+		if (this.udsLookupTableCopy == null) {
+			this.udsLookupTableCopy = LookupTableRepository.copy(this.udsLookupTable, createLookupTable());
+		}
+		return this.udsLookupTableCopy;
+	}
+
+	/**
+	 * Returns the lookup table of the configuration without copying it. Its
+	 * entries may be shared with other ECUs, they must not be changed.
+	 * 
+	 * @return The lookup table
+	 */
+	synchronized LookupTable getSharedUdsLookupTable() {
 		return udsLookupTable;
 	}
 
@@ -57,12 +226,145 @@ public class EcuConfig {
 		this.physicalAddress = file.getMandatoryPropertyAsInt("address.physical");
 		this.functionalAddress = file.getOptionalPropertyAsInt("address.functional", -1);
 		String udsFiles = file.getOptionalPropertyAsString("uds.files");
+		String udsBinary = file.getOptionalPropertyAsString("uds.binary");
+		String didFiles = file.getOptionalPropertyAsString("uds.did.files");
+		String templateFiles = file.getOptionalPropertyAsString("uds.template.files");
+		this.requestQueueSize = file.getOptionalPropertyAsInt("request.queue.size", 0);
+		String overflowPolicy = file.getOptionalPropertyAsString("request.queue.overflow");
+		if (overflowPolicy != null) {
+			this.requestQueueOverflowPolicy = QueueOverflowPolicy.fromString(overflowPolicy);
+		}
+		this.requestQueueTimeout = file.getOptionalPropertyAsInt("request.queue.timeout", 1000);
+		String lanePerTester = file.getOptionalPropertyAsString("request.lane.perTester");
+		if (lanePerTester != null) {
+			this.requestLanePerTester = Boolean.parseBoolean(lanePerTester.trim());
+		}
+		this.requestLaneThreads = file.getOptionalPropertyAsInt("request.lane.threads", 0);
+		String delays = file.getOptionalPropertyAsString("uds.delay");
+		if (delays != null) {
+			this.responseDelays = parseResponseDelays(delays);
+		}
+		this.responsePendingInterval = file.getOptionalPropertyAsInt("uds.responsePending.interval", 2000);
+		this.lookupCacheSize = file.getOptionalPropertyAsInt("lookup.cache.size", 0);
+		String statistics = file.getOptionalPropertyAsString("lookup.statistics");
+		if (statistics != null) {
+			this.lookupStatistics = Boolean.parseBoolean(statistics.trim());
+		}
+		String reloadWatch = file.getOptionalPropertyAsString("uds.reload.watch");
+		if (reloadWatch != null) {
+			this.udsReloadWatch = Boolean.parseBoolean(reloadWatch.trim());
+		}
+		String p2 = file.getOptionalPropertyAsString("latency.p2");
+		if (p2 != null) {
+			this.latencyP2 = LatencyModel.fromString(p2);
+		}
+		String p2Star = file.getOptionalPropertyAsString("latency.p2star");
+		if (p2Star != null) {
+			this.latencyP2Star = LatencyModel.fromString(p2Star);
+			if (this.latencyP2 == null) {
+				this.latencyP2 = new LatencyModel(LatencyModel.Distribution.FIXED, 0, 0);
+			}
+		}
 
-		this.udsLookupTable = createLookupTable();
+		this.setUdsLookupTable(createLookupTable());
 		
 		String path = Helper.getPathOfFile(filename);
-		if (udsFiles != null)
+		this.udsPath = path;
+		if (udsBinary != null) {
+			if (udsFiles != null) {
+				logger.warn("ECU '{}' has a binary lookup file, the property 'uds.files' will be ignored", this.name);
+			}
+			loadBinaryLookupFile(path, udsBinary.trim());
+		} else if (udsFiles != null)
 			loadUdsLookupTable(path, udsFiles);
+		if (didFiles != null) {
+			loadDidStore(path, didFiles);
+		}
+		if (templateFiles != null) {
+			loadResponseTemplates(path, templateFiles);
+		}
+	}
+	
+	/**
+	 * Loads the response templates from the given files.
+	 * 
+	 * @param path          The path of the files
+	 * @param templateFiles The names of the files separated by a semicolon
+	 * @throws IOException If a file could not be read
+	 */
+	public void loadResponseTemplates(String path, String templateFiles) throws IOException {
+		ResponseTemplateTable table = new ResponseTemplateTable();
+		for (String templateFile : templateFiles.split(";")) {
+			table.addFromFile(path + templateFile.trim());
+		}
+		logger.info("Loaded {} response templates for ECU '{}'", table.size(), this.name);
+		this.responseTemplates = table;
+	}
+	
+	/**
+	 * Loads the DIDs from the given files.
+	 * 
+	 * @param path     The path of the files
+	 * @param didFiles The names of the files separated by a semicolon
+	 * @throws IOException If a file could not be read
+	 */
+	public void loadDidStore(String path, String didFiles) throws IOException {
+		DidStore store = new DidStore();
+		for (String didFile : didFiles.split(";")) {
+			store.addFromFile(path + didFile.trim());
+		}
+		logger.info("Loaded {} DIDs for ECU '{}'", store.size(), this.name);
+		this.didStore = store;
+	}
+	
+	/**
+	 * Parses the value of the property "uds.delay". The value is a list of
+	 * delays separated by a semicolon. Each delay consists of the request
+	 * prefix as hex string and the delay in milliseconds separated by a
+	 * colon, e.g. "31:5000;2EF190:2000".
+	 * 
+	 * @param value The value of the property
+	 * @return The list of delays
+	 */
+	public static LinkedList<ResponseDelay> parseResponseDelays(String value) {
+		LinkedList<ResponseDelay> list = new LinkedList<ResponseDelay>();
+		String[] items = value.split(";");
+		for (String item : items) {
+			item = item.trim();
+			if (item.isEmpty()) {
+				continue;
+			}
+			String[] parts = item.split(":");
+			if (parts.length != 2) {
+				throw new IllegalArgumentException("The response delay '" + item + "' is not valid, expected format is '<request prefix>:<milliseconds>'");
+			}
+			byte[] prefix = Conversion.hexStringToByteArray(parts[0].trim());
+			int delay = Integer.parseInt(parts[1].trim());
+			list.add(new ResponseDelay(prefix, delay));
+		}
+		return list;
+	}
+	
+	/**
+	 * Returns the delay of the response for the given request.
+	 * 
+	 * @param request The request message
+	 * @return The delay in milliseconds of the delay with the longest
+	 *         matching prefix, 0 if no delay matches.
+	 */
+	public int getResponseDelay(byte[] request) {
+		ResponseDelay match = null;
+		for (ResponseDelay delay : this.responseDelays) {
+			if (delay.matches(request)) {
+				if (match == null || delay.getRequestPrefix().length > match.getRequestPrefix().length) {
+					match = delay;
+				}
+			}
+		}
+		if (match == null) {
+			return 0;
+		}
+		return match.getDelay();
 	}
 	
 	/**
@@ -79,8 +381,111 @@ public class EcuConfig {
 	 * @throws IOException
 	 */
 	public void loadUdsLookupTable(String path, String udsFiles) throws IOException {
+		this.udsPath = path;
+		this.udsFiles = udsFiles;
+		addLookupEntries(this.udsLookupTable, path, udsFiles);
+		synchronized (this) {
+			if (this.lookupTableRepository != null) {
+				this.udsLookupTableShared = true;
+			}
+			this.udsLookupTableCopy = null;
+		}
+	}
+
+	/**
+	 * Adds the entries of the .uds files to a lookup table.
+	 * 
+	 * @param table    The lookup table
+	 * @param path     The path of the files
+	 * @param udsFiles The names of the files separated by a semicolon
+	 * @throws IOException If a file could not be read
+	 */
+	private void addLookupEntries(LookupTable table, String path, String udsFiles) throws IOException {
 		String[] files = udsFiles.split(";");
-		this.udsLookupTable.addLookupEntriesFromFiles(path, files);
+		if (this.lookupTableRepository == null) {
+			table.addLookupEntriesFromFiles(path, files);
+			return;
+		}
+		for (String file : files) {
+			List<LookupEntry> entries = this.lookupTableRepository.getFragment(path, file);
+			for (LookupEntry entry : entries) {
+				table.addEntry(entry);
+			}
+		}
+	}
+
+	/**
+	 * Reads the .uds files again and returns a new lookup table with their
+	 * current content. The lookup table of the configuration will not be
+	 * changed.
+	 * 
+	 * @return The new lookup table or null if no .uds files have been
+	 *         configured
+	 * @throws IOException If a file could not be read
+	 */
+	public LookupTable reloadUdsLookupTable() throws IOException {
+		if (this.udsFiles == null) {
+			return null;
+		}
+		LookupTable table = createLookupTable();
+		addLookupEntries(table, this.udsPath, this.udsFiles);
+		return table;
+	}
+
+	/**
+	 * Maps the binary lookup file again. The binary lookup file of the
+	 * configuration will not be changed. The file must be replaced by
+	 * writing a new file and renaming it, otherwise the old mapping would
+	 * see the changes while it is still used.
+	 * 
+	 * @return The new mapped file or null if no binary lookup file has been
+	 *         configured
+	 * @throws IOException If the file could not be opened
+	 */
+	public MappedLookupFile reloadBinaryLookupFile() throws IOException {
+		if (this.udsBinary == null) {
+			return null;
+		}
+		if (this.lookupTableRepository != null) {
+			return this.lookupTableRepository.reloadBinaryFile(this.udsPath + this.udsBinary);
+		}
+		return MappedLookupFile.open(this.udsPath + this.udsBinary);
+	}
+
+	/**
+	 * Returns the files from which the lookup table has been loaded.
+	 * 
+	 * @return The list of files with their path, it is empty if no files
+	 *         have been configured
+	 */
+	public List<String> getLookupFiles() {
+		List<String> list = new LinkedList<String>();
+		if (this.udsBinary != null) {
+			list.add(this.udsPath + this.udsBinary);
+		} else if (this.udsFiles != null) {
+			for (String file : this.udsFiles.split(";")) {
+				list.add(this.udsPath + file);
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Opens a binary lookup file which has been created by the UdsCompiler.
+	 * The file will be mapped into memory, its entries will not be loaded.
+	 * 
+	 * @param path     The path of the file
+	 * @param filename The name of the file
+	 * @throws IOException If the file could not be opened
+	 */
+	public void loadBinaryLookupFile(String path, String filename) throws IOException {
+		this.udsPath = path;
+		this.udsBinary = filename;
+		if (this.lookupTableRepository != null) {
+			this.binaryLookupFile = this.lookupTableRepository.getBinaryFile(path + filename);
+		} else {
+			this.binaryLookupFile = MappedLookupFile.open(path + filename);
+		}
 	}
 
 	public void setFunctionalAddress(int functionalAddress) {
@@ -95,18 +500,163 @@ public class EcuConfig {
 		this.physicalAddress = physicalAddress;
 	}
 
-	public void setUdsLookupTable(LookupTable udsLookupTable) {
+	public synchronized void setUdsLookupTable(LookupTable udsLookupTable) {
 		this.udsLookupTable = udsLookupTable;
+		this.udsLookupTableShared = false;
+		this.udsLookupTableCopy = null;
 	}
 
 	public int getMaxByteArraySizeLookup() {
 		return maxByteArraySizeLookup;
 	}
 
+	/**
+	 * Returns the number of bytes of a request which will be used for the
+	 * lookup.
+	 * 
+	 * @param requestLength The length of the request
+	 * @return The length of the request if maxByteArraySizeLookup is 0,
+	 *         otherwise the length limited to maxByteArraySizeLookup
+	 */
+	public int getLookupLength(int requestLength) {
+		if (this.maxByteArraySizeLookup <= 0) {
+			return requestLength;
+		}
+		return Math.min(requestLength, this.maxByteArraySizeLookup);
+	}
+
 	public void setMaxByteArraySizeLookup(int maxByteArraySizeLookup) {
 		this.maxByteArraySizeLookup = maxByteArraySizeLookup;
 	}
 
+	public int getRequestQueueSize() {
+		return requestQueueSize;
+	}
+
+	public void setRequestQueueSize(int requestQueueSize) {
+		this.requestQueueSize = requestQueueSize;
+	}
+
+	public QueueOverflowPolicy getRequestQueueOverflowPolicy() {
+		return requestQueueOverflowPolicy;
+	}
+
+	public void setRequestQueueOverflowPolicy(QueueOverflowPolicy requestQueueOverflowPolicy) {
+		this.requestQueueOverflowPolicy = requestQueueOverflowPolicy;
+	}
+
+	public int getRequestQueueTimeout() {
+		return requestQueueTimeout;
+	}
+
+	public void setRequestQueueTimeout(int requestQueueTimeout) {
+		this.requestQueueTimeout = requestQueueTimeout;
+	}
+
+	public boolean isRequestLanePerTester() {
+		return requestLanePerTester;
+	}
+
+	public void setRequestLanePerTester(boolean requestLanePerTester) {
+		this.requestLanePerTester = requestLanePerTester;
+	}
+
+	public int getRequestLaneThreads() {
+		return requestLaneThreads;
+	}
+
+	public void setRequestLaneThreads(int requestLaneThreads) {
+		this.requestLaneThreads = requestLaneThreads;
+	}
+
+	public LinkedList<ResponseDelay> getResponseDelays() {
+		return responseDelays;
+	}
+
+	public void setResponseDelays(LinkedList<ResponseDelay> responseDelays) {
+		this.responseDelays = responseDelays;
+	}
+
+	public int getResponsePendingInterval() {
+		return responsePendingInterval;
+	}
+
+	public void setResponsePendingInterval(int responsePendingInterval) {
+		this.responsePendingInterval = responsePendingInterval;
+	}
+
+	public LatencyModel getLatencyP2() {
+		return latencyP2;
+	}
+
+	public void setLatencyP2(LatencyModel latencyP2) {
+		this.latencyP2 = latencyP2;
+	}
+
+	public LatencyModel getLatencyP2Star() {
+		return latencyP2Star;
+	}
+
+	public void setLatencyP2Star(LatencyModel latencyP2Star) {
+		this.latencyP2Star = latencyP2Star;
+	}
+
+	public int getLookupCacheSize() {
+		return lookupCacheSize;
+	}
+
+	public void setLookupCacheSize(int lookupCacheSize) {
+		this.lookupCacheSize = lookupCacheSize;
+	}
+
+	public LookupTableRepository getLookupTableRepository() {
+		return lookupTableRepository;
+	}
+
+	public void setLookupTableRepository(LookupTableRepository lookupTableRepository) {
+		this.lookupTableRepository = lookupTableRepository;
+	}
+
+	public MappedLookupFile getBinaryLookupFile() {
+		return binaryLookupFile;
+	}
+
+	public void setBinaryLookupFile(MappedLookupFile binaryLookupFile) {
+		this.binaryLookupFile = binaryLookupFile;
+	}
+
+	public DidStore getDidStore() {
+		return didStore;
+	}
+
+	public void setDidStore(DidStore didStore) {
+		this.didStore = didStore;
+	}
+
+	public ResponseTemplateTable getResponseTemplates() {
+		return responseTemplates;
+	}
+
+	public void setResponseTemplates(ResponseTemplateTable responseTemplates) {
+		this.responseTemplates = responseTemplates;
+	}
+
+	public boolean isLookupStatistics() {
+		return lookupStatistics;
+	}
+
+	public void setLookupStatistics(boolean lookupStatistics) {
+		this.lookupStatistics = lookupStatistics;
+	}
+
+	public boolean isUdsReloadWatch() {
+		return udsReloadWatch;
+	}
+
+	public void setUdsReloadWatch(boolean udsReloadWatch) {
+		this.udsReloadWatch = udsReloadWatch;
+	}
+
 	public int getMaxByteArraySizeLogging() {
 		return maxByteArraySizeLogging;
 	}
@@ -0,0 +1,186 @@
+package doip.simulation;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A bounded pool of worker threads which can be shared by many ECUs. When an
+ * ECU has been assigned to a worker pool it does not create an own thread.
+ * Instead every new request will be processed as a task in this pool. The
+ * number of threads stays the same, no matter how many ECUs are using the
+ * pool, unless it will be changed by setNumberOfThreads(int).
+ */
+public class EcuWorkerPool {
+
+	private static Logger logger = LogManager.getLogger(EcuWorkerPool.class);
+
+	/**
+	 * Name of the pool, it will be used as prefix for the thread names
+	 */
+	private String name = null;
+
+	/**
+	 * Number of worker threads
+	 */
+	private volatile int numberOfThreads = 0;
+
+	/**
+	 * Thread mode which will be used to create the worker threads
+	 */
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	/**
+	 * The executor which contains the worker threads. It is null when the pool
+	 * is not running.
+	 */
+	private volatile ThreadPoolExecutor executor = null;
+
+	/**
+	 * Counter which will be used to create the thread names
+	 */
+	private AtomicInteger threadCounter = new AtomicInteger(0);
+
+	/**
+	 * Constructor
+	 *
+	 * @param name            Name of the pool, will be used for the thread
+	 *                        names
+	 * @param numberOfThreads Number of worker threads, must be greater than 0
+	 */
+	public EcuWorkerPool(String name, int numberOfThreads) {
+		this(name, numberOfThreads, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name            Name of the pool, will be used for the thread
+	 *                        names
+	 * @param numberOfThreads Number of worker threads, must be greater than 0
+	 * @param threadMode      Thread mode which will be used to create the
+	 *                        worker threads
+	 */
+	public EcuWorkerPool(String name, int numberOfThreads, ThreadMode threadMode) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads in the ECU worker pool must be greater than 0");
+		}
+		this.name = name;
+		this.numberOfThreads = numberOfThreads;
+		this.threadMode = threadMode;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumberOfThreads() {
+		return numberOfThreads;
+	}
+
+	public ThreadMode getThreadMode() {
+		return threadMode;
+	}
+
+	/**
+	 * Changes the number of worker threads. If the pool is running, additional
+	 * threads will be created when tasks are waiting, surplus threads will
+	 * terminate after they have finished their current task.
+	 *
+	 * @param numberOfThreads Number of worker threads, must be greater than 0
+	 */
+	public synchronized void setNumberOfThreads(int numberOfThreads) {
+		String method = "public synchronized void setNumberOfThreads(int numberOfThreads)";
+		logger.trace(">>> {}", method);
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of threads in the ECU worker pool must be greater than 0");
+		}
+		if (numberOfThreads != this.numberOfThreads) {
+			logger.debug("Change number of threads in ECU worker pool '{}' from {} to {}", this.name,
+					this.numberOfThreads, numberOfThreads);
+			this.numberOfThreads = numberOfThreads;
+			ThreadPoolExecutor executor = this.executor;
+			if (executor != null) {
+				// The core pool size must never be greater than the maximum pool size
+				if (numberOfThreads > executor.getMaximumPoolSize()) {
+					executor.setMaximumPoolSize(numberOfThreads);
+					executor.setCorePoolSize(numberOfThreads);
+				} else {
+					executor.setCorePoolSize(numberOfThreads);
+					executor.setMaximumPoolSize(numberOfThreads);
+				}
+			}
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	public boolean isRunning() {
+		return this.executor != null;
+	}
+
+	/**
+	 * Starts the worker threads. If the pool is already running nothing
+	 * will be done.
+	 */
+	public synchronized void start() {
+		String method = "public synchronized void start()";
+		logger.trace(">>> {}", method);
+		if (this.executor == null) {
+			logger.debug("Start ECU worker pool '{}' with {} threads", this.name, this.numberOfThreads);
+			this.executor = new ThreadPoolExecutor(this.numberOfThreads, this.numberOfThreads, 0L,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> this.threadMode
+							.newThread(runnable, this.name + "-" + this.threadCounter.incrementAndGet()));
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Stops the worker threads. Tasks which are currently executed will be
+	 * finished, tasks which are waiting for execution will be discarded.
+	 */
+	public synchronized void stop() {
+		String method = "public synchronized void stop()";
+		logger.trace(">>> {}", method);
+		ThreadPoolExecutor executor = this.executor;
+		this.executor = null;
+		if (executor != null) {
+			logger.debug("Stop ECU worker pool '{}'", this.name);
+			executor.shutdownNow();
+			try {
+				if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+					logger.warn("Worker threads of ECU worker pool '{}' did not terminate", this.name);
+				}
+			} catch (InterruptedException e) {
+				logger.error("Waiting for termination of ECU worker pool '{}' has been interrupted", this.name);
+			}
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Executes a task in one of the worker threads.
+	 *
+	 * @param task The task which shall be executed
+	 * @return Returns true if the task has been accepted. Returns false if the
+	 *         pool is not running.
+	 */
+	public boolean execute(Runnable task) {
+		ThreadPoolExecutor executor = this.executor;
+		if (executor == null) {
+			logger.error("ECU worker pool '{}' is not running, task will be discarded", this.name);
+			return false;
+		}
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			logger.error("ECU worker pool '{}' has been stopped, task will be discarded", this.name);
+			return false;
+		}
+	}
+}
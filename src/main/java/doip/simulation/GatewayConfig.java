@@ -42,6 +42,109 @@ public class GatewayConfig {
 	private int initialInactivityTime = 2000;
 	private int generalInactivityTime = 300000;
 	
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+	
+	private TcpTransport tcpTransport = TcpTransport.THREAD;
+	
+	private int tcpWriteCoalesceTime = 0;
+	
+	/**
+	 * Maximum number of messages in the outbound queue of a TCP connection.
+	 * The value 0 means that the messages will be written directly by the
+	 * thread which sends them (TCP transport "thread") or that the queue is
+	 * unbounded (TCP transport "nio").
+	 */
+	private int tcpOutboundQueueSize = 0;
+	
+	private OutboundOverflowPolicy tcpOutboundQueueOverflowPolicy = OutboundOverflowPolicy.BLOCK;
+	
+	/**
+	 * Maximum time in milliseconds to wait for space in the outbound queue
+	 * if the overflow policy is BLOCK
+	 */
+	private int tcpOutboundQueueTimeout = 1000;
+	
+	/**
+	 * Maximum time in milliseconds to wait for alive check responses. The
+	 * alive check will finish earlier if all connections have answered.
+	 */
+	private int tcpAliveCheckTimeout = 500;
+	
+	public ThreadMode getThreadMode() {
+		return threadMode;
+	}
+
+	/**
+	 * Sets the kind of threads which will be created for the ECUs, the
+	 * TCP connections and the inactivity timers of this gateway.
+	 * 
+	 * @param threadMode The thread mode
+	 */
+	public void setThreadMode(ThreadMode threadMode) {
+		this.threadMode = threadMode;
+	}
+	
+	public TcpTransport getTcpTransport() {
+		return tcpTransport;
+	}
+
+	/**
+	 * Sets how the TCP connections of this gateway will be handled.
+	 * 
+	 * @param tcpTransport The TCP transport
+	 */
+	public void setTcpTransport(TcpTransport tcpTransport) {
+		this.tcpTransport = tcpTransport;
+	}
+	
+	public int getTcpWriteCoalesceTime() {
+		return tcpWriteCoalesceTime;
+	}
+
+	/**
+	 * Sets the time for which a diagnostic message positive acknowledgement
+	 * will be held back to send it together with the response of the ECU.
+	 * Only used by the TCP transport "nio".
+	 * 
+	 * @param tcpWriteCoalesceTime Time in microseconds, 0 means that the
+	 *                             acknowledgement will be sent immediately
+	 */
+	public void setTcpWriteCoalesceTime(int tcpWriteCoalesceTime) {
+		this.tcpWriteCoalesceTime = tcpWriteCoalesceTime;
+	}
+	
+	public int getTcpOutboundQueueSize() {
+		return tcpOutboundQueueSize;
+	}
+
+	public void setTcpOutboundQueueSize(int tcpOutboundQueueSize) {
+		this.tcpOutboundQueueSize = tcpOutboundQueueSize;
+	}
+
+	public OutboundOverflowPolicy getTcpOutboundQueueOverflowPolicy() {
+		return tcpOutboundQueueOverflowPolicy;
+	}
+
+	public void setTcpOutboundQueueOverflowPolicy(OutboundOverflowPolicy tcpOutboundQueueOverflowPolicy) {
+		this.tcpOutboundQueueOverflowPolicy = tcpOutboundQueueOverflowPolicy;
+	}
+
+	public int getTcpOutboundQueueTimeout() {
+		return tcpOutboundQueueTimeout;
+	}
+
+	public void setTcpOutboundQueueTimeout(int tcpOutboundQueueTimeout) {
+		this.tcpOutboundQueueTimeout = tcpOutboundQueueTimeout;
+	}
+
+	public int getTcpAliveCheckTimeout() {
+		return tcpAliveCheckTimeout;
+	}
+
+	public void setTcpAliveCheckTimeout(int tcpAliveCheckTimeout) {
+		this.tcpAliveCheckTimeout = tcpAliveCheckTimeout;
+	}
+	
 	public int getInitialInactivityTime() {
 		return initialInactivityTime;
 	}
@@ -163,12 +266,33 @@ public class GatewayConfig {
 			this.udpFiles = file.getOptionalPropertyAsString("udp.files");
 			this.tcpFiles = file.getOptionalPropertyAsString("tcp.files");
 			this.maxByteArraySizeLogging = file.getMandatoryPropertyAsInt("maxByteArraySize.logging");
-			this.maxByteArraySizeLookup = file.getMandatoryPropertyAsInt("maxByteArraySize.lookup");
+			this.maxByteArraySizeLookup = file.getOptionalPropertyAsInt("maxByteArraySize.lookup", 0);
 			this.maxNumberOfRegisterdConnections = file.getOptionalPropertyAsInt("maxNumberOfRegisteredConnections", 255);
 			
 			this.initialInactivityTime = file.getOptionalPropertyAsInt("T_TCP_Initial_Inactivity", 2000); // 2 seconds
 			this.generalInactivityTime = file.getOptionalPropertyAsInt("T_TCP_General_Inactivity", 300000); // 5 Minutes
 			
+			// If not defined the thread mode keeps its current value, which
+			// might have been set by the platform configuration before
+			String threadMode = file.getOptionalPropertyAsString("thread.mode");
+			if (threadMode != null) {
+				this.threadMode = ThreadMode.fromString(threadMode);
+			}
+			
+			// Same for the TCP transport
+			String tcpTransport = file.getOptionalPropertyAsString("tcp.transport");
+			if (tcpTransport != null) {
+				this.tcpTransport = TcpTransport.fromString(tcpTransport);
+			}
+			this.tcpWriteCoalesceTime = file.getOptionalPropertyAsInt("tcp.write.coalesceTime", 0);
+			this.tcpOutboundQueueSize = file.getOptionalPropertyAsInt("tcp.outbound.queue.size", 0);
+			String outboundOverflow = file.getOptionalPropertyAsString("tcp.outbound.queue.overflow");
+			if (outboundOverflow != null) {
+				this.tcpOutboundQueueOverflowPolicy = OutboundOverflowPolicy.fromString(outboundOverflow);
+			}
+			this.tcpOutboundQueueTimeout = file.getOptionalPropertyAsInt("tcp.outbound.queue.timeout", 1000);
+			this.tcpAliveCheckTimeout = file.getOptionalPropertyAsInt("tcp.aliveCheck.timeout", 500);
+			
 			this.eid = file.getMandatoryPropertyAsByteArray("eid");
 			this.gid = file.getMandatoryPropertyAsByteArray("gid");
 			this.vin = file.getMandatoryPropertyAsByteArray("vin.hex");
@@ -0,0 +1,134 @@
+package doip.simulation;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Statistical model for the response time of an ECU. The following
+ * distributions are supported:
+ * <ul>
+ * <li>"fixed:&lt;ms&gt;": Always the same time.</li>
+ * <li>"uniform:&lt;min&gt;:&lt;max&gt;": Uniformly distributed between min and
+ * max.</li>
+ * <li>"lognormal:&lt;median&gt;:&lt;sigma&gt;": Log-normal distribution with
+ * the given median in milliseconds and the standard deviation sigma of the
+ * underlying normal distribution. It produces the long tail which can be
+ * observed at real ECUs.</li>
+ * </ul>
+ */
+public class LatencyModel {
+
+	public enum Distribution {
+		FIXED, UNIFORM, LOGNORMAL
+	}
+
+	private Distribution distribution = Distribution.FIXED;
+
+	/**
+	 * Fixed time, minimum or median, depending on the distribution
+	 */
+	private double param1 = 0;
+
+	/**
+	 * Maximum or sigma, depending on the distribution
+	 */
+	private double param2 = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param distribution The distribution
+	 * @param param1       Fixed time, minimum or median in milliseconds
+	 * @param param2       Maximum in milliseconds or sigma, not used for a
+	 *                     fixed time
+	 */
+	public LatencyModel(Distribution distribution, double param1, double param2) {
+		if (!isValidParameter(param1) || !isValidParameter(param2)) {
+			throw new IllegalArgumentException("The parameters of a latency model must be finite and must not be negative");
+		}
+		if (distribution == Distribution.UNIFORM && param2 < param1) {
+			throw new IllegalArgumentException("The maximum of a uniform latency model must not be less than the minimum");
+		}
+		this.distribution = distribution;
+		this.param1 = param1;
+		this.param2 = param2;
+	}
+
+	private static boolean isValidParameter(double param) {
+		// Also false for NaN
+		return param >= 0 && !Double.isInfinite(param);
+	}
+
+	public Distribution getDistribution() {
+		return distribution;
+	}
+
+	public double getParam1() {
+		return param1;
+	}
+
+	public double getParam2() {
+		return param2;
+	}
+
+	/**
+	 * Returns a new random response time.
+	 *
+	 * @return The response time in milliseconds
+	 */
+	public int nextDelay() {
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		double delay = 0;
+		switch (this.distribution) {
+		case FIXED:
+			delay = this.param1;
+			break;
+		case UNIFORM:
+			delay = this.param1 + random.nextDouble() * (this.param2 - this.param1);
+			break;
+		case LOGNORMAL:
+			if (this.param1 > 0) {
+				delay = Math.exp(Math.log(this.param1) + this.param2 * random.nextGaussian());
+			}
+			break;
+		}
+		return (int) Math.min(Math.round(delay), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a latency model from the value of a property, e.g.
+	 * "uniform:10:50".
+	 *
+	 * @param value The value of the property
+	 * @return The latency model
+	 * @throws IllegalArgumentException if the value is not a valid latency
+	 *                                  model
+	 */
+	public static LatencyModel fromString(String value) {
+		String[] parts = value.trim().split(":");
+		try {
+			Distribution distribution = Distribution.valueOf(parts[0].trim().toUpperCase());
+			int expectedParts = distribution == Distribution.FIXED ? 2 : 3;
+			if (parts.length == expectedParts) {
+				double param1 = Double.parseDouble(parts[1].trim());
+				double param2 = expectedParts == 3 ? Double.parseDouble(parts[2].trim()) : 0;
+				return new LatencyModel(distribution, param1, param2);
+			}
+		} catch (IllegalArgumentException e) {
+			// Error message will be created below
+		}
+		throw new IllegalArgumentException("The value '" + value
+				+ "' is not a valid latency model, expected 'fixed:<ms>', 'uniform:<min>:<max>' or 'lognormal:<median>:<sigma>'");
+	}
+
+	@Override
+	public String toString() {
+		switch (this.distribution) {
+		case FIXED:
+			return "fixed:" + this.param1;
+		case UNIFORM:
+			return "uniform:" + this.param1 + ":" + this.param2;
+		default:
+			return "lognormal:" + this.param1 + ":" + this.param2;
+		}
+	}
+}
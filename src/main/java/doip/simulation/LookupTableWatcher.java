@@ -0,0 +1,225 @@
+package doip.simulation;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.util.Helper;
+
+/**
+ * Watches the lookup files of ECUs and reloads the lookup table of an ECU
+ * when one of its files has been changed. Editors and build tools often
+ * write a file in several steps, so the watcher waits until no further
+ * change of a watched file has been reported for a short time before it
+ * reloads the tables. Changes of other files in the same directories don't
+ * delay the reload. Every ECU will be reloaded only once for a group of
+ * changes. If the file system lost events, all ECUs will be reloaded.
+ * <p>
+ * Binary lookup files are mapped into memory, so they must be replaced by
+ * renaming a new file and never be changed in place (the UdsCompiler does
+ * that). A new binary file which is truncated or corrupt will be rejected
+ * and the ECU keeps its current table.
+ */
+public class LookupTableWatcher implements Runnable {
+
+	private static Logger logger = LogManager.getLogger(LookupTableWatcher.class);
+
+	/**
+	 * Name of the thread
+	 */
+	private String name = null;
+
+	/**
+	 * Time in milliseconds without further changes after which the lookup
+	 * tables will be reloaded
+	 */
+	private int settleTime = 200;
+
+	/**
+	 * The ECUs which will be reloaded when a file has been changed, the key
+	 * is the absolute path of the file
+	 */
+	private ConcurrentHashMap<Path, List<EcuBase>> ecusByFile = new ConcurrentHashMap<Path, List<EcuBase>>();
+
+	/**
+	 * The directories which contain the watched files
+	 */
+	private Set<Path> directories = new HashSet<Path>();
+
+	private WatchService watchService = null;
+
+	private volatile Thread thread = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name Name of the thread
+	 */
+	public LookupTableWatcher(String name) {
+		this.name = name;
+	}
+
+	public int getSettleTime() {
+		return settleTime;
+	}
+
+	public void setSettleTime(int settleTime) {
+		this.settleTime = settleTime;
+	}
+
+	/**
+	 * Adds an ECU whose lookup files shall be watched. Must be called before
+	 * the watcher will be started.
+	 *
+	 * @param ecu The ECU
+	 */
+	public synchronized void addEcu(EcuBase ecu) {
+		for (String file : ecu.getConfig().getLookupFiles()) {
+			Path path = Paths.get(file).toAbsolutePath().normalize();
+			this.ecusByFile.computeIfAbsent(path, p -> new CopyOnWriteArrayList<EcuBase>()).add(ecu);
+			this.directories.add(path.getParent());
+		}
+	}
+
+	/**
+	 * Returns true if at least one file will be watched
+	 */
+	public synchronized boolean hasFiles() {
+		return !this.ecusByFile.isEmpty();
+	}
+
+	/**
+	 * Starts watching the files. If the watcher is already running nothing
+	 * will be done.
+	 *
+	 * @throws IOException If the directories could not be watched
+	 */
+	public synchronized void start() throws IOException {
+		String method = "public synchronized void start()";
+		logger.trace(">>> {}", method);
+		if (this.thread == null) {
+			this.watchService = FileSystems.getDefault().newWatchService();
+			for (Path directory : this.directories) {
+				logger.debug("Watch lookup files in directory '{}'", directory);
+				directory.register(this.watchService,
+						StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+			}
+			this.thread = new Thread(this, this.name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Stops watching the files.
+	 */
+	public synchronized void stop() {
+		String method = "public synchronized void stop()";
+		logger.trace(">>> {}", method);
+		Thread thread = this.thread;
+		this.thread = null;
+		if (thread != null) {
+			try {
+				this.watchService.close();
+			} catch (IOException e) {
+				logger.error(Helper.getExceptionAsString(e));
+			}
+			try {
+				thread.join(5000);
+			} catch (InterruptedException e) {
+				logger.error("Waiting for termination of lookup table watcher '{}' has been interrupted", this.name);
+			}
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	@Override
+	public void run() {
+		Thread current = Thread.currentThread();
+		Set<EcuBase> changed = new LinkedHashSet<EcuBase>();
+		long deadline = 0;
+		try {
+			while (this.thread == current) {
+				// Block until the first change, then collect further changes
+				// until the watched files did not change for the settle time.
+				WatchKey key = null;
+				if (changed.isEmpty()) {
+					key = this.watchService.take();
+				} else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining > 0) {
+						key = this.watchService.poll(remaining, TimeUnit.NANOSECONDS);
+					}
+				}
+				if (key == null) {
+					this.reload(changed);
+					changed.clear();
+					continue;
+				}
+				Path directory = (Path) key.watchable();
+				boolean watchedFileChanged = false;
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// It is unknown which files have been changed
+						logger.warn("Changes in directory '{}' have been lost, all lookup tables will be reloaded", directory);
+						for (List<EcuBase> ecus : this.ecusByFile.values()) {
+							changed.addAll(ecus);
+						}
+						watchedFileChanged = true;
+						continue;
+					}
+					Path file = directory.resolve((Path) event.context());
+					List<EcuBase> ecus = this.ecusByFile.get(file);
+					if (ecus != null) {
+						logger.debug("Lookup file '{}' has been changed", file);
+						changed.addAll(ecus);
+						watchedFileChanged = true;
+					}
+				}
+				key.reset();
+				if (watchedFileChanged) {
+					deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.settleTime);
+				}
+			}
+		} catch (InterruptedException e) {
+			logger.error("Lookup table watcher '{}' has been interrupted", this.name);
+		} catch (ClosedWatchServiceException e) {
+			// The watcher has been stopped
+		}
+	}
+
+	/**
+	 * Reloads the lookup tables of the given ECUs. If the files of an ECU
+	 * could not be loaded the ECU keeps its current lookup table.
+	 *
+	 * @param ecus The ECUs
+	 */
+	private void reload(Set<EcuBase> ecus) {
+		for (EcuBase ecu : ecus) {
+			try {
+				ecu.reloadLookupTable();
+			} catch (IOException | RuntimeException e) {
+				logger.error("Failed to reload lookup table of ECU '{}', the current lookup table will still be used", ecu.getName());
+				logger.error(Helper.getExceptionAsString(e));
+			}
+		}
+	}
+}
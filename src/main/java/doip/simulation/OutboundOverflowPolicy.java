@@ -0,0 +1,35 @@
+package doip.simulation;
+
+/**
+ * Defines what a TCP connection does with a new outgoing message when its
+ * outbound queue is full, e.g. because the tester does not read its
+ * messages fast enough.
+ * <ul>
+ * <li>BLOCK: The caller will be blocked until there is space in the queue
+ * or until the configured timeout expired. If the timeout expired the
+ * message will be discarded.</li>
+ * <li>DROP: The message will be discarded and counted.</li>
+ * <li>CLOSE: The connection will be closed.</li>
+ * </ul>
+ */
+public enum OutboundOverflowPolicy {
+
+	BLOCK, DROP, CLOSE;
+
+	/**
+	 * Converts the value of a property to a policy. Allowed values are
+	 * "block", "drop" and "close", the case will be ignored.
+	 *
+	 * @param value The value of the property
+	 * @return The policy
+	 * @throws IllegalArgumentException if the value is not a valid policy
+	 */
+	public static OutboundOverflowPolicy fromString(String value) {
+		for (OutboundOverflowPolicy policy : values()) {
+			if (policy.name().equalsIgnoreCase(value.trim())) {
+				return policy;
+			}
+		}
+		throw new IllegalArgumentException("The value '" + value + "' is not a valid outbound overflow policy");
+	}
+}
@@ -28,6 +28,31 @@ public class PlatformConfig {
 
 	List<GatewayConfig> gatewayConfigList = new ArrayList<GatewayConfig>();
 
+	// Number of threads in the worker pool which will be shared by all
+	// ECUs of this platform, property name = "ecu.workerThreads".
+	// The value 0 means that every ECU has its own thread.
+	private int ecuWorkerThreads = 0;
+
+	// Kind of threads which will be used by all gateways of this platform,
+	// property name = "thread.mode". A gateway can override it in its own
+	// property file.
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	// Transport for the TCP connections of all gateways of this platform,
+	// property name = "tcp.transport". A gateway can override it in its own
+	// property file.
+	private TcpTransport tcpTransport = TcpTransport.THREAD;
+
+	// Number of event loops which will be shared by all gateways of this
+	// platform which use the TCP transport "nio", property name =
+	// "tcp.nio.threads".
+	private int tcpNioThreads = 1;
+
+	// Number of responses in the lookup cache which will be shared by all
+	// ECUs of this platform, property name = "lookup.cache.size".
+	// The value 0 means that there is no shared cache.
+	private int lookupCacheSize = 0;
+
 	public String getName() {
 		return name;
 	}
@@ -36,6 +61,46 @@ public class PlatformConfig {
 		this.name = name;
 	}
 	
+	public int getEcuWorkerThreads() {
+		return ecuWorkerThreads;
+	}
+
+	public void setEcuWorkerThreads(int ecuWorkerThreads) {
+		this.ecuWorkerThreads = ecuWorkerThreads;
+	}
+
+	public int getLookupCacheSize() {
+		return lookupCacheSize;
+	}
+
+	public void setLookupCacheSize(int lookupCacheSize) {
+		this.lookupCacheSize = lookupCacheSize;
+	}
+
+	public ThreadMode getThreadMode() {
+		return threadMode;
+	}
+
+	public void setThreadMode(ThreadMode threadMode) {
+		this.threadMode = threadMode;
+	}
+
+	public TcpTransport getTcpTransport() {
+		return tcpTransport;
+	}
+
+	public void setTcpTransport(TcpTransport tcpTransport) {
+		this.tcpTransport = tcpTransport;
+	}
+
+	public int getTcpNioThreads() {
+		return tcpNioThreads;
+	}
+
+	public void setTcpNioThreads(int tcpNioThreads) {
+		this.tcpNioThreads = tcpNioThreads;
+	}
+
 	public void addGatewayConfig(GatewayConfig config) {
 		synchronized (gatewayConfigList) {
 			this.gatewayConfigList.add(config);
@@ -59,6 +124,17 @@ public class PlatformConfig {
 			this.name = file.getMandatoryPropertyAsString("name");
 			logger.debug("Reading platform with name \"{}\"", this.getName());
 			this.gatewayFiles = file.getMandatoryPropertyAsString("gateway.files");
+			this.ecuWorkerThreads = file.getOptionalPropertyAsInt("ecu.workerThreads", 0);
+			this.lookupCacheSize = file.getOptionalPropertyAsInt("lookup.cache.size", 0);
+			String threadMode = file.getOptionalPropertyAsString("thread.mode");
+			if (threadMode != null) {
+				this.threadMode = ThreadMode.fromString(threadMode);
+			}
+			String tcpTransport = file.getOptionalPropertyAsString("tcp.transport");
+			if (tcpTransport != null) {
+				this.tcpTransport = TcpTransport.fromString(tcpTransport);
+			}
+			this.tcpNioThreads = file.getOptionalPropertyAsInt("tcp.nio.threads", 1);
 			String path = Helper.getPathOfFile(filename);
 			loadGatewayConfigs(path, gatewayFiles);
 		} catch (IOException e) {
@@ -80,6 +156,8 @@ public class PlatformConfig {
 			for (int i = 0; i < files.length; i++) {
 				String filenameWithPath = path + files[i];
 				GatewayConfig config = new GatewayConfig();
+				config.setThreadMode(this.threadMode);
+				config.setTcpTransport(this.tcpTransport);
 				config.loadFromFile(filenameWithPath);
 				this.gatewayConfigList.add(config);
 			}
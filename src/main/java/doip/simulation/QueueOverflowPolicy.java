@@ -0,0 +1,41 @@
+package doip.simulation;
+
+/**
+ * Defines what an ECU does with a new request when its request queue is
+ * full.
+ * <ul>
+ * <li>BUSY_REPEAT_REQUEST: The ECU sends back a negative response with
+ * NRC 0x21 (busy repeat request).</li>
+ * <li>DROP: The request will be discarded, no response will be sent.</li>
+ * <li>BLOCK: The gateway stops reading from the connection of the tester
+ * until there is space in the queue or until the configured timeout
+ * expired. If the timeout expired the ECU sends back a negative response
+ * with NRC 0x21. The waiting happens in
+ * EcuBase.putRequestAndWait(...), the function putRequest(...) never
+ * blocks and sends the negative response immediately.</li>
+ * </ul>
+ */
+public enum QueueOverflowPolicy {
+
+	BUSY_REPEAT_REQUEST, DROP, BLOCK;
+
+	/**
+	 * Converts the value of a property to a policy. Allowed values are
+	 * "busy", "drop" and "block", the case will be ignored.
+	 *
+	 * @param value The value of the property
+	 * @return The policy
+	 * @throws IllegalArgumentException if the value is not a valid policy
+	 */
+	public static QueueOverflowPolicy fromString(String value) {
+		String trimmed = value.trim();
+		if (trimmed.equalsIgnoreCase("busy") || trimmed.equalsIgnoreCase(BUSY_REPEAT_REQUEST.name())) {
+			return BUSY_REPEAT_REQUEST;
+		} else if (trimmed.equalsIgnoreCase(DROP.name())) {
+			return DROP;
+		} else if (trimmed.equalsIgnoreCase(BLOCK.name())) {
+			return BLOCK;
+		}
+		throw new IllegalArgumentException("The value '" + value + "' is not a valid queue overflow policy");
+	}
+}
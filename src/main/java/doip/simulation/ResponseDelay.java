@@ -0,0 +1,57 @@
+package doip.simulation;
+
+/**
+ * Defines the delay of the response for all requests which start with
+ * a given sequence of bytes. With a prefix of one byte it defines the delay
+ * for a whole service, with a longer prefix the delay for a single entry of
+ * the lookup table, e.g. a single routine.
+ */
+public class ResponseDelay {
+
+	/**
+	 * The bytes with which the request must start
+	 */
+	private byte[] requestPrefix = null;
+
+	/**
+	 * The delay of the response in milliseconds
+	 */
+	private int delay = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param requestPrefix The bytes with which the request must start
+	 * @param delay         The delay of the response in milliseconds
+	 */
+	public ResponseDelay(byte[] requestPrefix, int delay) {
+		this.requestPrefix = requestPrefix;
+		this.delay = delay;
+	}
+
+	public byte[] getRequestPrefix() {
+		return requestPrefix;
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
+	/**
+	 * Returns true if the request starts with the prefix of this delay.
+	 *
+	 * @param request The request message
+	 * @return True if the request matches
+	 */
+	public boolean matches(byte[] request) {
+		if (request.length < this.requestPrefix.length) {
+			return false;
+		}
+		for (int i = 0; i < this.requestPrefix.length; i++) {
+			if (request[i] != this.requestPrefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,328 @@
+package doip.simulation;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.util.Helper;
+
+/**
+ * Executes tasks of ECUs after a delay, e.g. sending a delayed response or
+ * a response pending message (NRC 0x78). All tasks are executed by one
+ * timer thread, so a delayed response does not block a thread while it is
+ * waiting. The tasks must be short and must not block.
+ * <p>
+ * The tasks are stored in a hashed timer wheel. Scheduling and expiring a
+ * task costs constant time, no matter how many tasks are pending, so many
+ * thousand pending responses can be handled. The resolution is one tick
+ * (default 1 ms). If no task is pending the timer thread does not tick.
+ */
+public class ResponseScheduler implements Runnable {
+
+	private static Logger logger = LogManager.getLogger(ResponseScheduler.class);
+
+	/**
+	 * Number of buckets of the wheel, must be a power of two
+	 */
+	private static final int WHEEL_SIZE = 512;
+
+	/**
+	 * Name of the scheduler, it will be used as name for the timer thread
+	 */
+	private String name = null;
+
+	/**
+	 * Duration of one tick in nanoseconds
+	 */
+	private long tickNanos = 1000000L;
+
+	/**
+	 * Defines which kind of thread will be created for the timer thread
+	 */
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	/**
+	 * Tasks which have been scheduled but not been put into the wheel. They
+	 * will be put into the wheel by the timer thread.
+	 */
+	private ConcurrentLinkedQueue<ScheduledTask> newTasks = new ConcurrentLinkedQueue<ScheduledTask>();
+
+	/**
+	 * The buckets of the wheel. Will only be accessed by the timer thread.
+	 */
+	private ArrayDeque<ScheduledTask>[] wheel = null;
+
+	/**
+	 * Number of tasks in the wheel. Will only be accessed by the timer
+	 * thread.
+	 */
+	private int numberOfTasks = 0;
+
+	/**
+	 * Point in time (System.nanoTime()) when the timer thread has been
+	 * started, tick 0 starts at this time
+	 */
+	private long startTime = 0;
+
+	/**
+	 * The current tick. Will only be accessed by the timer thread.
+	 */
+	private long tick = 0;
+
+	/**
+	 * Flag if the timer thread is waiting without timeout because there are
+	 * no tasks
+	 */
+	private volatile boolean isIdle = false;
+
+	/**
+	 * The timer thread. It is null when the scheduler is not running.
+	 */
+	private volatile Thread thread = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name Name of the scheduler, will be used for the thread name
+	 */
+	public ResponseScheduler(String name) {
+		this(name, 1);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name       Name of the scheduler, will be used for the thread
+	 *                   name
+	 * @param tickMillis Duration of one tick in milliseconds, must be
+	 *                   greater than 0
+	 */
+	public ResponseScheduler(String name, int tickMillis) {
+		this(name, tickMillis, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name       Name of the scheduler, will be used for the thread
+	 *                   name
+	 * @param tickMillis Duration of one tick in milliseconds, must be
+	 *                   greater than 0
+	 * @param threadMode Kind of thread which will be created for the timer
+	 *                   thread
+	 */
+	@SuppressWarnings("unchecked")
+	public ResponseScheduler(String name, int tickMillis, ThreadMode threadMode) {
+		if (tickMillis < 1) {
+			throw new IllegalArgumentException("The tick of the response scheduler must be greater than 0");
+		}
+		this.name = name;
+		this.tickNanos = tickMillis * 1000000L;
+		this.threadMode = threadMode;
+		this.wheel = new ArrayDeque[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			this.wheel[i] = new ArrayDeque<ScheduledTask>();
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isRunning() {
+		return this.thread != null;
+	}
+
+	/**
+	 * Starts the timer thread. If the scheduler is already running nothing
+	 * will be done.
+	 */
+	public synchronized void start() {
+		String method = "public synchronized void start()";
+		logger.trace(">>> {}", method);
+		if (this.thread == null) {
+			logger.debug("Start response scheduler '{}'", this.name);
+			this.startTime = System.nanoTime();
+			this.tick = 0;
+			this.thread = this.threadMode.newThread(this, this.name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Stops the timer thread. Tasks which have not been executed yet will be
+	 * discarded.
+	 */
+	public synchronized void stop() {
+		String method = "public synchronized void stop()";
+		logger.trace(">>> {}", method);
+		Thread thread = this.thread;
+		this.thread = null;
+		if (thread != null) {
+			logger.debug("Stop response scheduler '{}'", this.name);
+			LockSupport.unpark(thread);
+			try {
+				thread.join(5000);
+				if (thread.isAlive()) {
+					logger.warn("Thread of response scheduler '{}' did not terminate", this.name);
+				}
+			} catch (InterruptedException e) {
+				logger.error("Waiting for termination of response scheduler '{}' has been interrupted", this.name);
+			}
+			this.newTasks.clear();
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Executes a task after the given delay.
+	 *
+	 * @param task        The task which shall be executed
+	 * @param delayMillis The delay in milliseconds
+	 * @return Returns true if the task has been scheduled. Returns false if
+	 *         the scheduler is not running.
+	 */
+	public boolean schedule(Runnable task, long delayMillis) {
+		Thread thread = this.thread;
+		if (thread == null) {
+			logger.error("Response scheduler '{}' is not running, task will be discarded", this.name);
+			return false;
+		}
+		long deadline = System.nanoTime() + Math.max(delayMillis, 0) * 1000000L;
+		this.newTasks.add(new ScheduledTask(task, deadline));
+		if (this.isIdle) {
+			LockSupport.unpark(thread);
+		}
+		return true;
+	}
+
+	@Override
+	public void run() {
+		logger.trace(">>> public void run()");
+		Thread current = Thread.currentThread();
+		while (this.thread == current) {
+			if (this.numberOfTasks == 0) {
+				this.waitForNewTasks(current);
+				if (this.thread != current) {
+					break;
+				}
+				// The wheel is empty, so the ticks which passed while
+				// waiting can be skipped.
+				this.tick = Math.max(this.tick, (System.nanoTime() - this.startTime) / this.tickNanos);
+			} else {
+				this.waitForNextTick(current);
+			}
+			this.transferNewTasks();
+			this.expireTasks();
+			this.tick++;
+		}
+		this.clearWheel();
+		logger.trace("<<< public void run()");
+	}
+
+	/**
+	 * Waits without timeout until a new task will be scheduled or until the
+	 * scheduler will be stopped.
+	 */
+	private void waitForNewTasks(Thread current) {
+		this.isIdle = true;
+		// Check again after setting the flag, otherwise the signal of a new
+		// task could be missed.
+		while (this.newTasks.isEmpty() && this.thread == current) {
+			LockSupport.park(this);
+		}
+		this.isIdle = false;
+	}
+
+	/**
+	 * Waits until the current tick is over
+	 */
+	private void waitForNextTick(Thread current) {
+		long deadline = this.startTime + (this.tick + 1) * this.tickNanos;
+		long remaining = deadline - System.nanoTime();
+		while (remaining > 0 && this.thread == current) {
+			LockSupport.parkNanos(this, remaining);
+			remaining = deadline - System.nanoTime();
+		}
+	}
+
+	/**
+	 * Moves the new tasks into the buckets of the wheel
+	 */
+	private void transferNewTasks() {
+		ScheduledTask task = this.newTasks.poll();
+		while (task != null) {
+			long ticks = (task.deadline - this.startTime + this.tickNanos - 1) / this.tickNanos;
+			if (ticks < this.tick) {
+				ticks = this.tick;
+			}
+			task.rounds = (ticks - this.tick) / WHEEL_SIZE;
+			this.wheel[(int) (ticks & (WHEEL_SIZE - 1))].add(task);
+			this.numberOfTasks++;
+			task = this.newTasks.poll();
+		}
+	}
+
+	/**
+	 * Executes the tasks of the current bucket which are due
+	 */
+	private void expireTasks() {
+		ArrayDeque<ScheduledTask> bucket = this.wheel[(int) (this.tick & (WHEEL_SIZE - 1))];
+		Iterator<ScheduledTask> iter = bucket.iterator();
+		while (iter.hasNext()) {
+			ScheduledTask task = iter.next();
+			if (task.rounds > 0) {
+				task.rounds--;
+				continue;
+			}
+			iter.remove();
+			this.numberOfTasks--;
+			try {
+				task.task.run();
+			} catch (RuntimeException e) {
+				logger.error("Unexpected exception in task of response scheduler '{}'", this.name);
+				logger.error(Helper.getExceptionAsString(e));
+			}
+		}
+	}
+
+	/**
+	 * Discards all tasks in the wheel
+	 */
+	private void clearWheel() {
+		for (ArrayDeque<ScheduledTask> bucket : this.wheel) {
+			bucket.clear();
+		}
+		this.numberOfTasks = 0;
+	}
+
+	/**
+	 * A task in the wheel
+	 */
+	private static class ScheduledTask {
+
+		private Runnable task = null;
+
+		/**
+		 * Point in time (System.nanoTime()) when the task shall be executed
+		 */
+		private long deadline = 0;
+
+		/**
+		 * Number of remaining rounds of the wheel until the task will be
+		 * executed
+		 */
+		private long rounds = 0;
+
+		private ScheduledTask(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package doip.simulation;
+
+/**
+ * Defines how a gateway handles its TCP connections.
+ * <ul>
+ * <li>THREAD: Every TCP connection has its own receiver thread and its own
+ * inactivity timer thread, the server socket has its own accept thread.</li>
+ * <li>NIO: All TCP connections are handled by a small fixed group of event
+ * loops based on java.nio selectors. The number of connections is not
+ * bound to the number of threads.</li>
+ * </ul>
+ */
+public enum TcpTransport {
+
+	THREAD, NIO;
+
+	/**
+	 * Converts the value of a property to a TCP transport. Allowed values
+	 * are "thread" and "nio", the case will be ignored.
+	 *
+	 * @param value The value of the property
+	 * @return The TCP transport
+	 * @throws IllegalArgumentException if the value is not a valid TCP
+	 *                                  transport
+	 */
+	public static TcpTransport fromString(String value) {
+		for (TcpTransport transport : values()) {
+			if (transport.name().equalsIgnoreCase(value.trim())) {
+				return transport;
+			}
+		}
+		throw new IllegalArgumentException("The value '" + value + "' is not a valid TCP transport");
+	}
+}
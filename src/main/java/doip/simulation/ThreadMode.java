@@ -0,0 +1,102 @@
+package doip.simulation;
+
+import java.lang.reflect.Method;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Defines which kind of threads will be created by the simulation for ECUs
+ * and TCP connections.
+ * <ul>
+ * <li>PLATFORM: Every thread is a normal platform thread.</li>
+ * <li>VIRTUAL: Every thread is a virtual thread. Virtual threads are
+ * available since Java 21. If the Java runtime does not support virtual
+ * threads, platform threads will be created instead.</li>
+ * </ul>
+ */
+public enum ThreadMode {
+
+	PLATFORM, VIRTUAL;
+
+	private static Logger logger = LogManager.getLogger(ThreadMode.class);
+
+	/**
+	 * Method Thread.ofVirtual(), it is null if the Java runtime does not
+	 * support virtual threads.
+	 */
+	private static Method ofVirtual = null;
+
+	/**
+	 * Method Thread.Builder.name(String)
+	 */
+	private static Method builderName = null;
+
+	/**
+	 * Method Thread.Builder.unstarted(Runnable)
+	 */
+	private static Method builderUnstarted = null;
+
+	static {
+		// Virtual threads will be created by reflection, so the simulation
+		// can also be compiled and used with older Java versions.
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builderName = builderClass.getMethod("name", String.class);
+			builderUnstarted = builderClass.getMethod("unstarted", Runnable.class);
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+		} catch (ClassNotFoundException | NoSuchMethodException e) {
+			ofVirtual = null;
+		}
+	}
+
+	/**
+	 * Returns true if the Java runtime supports virtual threads.
+	 *
+	 * @return True if virtual threads are supported.
+	 */
+	public static boolean isVirtualThreadSupported() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * Creates a new thread which has not been started yet.
+	 *
+	 * @param runnable The runnable which shall be executed by the thread
+	 * @param name     The name of the thread
+	 * @return The new thread
+	 */
+	public Thread newThread(Runnable runnable, String name) {
+		if (this == VIRTUAL && ofVirtual != null) {
+			try {
+				Object builder = ofVirtual.invoke(null);
+				builder = builderName.invoke(builder, name);
+				return (Thread) builderUnstarted.invoke(builder, runnable);
+			} catch (ReflectiveOperationException e) {
+				logger.error("Failed to create virtual thread '{}', will create a platform thread instead", name);
+			}
+		}
+		return new Thread(runnable, name);
+	}
+
+	/**
+	 * Converts the value of a property to a thread mode. The comparison
+	 * ignores the case.
+	 *
+	 * @param value The value of the property, e.g. "virtual"
+	 * @return The thread mode
+	 * @throws IllegalArgumentException if the value is not a valid thread
+	 *                                  mode
+	 */
+	public static ThreadMode fromString(String value) {
+		for (ThreadMode mode : values()) {
+			if (mode.name().equalsIgnoreCase(value.trim())) {
+				if (mode == VIRTUAL && !isVirtualThreadSupported()) {
+					logger.warn("Virtual threads are not supported by this Java runtime, platform threads will be used instead");
+				}
+				return mode;
+			}
+		}
+		throw new IllegalArgumentException("The value '" + value + "' is not a valid thread mode");
+	}
+}
@@ -0,0 +1,231 @@
+package doip.simulation.lookup;
+
+/**
+ * A request pattern of the lookup table which has been compiled from the
+ * regular expression into a sequence of bytes. A regular expression can be
+ * compiled if it only consists of
+ * <ul>
+ * <li>hex digits 0-9 and A-F (upper case),</li>
+ * <li>"\w" or "." for any hex digit, optionally followed by a quantifier
+ * "{n}",</li>
+ * <li>".*" at the end of the expression.</li>
+ * </ul>
+ * Hex digits must be combined to complete bytes, a byte can either be a
+ * literal or a wildcard. All other expressions can not be compiled, they
+ * will be evaluated as regular expressions.
+ */
+public class BytePattern {
+
+	/**
+	 * Value of a byte in the pattern which matches any byte
+	 */
+	public static final int ANY = -1;
+
+	/**
+	 * The bytes of the pattern. Each element contains the value of the byte
+	 * (0 to 255) or ANY.
+	 */
+	private int[] bytes = null;
+
+	/**
+	 * True if the pattern ends with ".*", then the request can contain any
+	 * further bytes after the pattern.
+	 */
+	private boolean anySuffix = false;
+
+	BytePattern(int[] bytes, boolean anySuffix) {
+		this.bytes = bytes;
+		this.anySuffix = anySuffix;
+	}
+
+	public int[] getBytes() {
+		return bytes;
+	}
+
+	public boolean isAnySuffix() {
+		return anySuffix;
+	}
+
+	/**
+	 * Returns the pattern as regular expression, a wildcard byte will be
+	 * written as "..".
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(this.bytes.length * 2 + 2);
+		for (int value : this.bytes) {
+			if (value == ANY) {
+				sb.append("..");
+			} else {
+				sb.append(String.format("%02X", value));
+			}
+		}
+		if (this.anySuffix) {
+			sb.append(".*");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns true if the first bytes of the data match this pattern.
+	 *
+	 * @param data   The data
+	 * @param length Number of bytes which will be checked
+	 * @return True if the pattern matches
+	 */
+	public boolean matches(byte[] data, int length) {
+		if (length < this.bytes.length || (!this.anySuffix && length != this.bytes.length)) {
+			return false;
+		}
+		for (int i = 0; i < this.bytes.length; i++) {
+			if (this.bytes[i] != ANY && this.bytes[i] != (data[i] & 0xFF)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the literal bytes at the beginning of a regular expression
+	 * which can not be compiled. Every request which matches the regular
+	 * expression starts with these bytes, so the regular expression only
+	 * needs to be checked for requests with this prefix. An alternation
+	 * inside a group does not end the prefix before the group, e.g. the
+	 * prefix of "22F1(8C|90)" is 22 F1.
+	 *
+	 * @param regex The regular expression
+	 * @return The literal prefix, it is empty if the regular expression does
+	 *         not start with a literal byte or if it contains an alternation
+	 *         outside of any group
+	 */
+	public static byte[] literalPrefix(String regex) {
+		if (hasTopLevelAlternation(regex)) {
+			// An alternative could start with a different byte
+			return new byte[0];
+		}
+		int digits = 0;
+		while (digits < regex.length() && isHexDigit(regex.charAt(digits))) {
+			digits++;
+		}
+		if (digits < regex.length() && digits > 0) {
+			char next = regex.charAt(digits);
+			if (next == '?' || next == '*' || next == '+' || next == '{') {
+				// The quantifier belongs to the last digit
+				digits--;
+			}
+		}
+		byte[] prefix = new byte[digits / 2];
+		for (int i = 0; i < prefix.length; i++) {
+			prefix[i] = (byte) Integer.parseInt(regex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return prefix;
+	}
+
+	/**
+	 * Returns true if the regular expression contains an alternation "|"
+	 * which is not inside a group. Such an alternation splits the whole
+	 * expression, so the alternatives can start with different bytes.
+	 * Escaped characters and character classes will be skipped.
+	 *
+	 * @param regex The regular expression
+	 * @return True if there is an alternation outside of any group
+	 */
+	static boolean hasTopLevelAlternation(String regex) {
+		int depth = 0;
+		boolean inClass = false;
+		for (int i = 0; i < regex.length(); i++) {
+			char c = regex.charAt(i);
+			if (c == '\\') {
+				i++;
+			} else if (inClass) {
+				if (c == ']') {
+					inClass = false;
+				}
+			} else if (c == '[') {
+				inClass = true;
+			} else if (c == '(') {
+				depth++;
+			} else if (c == ')') {
+				depth = Math.max(depth - 1, 0);
+			} else if (c == '|' && depth == 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isHexDigit(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'A' && c <= 'F');
+	}
+
+	/**
+	 * Compiles a regular expression of the lookup table.
+	 *
+	 * @param regex The regular expression
+	 * @return The compiled pattern or null if the expression can not be
+	 *         compiled to a byte pattern
+	 */
+	public static BytePattern compile(String regex) {
+		// Each element is a hex digit (0 to 15) or ANY
+		int[] nibbles = new int[regex.length()];
+		int count = 0;
+		boolean anySuffix = false;
+		int pos = 0;
+		while (pos < regex.length()) {
+			char c = regex.charAt(pos);
+			if (regex.startsWith(".*", pos) && pos + 2 == regex.length()) {
+				anySuffix = true;
+				break;
+			}
+			if (c >= '0' && c <= '9') {
+				nibbles[count++] = c - '0';
+				pos++;
+			} else if (c >= 'A' && c <= 'F') {
+				nibbles[count++] = c - 'A' + 10;
+				pos++;
+			} else if (c == '.' || regex.startsWith("\\w", pos)) {
+				pos += (c == '.') ? 1 : 2;
+				int repeat = 1;
+				if (pos < regex.length() && regex.charAt(pos) == '{') {
+					int end = regex.indexOf('}', pos);
+					if (end < 0) {
+						return null;
+					}
+					try {
+						repeat = Integer.parseInt(regex.substring(pos + 1, end));
+					} catch (NumberFormatException e) {
+						return null;
+					}
+					pos = end + 1;
+				}
+				if (count + repeat > nibbles.length) {
+					int[] larger = new int[count + repeat + regex.length()];
+					System.arraycopy(nibbles, 0, larger, 0, count);
+					nibbles = larger;
+				}
+				for (int i = 0; i < repeat; i++) {
+					nibbles[count++] = ANY;
+				}
+			} else {
+				return null;
+			}
+		}
+		if (count % 2 != 0) {
+			return null;
+		}
+		int[] bytes = new int[count / 2];
+		for (int i = 0; i < bytes.length; i++) {
+			int high = nibbles[2 * i];
+			int low = nibbles[2 * i + 1];
+			if (high == ANY && low == ANY) {
+				bytes[i] = ANY;
+			} else if (high != ANY && low != ANY) {
+				bytes[i] = (high << 4) | low;
+			} else {
+				// Half a byte is a wildcard
+				return null;
+			}
+		}
+		return new BytePattern(bytes, anySuffix);
+	}
+}
@@ -0,0 +1,229 @@
+package doip.simulation.lookup;
+
+import java.util.Arrays;
+
+/**
+ * A node of the byte trie which contains the compiled patterns of a lookup
+ * table. Each edge is either a literal byte or a wildcard which matches any
+ * byte. The node stores the lowest index of the lookup entries whose
+ * pattern ends in this node.
+ * <p>
+ * Because nearly all patterns start with a literal service ID, the children
+ * of the root work as an index by service ID, and the following levels as
+ * an index by data identifier or routine identifier. So the cost of a lookup
+ * depends on the length of the request and not on the size of the table.
+ * <p>
+ * Entries which could not be compiled to a byte pattern are stored at the
+ * node of their literal prefix, e.g. the regular expression "22F1(8C|90)"
+ * will be stored at the node for 22 F1. Only these entries need to be
+ * checked for a request which starts with 22 F1.
+ */
+class ByteTrieNode {
+
+	/**
+	 * Value for entry indices if no entry ends in this node
+	 */
+	static final int NO_ENTRY = Integer.MAX_VALUE;
+
+	/**
+	 * Maximum number of literal children which are stored in the sparse
+	 * arrays. If a node gets more children it switches to a table with 256
+	 * elements.
+	 */
+	private static final int MAX_SPARSE_CHILDREN = 16;
+
+	/**
+	 * Values of the literal children if the node has a few children
+	 */
+	private byte[] sparseKeys = null;
+
+	/**
+	 * Literal children if the node has a few children, the value of the
+	 * byte is stored at the same position in "sparseKeys"
+	 */
+	private ByteTrieNode[] sparseChildren = null;
+
+	/**
+	 * Number of children in the sparse arrays
+	 */
+	private int numberOfSparseChildren = 0;
+
+	/**
+	 * Literal children if the node has many children, the index is the value
+	 * of the byte. It is null as long as the sparse arrays are used.
+	 */
+	private ByteTrieNode[] denseChildren = null;
+
+	/**
+	 * Child for the wildcard byte
+	 */
+	private ByteTrieNode wildcard = null;
+
+	/**
+	 * Lowest index of the entries whose pattern ends exactly in this node
+	 */
+	private int exactEntry = NO_ENTRY;
+
+	/**
+	 * Lowest index of the entries whose pattern ends in this node followed
+	 * by ".*"
+	 */
+	private int suffixEntry = NO_ENTRY;
+
+	/**
+	 * Lowest index of all entries in this node and its children. It is used
+	 * to skip parts of the trie which can not contain a better match.
+	 */
+	private int minEntry = NO_ENTRY;
+
+	/**
+	 * Indices of the entries which will be evaluated as regular expression
+	 * and whose literal prefix ends in this node, sorted ascending
+	 */
+	private int[] regexEntries = null;
+
+	/**
+	 * Adds a pattern to the trie.
+	 *
+	 * @param pattern The pattern
+	 * @param index   The index of the lookup entry
+	 */
+	void add(BytePattern pattern, int index) {
+		ByteTrieNode node = this;
+		node.minEntry = Math.min(node.minEntry, index);
+		for (int value : pattern.getBytes()) {
+			node = node.getOrCreateChild(value);
+			node.minEntry = Math.min(node.minEntry, index);
+		}
+		if (pattern.isAnySuffix()) {
+			node.suffixEntry = Math.min(node.suffixEntry, index);
+		} else {
+			node.exactEntry = Math.min(node.exactEntry, index);
+		}
+	}
+
+	/**
+	 * Adds an entry which will be evaluated as regular expression. Entries
+	 * must be added in ascending order of their index.
+	 *
+	 * @param prefix The literal prefix of the regular expression
+	 * @param index  The index of the lookup entry
+	 */
+	void addRegexEntry(byte[] prefix, int index) {
+		ByteTrieNode node = this;
+		for (byte value : prefix) {
+			node = node.getOrCreateChild(value & 0xFF);
+		}
+		if (node.regexEntries == null) {
+			node.regexEntries = new int[] { index };
+		} else {
+			node.regexEntries = Arrays.copyOf(node.regexEntries, node.regexEntries.length + 1);
+			node.regexEntries[node.regexEntries.length - 1] = index;
+		}
+	}
+
+	private ByteTrieNode getChild(int value) {
+		if (this.denseChildren != null) {
+			return this.denseChildren[value];
+		}
+		for (int i = 0; i < this.numberOfSparseChildren; i++) {
+			if ((this.sparseKeys[i] & 0xFF) == value) {
+				return this.sparseChildren[i];
+			}
+		}
+		return null;
+	}
+
+	private ByteTrieNode getOrCreateChild(int value) {
+		if (value == BytePattern.ANY) {
+			if (this.wildcard == null) {
+				this.wildcard = new ByteTrieNode();
+			}
+			return this.wildcard;
+		}
+		ByteTrieNode child = this.getChild(value);
+		if (child != null) {
+			return child;
+		}
+		child = new ByteTrieNode();
+		if (this.denseChildren != null) {
+			this.denseChildren[value] = child;
+		} else if (this.numberOfSparseChildren < MAX_SPARSE_CHILDREN) {
+			if (this.sparseKeys == null) {
+				this.sparseKeys = new byte[4];
+				this.sparseChildren = new ByteTrieNode[4];
+			} else if (this.numberOfSparseChildren == this.sparseKeys.length) {
+				this.sparseKeys = Arrays.copyOf(this.sparseKeys, this.sparseKeys.length * 2);
+				this.sparseChildren = Arrays.copyOf(this.sparseChildren, this.sparseChildren.length * 2);
+			}
+			this.sparseKeys[this.numberOfSparseChildren] = (byte) value;
+			this.sparseChildren[this.numberOfSparseChildren] = child;
+			this.numberOfSparseChildren++;
+		} else {
+			this.denseChildren = new ByteTrieNode[256];
+			for (int i = 0; i < this.numberOfSparseChildren; i++) {
+				this.denseChildren[this.sparseKeys[i] & 0xFF] = this.sparseChildren[i];
+			}
+			this.denseChildren[value] = child;
+			this.sparseKeys = null;
+			this.sparseChildren = null;
+			this.numberOfSparseChildren = 0;
+		}
+		return child;
+	}
+
+	/**
+	 * Finds the lowest index of all entries whose pattern matches the data.
+	 *
+	 * @param data   The data
+	 * @param offset Position in the data which belongs to this node
+	 * @param length Number of bytes of the data which will be checked
+	 * @param best   Lowest index which has been found so far, only entries
+	 *               with a lower index will be searched
+	 * @return The lowest index or NO_ENTRY if no pattern matches
+	 */
+	int find(byte[] data, int offset, int length, int best) {
+		if (this.minEntry >= best) {
+			return best;
+		}
+		if (this.suffixEntry < best) {
+			best = this.suffixEntry;
+		}
+		if (offset == length) {
+			return Math.min(best, this.exactEntry);
+		}
+		ByteTrieNode child = this.getChild(data[offset] & 0xFF);
+		if (child != null) {
+			best = child.find(data, offset + 1, length, best);
+		}
+		if (this.wildcard != null) {
+			best = this.wildcard.find(data, offset + 1, length, best);
+		}
+		return best;
+	}
+
+	/**
+	 * Collects the entries which will be evaluated as regular expression and
+	 * whose literal prefix matches the data.
+	 *
+	 * @param data      The data
+	 * @param length    Number of bytes of the data which will be checked
+	 * @param collector Receives the arrays with the indices of the entries
+	 * @return Number of arrays which have been stored in the collector
+	 */
+	int collectRegexEntries(byte[] data, int length, int[][] collector) {
+		int count = 0;
+		ByteTrieNode node = this;
+		int offset = 0;
+		while (node != null) {
+			if (node.regexEntries != null) {
+				collector[count++] = node.regexEntries;
+			}
+			if (offset == length) {
+				break;
+			}
+			node = node.getChild(data[offset++] & 0xFF);
+		}
+		return count;
+	}
+}
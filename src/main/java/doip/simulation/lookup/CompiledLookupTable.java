@@ -0,0 +1,229 @@
+package doip.simulation.lookup;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+import doip.simulation.lookup.LookupIndex.CompiledModifier;
+
+/**
+ * A lookup table which has been compiled at load time for fast matching of
+ * raw UDS messages. The request patterns which can be expressed as bytes
+ * (see {@link BytePattern}) will be stored in a byte trie, so a request can
+ * be matched without converting it to a hex string and without running
+ * regular expressions. Only the remaining patterns will be evaluated as
+ * precompiled regular expressions on the hex string of the request, and
+ * only if their literal prefix matches the request. The trie is indexed by
+ * the bytes of the request (service ID, data identifier, ...), so the cost
+ * of a lookup does not grow with the size of the table.
+ * <p>
+ * The result is the same as with LookupTable.findResultAndApplyModifiers():
+ * The first entry in the table which matches wins, and the modifiers of
+ * this entry replace the results of the entries with the same regular
+ * expression. The modified results are stored in this table, the original
+ * lookup table will not be changed.
+ * <p>
+ * The compiled patterns are immutable and can be shared by many tables
+ * (see {@link LookupTableRepository}), only the results which have been
+ * changed by modifiers belong to this table.
+ */
+public class CompiledLookupTable {
+
+	/**
+	 * The lookup table from which this table has been compiled, null if it
+	 * has been created from a binary lookup file
+	 */
+	private LookupTable source = null;
+
+	/**
+	 * The compiled patterns, they can be shared with other tables
+	 */
+	private LookupIndex index = null;
+
+	/**
+	 * Results which have been changed by modifiers, the key is the index of
+	 * the entry. All other entries have their initial result.
+	 */
+	private ConcurrentHashMap<Integer, byte[]> modifiedResults = new ConcurrentHashMap<Integer, byte[]>();
+
+	/**
+	 * Constructor, compiles the given lookup table.
+	 *
+	 * @param source The lookup table which shall be compiled
+	 */
+	public CompiledLookupTable(LookupTable source) {
+		this(source, new LookupIndex(new ArrayList<LookupEntry>(source.getLookupEntries())));
+	}
+
+	/**
+	 * Constructor which uses an index which has already been compiled.
+	 *
+	 * @param source The lookup table
+	 * @param index  The compiled entries of the lookup table
+	 */
+	CompiledLookupTable(LookupTable source, LookupIndex index) {
+		this.source = source;
+		this.index = index;
+	}
+
+	/**
+	 * Constructor, creates the table from a binary lookup file.
+	 *
+	 * @param file The binary lookup file
+	 */
+	public CompiledLookupTable(MappedLookupFile file) {
+		this(null, new LookupIndex(file));
+	}
+
+	/**
+	 * Returns the lookup table from which this table has been compiled. Its
+	 * entries may be shared with other ECUs, they must not be changed.
+	 *
+	 * @return The lookup table or null if this table has been created from
+	 *         a binary lookup file
+	 */
+	public LookupTable getSource() {
+		return source;
+	}
+
+	public int getNumberOfEntries() {
+		return this.index.getNumberOfEntries();
+	}
+
+	/**
+	 * Returns the request pattern of an entry as regular expression.
+	 *
+	 * @param index Index of the entry
+	 * @return The pattern
+	 */
+	public String getPattern(int index) {
+		return this.index.getPattern(index);
+	}
+
+	LookupIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Returns true if this table has been compiled from the given lookup
+	 * table and the lookup table did not get new entries since then.
+	 *
+	 * @param table The lookup table
+	 * @return True if this table is up to date
+	 */
+	public boolean isCompiledFrom(LookupTable table) {
+		return this.source == table && this.index.getNumberOfEntries() == table.getLookupEntries().size();
+	}
+
+	/**
+	 * Returns true if this table has been created from the given binary
+	 * lookup file.
+	 *
+	 * @param file The binary lookup file
+	 * @return True if this table is up to date
+	 */
+	public boolean isCompiledFrom(MappedLookupFile file) {
+		return this.source == null && this.index.getFile() == file;
+	}
+
+	/**
+	 * Finds the first entry which matches the request, applies its
+	 * modifiers and returns its result.
+	 *
+	 * @param request The request
+	 * @param length  Number of bytes of the request which will be used for
+	 *                the lookup
+	 * @return The result of the matching entry or null if no entry matches
+	 */
+	public byte[] findResultAndApplyModifiers(byte[] request, int length) {
+		return this.findResultAndApplyModifiers(request, length, null);
+	}
+
+	/**
+	 * Finds the first entry which matches the request, applies its
+	 * modifiers and returns its result. The cache will be checked first,
+	 * results which can not change will be stored in the cache.
+	 *
+	 * @param request The request
+	 * @param length  Number of bytes of the request which will be used for
+	 *                the lookup
+	 * @param cache   The cache or null if no cache shall be used
+	 * @return The result of the matching entry or null if no entry matches
+	 */
+	public byte[] findResultAndApplyModifiers(byte[] request, int length, LookupCache cache) {
+		return this.findResultAndApplyModifiers(request, length, cache, null);
+	}
+
+	/**
+	 * Finds the first entry which matches the request, applies its
+	 * modifiers and returns its result. The hit and the time for finding
+	 * the entry will be recorded in the statistics.
+	 *
+	 * @param request    The request
+	 * @param length     Number of bytes of the request which will be used
+	 *                   for the lookup
+	 * @param cache      The cache or null if no cache shall be used
+	 * @param statistics The statistics for this table or null if nothing
+	 *                   shall be recorded
+	 * @return The result of the matching entry or null if no entry matches
+	 */
+	public byte[] findResultAndApplyModifiers(byte[] request, int length, LookupCache cache,
+			LookupStatistics statistics) {
+		long start = statistics != null ? System.nanoTime() : 0;
+		if (cache != null) {
+			LookupCache.CachedResponse cached = cache.lookup(this, request, length);
+			if (cached != null) {
+				if (statistics != null && cached.entry != ByteTrieNode.NO_ENTRY) {
+					statistics.recordMatch(cached.entry, System.nanoTime() - start);
+				}
+				return cached.response;
+			}
+		}
+		int entry = this.index.findEntry(request, length);
+		if (statistics != null) {
+			if (entry == ByteTrieNode.NO_ENTRY) {
+				statistics.recordMiss(System.nanoTime() - start);
+			} else {
+				statistics.recordMatch(entry, System.nanoTime() - start);
+			}
+		}
+		if (entry == ByteTrieNode.NO_ENTRY) {
+			if (cache != null) {
+				cache.onUncacheable();
+			}
+			return null;
+		}
+		byte[] result = null;
+		if (this.index.isModifierTarget(entry)) {
+			result = this.modifiedResults.get(entry);
+		}
+		if (result == null) {
+			result = this.index.getInitialResult(entry);
+		}
+		for (CompiledModifier modifier : this.index.getModifiers(entry)) {
+			for (int target : modifier.getTargets()) {
+				this.modifiedResults.put(target, modifier.getResult());
+			}
+		}
+		if (cache != null) {
+			if (this.index.isCacheable(entry)) {
+				cache.put(this, request, length, entry, result);
+			} else {
+				cache.onUncacheable();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the index of the first entry which matches the request.
+	 *
+	 * @param request The request
+	 * @param length  Number of bytes of the request which will be used
+	 * @return The index or ByteTrieNode.NO_ENTRY if no entry matches
+	 */
+	int findEntry(byte[] request, int length) {
+		return this.index.findEntry(request, length);
+	}
+}
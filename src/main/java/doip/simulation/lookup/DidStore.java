@@ -0,0 +1,268 @@
+package doip.simulation.lookup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import doip.library.util.Conversion;
+
+/**
+ * Store for the data of data identifiers (DIDs). It handles the services
+ * ReadDataByIdentifier (0x22) and WriteDataByIdentifier (0x2E) without
+ * evaluating the lookup table. The DIDs are stored in an open addressing
+ * hash table with primitive int keys, so a DID will be found in constant
+ * time, no matter how many DIDs are stored.
+ * <p>
+ * The data can be read by many threads at the same time without locking.
+ * Changing the data of an existing DID replaces it atomically, adding a new
+ * DID copies the table and replaces it afterwards.
+ * <p>
+ * The files which define the DIDs have the same syntax as the .uds files,
+ * but the left side is the DID and the right side is the data, e.g.
+ * "F1 90 : 57 30 4C 30 30 30 30 34 33 4D 42 35 34 31 33 32 36".
+ */
+public class DidStore {
+
+	/**
+	 * Value of a key in the hash table which is not used
+	 */
+	private static final int EMPTY = -1;
+
+	/**
+	 * Service ID of ReadDataByIdentifier
+	 */
+	public static final int READ_DATA_BY_IDENTIFIER = 0x22;
+
+	/**
+	 * Service ID of WriteDataByIdentifier
+	 */
+	public static final int WRITE_DATA_BY_IDENTIFIER = 0x2E;
+
+	/**
+	 * NRC incorrectMessageLengthOrInvalidFormat
+	 */
+	private static final byte NRC_INCORRECT_LENGTH = 0x13;
+
+	private volatile Table table = new Table(16);
+
+	/**
+	 * Creates an empty store
+	 */
+	public DidStore() {
+	}
+
+	/**
+	 * Creates a store which contains the same data as the given store.
+	 * Changes of one store do not change the other store.
+	 *
+	 * @param other The store which will be copied
+	 */
+	public DidStore(DidStore other) {
+		this.table = other.table.copy(other.table.keys.length);
+	}
+
+	/**
+	 * Returns the number of DIDs in the store
+	 */
+	public int size() {
+		return this.table.size;
+	}
+
+	/**
+	 * Returns the data of a DID.
+	 *
+	 * @param did The DID
+	 * @return The data or null if the DID is not in the store. The array
+	 *         must not be changed.
+	 */
+	public byte[] get(int did) {
+		Table table = this.table;
+		int index = table.indexOf(did);
+		if (index < 0) {
+			return null;
+		}
+		return table.values.get(index);
+	}
+
+	/**
+	 * Adds a DID or replaces its data.
+	 *
+	 * @param did  The DID, a value from 0x0000 to 0xFFFF
+	 * @param data The data, the array must not be changed afterwards
+	 */
+	public synchronized void put(int did, byte[] data) {
+		if (did < 0 || did > 0xFFFF) {
+			throw new IllegalArgumentException("The DID " + did + " is not in the range from 0x0000 to 0xFFFF");
+		}
+		Table table = this.table;
+		int index = table.indexOf(did);
+		if (index >= 0) {
+			table.values.set(index, data);
+			return;
+		}
+		// The table will never be more than half full
+		int capacity = table.keys.length;
+		if ((table.size + 1) * 2 > capacity) {
+			capacity *= 2;
+		}
+		Table newTable = table.copy(capacity);
+		newTable.insert(did, data);
+		this.table = newTable;
+	}
+
+	/**
+	 * Handles a ReadDataByIdentifier request. The request can contain more
+	 * than one DID, the response contains the DIDs in the same order.
+	 *
+	 * @param request The request message
+	 * @return The positive response or null if the request is not a valid
+	 *         ReadDataByIdentifier request or if one of the DIDs is not in
+	 *         the store
+	 */
+	public byte[] readDataByIdentifier(byte[] request) {
+		if (request.length < 3 || (request.length - 1) % 2 != 0
+				|| (request[0] & 0xFF) != READ_DATA_BY_IDENTIFIER) {
+			return null;
+		}
+		Table table = this.table;
+		int numberOfDids = (request.length - 1) / 2;
+		byte[][] data = new byte[numberOfDids][];
+		int responseLength = 1;
+		for (int i = 0; i < numberOfDids; i++) {
+			int did = ((request[1 + i * 2] & 0xFF) << 8) | (request[2 + i * 2] & 0xFF);
+			int index = table.indexOf(did);
+			if (index < 0) {
+				return null;
+			}
+			data[i] = table.values.get(index);
+			responseLength += 2 + data[i].length;
+		}
+		byte[] response = new byte[responseLength];
+		response[0] = READ_DATA_BY_IDENTIFIER + 0x40;
+		int pos = 1;
+		for (int i = 0; i < numberOfDids; i++) {
+			response[pos++] = request[1 + i * 2];
+			response[pos++] = request[2 + i * 2];
+			System.arraycopy(data[i], 0, response, pos, data[i].length);
+			pos += data[i].length;
+		}
+		return response;
+	}
+
+	/**
+	 * Handles a WriteDataByIdentifier request. The new data must have the
+	 * same length as the current data of the DID.
+	 *
+	 * @param request The request message
+	 * @return The positive response, a negative response with NRC 0x13 if
+	 *         the length of the data is wrong, or null if the request is not
+	 *         a WriteDataByIdentifier request or the DID is not in the store
+	 */
+	public byte[] writeDataByIdentifier(byte[] request) {
+		if (request.length < 3 || (request[0] & 0xFF) != WRITE_DATA_BY_IDENTIFIER) {
+			return null;
+		}
+		int did = ((request[1] & 0xFF) << 8) | (request[2] & 0xFF);
+		byte[] current = this.get(did);
+		if (current == null) {
+			return null;
+		}
+		if (request.length - 3 != current.length) {
+			return new byte[] { 0x7F, WRITE_DATA_BY_IDENTIFIER, NRC_INCORRECT_LENGTH };
+		}
+		byte[] data = new byte[current.length];
+		System.arraycopy(request, 3, data, 0, data.length);
+		this.put(did, data);
+		return new byte[] { WRITE_DATA_BY_IDENTIFIER + 0x40, request[1], request[2] };
+	}
+
+	/**
+	 * Adds the DIDs which are defined in a file. Lines which are empty or
+	 * start with '#' will be ignored.
+	 *
+	 * @param filename The name of the file
+	 * @throws IOException If the file could not be read
+	 */
+	public void addFromFile(String filename) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(filename));
+		int lineNumber = 0;
+		for (String line : lines) {
+			lineNumber++;
+			line = line.replaceAll("\\s", "");
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			String[] parts = line.split(":", -1);
+			if (parts.length != 2 || parts[0].length() != 4) {
+				throw new IllegalArgumentException("Line " + lineNumber + " in file '" + filename
+						+ "' is not valid, expected format is '<DID> : <data>'");
+			}
+			this.put(Integer.parseInt(parts[0], 16), Conversion.hexStringToByteArray(parts[1]));
+		}
+	}
+
+	/**
+	 * Hash table with linear probing. The keys will never be changed after
+	 * the table has been published, only the values can be replaced.
+	 */
+	private static class Table {
+
+		private final int[] keys;
+
+		private final AtomicReferenceArray<byte[]> values;
+
+		private int size = 0;
+
+		private Table(int capacity) {
+			this.keys = new int[capacity];
+			this.values = new AtomicReferenceArray<byte[]>(capacity);
+			for (int i = 0; i < capacity; i++) {
+				this.keys[i] = EMPTY;
+			}
+		}
+
+		private int indexOf(int did) {
+			int mask = this.keys.length - 1;
+			int index = hash(did) & mask;
+			while (true) {
+				int key = this.keys[index];
+				if (key == did) {
+					return index;
+				}
+				if (key == EMPTY) {
+					return -1;
+				}
+				index = (index + 1) & mask;
+			}
+		}
+
+		private void insert(int did, byte[] data) {
+			int mask = this.keys.length - 1;
+			int index = hash(did) & mask;
+			while (this.keys[index] != EMPTY) {
+				index = (index + 1) & mask;
+			}
+			this.keys[index] = did;
+			this.values.set(index, data);
+			this.size++;
+		}
+
+		private Table copy(int capacity) {
+			Table table = new Table(capacity);
+			for (int i = 0; i < this.keys.length; i++) {
+				if (this.keys[i] != EMPTY) {
+					table.insert(this.keys[i], this.values.get(i));
+				}
+			}
+			return table;
+		}
+
+		private static int hash(int did) {
+			// DIDs are often consecutive, spread them over the table
+			int hash = did * 0x9E3779B9;
+			return hash ^ (hash >>> 16);
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package doip.simulation.lookup;
+
+/**
+ * A view on bytes as hex string with upper case letters and without spaces,
+ * like the regular expressions of the lookup table expect it. The hex digits
+ * will be computed when they are read, so a regular expression which only
+ * needs the beginning of a long request does not need to convert the whole
+ * request.
+ */
+class HexCharSequence implements CharSequence {
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private byte[] data = null;
+
+	/**
+	 * Index of the first character in the hex string of the data
+	 */
+	private int start = 0;
+
+	/**
+	 * Index behind the last character in the hex string of the data
+	 */
+	private int end = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param data   The data, it will not be copied
+	 * @param length Number of bytes of the data which belong to the view
+	 */
+	HexCharSequence(byte[] data, int length) {
+		this(data, 0, length * 2);
+	}
+
+	private HexCharSequence(byte[] data, int start, int end) {
+		this.data = data;
+		this.start = start;
+		this.end = end;
+	}
+
+	@Override
+	public int length() {
+		return this.end - this.start;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < 0 || index >= this.end - this.start) {
+			throw new IndexOutOfBoundsException("Index " + index + " is out of range");
+		}
+		int position = this.start + index;
+		int value = this.data[position >> 1] & 0xFF;
+		if ((position & 1) == 0) {
+			return HEX_DIGITS[value >> 4];
+		}
+		return HEX_DIGITS[value & 0x0F];
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (start < 0 || end > this.end - this.start || start > end) {
+			throw new IndexOutOfBoundsException("Range " + start + " to " + end + " is out of range");
+		}
+		return new HexCharSequence(this.data, this.start + start, this.start + end);
+	}
+
+	@Override
+	public String toString() {
+		char[] chars = new char[this.end - this.start];
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = this.charAt(i);
+		}
+		return new String(chars);
+	}
+}
@@ -0,0 +1,360 @@
+package doip.simulation.lookup;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache for responses of the lookup table, the key is the request.
+ * If the cache is full the least recently used response will be removed.
+ * The cache can be used by one ECU or it can be shared by many ECUs, because
+ * the key also contains the compiled lookup table.
+ * <p>
+ * A large cache is divided into segments with an own lock and an own LRU
+ * list, the segment of a request is selected by the hash of the key. So
+ * ECUs which share the cache don't wait for each other as long as they
+ * access different segments. The least recently used response will be
+ * removed from the segment which is full, not from the whole cache. Small
+ * caches have only one segment.
+ * <p>
+ * Only responses of entries which have no modifiers and which are not the
+ * target of a modifier will be stored, so a cached response is always the
+ * same as the response of the lookup table. When the lookup table changes
+ * it will be compiled again, and the responses of the old table can be
+ * removed with {@link #invalidate(CompiledLookupTable)}.
+ */
+public class LookupCache {
+
+	/**
+	 * Maximum number of segments
+	 */
+	private static final int MAX_SEGMENTS = 16;
+
+	/**
+	 * Minimum number of responses in one segment. A cache will only be
+	 * divided into segments if each segment can hold at least this number
+	 * of responses, otherwise the LRU order of a segment would be too
+	 * coarse.
+	 */
+	private static final int MIN_SEGMENT_SIZE = 64;
+
+	/**
+	 * Maximum number of responses in the cache
+	 */
+	private int maxEntries = 0;
+
+	/**
+	 * The segments, the number of segments is a power of two
+	 */
+	private Segment[] segments = null;
+
+	/**
+	 * Lookups which have been answered by the cache
+	 */
+	private LongAdder hits = new LongAdder();
+
+	/**
+	 * Lookups which have not been answered by the cache and whose response
+	 * has been stored in the cache
+	 */
+	private LongAdder misses = new LongAdder();
+
+	/**
+	 * Lookups which have not been answered by the cache and whose response
+	 * can never be stored in the cache, because the entry has modifiers,
+	 * is the target of a modifier or no entry matched
+	 */
+	private LongAdder uncacheable = new LongAdder();
+
+	private LongAdder evictions = new LongAdder();
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries Maximum number of responses in the cache, must be
+	 *                   greater than 0
+	 */
+	public LookupCache(int maxEntries) {
+		if (maxEntries < 1) {
+			throw new IllegalArgumentException("The size of the lookup cache must be greater than 0");
+		}
+		this.maxEntries = maxEntries;
+		int numberOfSegments = 1;
+		while (numberOfSegments < MAX_SEGMENTS && maxEntries / (numberOfSegments * 2) >= MIN_SEGMENT_SIZE) {
+			numberOfSegments *= 2;
+		}
+		this.segments = new Segment[numberOfSegments];
+		for (int i = 0; i < numberOfSegments; i++) {
+			// The first segments get the remainder, so the sum of the
+			// segment sizes is exactly maxEntries.
+			int segmentSize = maxEntries / numberOfSegments;
+			if (i < maxEntries % numberOfSegments) {
+				segmentSize++;
+			}
+			this.segments[i] = new Segment(segmentSize);
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public int getNumberOfSegments() {
+		return this.segments.length;
+	}
+
+	private Segment getSegment(CacheKey key) {
+		int hash = key.hash ^ (key.hash >>> 16);
+		return this.segments[hash & (this.segments.length - 1)];
+	}
+
+	/**
+	 * Returns the cached response for a request. A lookup without response
+	 * will be counted as miss when the response will be stored with
+	 * "put(...)".
+	 *
+	 * @param table   The lookup table which created the response
+	 * @param request The request
+	 * @param length  Number of bytes of the request which are used for the
+	 *                lookup
+	 * @return The cached response or null if there is no cached response
+	 */
+	public byte[] get(CompiledLookupTable table, byte[] request, int length) {
+		CachedResponse cached = this.lookup(table, request, length);
+		if (cached == null) {
+			return null;
+		}
+		return cached.response;
+	}
+
+	/**
+	 * Returns the cached response for a request together with the index of
+	 * the entry which created it.
+	 *
+	 * @return The cached response or null if there is no cached response
+	 */
+	CachedResponse lookup(CompiledLookupTable table, byte[] request, int length) {
+		CacheKey key = new CacheKey(table, request, length);
+		Segment segment = this.getSegment(key);
+		CachedResponse cached = null;
+		synchronized (segment) {
+			cached = segment.get(key);
+		}
+		if (cached != null) {
+			this.hits.increment();
+		}
+		return cached;
+	}
+
+	/**
+	 * Will be called after a lookup which has not been answered by the
+	 * cache if the response can not be stored in the cache. These lookups
+	 * are not counted as misses, so the hit ratio only shows how good the
+	 * cache works for the responses which can be cached.
+	 */
+	void onUncacheable() {
+		this.uncacheable.increment();
+	}
+
+	/**
+	 * Stores a response in the cache. It will be counted as miss.
+	 *
+	 * @param table    The lookup table which created the response
+	 * @param request  The request
+	 * @param length   Number of bytes of the request which are used for the
+	 *                 lookup
+	 * @param response The response
+	 */
+	public void put(CompiledLookupTable table, byte[] request, int length, byte[] response) {
+		this.put(table, request, length, ByteTrieNode.NO_ENTRY, response);
+	}
+
+	/**
+	 * Stores a response in the cache together with the index of the entry
+	 * which created it.
+	 */
+	void put(CompiledLookupTable table, byte[] request, int length, int entry, byte[] response) {
+		CacheKey key = new CacheKey(table, Arrays.copyOf(request, length), length);
+		CachedResponse cached = new CachedResponse(entry, response);
+		Segment segment = this.getSegment(key);
+		synchronized (segment) {
+			segment.put(key, cached);
+		}
+		this.misses.increment();
+	}
+
+	/**
+	 * Removes all responses which have been created by the given lookup
+	 * table.
+	 *
+	 * @param table The lookup table
+	 */
+	public void invalidate(CompiledLookupTable table) {
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				Iterator<CacheKey> iter = segment.keySet().iterator();
+				while (iter.hasNext()) {
+					if (iter.next().table == table) {
+						iter.remove();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes all responses and resets the counters.
+	 */
+	public void clear() {
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				segment.clear();
+			}
+		}
+		this.hits.reset();
+		this.misses.reset();
+		this.uncacheable.reset();
+		this.evictions.reset();
+	}
+
+	public int getSize() {
+		int size = 0;
+		for (Segment segment : this.segments) {
+			synchronized (segment) {
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return this.hits.sum();
+	}
+
+	public long getMisses() {
+		return this.misses.sum();
+	}
+
+	public long getUncacheable() {
+		return this.uncacheable.sum();
+	}
+
+	public long getEvictions() {
+		return this.evictions.sum();
+	}
+
+	/**
+	 * Returns the ratio of hits to all lookups whose response can be
+	 * cached, 0 if there was no such lookup. Lookups of responses which can
+	 * not be cached will not be considered.
+	 */
+	public double getHitRatio() {
+		long hits = this.getHits();
+		long total = hits + this.getMisses();
+		if (total == 0) {
+			return 0;
+		}
+		return (double) hits / total;
+	}
+
+	@Override
+	public String toString() {
+		return "LookupCache [size=" + this.getSize() + ", maxEntries=" + this.maxEntries + ", hits=" + this.getHits()
+				+ ", misses=" + this.getMisses() + ", uncacheable=" + this.getUncacheable() + ", evictions="
+				+ this.getEvictions() + "]";
+	}
+
+	/**
+	 * A segment of the cache, it contains the responses in the order of
+	 * their last use. It must only be accessed while holding its lock.
+	 */
+	private class Segment extends LinkedHashMap<CacheKey, CachedResponse> {
+
+		private static final long serialVersionUID = 1L;
+
+		/**
+		 * Maximum number of responses in this segment
+		 */
+		private int maxEntries = 0;
+
+		private Segment(int maxEntries) {
+			super(16, 0.75f, true);
+			this.maxEntries = maxEntries;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<CacheKey, CachedResponse> eldest) {
+			if (size() > this.maxEntries) {
+				LookupCache.this.evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * A cached response and the index of the entry of the lookup table
+	 * which created it
+	 */
+	static class CachedResponse {
+
+		final int entry;
+
+		final byte[] response;
+
+		private CachedResponse(int entry, byte[] response) {
+			this.entry = entry;
+			this.response = response;
+		}
+	}
+
+	/**
+	 * Key of the cache. It compares the content of the request, the array
+	 * can be longer than the length which will be used.
+	 */
+	private static class CacheKey {
+
+		private CompiledLookupTable table = null;
+
+		private byte[] request = null;
+
+		private int length = 0;
+
+		private int hash = 0;
+
+		private CacheKey(CompiledLookupTable table, byte[] request, int length) {
+			this.table = table;
+			this.request = request;
+			this.length = length;
+			int hash = System.identityHashCode(table);
+			for (int i = 0; i < length; i++) {
+				hash = 31 * hash + request[i];
+			}
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof CacheKey)) {
+				return false;
+			}
+			CacheKey other = (CacheKey) obj;
+			if (this.table != other.table || this.length != other.length || this.hash != other.hash) {
+				return false;
+			}
+			for (int i = 0; i < this.length; i++) {
+				if (this.request[i] != other.request[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,383 @@
+package doip.simulation.lookup;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.util.Conversion;
+import doip.library.util.LookupEntry;
+
+/**
+ * The immutable part of a compiled lookup table: the byte trie, the
+ * regular expressions which could not be compiled, the resolved modifiers
+ * and the initial results. It does not change after it has been created,
+ * so it can be shared by all ECUs which use the same lookup entries. The
+ * results which can be changed by modifiers are stored separately in each
+ * CompiledLookupTable.
+ * <p>
+ * The index can be created from lookup entries or from a binary lookup
+ * file. For a binary file only the trie is stored on the heap, the results
+ * will be read from the memory-mapped file when they are needed.
+ */
+class LookupIndex {
+
+	private static Logger logger = LogManager.getLogger(LookupIndex.class);
+
+	/**
+	 * The binary file from which the index has been created, null if it
+	 * has been created from lookup entries
+	 */
+	private MappedLookupFile file = null;
+
+	/**
+	 * Number of entries
+	 */
+	private int numberOfEntries = 0;
+
+	/**
+	 * Root of the trie which contains the byte patterns
+	 */
+	private ByteTrieNode root = new ByteTrieNode();
+
+	/**
+	 * Compiled regular expressions of the entries which could not be
+	 * compiled to a byte pattern, the key is the index of the entry
+	 */
+	private HashMap<Integer, Pattern> regexPatterns = new HashMap<Integer, Pattern>();
+
+	/**
+	 * Regular expressions which end with ".*". They have been compiled
+	 * without the ".*" and only need to match the beginning of the request,
+	 * so the rest of a long request will not be read.
+	 */
+	private BitSet prefixOnlyPatterns = new BitSet();
+
+	/**
+	 * Maximum length of the literal prefixes of the regular expressions
+	 */
+	private int maxRegexPrefixLength = 0;
+
+	/**
+	 * Lowest index of the entries which will be evaluated as regular
+	 * expression. If the trie finds an entry before it, no regular
+	 * expression needs to be checked.
+	 */
+	private int firstRegexEntry = ByteTrieNode.NO_ENTRY;
+
+	/**
+	 * Results of all entries before any modifier has been applied. It is
+	 * null if the index has been created from a binary file.
+	 */
+	private byte[][] initialResults = null;
+
+	/**
+	 * Regular expressions of all entries, they will only be used for
+	 * reports. It is null if the index has been created from a binary file.
+	 */
+	private String[] regexes = null;
+
+	/**
+	 * Modifiers of the entries which have modifiers, the key is the index
+	 * of the entry
+	 */
+	private HashMap<Integer, CompiledModifier[]> modifiers = new HashMap<Integer, CompiledModifier[]>();
+
+	/**
+	 * Entries whose result can be changed by a modifier
+	 */
+	private BitSet modifierTargets = new BitSet();
+
+	private static final CompiledModifier[] NO_MODIFIERS = new CompiledModifier[0];
+
+	/**
+	 * Constructor, compiles the given entries.
+	 *
+	 * @param entries The entries in the order of the lookup table
+	 */
+	LookupIndex(List<LookupEntry> entries) {
+		logger.trace(">>> LookupIndex(List<LookupEntry> entries)");
+		this.numberOfEntries = entries.size();
+		this.initialResults = new byte[this.numberOfEntries][];
+		this.regexes = new String[this.numberOfEntries];
+		for (int i = 0; i < this.numberOfEntries; i++) {
+			LookupEntry entry = entries.get(i);
+			this.regexes[i] = entry.getRegex();
+			BytePattern pattern = BytePattern.compile(entry.getRegex());
+			if (pattern != null) {
+				this.root.add(pattern, i);
+			} else {
+				this.addRegexEntry(entry.getRegex(), i);
+			}
+			this.initialResults[i] = toByteArray(entry.getResult());
+		}
+
+		for (int i = 0; i < this.numberOfEntries; i++) {
+			this.addModifiers(i, compileModifiers(entries.get(i).getModifiers(), entries));
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Compiled lookup table with {} entries, {} entries will be evaluated as regular expression",
+					this.numberOfEntries, this.regexPatterns.size());
+		}
+		logger.trace("<<< LookupIndex(List<LookupEntry> entries)");
+	}
+
+	/**
+	 * Constructor, creates the index from a binary lookup file. The byte
+	 * patterns and modifiers have already been compiled by the
+	 * UdsCompiler, so only the trie needs to be built.
+	 *
+	 * @param file The binary lookup file
+	 */
+	LookupIndex(MappedLookupFile file) {
+		logger.trace(">>> LookupIndex(MappedLookupFile file)");
+		this.file = file;
+		this.numberOfEntries = file.getNumberOfEntries();
+		for (int i = 0; i < this.numberOfEntries; i++) {
+			BytePattern pattern = file.getBytePattern(i);
+			if (pattern != null) {
+				this.root.add(pattern, i);
+			} else {
+				this.addRegexEntry(file.getRegex(i), i);
+			}
+			if (file.getModifierCount(i) > 0) {
+				this.addModifiers(i, file.getModifiers(i));
+			}
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Created index for binary lookup file '{}' with {} entries, {} entries will be evaluated as regular expression",
+					file.getFilename(), this.numberOfEntries, this.regexPatterns.size());
+		}
+		logger.trace("<<< LookupIndex(MappedLookupFile file)");
+	}
+
+	private void addRegexEntry(String regex, int index) {
+		byte[] prefix = BytePattern.literalPrefix(regex);
+		this.root.addRegexEntry(prefix, index);
+		String anchored = stripAnySuffix(regex);
+		if (anchored != null) {
+			this.regexPatterns.put(index, Pattern.compile(anchored));
+			this.prefixOnlyPatterns.set(index);
+		} else {
+			this.regexPatterns.put(index, Pattern.compile(regex));
+		}
+		this.maxRegexPrefixLength = Math.max(this.maxRegexPrefixLength, prefix.length);
+		this.firstRegexEntry = Math.min(this.firstRegexEntry, index);
+	}
+
+	private void addModifiers(int index, CompiledModifier[] modifiers) {
+		if (modifiers.length == 0) {
+			return;
+		}
+		this.modifiers.put(index, modifiers);
+		for (CompiledModifier modifier : modifiers) {
+			for (int target : modifier.getTargets()) {
+				this.modifierTargets.set(target);
+			}
+		}
+	}
+
+	MappedLookupFile getFile() {
+		return file;
+	}
+
+	int getNumberOfEntries() {
+		return this.numberOfEntries;
+	}
+
+	/**
+	 * Returns the request pattern of an entry as regular expression. For a
+	 * binary file the pattern will be read from the file.
+	 */
+	String getPattern(int index) {
+		if (this.file != null) {
+			BytePattern pattern = this.file.getBytePattern(index);
+			if (pattern != null) {
+				return pattern.toString();
+			}
+			return this.file.getRegex(index);
+		}
+		return this.regexes[index];
+	}
+
+	/**
+	 * Returns the result of an entry before any modifier has been applied.
+	 * For a binary file the result will be read from the file.
+	 */
+	byte[] getInitialResult(int index) {
+		if (this.file != null) {
+			return this.file.getResult(index);
+		}
+		return this.initialResults[index];
+	}
+
+	CompiledModifier[] getModifiers(int index) {
+		CompiledModifier[] modifiers = this.modifiers.get(index);
+		if (modifiers == null) {
+			return NO_MODIFIERS;
+		}
+		return modifiers;
+	}
+
+	/**
+	 * Returns true if the result of the entry can be changed by a modifier
+	 */
+	boolean isModifierTarget(int index) {
+		return this.modifierTargets.get(index);
+	}
+
+	/**
+	 * Returns true if the result of an entry can be stored in a lookup
+	 * cache. That is the case if the entry has no modifiers and is not the
+	 * target of a modifier, then its result never changes.
+	 */
+	boolean isCacheable(int index) {
+		return !this.modifierTargets.get(index) && !this.modifiers.containsKey(index);
+	}
+
+	/**
+	 * Returns the index of the first entry which matches the request.
+	 *
+	 * @param request The request
+	 * @param length  Number of bytes of the request which will be used
+	 * @return The index or ByteTrieNode.NO_ENTRY if no entry matches
+	 */
+	int findEntry(byte[] request, int length) {
+		int best = this.root.find(request, 0, length, ByteTrieNode.NO_ENTRY);
+		if (best <= this.firstRegexEntry) {
+			// Also true if there are no regular expressions
+			return best;
+		}
+
+		// Check the regular expressions whose prefix matches in the order
+		// of the table, but only as long as they are before the best match.
+		int[][] lists = new int[Math.min(length, this.maxRegexPrefixLength) + 1][];
+		int numberOfLists = this.root.collectRegexEntries(request, length, lists);
+		if (numberOfLists == 0) {
+			return best;
+		}
+		int[] positions = new int[numberOfLists];
+		HexCharSequence hex = null;
+		while (true) {
+			int next = ByteTrieNode.NO_ENTRY;
+			int nextList = -1;
+			for (int i = 0; i < numberOfLists; i++) {
+				if (positions[i] < lists[i].length && lists[i][positions[i]] < next) {
+					next = lists[i][positions[i]];
+					nextList = i;
+				}
+			}
+			if (next >= best) {
+				return best;
+			}
+			positions[nextList]++;
+			if (hex == null) {
+				hex = new HexCharSequence(request, length);
+			}
+			Matcher matcher = this.regexPatterns.get(next).matcher(hex);
+			if (this.prefixOnlyPatterns.get(next) ? matcher.lookingAt() : matcher.matches()) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Resolves the targets of modifiers. The target of a modifier is every
+	 * entry with the same regular expression.
+	 */
+	static CompiledModifier[] compileModifiers(LinkedList<LookupEntry> modifiers,
+			List<LookupEntry> entries) {
+		if (modifiers == null || modifiers.isEmpty()) {
+			return new CompiledModifier[0];
+		}
+		CompiledModifier[] compiled = new CompiledModifier[modifiers.size()];
+		int m = 0;
+		for (LookupEntry modifier : modifiers) {
+			int[] targets = new int[entries.size()];
+			int count = 0;
+			for (int i = 0; i < entries.size(); i++) {
+				if (entries.get(i).getRegex().equals(modifier.getRegex())) {
+					targets[count++] = i;
+				}
+			}
+			compiled[m++] = new CompiledModifier(Arrays.copyOf(targets, count), toByteArray(modifier.getResult()));
+		}
+		return compiled;
+	}
+
+	/**
+	 * Converts a result of the lookup table to a byte array
+	 */
+	static byte[] toByteArray(String result) {
+		if (result == null) {
+			return new byte[0];
+		}
+		String hex = result.replaceAll("\\s", "");
+		if (hex.isEmpty()) {
+			return new byte[0];
+		}
+		return Conversion.hexStringToByteArray(hex);
+	}
+
+	/**
+	 * Removes a trailing ".*" from a regular expression if the rest of the
+	 * expression only needs to match the beginning of the hex string. That
+	 * is not the case if the expression contains an alternation outside of
+	 * any group, because the ".*" only belongs to the last alternative.
+	 *
+	 * @param regex The regular expression
+	 * @return The expression without ".*" or null if it can not be removed
+	 */
+	static String stripAnySuffix(String regex) {
+		if (!regex.endsWith(".*") || BytePattern.hasTopLevelAlternation(regex)) {
+			return null;
+		}
+		String anchored = regex.substring(0, regex.length() - 2);
+		// The dot must not be escaped
+		int backslashes = 0;
+		for (int i = anchored.length() - 1; i >= 0 && anchored.charAt(i) == '\\'; i--) {
+			backslashes++;
+		}
+		if (backslashes % 2 != 0 || anchored.isEmpty()) {
+			return null;
+		}
+		try {
+			Pattern.compile(anchored);
+		} catch (PatternSyntaxException e) {
+			return null;
+		}
+		return anchored;
+	}
+
+	/**
+	 * A modifier with resolved targets
+	 */
+	static class CompiledModifier {
+
+		private int[] targets = null;
+
+		private byte[] result = null;
+
+		CompiledModifier(int[] targets, byte[] result) {
+			this.targets = targets;
+			this.result = result;
+		}
+
+		int[] getTargets() {
+			return targets;
+		}
+
+		byte[] getResult() {
+			return result;
+		}
+	}
+}
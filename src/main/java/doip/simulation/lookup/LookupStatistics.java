@@ -0,0 +1,309 @@
+package doip.simulation.lookup;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the number of hits and a histogram of the match times for every
+ * entry of a compiled lookup table. The counters are striped (LongAdder),
+ * so many threads can record at the same time without contention. The
+ * counters of an entry will be created when the entry matches the first
+ * time, so entries which never match do not need any memory.
+ * <p>
+ * The histogram has buckets with powers of two: Bucket 0 contains all
+ * times below 256 ns, bucket n the times from 2^(n+7) ns to 2^(n+8) ns and
+ * the last bucket all longer times.
+ */
+public class LookupStatistics {
+
+	/**
+	 * Number of buckets of the histograms
+	 */
+	public static final int BUCKETS = 20;
+
+	/**
+	 * The table whose entries will be counted
+	 */
+	private CompiledLookupTable table = null;
+
+	/**
+	 * Counters of the entries, an element is null as long as the entry did
+	 * not match
+	 */
+	private AtomicReferenceArray<Counters> entries = null;
+
+	/**
+	 * Counters of the requests which did not match any entry
+	 */
+	private Counters misses = new Counters();
+
+	/**
+	 * Constructor
+	 *
+	 * @param table The table whose entries will be counted
+	 */
+	public LookupStatistics(CompiledLookupTable table) {
+		this.table = table;
+		this.entries = new AtomicReferenceArray<Counters>(table.getNumberOfEntries());
+	}
+
+	public CompiledLookupTable getTable() {
+		return table;
+	}
+
+	/**
+	 * Records a request which matched an entry.
+	 *
+	 * @param entry Index of the entry
+	 * @param nanos Time for finding the entry in nanoseconds
+	 */
+	public void recordMatch(int entry, long nanos) {
+		Counters counters = this.entries.get(entry);
+		if (counters == null) {
+			this.entries.compareAndSet(entry, null, new Counters());
+			counters = this.entries.get(entry);
+		}
+		counters.record(nanos);
+	}
+
+	/**
+	 * Records a request which did not match any entry.
+	 *
+	 * @param nanos Time for searching the table in nanoseconds
+	 */
+	public void recordMiss(long nanos) {
+		this.misses.record(nanos);
+	}
+
+	/**
+	 * Returns the statistics of all entries which matched at least once.
+	 */
+	public List<PatternStatistics> getMatchedPatterns() {
+		List<PatternStatistics> list = new ArrayList<PatternStatistics>();
+		for (int i = 0; i < this.entries.length(); i++) {
+			Counters counters = this.entries.get(i);
+			if (counters != null) {
+				list.add(counters.snapshot(i, this.table.getPattern(i)));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the entries with the most hits.
+	 *
+	 * @param limit Maximum number of entries
+	 * @return The entries sorted by the number of hits, highest first
+	 */
+	public List<PatternStatistics> getHottestPatterns(int limit) {
+		List<PatternStatistics> list = this.getMatchedPatterns();
+		list.sort(Comparator.comparingLong(PatternStatistics::getHits).reversed());
+		return list.subList(0, Math.min(limit, list.size()));
+	}
+
+	/**
+	 * Returns the entries with the longest average match time.
+	 *
+	 * @param limit Maximum number of entries
+	 * @return The entries sorted by the average match time, slowest first
+	 */
+	public List<PatternStatistics> getSlowestPatterns(int limit) {
+		List<PatternStatistics> list = this.getMatchedPatterns();
+		list.sort(Comparator.comparingLong(PatternStatistics::getAverageNanos).reversed());
+		return list.subList(0, Math.min(limit, list.size()));
+	}
+
+	/**
+	 * Returns the request patterns of the entries which never matched.
+	 */
+	public List<String> getNeverMatchedPatterns() {
+		List<String> list = new ArrayList<String>();
+		for (int i = 0; i < this.entries.length(); i++) {
+			if (this.entries.get(i) == null) {
+				list.add(this.table.getPattern(i));
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Returns the statistics of the requests which did not match any entry.
+	 */
+	public PatternStatistics getMisses() {
+		return this.misses.snapshot(ByteTrieNode.NO_ENTRY, null);
+	}
+
+	/**
+	 * Creates a report with the hottest, slowest and never matched
+	 * patterns.
+	 *
+	 * @param limit Maximum number of patterns in each list
+	 * @return The report, it consists of several lines
+	 */
+	public String dump(int limit) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("Lookup statistics, ").append(this.table.getNumberOfEntries()).append(" entries\n");
+		sb.append("Hottest patterns:\n");
+		for (PatternStatistics statistics : this.getHottestPatterns(limit)) {
+			sb.append("    ").append(statistics).append('\n');
+		}
+		sb.append("Slowest patterns:\n");
+		for (PatternStatistics statistics : this.getSlowestPatterns(limit)) {
+			sb.append("    ").append(statistics).append('\n');
+		}
+		List<String> neverMatched = this.getNeverMatchedPatterns();
+		sb.append("Never matched patterns (").append(neverMatched.size()).append("):\n");
+		for (String pattern : neverMatched.subList(0, Math.min(limit, neverMatched.size()))) {
+			sb.append("    ").append(pattern).append('\n');
+		}
+		sb.append("No match: ").append(this.getMisses()).append('\n');
+		return sb.toString();
+	}
+
+	/**
+	 * Returns the histogram bucket for a time
+	 *
+	 * @param nanos The time in nanoseconds
+	 * @return The index of the bucket in the histogram
+	 */
+	public static int bucketOf(long nanos) {
+		int bucket = 64 - Long.numberOfLeadingZeros(nanos >>> 8);
+		return Math.min(bucket, BUCKETS - 1);
+	}
+
+	/**
+	 * The counters of one entry
+	 */
+	private static class Counters {
+
+		private LongAdder hits = new LongAdder();
+
+		private LongAdder totalNanos = new LongAdder();
+
+		private AtomicLong maxNanos = new AtomicLong(0);
+
+		private LongAdder[] histogram = new LongAdder[BUCKETS];
+
+		private Counters() {
+			for (int i = 0; i < BUCKETS; i++) {
+				this.histogram[i] = new LongAdder();
+			}
+		}
+
+		private void record(long nanos) {
+			this.hits.increment();
+			this.totalNanos.add(nanos);
+			this.histogram[bucketOf(nanos)].increment();
+			if (nanos > this.maxNanos.get()) {
+				this.maxNanos.accumulateAndGet(nanos, Math::max);
+			}
+		}
+
+		private PatternStatistics snapshot(int entry, String pattern) {
+			long[] histogram = new long[BUCKETS];
+			for (int i = 0; i < BUCKETS; i++) {
+				histogram[i] = this.histogram[i].sum();
+			}
+			return new PatternStatistics(entry, pattern, this.hits.sum(), this.totalNanos.sum(),
+					this.maxNanos.get(), histogram);
+		}
+	}
+
+	/**
+	 * The statistics of one entry at a point in time
+	 */
+	public static class PatternStatistics {
+
+		private int entry = 0;
+
+		private String pattern = null;
+
+		private long hits = 0;
+
+		private long totalNanos = 0;
+
+		private long maxNanos = 0;
+
+		private long[] histogram = null;
+
+		private PatternStatistics(int entry, String pattern, long hits, long totalNanos, long maxNanos, long[] histogram) {
+			this.entry = entry;
+			this.pattern = pattern;
+			this.hits = hits;
+			this.totalNanos = totalNanos;
+			this.maxNanos = maxNanos;
+			this.histogram = histogram;
+		}
+
+		/**
+		 * Returns the index of the entry in the lookup table
+		 */
+		public int getEntry() {
+			return entry;
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getTotalNanos() {
+			return totalNanos;
+		}
+
+		public long getMaxNanos() {
+			return maxNanos;
+		}
+
+		public long getAverageNanos() {
+			if (this.hits == 0) {
+				return 0;
+			}
+			return this.totalNanos / this.hits;
+		}
+
+		/**
+		 * Returns the histogram of the match times, see
+		 * {@link LookupStatistics} for the bounds of the buckets
+		 */
+		public long[] getHistogram() {
+			return histogram;
+		}
+
+		/**
+		 * Returns the upper bound of the bucket which contains the given
+		 * percentile of the match times.
+		 *
+		 * @param percentile The percentile, e.g. 99.0
+		 * @return The upper bound in nanoseconds, Long.MAX_VALUE for the last
+		 *         bucket
+		 */
+		public long getPercentileNanos(double percentile) {
+			long threshold = (long) Math.ceil(this.hits * percentile / 100.0);
+			long count = 0;
+			for (int i = 0; i < this.histogram.length; i++) {
+				count += this.histogram[i];
+				if (count >= threshold && count > 0) {
+					return i == BUCKETS - 1 ? Long.MAX_VALUE : 256L << i;
+				}
+			}
+			return 0;
+		}
+
+		@Override
+		public String toString() {
+			String text = this.pattern != null ? this.pattern + ": " : "";
+			return text + "hits = " + this.hits
+					+ ", average = " + this.getAverageNanos() / 1000.0 + " us"
+					+ ", p99 < " + (this.getPercentileNanos(99) == Long.MAX_VALUE ? "max" : this.getPercentileNanos(99) / 1000.0 + " us")
+					+ ", max = " + this.maxNanos / 1000.0 + " us";
+		}
+	}
+}
@@ -0,0 +1,404 @@
+package doip.simulation.lookup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+
+/**
+ * Repository which parses every .uds file and compiles every lookup table
+ * only once. The files are identified by the SHA-256 hash of their content,
+ * so identical files share the same entries even if they have different
+ * names or are stored in different directories. Lookup tables which consist
+ * of the same entries share the same compiled index.
+ * <p>
+ * The shared entries must not be changed. The StandardEcu does not change
+ * them, it stores the results which have been changed by modifiers in its
+ * own CompiledLookupTable. EcuConfig.getUdsLookupTable() and
+ * EcuBase.getRuntimeLookupTable() return copies of tables with shared
+ * entries (see {@link #copy(LookupTable, LookupTable)}), so callers can not
+ * change the results of other ECUs.
+ * <p>
+ * The repository does not keep the entries and the indices alive. It only
+ * holds weak references to them, so a file or a table which is no longer
+ * used by any lookup table will be removed after the garbage collector has
+ * collected its entries. Therefore hot reloads of changed files do not let
+ * the repository grow.
+ */
+public class LookupTableRepository {
+
+	private static Logger logger = LogManager.getLogger(LookupTableRepository.class);
+
+	/**
+	 * Repository which is used by default by all ECU configurations
+	 */
+	private static final LookupTableRepository shared = new LookupTableRepository();
+
+	/**
+	 * The parsed files, the key is the hash of the content
+	 */
+	private ConcurrentHashMap<String, Fragment> fragments = new ConcurrentHashMap<String, Fragment>();
+
+	/**
+	 * The compiled indices, the key is the list of entries
+	 */
+	private ConcurrentHashMap<EntryListKey, IndexReference> indices = new ConcurrentHashMap<EntryListKey, IndexReference>();
+
+	/**
+	 * Queue for the references to entries and indices which have been
+	 * collected by the garbage collector
+	 */
+	private ReferenceQueue<Object> queue = new ReferenceQueue<Object>();
+
+	/**
+	 * The opened binary lookup files, the key is the canonical path
+	 */
+	private ConcurrentHashMap<String, MappedLookupFile> binaryFiles = new ConcurrentHashMap<String, MappedLookupFile>();
+
+	/**
+	 * The indices of the binary lookup files
+	 */
+	private ConcurrentHashMap<MappedLookupFile, LookupIndex> binaryIndices = new ConcurrentHashMap<MappedLookupFile, LookupIndex>();
+
+	/**
+	 * Returns the repository which is shared by all ECU configurations.
+	 *
+	 * @return The shared repository
+	 */
+	public static LookupTableRepository getShared() {
+		return shared;
+	}
+
+	/**
+	 * Returns the entries of a .uds file. The file will only be parsed if no
+	 * file with the same content has been parsed before.
+	 *
+	 * @param path The path of the file, it will be put in front of the
+	 *             filename
+	 * @param file The filename
+	 * @return The entries of the file, the list can not be modified
+	 * @throws IOException If the file could not be read
+	 */
+	public List<LookupEntry> getFragment(String path, String file) throws IOException {
+		this.expungeStaleEntries();
+		byte[] content = Files.readAllBytes(Paths.get(path + file));
+		String hash = hash(content);
+		Fragment fragment = this.fragments.get(hash);
+		List<LookupEntry> entries = fragment != null ? fragment.getEntries() : null;
+		if (entries != null) {
+			logger.debug("Use already parsed entries for file '{}'", file);
+			return entries;
+		}
+		LookupTable table = new LookupTable();
+		table.addLookupEntriesFromFiles(path, new String[] { file });
+		entries = Collections.unmodifiableList(new ArrayList<LookupEntry>(table.getLookupEntries()));
+		logger.debug("Parsed file '{}' with {} entries", file, entries.size());
+		if (entries.isEmpty()) {
+			// Nothing which could be shared, and without entries the
+			// fragment could never be removed.
+			return entries;
+		}
+		Fragment newFragment = new Fragment(hash, entries, this.queue);
+		if (fragment != null) {
+			// The entries of the old fragment have already been collected
+			if (this.fragments.replace(hash, fragment, newFragment)) {
+				return entries;
+			}
+		} else if (this.fragments.putIfAbsent(hash, newFragment) == null) {
+			return entries;
+		}
+		// Another thread was faster, use its entries if they are still alive
+		Fragment existing = this.fragments.get(hash);
+		List<LookupEntry> existingEntries = existing != null ? existing.getEntries() : null;
+		return existingEntries != null ? existingEntries : entries;
+	}
+
+	/**
+	 * Returns a binary lookup file. The file will only be mapped if it has
+	 * not been opened before.
+	 *
+	 * @param filename The name of the file
+	 * @return The mapped file
+	 * @throws IOException If the file could not be opened
+	 */
+	public MappedLookupFile getBinaryFile(String filename) throws IOException {
+		String key = new File(filename).getCanonicalPath();
+		MappedLookupFile file = this.binaryFiles.get(key);
+		if (file == null) {
+			file = MappedLookupFile.open(filename);
+			MappedLookupFile existing = this.binaryFiles.putIfAbsent(key, file);
+			if (existing != null) {
+				file = existing;
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * Maps a binary lookup file again, for example because it has been
+	 * replaced. The new mapping replaces the old one in the repository. The
+	 * old mapping stays valid for tables which are still using it only if
+	 * the file has been replaced by renaming a new file, like the
+	 * UdsCompiler does. A file which has been changed or truncated in place
+	 * also changes the old mapping (see {@link MappedLookupFile}). A new
+	 * file which is truncated or corrupt will be rejected and the old
+	 * mapping stays in the repository.
+	 *
+	 * @param filename The name of the file
+	 * @return The new mapped file
+	 * @throws IOException If the file could not be opened or if it is not a
+	 *                     valid binary lookup file
+	 */
+	public MappedLookupFile reloadBinaryFile(String filename) throws IOException {
+		String key = new File(filename).getCanonicalPath();
+		MappedLookupFile file = MappedLookupFile.open(filename);
+		MappedLookupFile old = this.binaryFiles.put(key, file);
+		if (old != null) {
+			this.binaryIndices.remove(old);
+		}
+		return file;
+	}
+
+	/**
+	 * Creates a compiled lookup table from a binary lookup file. The index
+	 * of the file will only be built once.
+	 *
+	 * @param file The binary lookup file
+	 * @return The compiled lookup table
+	 */
+	public CompiledLookupTable compile(MappedLookupFile file) {
+		LookupIndex index = this.binaryIndices.computeIfAbsent(file, f -> new LookupIndex(f));
+		return new CompiledLookupTable(null, index);
+	}
+
+	/**
+	 * Compiles a lookup table. If a table with the same entries has already
+	 * been compiled its index will be reused.
+	 *
+	 * @param table The lookup table
+	 * @return The compiled lookup table
+	 */
+	public CompiledLookupTable compile(LookupTable table) {
+		this.expungeStaleEntries();
+		List<LookupEntry> entries = new ArrayList<LookupEntry>(table.getLookupEntries());
+		EntryListKey key = new EntryListKey(entries);
+		IndexReference reference = this.indices.get(key);
+		LookupIndex index = reference != null ? reference.get() : null;
+		if (index != null) {
+			logger.debug("Use already compiled index with {} entries", entries.size());
+			return new CompiledLookupTable(table, index);
+		}
+		index = new LookupIndex(entries);
+		IndexReference newReference = new IndexReference(key, index, this.queue);
+		if (reference != null) {
+			this.indices.replace(key, reference, newReference);
+		} else {
+			IndexReference existing = this.indices.putIfAbsent(key, newReference);
+			LookupIndex existingIndex = existing != null ? existing.get() : null;
+			if (existingIndex != null) {
+				index = existingIndex;
+			}
+		}
+		return new CompiledLookupTable(table, index);
+	}
+
+	/**
+	 * Returns the number of different files which have been parsed and
+	 * whose entries are still used.
+	 */
+	public int getNumberOfFragments() {
+		this.expungeStaleEntries();
+		return this.fragments.size();
+	}
+
+	/**
+	 * Returns the number of different lookup tables which have been
+	 * compiled and whose index is still used.
+	 */
+	public int getNumberOfIndices() {
+		this.expungeStaleEntries();
+		return this.indices.size();
+	}
+
+	/**
+	 * Removes the fragments and indices which have been collected by the
+	 * garbage collector.
+	 */
+	private void expungeStaleEntries() {
+		Reference<?> reference = null;
+		while ((reference = this.queue.poll()) != null) {
+			if (reference instanceof EntryReference) {
+				Fragment fragment = ((EntryReference) reference).fragment;
+				this.fragments.remove(fragment.hash, fragment);
+			} else if (reference instanceof IndexReference) {
+				IndexReference indexReference = (IndexReference) reference;
+				this.indices.remove(indexReference.key, indexReference);
+			}
+		}
+	}
+
+	/**
+	 * Removes all parsed files and compiled tables. Lookup tables which have
+	 * already been created will not be changed.
+	 */
+	public void clear() {
+		this.fragments.clear();
+		this.indices.clear();
+		this.binaryFiles.clear();
+		this.binaryIndices.clear();
+	}
+
+	/**
+	 * Copies the entries of a lookup table into another lookup table. The
+	 * entries and their modifiers will be copied, so the results of the
+	 * copy can be changed without changing the entries of the source, which
+	 * might be shared with other ECUs.
+	 *
+	 * @param source The lookup table which shall be copied
+	 * @param target The lookup table which will get the copied entries
+	 * @return The target table
+	 */
+	public static LookupTable copy(LookupTable source, LookupTable target) {
+		for (LookupEntry entry : source.getLookupEntries()) {
+			target.addEntry(copy(entry));
+		}
+		return target;
+	}
+
+	private static LookupEntry copy(LookupEntry entry) {
+		LookupEntry copy = new LookupEntry(entry.getRegex(), entry.getResult());
+		for (LookupEntry modifier : entry.getModifiers()) {
+			copy.getModifiers().add(copy(modifier));
+		}
+		return copy;
+	}
+
+	private static String hash(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java runtime must support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * The entries of a parsed file. The entries are only referenced weakly,
+	 * they are kept alive by the lookup tables which use them.
+	 */
+	private static class Fragment {
+
+		private String hash = null;
+
+		private EntryReference[] entries = null;
+
+		private Fragment(String hash, List<LookupEntry> entries, ReferenceQueue<Object> queue) {
+			this.hash = hash;
+			this.entries = new EntryReference[entries.size()];
+			for (int i = 0; i < this.entries.length; i++) {
+				this.entries[i] = new EntryReference(entries.get(i), this, queue);
+			}
+		}
+
+		/**
+		 * Returns the entries or null if at least one entry has already been
+		 * collected.
+		 */
+		private List<LookupEntry> getEntries() {
+			ArrayList<LookupEntry> list = new ArrayList<LookupEntry>(this.entries.length);
+			for (EntryReference reference : this.entries) {
+				LookupEntry entry = reference.get();
+				if (entry == null) {
+					return null;
+				}
+				list.add(entry);
+			}
+			return Collections.unmodifiableList(list);
+		}
+	}
+
+	private static class EntryReference extends WeakReference<LookupEntry> {
+
+		private Fragment fragment = null;
+
+		private EntryReference(LookupEntry entry, Fragment fragment, ReferenceQueue<Object> queue) {
+			super(entry, queue);
+			this.fragment = fragment;
+		}
+	}
+
+	private static class IndexReference extends WeakReference<LookupIndex> {
+
+		private EntryListKey key = null;
+
+		private IndexReference(EntryListKey key, LookupIndex index, ReferenceQueue<Object> queue) {
+			super(index, queue);
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Key for a list of entries. Two keys are equal if they contain the same
+	 * entry objects in the same order. The entries are only referenced
+	 * weakly, so the key does not keep them alive.
+	 */
+	private static class EntryListKey {
+
+		private List<WeakReference<LookupEntry>> entries = null;
+
+		private int hash = 0;
+
+		private EntryListKey(List<LookupEntry> entries) {
+			this.entries = new ArrayList<WeakReference<LookupEntry>>(entries.size());
+			int hash = 1;
+			for (LookupEntry entry : entries) {
+				this.entries.add(new WeakReference<LookupEntry>(entry));
+				hash = 31 * hash + System.identityHashCode(entry);
+			}
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof EntryListKey)) {
+				return false;
+			}
+			EntryListKey other = (EntryListKey) obj;
+			if (this.hash != other.hash || this.entries.size() != other.entries.size()) {
+				return false;
+			}
+			for (int i = 0; i < this.entries.size(); i++) {
+				LookupEntry entry = this.entries.get(i).get();
+				if (entry == null || entry != other.entries.get(i).get()) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
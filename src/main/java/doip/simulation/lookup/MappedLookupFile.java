@@ -0,0 +1,277 @@
+package doip.simulation.lookup;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.simulation.lookup.LookupIndex.CompiledModifier;
+
+/**
+ * A binary lookup file which has been created by the {@link UdsCompiler}.
+ * The file will be mapped into memory, the entries will not be loaded to
+ * the heap. The patterns will be read once when the index will be built,
+ * the results will be read when they are needed, so the responses stay
+ * off-heap.
+ * <p>
+ * Layout of the file (all numbers are big-endian 32 bit integers, all
+ * offsets are absolute positions in the file):
+ *
+ * <pre>
+ * Header:   magic "UDSB", version, number of entries, number of modifiers
+ * Entries:  flags, pattern offset, pattern length, result offset,
+ *           result length, index of first modifier, number of modifiers
+ * Modifiers: targets offset, number of targets, result offset,
+ *           result length
+ * Data:     patterns, results and targets
+ * </pre>
+ *
+ * A byte pattern is stored as its values followed by a mask (0xFF for a
+ * literal byte, 0x00 for a wildcard). A pattern which could not be compiled
+ * is stored as the ASCII string of the regular expression.
+ * <p>
+ * All offsets and lengths will be checked when the file will be opened, a
+ * file which is truncated or corrupt will be rejected. A file which is
+ * mapped must never be changed or truncated in place, reading a truncated
+ * mapping crashes the JVM. A new version of the file must be written to a
+ * temporary file which will then be renamed to the name of the file, like
+ * the {@link UdsCompiler} does. The old mapping still refers to the old
+ * file, so ECUs which still use it are not affected.
+ */
+public class MappedLookupFile {
+
+	private static Logger logger = LogManager.getLogger(MappedLookupFile.class);
+
+	/**
+	 * The magic number "UDSB" at the beginning of the file
+	 */
+	static final int MAGIC = 0x55445342;
+
+	static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 16;
+
+	static final int ENTRY_SIZE = 28;
+
+	static final int MODIFIER_SIZE = 16;
+
+	/**
+	 * Flag of an entry: The pattern is a byte pattern
+	 */
+	static final int FLAG_BYTE_PATTERN = 0x01;
+
+	/**
+	 * Flag of an entry: The byte pattern ends with ".*"
+	 */
+	static final int FLAG_ANY_SUFFIX = 0x02;
+
+	private String filename = null;
+
+	/**
+	 * The content of the file. Only absolute get methods will be used, so
+	 * the buffer can be read by many threads at the same time.
+	 */
+	private MappedByteBuffer buffer = null;
+
+	private int numberOfEntries = 0;
+
+	private int numberOfModifiers = 0;
+
+	/**
+	 * Position of the first modifier in the file
+	 */
+	private int modifierTableOffset = 0;
+
+	private MappedLookupFile(String filename, MappedByteBuffer buffer) throws IOException {
+		this.filename = filename;
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			throw new IOException("The file '" + filename + "' is not a binary lookup file");
+		}
+		int version = buffer.getInt(4);
+		if (version != VERSION) {
+			throw new IOException("The binary lookup file '" + filename + "' has version " + version
+					+ ", only version " + VERSION + " is supported");
+		}
+		this.numberOfEntries = buffer.getInt(8);
+		this.numberOfModifiers = buffer.getInt(12);
+		long tablesSize = HEADER_SIZE + (long) this.numberOfEntries * ENTRY_SIZE
+				+ (long) this.numberOfModifiers * MODIFIER_SIZE;
+		if (this.numberOfEntries < 0 || this.numberOfModifiers < 0 || tablesSize > buffer.capacity()) {
+			throw new IOException("The binary lookup file '" + filename + "' is truncated");
+		}
+		this.modifierTableOffset = HEADER_SIZE + this.numberOfEntries * ENTRY_SIZE;
+		this.checkBounds();
+	}
+
+	/**
+	 * Checks that all offsets and lengths in the tables of the file point
+	 * into the file, so reading an entry can never fail.
+	 *
+	 * @throws IOException If an offset or a length is out of bounds
+	 */
+	private void checkBounds() throws IOException {
+		for (int i = 0; i < this.numberOfEntries; i++) {
+			int patternLength = this.getEntryField(i, 2);
+			boolean bytePattern = (this.getEntryField(i, 0) & FLAG_BYTE_PATTERN) != 0;
+			this.checkRange("entry " + i, this.getEntryField(i, 1), patternLength, bytePattern ? 2 : 1);
+			this.checkRange("entry " + i, this.getEntryField(i, 3), this.getEntryField(i, 4), 1);
+			long first = this.getEntryField(i, 5);
+			int count = this.getEntryField(i, 6);
+			if (first < 0 || count < 0 || first + count > this.numberOfModifiers) {
+				throw new IOException("The modifiers of entry " + i + " in the binary lookup file '" + this.filename
+						+ "' are out of bounds");
+			}
+		}
+		for (int m = 0; m < this.numberOfModifiers; m++) {
+			int position = this.modifierTableOffset + m * MODIFIER_SIZE;
+			int targetsOffset = this.buffer.getInt(position);
+			int numberOfTargets = this.buffer.getInt(position + 4);
+			this.checkRange("modifier " + m, targetsOffset, numberOfTargets, 4);
+			this.checkRange("modifier " + m, this.buffer.getInt(position + 8), this.buffer.getInt(position + 12), 1);
+			for (int t = 0; t < numberOfTargets; t++) {
+				int target = this.buffer.getInt(targetsOffset + t * 4);
+				if (target < 0 || target >= this.numberOfEntries) {
+					throw new IOException("The target " + target + " of modifier " + m + " in the binary lookup file '"
+							+ this.filename + "' is out of bounds");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Checks that a range of the file is inside the file.
+	 *
+	 * @param element     The entry or modifier, used for the error message
+	 * @param offset      Start of the range
+	 * @param length      Number of elements
+	 * @param elementSize Size of one element in bytes
+	 * @throws IOException If the range is out of bounds
+	 */
+	private void checkRange(String element, int offset, int length, int elementSize) throws IOException {
+		if (offset < 0 || length < 0 || (long) offset + (long) length * elementSize > this.buffer.capacity()) {
+			throw new IOException("The binary lookup file '" + this.filename + "' is truncated or corrupt, offset "
+					+ offset + " with length " + length + " of " + element + " is out of bounds");
+		}
+	}
+
+	/**
+	 * Opens a binary lookup file and maps it into memory.
+	 *
+	 * @param filename The name of the file
+	 * @return The opened file
+	 * @throws IOException If the file could not be read or if it is not a
+	 *                     valid binary lookup file
+	 */
+	public static MappedLookupFile open(String filename) throws IOException {
+		logger.trace(">>> public static MappedLookupFile open(String filename)");
+		try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			MappedLookupFile file = new MappedLookupFile(filename, buffer);
+			logger.debug("Opened binary lookup file '{}' with {} entries", filename, file.numberOfEntries);
+			return file;
+		} finally {
+			logger.trace("<<< public static MappedLookupFile open(String filename)");
+		}
+	}
+
+	public String getFilename() {
+		return filename;
+	}
+
+	public int getNumberOfEntries() {
+		return numberOfEntries;
+	}
+
+	private int getEntryField(int index, int field) {
+		return this.buffer.getInt(HEADER_SIZE + index * ENTRY_SIZE + field * 4);
+	}
+
+	/**
+	 * Returns the byte pattern of an entry.
+	 *
+	 * @param index Index of the entry
+	 * @return The byte pattern or null if the pattern is a regular
+	 *         expression
+	 */
+	BytePattern getBytePattern(int index) {
+		int flags = this.getEntryField(index, 0);
+		if ((flags & FLAG_BYTE_PATTERN) == 0) {
+			return null;
+		}
+		int offset = this.getEntryField(index, 1);
+		int length = this.getEntryField(index, 2);
+		int[] bytes = new int[length];
+		for (int i = 0; i < length; i++) {
+			if (this.buffer.get(offset + length + i) == 0) {
+				bytes[i] = BytePattern.ANY;
+			} else {
+				bytes[i] = this.buffer.get(offset + i) & 0xFF;
+			}
+		}
+		return new BytePattern(bytes, (flags & FLAG_ANY_SUFFIX) != 0);
+	}
+
+	/**
+	 * Returns the regular expression of an entry which could not be compiled
+	 * to a byte pattern.
+	 *
+	 * @param index Index of the entry
+	 * @return The regular expression
+	 */
+	String getRegex(int index) {
+		int offset = this.getEntryField(index, 1);
+		int length = this.getEntryField(index, 2);
+		return new String(this.getBytes(offset, length), StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * Reads the result of an entry from the file.
+	 *
+	 * @param index Index of the entry
+	 * @return The result
+	 */
+	byte[] getResult(int index) {
+		return this.getBytes(this.getEntryField(index, 3), this.getEntryField(index, 4));
+	}
+
+	int getModifierCount(int index) {
+		return this.getEntryField(index, 6);
+	}
+
+	/**
+	 * Reads the modifiers of an entry from the file.
+	 *
+	 * @param index Index of the entry
+	 * @return The modifiers with their resolved targets
+	 */
+	CompiledModifier[] getModifiers(int index) {
+		int first = this.getEntryField(index, 5);
+		int count = this.getEntryField(index, 6);
+		CompiledModifier[] modifiers = new CompiledModifier[count];
+		for (int m = 0; m < count; m++) {
+			int position = this.modifierTableOffset + (first + m) * MODIFIER_SIZE;
+			int targetsOffset = this.buffer.getInt(position);
+			int[] targets = new int[this.buffer.getInt(position + 4)];
+			for (int i = 0; i < targets.length; i++) {
+				targets[i] = this.buffer.getInt(targetsOffset + i * 4);
+			}
+			byte[] result = this.getBytes(this.buffer.getInt(position + 8), this.buffer.getInt(position + 12));
+			modifiers[m] = new CompiledModifier(targets, result);
+		}
+		return modifiers;
+	}
+
+	private byte[] getBytes(int offset, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = this.buffer.get(offset + i);
+		}
+		return bytes;
+	}
+}
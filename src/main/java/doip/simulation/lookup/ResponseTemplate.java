@@ -0,0 +1,236 @@
+package doip.simulation.lookup;
+
+import java.util.ArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A response which contains dynamic fields. The template has been compiled
+ * into a byte array with the constant bytes and a list of slots which will
+ * be filled when the response will be created. Filling a template only
+ * copies the constant bytes and writes the slots, nothing will be parsed
+ * at runtime. createResponse(byte[]) allocates the array of the response,
+ * fill(byte[], byte[], int) writes into a given buffer and allocates
+ * nothing.
+ * <p>
+ * A template is a hex string which can contain the following slots (spaces
+ * will be ignored):
+ * <ul>
+ * <li>$echo(position,length): Copies bytes of the request, bytes behind the
+ * end of the request will be 0x00.</li>
+ * <li>$counter(width): A counter which will be incremented for every
+ * response.</li>
+ * <li>$time(width): The current time in milliseconds since 1970.</li>
+ * <li>$random(width): Random bytes, e.g. for the seed of SecurityAccess.</li>
+ * </ul>
+ * The width is the number of bytes from 1 to 8, numbers will be stored in
+ * big-endian byte order and will be truncated to the width. Example for
+ * SecurityAccess: "67 $echo(1,1) $random(4)".
+ */
+public class ResponseTemplate {
+
+	static final int SLOT_ECHO = 1;
+
+	static final int SLOT_COUNTER = 2;
+
+	static final int SLOT_TIME = 3;
+
+	static final int SLOT_RANDOM = 4;
+
+	/**
+	 * The constant bytes of the response, the bytes of the slots are 0x00
+	 */
+	private byte[] bytes = null;
+
+	/**
+	 * Type of each slot
+	 */
+	private int[] slotTypes = null;
+
+	/**
+	 * Position of each slot in the response
+	 */
+	private int[] slotPositions = null;
+
+	/**
+	 * Number of bytes of each slot
+	 */
+	private int[] slotWidths = null;
+
+	/**
+	 * Position in the request for slots of type SLOT_ECHO
+	 */
+	private int[] slotArguments = null;
+
+	private AtomicLong counter = new AtomicLong(0);
+
+	private ResponseTemplate(byte[] bytes, int[] slotTypes, int[] slotPositions, int[] slotWidths, int[] slotArguments) {
+		this.bytes = bytes;
+		this.slotTypes = slotTypes;
+		this.slotPositions = slotPositions;
+		this.slotWidths = slotWidths;
+		this.slotArguments = slotArguments;
+	}
+
+	/**
+	 * Returns the length of the response in bytes
+	 */
+	public int getLength() {
+		return this.bytes.length;
+	}
+
+	/**
+	 * Returns the number of dynamic fields
+	 */
+	public int getNumberOfSlots() {
+		return this.slotTypes.length;
+	}
+
+	/**
+	 * Creates a new response for the given request. A new array will be
+	 * allocated for every response.
+	 *
+	 * @param request The request
+	 * @return The new response
+	 */
+	public byte[] createResponse(byte[] request) {
+		byte[] response = new byte[this.bytes.length];
+		this.fill(request, response, 0);
+		return response;
+	}
+
+	/**
+	 * Writes the response into a buffer without allocating any objects.
+	 *
+	 * @param request The request
+	 * @param target  The buffer, it must have space for getLength() bytes
+	 *                starting at the offset
+	 * @param offset  Position in the buffer of the first byte
+	 */
+	public void fill(byte[] request, byte[] target, int offset) {
+		System.arraycopy(this.bytes, 0, target, offset, this.bytes.length);
+		for (int i = 0; i < this.slotTypes.length; i++) {
+			int position = offset + this.slotPositions[i];
+			int width = this.slotWidths[i];
+			switch (this.slotTypes[i]) {
+			case SLOT_ECHO:
+				int start = this.slotArguments[i];
+				int available = Math.min(width, request.length - start);
+				if (available > 0) {
+					System.arraycopy(request, start, target, position, available);
+				}
+				break;
+			case SLOT_COUNTER:
+				putNumber(this.counter.incrementAndGet(), target, position, width);
+				break;
+			case SLOT_TIME:
+				putNumber(System.currentTimeMillis(), target, position, width);
+				break;
+			case SLOT_RANDOM:
+				putNumber(ThreadLocalRandom.current().nextLong(), target, position, width);
+				break;
+			default:
+				break;
+			}
+		}
+	}
+
+	private static void putNumber(long value, byte[] target, int position, int width) {
+		for (int i = width - 1; i >= 0; i--) {
+			target[position + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Compiles a template.
+	 *
+	 * @param template The template, e.g. "62 F1 8C $counter(4)"
+	 * @return The compiled template
+	 * @throws IllegalArgumentException If the template is not valid
+	 */
+	public static ResponseTemplate compile(String template) {
+		String text = template.replaceAll("\\s", "");
+		ArrayList<Byte> bytes = new ArrayList<Byte>();
+		ArrayList<int[]> slots = new ArrayList<int[]>();
+		int pos = 0;
+		while (pos < text.length()) {
+			if (text.charAt(pos) == '$') {
+				int open = text.indexOf('(', pos);
+				int close = text.indexOf(')', pos);
+				if (open < 0 || close < open) {
+					throw new IllegalArgumentException("The slot at position " + pos + " in template '" + template + "' is not valid");
+				}
+				String name = text.substring(pos + 1, open);
+				String[] args = text.substring(open + 1, close).split(",");
+				int[] slot = compileSlot(name, args, template);
+				slot[1] = bytes.size();
+				for (int i = 0; i < slot[2]; i++) {
+					bytes.add((byte) 0);
+				}
+				slots.add(slot);
+				pos = close + 1;
+			} else {
+				if (pos + 1 >= text.length()) {
+					throw new IllegalArgumentException("The template '" + template + "' contains an incomplete byte");
+				}
+				bytes.add((byte) Integer.parseInt(text.substring(pos, pos + 2), 16));
+				pos += 2;
+			}
+		}
+		byte[] array = new byte[bytes.size()];
+		for (int i = 0; i < array.length; i++) {
+			array[i] = bytes.get(i);
+		}
+		int[] types = new int[slots.size()];
+		int[] positions = new int[slots.size()];
+		int[] widths = new int[slots.size()];
+		int[] arguments = new int[slots.size()];
+		for (int i = 0; i < types.length; i++) {
+			int[] slot = slots.get(i);
+			types[i] = slot[0];
+			positions[i] = slot[1];
+			widths[i] = slot[2];
+			arguments[i] = slot[3];
+		}
+		return new ResponseTemplate(array, types, positions, widths, arguments);
+	}
+
+	/**
+	 * Compiles a slot.
+	 *
+	 * @return Array with type, position (not set yet), width and argument
+	 */
+	private static int[] compileSlot(String name, String[] args, String template) {
+		int[] slot = new int[4];
+		if (name.equals("echo")) {
+			if (args.length != 2) {
+				throw new IllegalArgumentException("The slot $echo in template '" + template + "' needs the arguments position and length");
+			}
+			slot[0] = SLOT_ECHO;
+			slot[3] = Integer.parseInt(args[0]);
+			slot[2] = Integer.parseInt(args[1]);
+			if (slot[3] < 0 || slot[2] < 1) {
+				throw new IllegalArgumentException("The slot $echo in template '" + template + "' has an invalid position or length");
+			}
+			return slot;
+		}
+		if (name.equals("counter")) {
+			slot[0] = SLOT_COUNTER;
+		} else if (name.equals("time")) {
+			slot[0] = SLOT_TIME;
+		} else if (name.equals("random")) {
+			slot[0] = SLOT_RANDOM;
+		} else {
+			throw new IllegalArgumentException("The slot $" + name + " in template '" + template + "' is unknown");
+		}
+		if (args.length != 1) {
+			throw new IllegalArgumentException("The slot $" + name + " in template '" + template + "' needs the argument width");
+		}
+		slot[2] = Integer.parseInt(args[0]);
+		if (slot[2] < 1 || slot[2] > 8) {
+			throw new IllegalArgumentException("The width of slot $" + name + " in template '" + template + "' must be from 1 to 8");
+		}
+		return slot;
+	}
+}
@@ -0,0 +1,98 @@
+package doip.simulation.lookup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Table of request patterns and response templates. The request patterns
+ * must be byte patterns (see {@link BytePattern}), so finding a template does
+ * not need regular expressions. If more than one pattern matches the
+ * request the first one will be used.
+ * <p>
+ * The files which define the templates have the same syntax as the .uds
+ * files, but the response is a template (see {@link ResponseTemplate}), e.g.
+ * "27 01 : 67 01 $random(4)".
+ */
+public class ResponseTemplateTable {
+
+	private BytePattern[] patterns = new BytePattern[0];
+
+	private ResponseTemplate[] templates = new ResponseTemplate[0];
+
+	/**
+	 * Returns the number of templates
+	 */
+	public int size() {
+		return this.templates.length;
+	}
+
+	/**
+	 * Adds a template. Templates should only be added before the table will
+	 * be used.
+	 *
+	 * @param pattern  The request pattern
+	 * @param template The response template
+	 * @throws IllegalArgumentException If the pattern is not a byte pattern
+	 *                                  or the template is not valid
+	 */
+	public synchronized void add(String pattern, String template) {
+		BytePattern bytePattern = BytePattern.compile(pattern.replaceAll("\\s", ""));
+		if (bytePattern == null) {
+			throw new IllegalArgumentException("The request pattern '" + pattern + "' of a response template can not be compiled to a byte pattern");
+		}
+		ResponseTemplate responseTemplate = ResponseTemplate.compile(template);
+		int size = this.templates.length;
+		BytePattern[] newPatterns = Arrays.copyOf(this.patterns, size + 1);
+		ResponseTemplate[] newTemplates = Arrays.copyOf(this.templates, size + 1);
+		newPatterns[size] = bytePattern;
+		newTemplates[size] = responseTemplate;
+		this.patterns = newPatterns;
+		this.templates = newTemplates;
+	}
+
+	/**
+	 * Returns the template for a request.
+	 *
+	 * @param request The request
+	 * @param length  Number of bytes of the request which will be used
+	 * @return The template of the first matching pattern or null if no
+	 *         pattern matches
+	 */
+	public ResponseTemplate find(byte[] request, int length) {
+		BytePattern[] patterns = this.patterns;
+		for (int i = 0; i < patterns.length; i++) {
+			if (patterns[i].matches(request, length)) {
+				return this.templates[i];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Adds the templates which are defined in a file. Lines which are empty
+	 * or start with '#' will be ignored.
+	 *
+	 * @param filename The name of the file
+	 * @throws IOException If the file could not be read
+	 */
+	public void addFromFile(String filename) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(filename));
+		int lineNumber = 0;
+		for (String line : lines) {
+			lineNumber++;
+			String trimmed = line.trim();
+			if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+				continue;
+			}
+			int separator = trimmed.indexOf(':');
+			if (separator < 0) {
+				throw new IllegalArgumentException("Line " + lineNumber + " in file '" + filename
+						+ "' is not valid, expected format is '<request> : <template>'");
+			}
+			this.add(trimmed.substring(0, separator), trimmed.substring(separator + 1));
+		}
+	}
+}
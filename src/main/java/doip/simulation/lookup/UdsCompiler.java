@@ -0,0 +1,160 @@
+package doip.simulation.lookup;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+import doip.simulation.lookup.LookupIndex.CompiledModifier;
+
+/**
+ * Offline compiler which converts .uds files into a binary lookup file
+ * (see {@link MappedLookupFile}). The .uds files will be parsed with the
+ * same parser as at runtime, the patterns will be compiled to byte patterns
+ * and the targets of the modifiers will be resolved, so loading the binary
+ * file does not need to parse any text.
+ * <p>
+ * Usage: UdsCompiler &lt;output file&gt; &lt;.uds file&gt; [&lt;.uds
+ * file&gt; ...]
+ * <p>
+ * The entries of all input files will be stored in the given order in the
+ * output file, like the files in the property "uds.files".
+ * <p>
+ * The output file will be written to a temporary file in the same directory
+ * which will then be renamed atomically, so an existing file which is
+ * mapped by running ECUs will never be changed in place. Running ECUs can
+ * reload the new file (see {@link MappedLookupFile}).
+ */
+public class UdsCompiler {
+
+	private static Logger logger = LogManager.getLogger(UdsCompiler.class);
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: UdsCompiler <output file> <.uds file> [<.uds file> ...]");
+			System.exit(1);
+		}
+		String[] files = new String[args.length - 1];
+		System.arraycopy(args, 1, files, 0, files.length);
+		LookupTable table = new LookupTable();
+		table.addLookupEntriesFromFiles("", files);
+		compile(new ArrayList<LookupEntry>(table.getLookupEntries()), args[0]);
+		System.out.println("Compiled " + table.getLookupEntries().size() + " entries into " + args[0]);
+	}
+
+	/**
+	 * Writes the entries of a lookup table into a binary lookup file. The
+	 * file will be replaced by an atomic rename.
+	 *
+	 * @param entries    The entries in the order of the lookup table
+	 * @param outputFile Name of the binary lookup file
+	 * @throws IOException If the file could not be written or if the file
+	 *                     system does not support an atomic rename
+	 */
+	public static void compile(List<LookupEntry> entries, String outputFile) throws IOException {
+		logger.trace(">>> public static void compile(List<LookupEntry> entries, String outputFile)");
+		int size = entries.size();
+		CompiledModifier[][] modifiers = new CompiledModifier[size][];
+		int numberOfModifiers = 0;
+		for (int i = 0; i < size; i++) {
+			modifiers[i] = LookupIndex.compileModifiers(entries.get(i).getModifiers(), entries);
+			numberOfModifiers += modifiers[i].length;
+		}
+
+		int dataStart = MappedLookupFile.HEADER_SIZE + size * MappedLookupFile.ENTRY_SIZE
+				+ numberOfModifiers * MappedLookupFile.MODIFIER_SIZE;
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		DataOutputStream dataOut = new DataOutputStream(data);
+
+		Path outputPath = Paths.get(outputFile).toAbsolutePath();
+		Path temp = Files.createTempFile(outputPath.getParent(), outputPath.getFileName().toString(), ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MappedLookupFile.MAGIC);
+			out.writeInt(MappedLookupFile.VERSION);
+			out.writeInt(size);
+			out.writeInt(numberOfModifiers);
+
+			int modifierIndex = 0;
+			for (int i = 0; i < size; i++) {
+				LookupEntry entry = entries.get(i);
+				BytePattern pattern = BytePattern.compile(entry.getRegex());
+				int flags = 0;
+				int patternOffset = dataStart + data.size();
+				int patternLength = 0;
+				if (pattern != null) {
+					flags |= MappedLookupFile.FLAG_BYTE_PATTERN;
+					if (pattern.isAnySuffix()) {
+						flags |= MappedLookupFile.FLAG_ANY_SUFFIX;
+					}
+					int[] bytes = pattern.getBytes();
+					patternLength = bytes.length;
+					for (int value : bytes) {
+						dataOut.writeByte(value == BytePattern.ANY ? 0 : value);
+					}
+					for (int value : bytes) {
+						dataOut.writeByte(value == BytePattern.ANY ? 0x00 : 0xFF);
+					}
+				} else {
+					byte[] regex = entry.getRegex().getBytes(StandardCharsets.US_ASCII);
+					patternLength = regex.length;
+					dataOut.write(regex);
+				}
+				byte[] result = LookupIndex.toByteArray(entry.getResult());
+				int resultOffset = dataStart + data.size();
+				dataOut.write(result);
+
+				out.writeInt(flags);
+				out.writeInt(patternOffset);
+				out.writeInt(patternLength);
+				out.writeInt(resultOffset);
+				out.writeInt(result.length);
+				out.writeInt(modifierIndex);
+				out.writeInt(modifiers[i].length);
+				modifierIndex += modifiers[i].length;
+			}
+
+			for (int i = 0; i < size; i++) {
+				for (CompiledModifier modifier : modifiers[i]) {
+					int targetsOffset = dataStart + data.size();
+					for (int target : modifier.getTargets()) {
+						dataOut.writeInt(target);
+					}
+					int resultOffset = dataStart + data.size();
+					dataOut.write(modifier.getResult());
+
+					out.writeInt(targetsOffset);
+					out.writeInt(modifier.getTargets().length);
+					out.writeInt(resultOffset);
+					out.writeInt(modifier.getResult().length);
+				}
+			}
+
+			dataOut.flush();
+			data.writeTo(out);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		try {
+			Files.move(temp, outputPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		logger.debug("Wrote {} entries into binary lookup file '{}'", size, outputFile);
+		logger.trace("<<< public static void compile(List<LookupEntry> entries, String outputFile)");
+	}
+}
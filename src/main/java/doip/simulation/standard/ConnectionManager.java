@@ -4,6 +4,11 @@ import java.net.Socket;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -13,34 +18,103 @@ import doip.library.message.DoipTcpAliveCheckRequest;
 import doip.library.message.DoipTcpAliveCheckResponse;
 import doip.library.message.DoipTcpRoutingActivationRequest;
 import doip.library.timer.NanoTimer;
+import doip.library.util.Helper;
 import doip.simulation.AliveCheckResponseCollector;
 
-// TODO: Instead of synchronized methods we should use a lock
-// to prevent consistent list of current connections
-// we should use two locks. One for the access to the list
-// of current connections and one to prevent that multiple
-// alive checks will run in parallel
+/**
+ * Manages the TCP connections of a gateway and handles the registration of
+ * source addresses during routing activation. The decisions of the routing
+ * activation socket handler are synchronized on the connection manager,
+ * but alive checks will be performed without holding this lock, so several
+ * routing activations and alive checks can run at the same time.
+ */
 public class ConnectionManager {
 	
 	private static Logger logger = LogManager.getLogger(ConnectionManager.class);
 
 	/** Represents the connection table like 
 	 *  specified in the ISO specification */
-	private volatile LinkedList<StandardTcpConnectionGateway> connections = new LinkedList<StandardTcpConnectionGateway>();
+	private final CopyOnWriteArrayList<StandardTcpConnectionGateway> connections = new CopyOnWriteArrayList<StandardTcpConnectionGateway>();
+
+	/**
+	 * Index of the registered connections by their source address. It has
+	 * one entry for every 16 bit address, so the connection for a response
+	 * can be found without locking and without iterating over all
+	 * connections. Changes are only done while holding registrationLock.
+	 */
+	private final AtomicReferenceArray<StandardTcpConnectionGateway> connectionsBySourceAddress =
+			new AtomicReferenceArray<StandardTcpConnectionGateway>(65536);
+
+	/**
+	 * Source addresses under which the connections have been put into the
+	 * index. They are needed for removing a connection from the index,
+	 * because a connection forgets its source address when it gets closed.
+	 * Will only be accessed while holding registrationLock.
+	 */
+	private final HashMap<StandardTcpConnectionGateway, Integer> indexedSourceAddresses =
+			new HashMap<StandardTcpConnectionGateway, Integer>();
+
+	/**
+	 * Lock for changes of the index of registered connections
+	 */
+	private final Object registrationLock = new Object();
 	
 	private int maxNumberOfRegisteredConnections = 0;
 
+	/**
+	 * Maximum time in milliseconds to wait for alive check responses
+	 */
+	private volatile int aliveCheckTimeout = 500;
+
 	public ConnectionManager(int maxNumberOfRegisteredConnections) {
 		this.maxNumberOfRegisteredConnections = maxNumberOfRegisteredConnections;
 	}
+
+	public int getAliveCheckTimeout() {
+		return aliveCheckTimeout;
+	}
+
+	public void setAliveCheckTimeout(int aliveCheckTimeout) {
+		this.aliveCheckTimeout = aliveCheckTimeout;
+	}
 	
-	public synchronized boolean addConnection(StandardTcpConnectionGateway connection) {
+	public boolean addConnection(StandardTcpConnectionGateway connection) {
 		connections.add(connection);
 		return true;
 	}
 	
-	public synchronized void removeConnection(StandardTcpConnectionGateway connection) {
+	public void removeConnection(StandardTcpConnectionGateway connection) {
 		connections.remove(connection);
+		synchronized (registrationLock) {
+			Integer sourceAddress = indexedSourceAddresses.remove(connection);
+			if (sourceAddress != null) {
+				connectionsBySourceAddress.compareAndSet(sourceAddress, connection, null);
+			}
+		}
+	}
+
+	/**
+	 * Registers the source address on the given connection and puts the
+	 * connection into the index. A connection which has been registered
+	 * before with the same source address will be replaced in the index.
+	 * @param connection The connection
+	 * @param sourceAddress The source address from the routing activation
+	 */
+	private void registerConnection(StandardTcpConnectionGateway connection, int sourceAddress) {
+		synchronized (registrationLock) {
+			connection.setRegisteredSourceAddress(sourceAddress);
+			if (sourceAddress < 0 || sourceAddress >= connectionsBySourceAddress.length()) {
+				return;
+			}
+			Integer oldSourceAddress = indexedSourceAddresses.put(connection, sourceAddress);
+			if (oldSourceAddress != null && oldSourceAddress != sourceAddress) {
+				connectionsBySourceAddress.compareAndSet(oldSourceAddress, connection, null);
+			}
+			StandardTcpConnectionGateway oldConnection = connectionsBySourceAddress.getAndSet(sourceAddress, connection);
+			if (oldConnection != null && oldConnection != connection) {
+				indexedSourceAddresses.remove(oldConnection);
+			}
+		}
 	}
 	
 	public void stopAllConnections() {
@@ -53,7 +127,7 @@ public class ConnectionManager {
 	 * Returns a new list which contains all registered connections
 	 * @return A new list which contains all registered connections
 	 */
-	private synchronized LinkedList<StandardTcpConnectionGateway> getRegisteredConnections() {
+	private LinkedList<StandardTcpConnectionGateway> getRegisteredConnections() {
 		LinkedList<StandardTcpConnectionGateway> registeredConnections =
 				new LinkedList<StandardTcpConnectionGateway>();
 		for (StandardTcpConnectionGateway conn : connections) {
@@ -64,15 +138,34 @@ public class ConnectionManager {
 		return registeredConnections;
 	}
 	
+	/**
+	 * Returns a new list which contains all current connections, e.g. to
+	 * read the statistics of their outbound queues
+	 * @return A new list which contains all current connections
+	 */
+	public List<StandardTcpConnectionGateway> getConnections() {
+		return new LinkedList<StandardTcpConnectionGateway>(connections);
+	}
+	
 	public int getNumberOfCurrentConnections() {
 		return this.connections.size();
 	}
 	
-	public synchronized StandardTcpConnectionGateway getConnectionBySourceAddress(int sourceAddress) {
-		for (StandardTcpConnectionGateway conn : connections) {
-			if (conn.getRegisteredSourceAddress() == sourceAddress) {
-				return conn;
-			}
+	/**
+	 * Returns the connection on which the given source address is
+	 * registered. It does not block, so it can be called for every response
+	 * of an ECU.
+	 * @param sourceAddress The source address
+	 * @return The connection or null if the source address is not registered
+	 */
+	public StandardTcpConnectionGateway getConnectionBySourceAddress(int sourceAddress) {
+		if (sourceAddress < 0 || sourceAddress >= connectionsBySourceAddress.length()) {
+			return null;
+		}
+		StandardTcpConnectionGateway conn = connectionsBySourceAddress.get(sourceAddress);
+		// The connection might have been closed and not yet removed
+		if (conn != null && conn.getRegisteredSourceAddress() == sourceAddress) {
+			return conn;
 		}
 		return null;
 	}
@@ -103,112 +196,133 @@ public class ConnectionManager {
 	               </ul>
 	 *         </ul>
 	 */
-	public synchronized int routingActivationSocketHandler(StandardTcpConnectionGateway connection, DoipTcpRoutingActivationRequest request) {
-//		List<StandardTcpConnectionGateway> registeredConnections = getRegisteredConnections();
-		
-//		if (registeredConnections.size() == 0) {
-//			connection.setRegisteredSourceAddress(request.getSourceAddress());
-//			return 0x10; // routing successful activated
-//		}
-		
-		// Check if current connection is already registered
-		if (connection.isRegistered()) {
-			if (connection.getRegisteredSourceAddress() == request.getSourceAddress()) {
-				// Registered source address is already registered on
-				// this socket, we can send back positive result
-				// [DoIP-089]		
-				logger.info("Routing activation successful because source address is already registered on this socket, we send back 0x10");
-				return 0x10; // routing successful activated
-			} else {
-				// [DoIP-106]
-				logger.info("Routing activation denied because an SA different from the table connection entry was received on the already activated TCP_DATA socket, we will send back 0x02");
-				return 0x02; // routing activation denied because an SA different from the table connection entry was received on the already activated TCP_DATA socket
+	public int routingActivationSocketHandler(StandardTcpConnectionGateway connection, DoipTcpRoutingActivationRequest request) {
+		int sourceAddress = request.getSourceAddress();
+		StandardTcpConnectionGateway alreadyRegisteredConnection = null;
+		List<StandardTcpConnectionGateway> registeredConnections = null;
+		synchronized (this) {
+			// Check if current connection is already registered
+			if (connection.isRegistered()) {
+				if (connection.getRegisteredSourceAddress() == sourceAddress) {
+					// Registered source address is already registered on
+					// this socket, we can send back positive result
+					// [DoIP-089]		
+					logger.info("Routing activation successful because source address is already registered on this socket, we send back 0x10");
+					return 0x10; // routing successful activated
+				} else {
+					// [DoIP-106]
+					logger.info("Routing activation denied because an SA different from the table connection entry was received on the already activated TCP_DATA socket, we will send back 0x02");
+					return 0x02; // routing activation denied because an SA different from the table connection entry was received on the already activated TCP_DATA socket
+				}
 			}
-		} else {
+
 			// Connection is not registered, check if it registered on a
 			// different connection
-			StandardTcpConnectionGateway alreadyRegisteredConnection = getConnectionBySourceAddress(request.getSourceAddress());
+			alreadyRegisteredConnection = getConnectionBySourceAddress(sourceAddress);
 			if (alreadyRegisteredConnection == null) {
-				// It is not registered on a different socket
-				// TODO: Check if maximum registered connections is reached
-				// In such a case we need to perform alive check on
-				// all other registered connections 
-				// Just for now we assume it is not reached
-				List<StandardTcpConnectionGateway> registeredConnections = getRegisteredConnections();
-				if (registeredConnections.size() >= this.maxNumberOfRegisteredConnections) {
-					
-					logger.info("Maximum number of registered connections reached, we need to perform alive check on all other TCP_DATA sockets");
-					HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> map =
-						this.performAliveCheck(registeredConnections);
-					if (map.size() >= this.maxNumberOfRegisteredConnections) {
-						logger.info("All sockets are still in use after alive check, routing activation denied because all concurrently supported TCP_DATA sockets are registered and active, we send back 0x01");
-						return 0x01; // routing activation denied because all concurrently supported TCP_DATA sockets are registered and active 
-					} else {
-						logger.info("After alive check one or more sockets are not used any more, they will be closed and routing activation for current socket will be successful, we return 0x10");
-						connection.setRegisteredSourceAddress(request.getSourceAddress());
-						return 0x10;
-					}
-				} else {
+				registeredConnections = getRegisteredConnections();
+				if (registeredConnections.size() < this.maxNumberOfRegisteredConnections) {
 					// [DoIP-090]
 					// Maximum number of registered connections is not reached
-					connection.setRegisteredSourceAddress(request.getSourceAddress());
+					registerConnection(connection, sourceAddress);
 					logger.info("Routing activation successful because connection was not registered and source address is not registered to any other TCP_DATA socket, we send back 0x10");
 					return 0x10; // routing successful activated
 				}
+				logger.info("Maximum number of registered connections reached, we need to perform alive check on all other TCP_DATA sockets");
 			} else {
-				// [DoIP-091]
-				// Current connection is not registered, but source address
-				// is registered on a different socket.
-				
-				// Create list with only one element, this element is the
-				// other connection whis is registered to the same
-				// source address
-				List<StandardTcpConnectionGateway> conns =
-						new LinkedList<StandardTcpConnectionGateway>();
-				conns.add(alreadyRegisteredConnection);
-				
-				// Perform alive check
 				logger.info("Current socket is not registered, but source address is registered to a different TCP_DATA socket, this requires alive check");
-				//PlantUml.logCall(this, this, "performAliveCheck(...)");
-				HashMap<StandardTcpConnectionGateway, 
-						LinkedList<Integer>> map =
-						this.performAliveCheck(conns);
-				//PlantUml.logReturn(this, this);
-				
-				// Check integrity of map. It must contain at maximum one
-				// connection as a key. Alive check responses on other sockets
-				// will not be collected by the AliveCheckResponseCollector.
-				if (map.size() > 1) {
-					logger.fatal("An alive check on a single socket has been done, but the result contains multiple connections on which an alive check response has been received");
+			}
+		}
+
+		// The alive check will be performed without holding the lock, so
+		// other routing activations will not be blocked while waiting for
+		// the alive check responses. Therefore the connection table needs
+		// to be checked again after the alive check.
+		if (alreadyRegisteredConnection == null) {
+			HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> map =
+				this.performAliveCheck(registeredConnections);
+			if (map.size() >= this.maxNumberOfRegisteredConnections) {
+				logger.info("All sockets are still in use after alive check, routing activation denied because all concurrently supported TCP_DATA sockets are registered and active, we send back 0x01");
+				return 0x01; // routing activation denied because all concurrently supported TCP_DATA sockets are registered and active 
+			}
+			synchronized (this) {
+				if (getConnectionBySourceAddress(sourceAddress) != null) {
+					logger.info("Routing activation denied because the SA has been registered on a different TCP_DATA socket during the alive check, we send back 0x03");
+					return 0x03;
 				}
-						
-				// Now check if alive check response has been received and
-				// if the source address in the alive check response
-				// matches the new requested source address
-				logger.info("Alive check has been performed and we did receive responses on {} sockets", map.size());
-				if (map.containsKey(alreadyRegisteredConnection)) {
-					// [DoIP-093]
-					List<Integer> responses = map.get(alreadyRegisteredConnection);
-					for (Integer response : responses) {
-						if (response == request.getSourceAddress()) {
-							logger.info("Routing activation denied because the SA is already registered and active on a different TCP_DATA socket, we send back 0x03");
-							return 0x03; // routing activation denied because the SA is already registered and active on a different TCP_DATA socket
-						}
+				int numberOfRegisteredConnections = 0;
+				for (StandardTcpConnectionGateway conn : getRegisteredConnections()) {
+					// Connections which did not answer have been closed
+					if (!registeredConnections.contains(conn) || map.containsKey(conn)) {
+						numberOfRegisteredConnections++;
 					}
+				}
+				if (numberOfRegisteredConnections >= this.maxNumberOfRegisteredConnections) {
+					logger.info("Free sockets have been taken by other routing activations during the alive check, we send back 0x01");
+					return 0x01;
+				}
+				logger.info("After alive check one or more sockets are not used any more, they will be closed and routing activation for current socket will be successful, we return 0x10");
+				registerConnection(connection, sourceAddress);
+				return 0x10;
+			}
+		}
 
-					// Source address not found in the responses, that means
-					// Source address is free now.
-					// TODO: Update source addresses in list of connections
-					logger.info("Source address hasn't been found in alive check response, routing activation successful, we send back 0x10");
-					return 0x10; 
-				} else {
-					// [DoIP-092]
-					// No response on alive check
-					logger.info("No alive check response received, routing activation successful, we send back 0x10");
-					return 0x10;
+		// [DoIP-091]
+		// Current connection is not registered, but source address
+		// is registered on a different socket.
+		
+		// Create list with only one element, this element is the
+		// other connection whis is registered to the same
+		// source address
+		List<StandardTcpConnectionGateway> conns =
+				new LinkedList<StandardTcpConnectionGateway>();
+		conns.add(alreadyRegisteredConnection);
+		
+		// Perform alive check
+		HashMap<StandardTcpConnectionGateway, 
+				LinkedList<Integer>> map =
+				this.performAliveCheck(conns);
+		
+		// Check integrity of map. It must contain at maximum one
+		// connection as a key. Alive check responses on other sockets
+		// will not be collected by the AliveCheckResponseCollector.
+		if (map.size() > 1) {
+			logger.fatal("An alive check on a single socket has been done, but the result contains multiple connections on which an alive check response has been received");
+		}
+				
+		// Now check if alive check response has been received and
+		// if the source address in the alive check response
+		// matches the new requested source address
+		logger.info("Alive check has been performed and we did receive responses on {} sockets", map.size());
+		if (map.containsKey(alreadyRegisteredConnection)) {
+			// [DoIP-093]
+			List<Integer> responses = map.get(alreadyRegisteredConnection);
+			for (Integer response : responses) {
+				if (response == sourceAddress) {
+					logger.info("Routing activation denied because the SA is already registered and active on a different TCP_DATA socket, we send back 0x03");
+					return 0x03; // routing activation denied because the SA is already registered and active on a different TCP_DATA socket
 				}
 			}
 		}
+
+		synchronized (this) {
+			StandardTcpConnectionGateway currentConnection = getConnectionBySourceAddress(sourceAddress);
+			if (currentConnection != null && currentConnection != alreadyRegisteredConnection) {
+				logger.info("Routing activation denied because the SA has been registered on a different TCP_DATA socket during the alive check, we send back 0x03");
+				return 0x03;
+			}
+			if (map.containsKey(alreadyRegisteredConnection)) {
+				// Source address not found in the responses, that means
+				// Source address is free now.
+				logger.info("Source address hasn't been found in alive check response, routing activation successful, we send back 0x10");
+			} else {
+				// [DoIP-092]
+				// No response on alive check
+				logger.info("No alive check response received, routing activation successful, we send back 0x10");
+			}
+			registerConnection(connection, sourceAddress);
+			return 0x10;
+		}
 	}
 	
 	/**
@@ -216,6 +330,9 @@ public class ConnectionManager {
 	 * alive check for single connection or alive check for all registered
 	 * connections. The list of connections on which an alive check
 	 * shall be performed is given as an argument to the method.
+	 * The calling thread waits until all connections have answered or
+	 * have been closed, but at most for the alive check timeout. Several
+	 * alive checks can run at the same time.
 	 * @param conns List of Connections on which an alive check shall be
 	 * performed
 	 * @return Returns a map which contains the connections as a key on which an alive
@@ -228,37 +345,34 @@ public class ConnectionManager {
 	 *         of concept we already implement a list of alive check responses
 	 *         for each connection.
 	 */
-	public synchronized HashMap<StandardTcpConnectionGateway,
+	public HashMap<StandardTcpConnectionGateway,
 				        LinkedList<Integer>> 
 			performAliveCheck(List<StandardTcpConnectionGateway> conns) {
 		
-		//PlantUml.note(this, "Perform alive check on " + conns.size() + " connection(s)");
-		
-		AliveCheckResponseCollector collector = new AliveCheckResponseCollector();
-		for (StandardTcpConnectionGateway conn : conns) {
-			conn.addListener(collector);
-		}
-		
-		DoipTcpAliveCheckRequest request = new DoipTcpAliveCheckRequest();
-		for (StandardTcpConnectionGateway conn : conns) {
-			//PlantUml.logCall(this, conn, "send(DoipTcpAliveCheckRequest request)");
-			conn.send(request);
-			//PlantUml.logReturn(this, conn);
-		}
-		
-		try {	
-			Thread.sleep(500); // This can be optimized
+		AliveCheckResponseCollector collector = this.startAliveCheck(conns);
+		HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> map = null;
+		try {
+			map = collector.getFuture().get(this.aliveCheckTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			logger.debug("Alive check timeout of {} ms expired", this.aliveCheckTimeout);
 		} catch (InterruptedException e) {
 			logger.fatal("Waiting for alive check responses has been interrupted");
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			logger.fatal(Helper.getExceptionAsString(e));
+		}
+		if (map == null) {
+			collector.complete();
+			map = collector.getFuture().join();
 		}
 		
+		// The listeners will be removed by this thread and not by the thread
+		// which completed the future, because that is the receiver thread of
+		// a connection which is just calling its listeners.
 		for (StandardTcpConnectionGateway conn : conns) {
 			conn.removeListener(collector);
 		}
 		
-		HashMap<StandardTcpConnectionGateway,
-        LinkedList<Integer>> map = collector.getAliveCheckResponses();
-		
 		// Connections with no responses we already can close
 		for (StandardTcpConnectionGateway conn : conns) {
 			if (map.containsKey(conn) == false) {
@@ -270,4 +384,31 @@ public class ConnectionManager {
 		
 		return map;
 	}
+
+	/**
+	 * Sends the alive check requests and returns without waiting for the
+	 * responses. The future of the returned collector will be completed as
+	 * soon as all connections have answered or have been closed.
+	 * @param conns List of Connections on which an alive check shall be
+	 * performed
+	 * @return The collector for the alive check responses
+	 */
+	private AliveCheckResponseCollector startAliveCheck(List<StandardTcpConnectionGateway> conns) {
+		
+		//PlantUml.note(this, "Perform alive check on " + conns.size() + " connection(s)");
+		
+		AliveCheckResponseCollector collector = new AliveCheckResponseCollector(conns);
+		for (StandardTcpConnectionGateway conn : conns) {
+			conn.addListener(collector);
+		}
+		
+		DoipTcpAliveCheckRequest request = new DoipTcpAliveCheckRequest();
+		for (StandardTcpConnectionGateway conn : conns) {
+			//PlantUml.logCall(this, conn, "send(DoipTcpAliveCheckRequest request)");
+			conn.send(request);
+			//PlantUml.logReturn(this, conn);
+		}
+		
+		return collector;
+	}
 }
@@ -0,0 +1,160 @@
+package doip.simulation.standard;
+
+import doip.library.message.UdsMessage;
+import doip.simulation.ResponseScheduler;
+
+/**
+ * A response which will be sent after a delay. The delay consists of two
+ * parts like it is defined by ISO 14229-2:
+ * <ul>
+ * <li>P2: Time until the ECU reacts on the request. If the request is not a
+ * long-running request, the final response will be sent after this
+ * time.</li>
+ * <li>P2*: Additional time for long-running requests. After P2 the ECU sends
+ * a response pending message (NRC 0x78) and repeats it in the configured
+ * interval until the final response will be sent.</li>
+ * </ul>
+ * The task reschedules itself in the response scheduler, so no thread is
+ * blocked while waiting.
+ */
+class DelayedResponse implements Runnable {
+
+	/**
+	 * Value of nextResponsePending if no more response pending message
+	 * will be sent
+	 */
+	private static final long NONE = Long.MAX_VALUE;
+
+	/**
+	 * The ECU which sends the response
+	 */
+	private StandardEcu ecu = null;
+
+	/**
+	 * The request for which the response will be sent
+	 */
+	private UdsMessage request = null;
+
+	/**
+	 * The final response. If it is null no response will be sent, only the
+	 * request will be cleared.
+	 */
+	private UdsMessage response = null;
+
+	/**
+	 * Point in time (System.nanoTime()) when the final response will be sent
+	 */
+	private long deadline = 0;
+
+	/**
+	 * Point in time (System.nanoTime()) when the next response pending
+	 * message will be sent, NONE if no more message will be sent
+	 */
+	private long nextResponsePending = NONE;
+
+	/**
+	 * Interval in milliseconds for response pending messages, 0 means that
+	 * only one response pending message will be sent
+	 */
+	private int responsePendingInterval = 0;
+
+	/**
+	 * Value of the start counter of the ECU when the response has been
+	 * created. If the ECU has been restarted meanwhile the response belongs
+	 * to a request which has already been released.
+	 */
+	private int startCounter = 0;
+
+	/**
+	 * Constructor
+	 *
+	 * @param ecu                     The ECU which sends the response
+	 * @param request                 The request
+	 * @param response                The final response
+	 * @param p2Millis                Time in milliseconds until the final
+	 *                                response or the first response pending
+	 *                                message will be sent
+	 * @param p2StarMillis            Additional time in milliseconds for
+	 *                                long-running requests, a negative value
+	 *                                means that the request is not
+	 *                                long-running and no response pending
+	 *                                message will be sent
+	 * @param responsePendingInterval Interval for response pending messages
+	 */
+	DelayedResponse(StandardEcu ecu, UdsMessage request, UdsMessage response, int p2Millis, int p2StarMillis,
+			int responsePendingInterval) {
+		this.ecu = ecu;
+		this.request = request;
+		this.response = response;
+		long now = System.nanoTime();
+		if (p2StarMillis >= 0) {
+			this.nextResponsePending = now + p2Millis * 1000000L;
+			this.deadline = this.nextResponsePending + p2StarMillis * 1000000L;
+		} else {
+			this.deadline = now + p2Millis * 1000000L;
+		}
+		this.responsePendingInterval = responsePendingInterval;
+		this.startCounter = ecu.getStartCounter();
+	}
+
+	/**
+	 * Sends the first response pending message if it is due already and
+	 * schedules the next step.
+	 *
+	 * @param scheduler The scheduler which executes the next steps
+	 * @return False if the task could not be scheduled
+	 */
+	boolean start(ResponseScheduler scheduler) {
+		long now = System.nanoTime();
+		if (this.nextResponsePending != NONE && now - this.nextResponsePending >= 0) {
+			this.sendResponsePending();
+		}
+		return this.scheduleNextStep(scheduler, now);
+	}
+
+	@Override
+	public void run() {
+		ResponseScheduler scheduler = this.ecu.getActiveResponseScheduler();
+		if (scheduler == null || this.startCounter != this.ecu.getStartCounter()) {
+			// ECU has been stopped, the request has been released by
+			// StandardEcu.stop()
+			return;
+		}
+		long now = System.nanoTime();
+		if (now - this.deadline < 0) {
+			if (this.nextResponsePending != NONE && now - this.nextResponsePending >= 0) {
+				this.sendResponsePending();
+			}
+			if (this.scheduleNextStep(scheduler, now)) {
+				return;
+			}
+		}
+		this.ecu.sendDelayedResponse(this.request, this.response);
+	}
+
+	/**
+	 * Sends a response pending message and calculates when the next one will
+	 * be sent.
+	 */
+	private void sendResponsePending() {
+		this.ecu.sendResponsePending(this.request);
+		if (this.responsePendingInterval > 0) {
+			this.nextResponsePending += this.responsePendingInterval * 1000000L;
+		} else {
+			this.nextResponsePending = NONE;
+		}
+	}
+
+	/**
+	 * Schedules the next response pending message or the final response,
+	 * whatever comes first.
+	 */
+	private boolean scheduleNextStep(ResponseScheduler scheduler, long now) {
+		long next = this.deadline;
+		if (this.nextResponsePending != NONE && this.nextResponsePending - next < 0) {
+			next = this.nextResponsePending;
+		}
+		long delay = (next - now + 999999L) / 1000000L;
+		return scheduler.schedule(this, Math.max(delay, 0));
+	}
+}
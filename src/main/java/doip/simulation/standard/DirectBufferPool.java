@@ -0,0 +1,72 @@
+package doip.simulation.standard;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of direct byte buffers with a fixed size. Messages will be encoded
+ * into these buffers and written from them without further copying. The
+ * pool is bounded: if more buffers are released than the pool can hold,
+ * the additional buffers will be left to the garbage collector, and if the
+ * pool is empty a new buffer will be allocated.
+ */
+public class DirectBufferPool {
+
+	/**
+	 * Size of a buffer in bytes
+	 */
+	private int bufferSize = 0;
+
+	/**
+	 * The free buffers. The queue is backed by an array, so acquiring and
+	 * releasing a buffer does not allocate any objects.
+	 */
+	private ArrayBlockingQueue<ByteBuffer> buffers = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param bufferSize Size of a buffer in bytes
+	 * @param maxBuffers Maximum number of free buffers which will be kept
+	 */
+	public DirectBufferPool(int bufferSize, int maxBuffers) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<ByteBuffer>(maxBuffers);
+	}
+
+	public int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Returns the number of free buffers in the pool
+	 */
+	public int getNumberOfFreeBuffers() {
+		return this.buffers.size();
+	}
+
+	/**
+	 * Returns an empty buffer for writing.
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = this.buffers.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(this.bufferSize);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool. Buffers which have not been acquired
+	 * from this pool will be ignored. The buffer must not be used any more
+	 * by the caller.
+	 *
+	 * @param buffer The buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer.isDirect() && buffer.capacity() == this.bufferSize) {
+			this.buffers.offer(buffer);
+		}
+	}
+}
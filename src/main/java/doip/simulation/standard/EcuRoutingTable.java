@@ -0,0 +1,102 @@
+package doip.simulation.standard;
+
+import java.util.Arrays;
+import java.util.List;
+
+import doip.simulation.EcuBase;
+
+/**
+ * Immutable index from a logical address to the ECUs which have this
+ * address as physical or as functional address. The index is a dense array
+ * with one entry for every 16 bit logical address, so the target ECUs of a
+ * diagnostic message can be found without iterating over all ECUs and
+ * without allocating any objects. The ECUs of an address are in the same
+ * order as in the list of ECUs of the gateway, no matter whether the
+ * address is their physical or their functional address. If the ECUs of a
+ * gateway change, a new table needs to be built and replaces the old one.
+ */
+public class EcuRoutingTable {
+
+	/**
+	 * Number of logical addresses, a logical address has 16 bit
+	 */
+	private static final int NUMBER_OF_ADDRESSES = 65536;
+
+	/**
+	 * Shared result for addresses without any ECU
+	 */
+	private static final EcuBase[] NO_ECUS = new EcuBase[0];
+
+	/**
+	 * A table which does not contain any ECU
+	 */
+	public static final EcuRoutingTable EMPTY = new EcuRoutingTable(new EcuBase[NUMBER_OF_ADDRESSES][]);
+
+	/**
+	 * ECUs by their physical or functional address. Entries for addresses
+	 * without any ECU are null.
+	 */
+	private final EcuBase[][] targets;
+
+	private EcuRoutingTable(EcuBase[][] targets) {
+		this.targets = targets;
+	}
+
+	/**
+	 * Builds a new table for the given ECUs. The order of the ECUs for one
+	 * address will be the same as in the list. An ECU whose physical and
+	 * functional address are equal will only be added once. Addresses
+	 * outside of the 16 bit range (e.g. -1 for "no functional address") will
+	 * be ignored.
+	 *
+	 * @param ecus The ECUs
+	 * @return The new table
+	 */
+	public static EcuRoutingTable build(List<EcuBase> ecus) {
+		if (ecus.isEmpty()) {
+			return EMPTY;
+		}
+		EcuBase[][] targets = new EcuBase[NUMBER_OF_ADDRESSES][];
+		for (EcuBase ecu : ecus) {
+			int physicalAddress = ecu.getConfig().getPhysicalAddress();
+			int functionalAddress = ecu.getConfig().getFunctionalAddress();
+			add(targets, physicalAddress, ecu);
+			if (functionalAddress != physicalAddress) {
+				add(targets, functionalAddress, ecu);
+			}
+		}
+		return new EcuRoutingTable(targets);
+	}
+
+	private static void add(EcuBase[][] targets, int address, EcuBase ecu) {
+		if (address < 0 || address >= NUMBER_OF_ADDRESSES) {
+			return;
+		}
+		EcuBase[] ecus = targets[address];
+		if (ecus == null) {
+			targets[address] = new EcuBase[] { ecu };
+		} else {
+			ecus = Arrays.copyOf(ecus, ecus.length + 1);
+			ecus[ecus.length - 1] = ecu;
+			targets[address] = ecus;
+		}
+	}
+
+	/**
+	 * Returns the ECUs which have the given address as physical or as
+	 * functional address, in the order of the list from which the table has
+	 * been built. An ECU is a physical target if its physical address is
+	 * equal to the given address, otherwise it is a functional target. The
+	 * returned array must not be modified.
+	 *
+	 * @param address The logical address
+	 * @return The ECUs, an empty array if there is no such ECU
+	 */
+	public EcuBase[] getTargets(int address) {
+		if (address < 0 || address >= NUMBER_OF_ADDRESSES) {
+			return NO_ECUS;
+		}
+		EcuBase[] ecus = this.targets[address];
+		return ecus != null ? ecus : NO_ECUS;
+	}
+}
@@ -0,0 +1,110 @@
+package doip.simulation.standard;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.simulation.ThreadMode;
+
+/**
+ * Implements the initial and general inactivity timer of a TCP connection.
+ * The timer is implemented as a thread which blocks until the timer expires
+ * or until it will be restarted or stopped. The thread will be created with
+ * the given thread mode, so it can also be a virtual thread.
+ */
+public class InactivityTimer implements Runnable {
+
+	private static Logger logger = LogManager.getLogger(InactivityTimer.class);
+
+	/**
+	 * Name of the thread
+	 */
+	private String name = null;
+
+	/**
+	 * Defines which kind of thread will be created
+	 */
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	/**
+	 * Will be called when the timer expired
+	 */
+	private Runnable onExpired = null;
+
+	/**
+	 * Point in time (System.nanoTime()) when the timer will expire
+	 */
+	private long deadline = 0;
+
+	/**
+	 * The thread which is waiting for the deadline. It is null if the timer
+	 * is not running.
+	 */
+	private Thread thread = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name       Name of the thread
+	 * @param threadMode Defines which kind of thread will be created
+	 * @param onExpired  Will be called when the timer expired
+	 */
+	public InactivityTimer(String name, ThreadMode threadMode, Runnable onExpired) {
+		this.name = name;
+		this.threadMode = threadMode;
+		this.onExpired = onExpired;
+	}
+
+	/**
+	 * Starts the timer. If the timer is already running it will be restarted
+	 * with the new time.
+	 *
+	 * @param millis Time in milliseconds until the timer expires
+	 */
+	public synchronized void start(int millis) {
+		this.deadline = System.nanoTime() + millis * 1000000L;
+		if (this.thread == null) {
+			this.thread = this.threadMode.newThread(this, this.name);
+			this.thread.start();
+		} else {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Stops the timer. The timer will not expire any more.
+	 */
+	public synchronized void stop() {
+		this.thread = null;
+		this.notifyAll();
+	}
+
+	@Override
+	public void run() {
+		Thread current = Thread.currentThread();
+		boolean expired = false;
+		synchronized (this) {
+			// The loop will be left when the timer expired, or when the timer
+			// has been stopped or restarted with a new thread.
+			while (this.thread == current) {
+				long remaining = this.deadline - System.nanoTime();
+				if (remaining <= 0) {
+					this.thread = null;
+					expired = true;
+					break;
+				}
+				try {
+					this.wait(remaining / 1000000L + 1);
+				} catch (InterruptedException e) {
+					logger.error("Inactivity timer '{}' has been interrupted", this.name);
+					if (this.thread == current) {
+						this.thread = null;
+					}
+					return;
+				}
+			}
+		}
+		if (expired) {
+			this.onExpired.run();
+		}
+	}
+}
@@ -0,0 +1,367 @@
+package doip.simulation.standard;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.util.Helper;
+
+/**
+ * One event loop of a {@link NioEventLoopGroup}. The event loop owns a
+ * selector and a thread which handles all channels registered at the
+ * selector: it accepts new connections, reads and frames DoIP messages,
+ * writes the queued messages of the connections and checks the inactivity
+ * timers and the held back acknowledgements. Other threads communicate with the event loop only by tasks, so
+ * the channels and the selection keys will only be accessed by the thread
+ * of the event loop.
+ */
+public class NioEventLoop implements Runnable {
+
+	private static Logger logger = LogManager.getLogger(NioEventLoop.class);
+
+	/**
+	 * Interval in milliseconds in which the inactivity timers of the
+	 * connections will be checked
+	 */
+	private static final int INACTIVITY_CHECK_INTERVAL = 100;
+
+	/**
+	 * Size of the buffer for reading from the channels
+	 */
+	private static final int READ_BUFFER_SIZE = 65536;
+
+	/**
+	 * Name of the event loop, it will be used as name for the thread
+	 */
+	private String name = null;
+
+	private NioEventLoopGroup group = null;
+
+	private Selector selector = null;
+
+	/**
+	 * Buffer for reading from the channels, it will be shared by all
+	 * connections of this event loop
+	 */
+	private ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+	/**
+	 * Tasks which will be executed by the thread of the event loop
+	 */
+	private ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	/**
+	 * Flag if the selector has already been woken up since the last select,
+	 * so several tasks from other threads cause only one wakeup
+	 */
+	private AtomicBoolean wakeupPending = new AtomicBoolean(false);
+
+	/**
+	 * Connections which hold back an acknowledgement for the write coalesce
+	 * time. Will only be accessed by the thread of the event loop.
+	 */
+	private ArrayList<NioTcpConnectionGateway> heldFlushes = new ArrayList<NioTcpConnectionGateway>();
+
+	/**
+	 * Point in time (System.nanoTime()) when the inactivity timers have been
+	 * checked the last time
+	 */
+	private long lastInactivityCheck = 0;
+
+	/**
+	 * The thread of the event loop. It is null when the event loop is not
+	 * running.
+	 */
+	private volatile Thread thread = null;
+
+	/**
+	 * Constructor
+	 *
+	 * @param name  Name of the event loop, will be used for the thread name
+	 * @param group The group to which the event loop belongs
+	 */
+	public NioEventLoop(String name, NioEventLoopGroup group) {
+		this.name = name;
+		this.group = group;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public NioEventLoopGroup getGroup() {
+		return group;
+	}
+
+	/**
+	 * Returns true if the current thread is the thread of this event loop
+	 */
+	public boolean inEventLoop() {
+		return Thread.currentThread() == this.thread;
+	}
+
+	/**
+	 * Opens the selector and starts the thread.
+	 *
+	 * @throws IOException If the selector could not be opened
+	 */
+	public synchronized void start() throws IOException {
+		String method = "public synchronized void start()";
+		logger.trace(">>> {}", method);
+		if (this.thread == null) {
+			this.selector = Selector.open();
+			this.lastInactivityCheck = System.nanoTime();
+			this.thread = this.group.getThreadMode().newThread(this, this.name);
+			this.thread.setDaemon(true);
+			this.thread.start();
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Stops the thread and closes the selector. Tasks which have been
+	 * executed before will still be executed.
+	 */
+	public synchronized void stop() {
+		String method = "public synchronized void stop()";
+		logger.trace(">>> {}", method);
+		Thread thread = this.thread;
+		this.thread = null;
+		if (thread != null) {
+			this.selector.wakeup();
+			try {
+				thread.join(5000);
+			} catch (InterruptedException e) {
+				logger.error("Waiting for termination of event loop '{}' has been interrupted", this.name);
+			}
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Executes a task by the thread of the event loop. The task will always
+	 * be executed later, also if this function will be called by the thread
+	 * of the event loop. The task must be short and must not block.
+	 *
+	 * @param task The task
+	 */
+	public void execute(Runnable task) {
+		this.tasks.add(task);
+		if (!this.inEventLoop() && this.wakeupPending.compareAndSet(false, true)) {
+			Selector selector = this.selector;
+			if (selector != null) {
+				selector.wakeup();
+			}
+		}
+	}
+
+	/**
+	 * Adds a server socket channel, new connections will be accepted by this
+	 * event loop.
+	 *
+	 * @param serverChannel The server socket channel
+	 * @param listener      Will be called for every new connection
+	 */
+	public void addServer(ServerSocketChannel serverChannel, NioServerListener listener) {
+		this.execute(() -> {
+			try {
+				serverChannel.configureBlocking(false);
+				serverChannel.register(this.selector, SelectionKey.OP_ACCEPT, listener);
+			} catch (IOException e) {
+				logger.error("Failed to accept connections on server socket channel in event loop '{}'", this.name);
+				logger.error(Helper.getExceptionAsString(e));
+			}
+		});
+	}
+
+	/**
+	 * Registers the channel of a connection at this event loop.
+	 *
+	 * @param channel    The channel
+	 * @param connection The connection to which the channel belongs
+	 */
+	public void register(SocketChannel channel, NioTcpConnectionGateway connection) {
+		this.execute(() -> {
+			try {
+				SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+				connection.setSelectionKey(key);
+			} catch (ClosedChannelException e) {
+				connection.stop();
+			}
+		});
+	}
+
+	/**
+	 * Adds a connection which holds back an acknowledgement. Must be called
+	 * by the thread of the event loop.
+	 *
+	 * @param connection The connection
+	 */
+	void addHeldFlush(NioTcpConnectionGateway connection) {
+		this.heldFlushes.add(connection);
+	}
+
+	@Override
+	public void run() {
+		Thread current = Thread.currentThread();
+		try {
+			while (this.thread == current) {
+				long timeout = this.getSelectTimeout();
+				if (timeout > 0) {
+					this.selector.select(timeout);
+				} else {
+					this.selector.selectNow();
+				}
+				this.wakeupPending.set(false);
+				this.processSelectedKeys();
+				this.runTasks();
+				long now = System.nanoTime();
+				if (!this.heldFlushes.isEmpty()) {
+					this.checkHeldFlushes(now);
+				}
+				if (now - this.lastInactivityCheck >= INACTIVITY_CHECK_INTERVAL * 1000000L) {
+					this.lastInactivityCheck = now;
+					this.checkInactivity(now);
+				}
+			}
+		} catch (IOException e) {
+			logger.error("Event loop '{}' has been terminated because of an error", this.name);
+			logger.error(Helper.getExceptionAsString(e));
+		} finally {
+			this.runTasks();
+			try {
+				this.selector.close();
+			} catch (IOException e) {
+				logger.error(Helper.getExceptionAsString(e));
+			}
+		}
+	}
+
+	private void processSelectedKeys() {
+		Iterator<SelectionKey> iter = this.selector.selectedKeys().iterator();
+		while (iter.hasNext()) {
+			SelectionKey key = iter.next();
+			iter.remove();
+			try {
+				if (key.isAcceptable()) {
+					this.accept(key);
+					continue;
+				}
+				NioTcpConnectionGateway connection = (NioTcpConnectionGateway) key.attachment();
+				if (key.isReadable()) {
+					this.read(key, connection);
+				}
+				if (key.isValid() && key.isWritable()) {
+					connection.flush();
+				}
+			} catch (CancelledKeyException e) {
+				// The channel has been closed in the meantime
+			}
+		}
+	}
+
+	private void accept(SelectionKey key) {
+		ServerSocketChannel serverChannel = (ServerSocketChannel) key.channel();
+		NioServerListener listener = (NioServerListener) key.attachment();
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if (channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			listener.onChannelAccepted(this.group, channel);
+		} catch (IOException e) {
+			logger.error("Failed to accept connection in event loop '{}'", this.name);
+			logger.error(Helper.getExceptionAsString(e));
+		}
+	}
+
+	private void read(SelectionKey key, NioTcpConnectionGateway connection) {
+		SocketChannel channel = (SocketChannel) key.channel();
+		this.readBuffer.clear();
+		try {
+			int count = channel.read(this.readBuffer);
+			if (count < 0) {
+				connection.stop();
+				return;
+			}
+		} catch (IOException e) {
+			logger.debug("Connection '{}' will be closed because reading failed: {}", connection.getConnectionName(), e.getMessage());
+			connection.stop();
+			return;
+		}
+		this.readBuffer.flip();
+		connection.onReadable(this.readBuffer);
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = this.tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("Task in event loop '{}' failed", this.name);
+				logger.error(Helper.getExceptionAsString(e));
+			}
+		}
+	}
+
+	/**
+	 * Returns the time in milliseconds until the next held back
+	 * acknowledgement needs to be written, at most the interval for checking
+	 * the inactivity timers. Returns 0 if it needs to be written now.
+	 */
+	private long getSelectTimeout() {
+		if (!this.tasks.isEmpty()) {
+			return 0;
+		}
+		long timeout = INACTIVITY_CHECK_INTERVAL;
+		if (!this.heldFlushes.isEmpty()) {
+			long now = System.nanoTime();
+			for (int i = 0; i < this.heldFlushes.size(); i++) {
+				long remaining = this.heldFlushes.get(i).getHeldFlushDeadline() - now;
+				if (remaining <= 0) {
+					return 0;
+				}
+				// The selector can only wait for whole milliseconds
+				timeout = Math.min(timeout, (remaining + 999999L) / 1000000L);
+			}
+		}
+		return timeout;
+	}
+
+	private void checkHeldFlushes(long now) {
+		int i = 0;
+		while (i < this.heldFlushes.size()) {
+			if (this.heldFlushes.get(i).checkHeldFlush(now)) {
+				// Remove it by replacing it with the last element
+				int last = this.heldFlushes.size() - 1;
+				this.heldFlushes.set(i, this.heldFlushes.get(last));
+				this.heldFlushes.remove(last);
+			} else {
+				i++;
+			}
+		}
+	}
+
+	private void checkInactivity(long now) {
+		for (SelectionKey key : this.selector.keys()) {
+			Object attachment = key.attachment();
+			if (key.isValid() && attachment instanceof NioTcpConnectionGateway) {
+				((NioTcpConnectionGateway) attachment).checkInactivityTimer(now);
+			}
+		}
+	}
+}
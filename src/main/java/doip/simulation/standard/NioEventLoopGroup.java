@@ -0,0 +1,214 @@
+package doip.simulation.standard;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.simulation.ThreadMode;
+
+/**
+ * A fixed group of event loops which handle the TCP connections of one or
+ * more gateways with the TCP transport "nio". Every connection will be
+ * assigned to one event loop in a round robin manner and stays there until
+ * it will be closed, so the number of connections is not bound to the
+ * number of threads.
+ * 
+ * Tasks which may block, like the handling of a routing activation request
+ * with an alive check, will not be executed by the event loops. They will
+ * be executed by a small pool of threads of the group, which will be
+ * created on demand and terminate when they have been idle for a while.
+ */
+public class NioEventLoopGroup {
+
+	private static Logger logger = LogManager.getLogger(NioEventLoopGroup.class);
+
+	/**
+	 * Maximum number of threads for tasks which may block. Further tasks
+	 * wait until one of the threads is free.
+	 */
+	private static final int MAX_BLOCKING_THREADS = 8;
+
+	/**
+	 * Time in seconds after which an idle thread for blocking tasks
+	 * terminates
+	 */
+	private static final int BLOCKING_THREAD_KEEP_ALIVE = 60;
+
+	private String name = null;
+
+	private NioEventLoop[] eventLoops = null;
+
+	/**
+	 * Defines which kind of threads will be created for the event loops
+	 */
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+
+	/**
+	 * Buffers for encoding outgoing messages, shared by all connections of
+	 * this group
+	 */
+	private DirectBufferPool bufferPool = new DirectBufferPool(2048, 1024);
+
+	/**
+	 * Executor for tasks which may block. It is null when the group is not
+	 * running.
+	 */
+	private volatile ThreadPoolExecutor blockingExecutor = null;
+
+	/**
+	 * Counter which will be used to create the names of the threads for
+	 * blocking tasks
+	 */
+	private AtomicInteger blockingThreadCounter = new AtomicInteger(0);
+
+	/**
+	 * Index of the event loop which gets the next connection
+	 */
+	private AtomicInteger next = new AtomicInteger(0);
+
+	/**
+	 * Constructor
+	 *
+	 * @param name           Name of the group, the threads will be named
+	 *                       name + "-" + index
+	 * @param numberOfThreads Number of event loops, must be greater than 0
+	 */
+	public NioEventLoopGroup(String name, int numberOfThreads) {
+		this(name, numberOfThreads, ThreadMode.PLATFORM);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param name            Name of the group, the threads will be named
+	 *                        name + "-" + index
+	 * @param numberOfThreads Number of event loops, must be greater than 0
+	 * @param threadMode      Defines which kind of threads will be created
+	 */
+	public NioEventLoopGroup(String name, int numberOfThreads, ThreadMode threadMode) {
+		if (numberOfThreads < 1) {
+			throw new IllegalArgumentException("The number of event loops must be greater than 0");
+		}
+		this.name = name;
+		this.threadMode = threadMode;
+		this.eventLoops = new NioEventLoop[numberOfThreads];
+		for (int i = 0; i < numberOfThreads; i++) {
+			this.eventLoops[i] = new NioEventLoop(name + "-" + (i + 1), this);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getNumberOfThreads() {
+		return this.eventLoops.length;
+	}
+
+	public ThreadMode getThreadMode() {
+		return threadMode;
+	}
+
+	public DirectBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	/**
+	 * Starts all event loops.
+	 *
+	 * @throws IOException If a selector could not be opened. Event loops
+	 *                     which have been started before will be stopped.
+	 */
+	public void start() throws IOException {
+		String method = "public void start()";
+		logger.trace(">>> {}", method);
+		try {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(MAX_BLOCKING_THREADS, MAX_BLOCKING_THREADS,
+					BLOCKING_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					runnable -> {
+						Thread thread = this.threadMode.newThread(runnable,
+								this.name + ":BLOCKING-" + this.blockingThreadCounter.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					});
+			executor.allowCoreThreadTimeOut(true);
+			this.blockingExecutor = executor;
+			for (NioEventLoop eventLoop : this.eventLoops) {
+				eventLoop.start();
+			}
+		} catch (IOException e) {
+			this.stop();
+			throw logger.throwing(e);
+		} finally {
+			logger.trace("<<< {}", method);
+		}
+	}
+
+	/**
+	 * Stops all event loops.
+	 */
+	public void stop() {
+		String method = "public void stop()";
+		logger.trace(">>> {}", method);
+		for (NioEventLoop eventLoop : this.eventLoops) {
+			eventLoop.stop();
+		}
+		ThreadPoolExecutor executor = this.blockingExecutor;
+		this.blockingExecutor = null;
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		logger.trace("<<< {}", method);
+	}
+
+	/**
+	 * Executes a task which may block in one of the threads for blocking
+	 * tasks. The task will wait if all of these threads are busy.
+	 *
+	 * @param task The task
+	 * @return Returns true if the task has been accepted. Returns false if the
+	 *         group is not running.
+	 */
+	public boolean executeBlocking(Runnable task) {
+		ThreadPoolExecutor executor = this.blockingExecutor;
+		if (executor == null) {
+			logger.error("Event loop group '{}' is not running, task will be discarded", this.name);
+			return false;
+		}
+		try {
+			executor.execute(task);
+			return true;
+		} catch (RejectedExecutionException e) {
+			logger.error("Event loop group '{}' has been stopped, task will be discarded", this.name);
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the event loop which shall handle the next connection.
+	 */
+	public NioEventLoop next() {
+		int index = this.next.getAndIncrement() & Integer.MAX_VALUE;
+		return this.eventLoops[index % this.eventLoops.length];
+	}
+
+	/**
+	 * Adds a server socket channel to the group. New connections will be
+	 * accepted by one of the event loops, the listener decides which event
+	 * loop will handle the connection afterwards.
+	 *
+	 * @param serverChannel The server socket channel, it will be switched to
+	 *                      non-blocking mode
+	 * @param listener      Will be called for every new connection
+	 */
+	public void addServer(ServerSocketChannel serverChannel, NioServerListener listener) {
+		this.next().addServer(serverChannel, listener);
+	}
+}
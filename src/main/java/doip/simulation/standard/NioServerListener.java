@@ -0,0 +1,20 @@
+package doip.simulation.standard;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * Listener for a server socket channel which has been added to a
+ * {@link NioEventLoopGroup}.
+ */
+public interface NioServerListener {
+
+	/**
+	 * Will be called by the event loop of the server socket channel when a
+	 * new TCP connection has been accepted. The channel is already in
+	 * non-blocking mode.
+	 *
+	 * @param group   The event loop group which accepted the connection
+	 * @param channel The channel of the new connection
+	 */
+	public void onChannelAccepted(NioEventLoopGroup group, SocketChannel channel);
+}
@@ -0,0 +1,859 @@
+package doip.simulation.standard;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.library.message.DoipTcpMessage;
+import doip.library.util.Helper;
+import doip.simulation.OutboundOverflowPolicy;
+import doip.simulation.ThreadMode;
+
+/**
+ * A TCP connection of a gateway which is handled by a {@link NioEventLoop}
+ * instead of an own receiver thread and an own inactivity timer thread.
+ * <p>
+ * The event loop reads the data from the channel and splits it into
+ * complete DoIP messages by the payload length in the generic header.
+ * Every complete message will be passed to
+ * {@link #onDataReceived(byte[])}, so the DoIP parser of the base class
+ * and all DoipTcpConnectionListener callbacks work like before. Messages
+ * which will be sent are queued and written by the event loop with
+ * gathering writes.
+ * <p>
+ * Diagnostic messages and their positive acknowledgements will be encoded
+ * directly into pooled direct buffers, without creating message objects
+ * and without copying the data again when it will be written.
+ * <p>
+ * All messages which have been queued while the event loop handled the
+ * received data will be written together. Additionally a positive
+ * acknowledgement can be held back for a short time (write coalesce time),
+ * because the response of the ECU usually follows shortly afterwards. When
+ * the response has been queued both will be written immediately with one
+ * gathering write, so they can be sent in one TCP segment. If no response
+ * has been queued within the coalesce time the acknowledgement will be
+ * written alone.
+ * <p>
+ * If an outbound queue size has been configured, the queue is bounded for
+ * all threads except the event loop, which must never block. Other threads
+ * will be handled by the overflow policy when the queue is full. While the
+ * queue is full the event loop does not read further requests of this
+ * connection, so a tester which does not read its responses slows down
+ * only itself.
+ * <p>
+ * A routing activation request can block for a longer time because of the
+ * alive check on other connections. It will be handled by an own thread,
+ * and the event loop does not read further data of this connection until
+ * the request has been handled.
+ * <p>
+ * All of this only applies if the connection has been started with
+ * {@link #start(SocketChannel, NioEventLoop)}. A connection which has been
+ * started with {@link #start(Socket)} works like a
+ * StandardTcpConnectionGateway with an own receiver thread, so it can be
+ * used wherever a StandardTcpConnectionGateway is expected.
+ */
+public class NioTcpConnectionGateway extends StandardTcpConnectionGateway {
+
+	private static Logger logger = LogManager.getLogger(NioTcpConnectionGateway.class);
+
+	/**
+	 * Length of the DoIP generic header
+	 */
+	private static final int HEADER_LENGTH = 8;
+
+	/**
+	 * Payload type of a routing activation request
+	 */
+	private static final int ROUTING_ACTIVATION_REQUEST = 0x0005;
+
+	/**
+	 * Payload type of a diagnostic message
+	 */
+	private static final int DIAGNOSTIC_MESSAGE = 0x8001;
+
+	/**
+	 * Payload type of a diagnostic message positive acknowledgement
+	 */
+	private static final int DIAGNOSTIC_MESSAGE_POS_ACK = 0x8002;
+
+	/**
+	 * Maximum number of buffers which will be written with one gathering
+	 * write
+	 */
+	private static final int MAX_BUFFERS_PER_WRITE = 16;
+
+	/**
+	 * Messages which are longer will not be collected, their data will be
+	 * passed to the DoIP parser of the base class as it will be received.
+	 */
+	private static final int MAX_FRAMED_MESSAGE_LENGTH = 1024 * 1024;
+
+	private String connectionName = null;
+
+	private SocketChannel channel = null;
+
+	/**
+	 * The event loop which handles the channel. It is null as long as the
+	 * connection has not been started with a channel, then all I/O will be
+	 * done by the base class.
+	 */
+	private volatile NioEventLoop eventLoop = null;
+
+	/**
+	 * True if the connection has been started with a blocking socket
+	 */
+	private volatile boolean startedWithSocket = false;
+
+	private DirectBufferPool bufferPool = null;
+
+	/**
+	 * Protocol version which will be used in the generic header of encoded
+	 * messages. It is the version of the last message received from the
+	 * tester.
+	 */
+	private volatile byte protocolVersion = 0x02;
+
+	/**
+	 * Buffers which are currently written. Will only be accessed by the
+	 * thread of the event loop.
+	 */
+	private ByteBuffer[] writeBuffers = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+
+	/**
+	 * Index of the first buffer in writeBuffers which has not been written
+	 * completely
+	 */
+	private int writeStart = 0;
+
+	/**
+	 * Index behind the last buffer in writeBuffers
+	 */
+	private int writeEnd = 0;
+
+	/**
+	 * The selection key of the channel. Will only be accessed by the thread
+	 * of the event loop.
+	 */
+	private SelectionKey selectionKey = null;
+
+	/**
+	 * Messages which have not been written yet
+	 */
+	private ConcurrentLinkedQueue<ByteBuffer> outboundQueue = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/**
+	 * Number of messages in the outbound queue and in writeBuffers which
+	 * have not been written completely
+	 */
+	private AtomicInteger outboundQueueDepth = new AtomicInteger(0);
+
+	/**
+	 * Threads wait on this lock for space in the outbound queue
+	 */
+	private Object outboundLock = new Object();
+
+	/**
+	 * Number of threads which are waiting for space in the outbound queue
+	 */
+	private volatile int waitingSenders = 0;
+
+	/**
+	 * No flush of the outbound queue is pending
+	 */
+	private static final int FLUSH_IDLE = 0;
+
+	/**
+	 * The outbound queue will be written when the coalesce time expired or
+	 * when a further message will be queued
+	 */
+	private static final int FLUSH_HELD = 1;
+
+	/**
+	 * Writing the outbound queue has been scheduled in the event loop
+	 */
+	private static final int FLUSH_SCHEDULED = 2;
+
+	private AtomicInteger flushState = new AtomicInteger(FLUSH_IDLE);
+
+	/**
+	 * Time in nanoseconds for which a positive acknowledgement will be held
+	 * back, 0 means that it will be written immediately
+	 */
+	private long writeCoalesceNanos = 0;
+
+	/**
+	 * Point in time (System.nanoTime()) when a held back acknowledgement
+	 * will be written. Will only be accessed by the thread of the event
+	 * loop.
+	 */
+	private long heldFlushDeadline = 0;
+
+	/**
+	 * Number of write calls on the channel
+	 */
+	private volatile long numberOfWrites = 0;
+
+	/**
+	 * Number of messages which have been written completely
+	 */
+	private volatile long numberOfMessagesWritten = 0;
+
+	/**
+	 * Task which writes the outbound queue, it will be created only once
+	 */
+	private Runnable flushTask = this::runFlushTask;
+
+	private AtomicBoolean closed = new AtomicBoolean(false);
+
+	private volatile boolean inactivityTimerRunning = false;
+
+	/**
+	 * Point in time (System.nanoTime()) when the inactivity timer expires
+	 */
+	private volatile long inactivityDeadline = 0;
+
+	/**
+	 * Received data which does not form a complete message yet. Will only be
+	 * accessed by the thread of the event loop.
+	 */
+	private byte[] receiveBuffer = new byte[256];
+
+	private int receiveLength = 0;
+
+	/**
+	 * Number of bytes of a long message which still need to be passed
+	 * directly to the DoIP parser
+	 */
+	private long passThroughRemaining = 0;
+
+	/**
+	 * Flag if reading is suspended while a routing activation request is
+	 * being handled
+	 */
+	private boolean readSuspended = false;
+
+	public NioTcpConnectionGateway(
+				String connectionName,
+				int maxByteArraySizeLogging,
+				int initialInactivityTime,
+				int generalInactivityTime,
+				ThreadMode threadMode) {
+		super(connectionName, maxByteArraySizeLogging, initialInactivityTime, generalInactivityTime, threadMode);
+		this.connectionName = connectionName;
+	}
+
+	public String getConnectionName() {
+		return connectionName;
+	}
+
+	/**
+	 * Sets the time for which a positive acknowledgement will be held back
+	 * to write it together with the response.
+	 *
+	 * @param micros Time in microseconds, 0 means that the acknowledgement
+	 *               will be written without waiting for the response
+	 */
+	public void setWriteCoalesceTime(int micros) {
+		this.writeCoalesceNanos = micros * 1000L;
+	}
+
+	/**
+	 * Returns the number of write calls on the channel. Together with
+	 * {@link #getNumberOfMessagesWritten()} it shows how many messages have
+	 * been written with one system call.
+	 */
+	public long getNumberOfWrites() {
+		return numberOfWrites;
+	}
+
+	public long getNumberOfMessagesWritten() {
+		return numberOfMessagesWritten;
+	}
+
+	/**
+	 * Starts the connection with a blocking socket. The connection will not
+	 * be handled by an event loop, it works like a
+	 * StandardTcpConnectionGateway with an own receiver thread. The write
+	 * coalesce time will not be used.
+	 *
+	 * @param socket The socket
+	 */
+	@Override
+	public void start(Socket socket) {
+		if (this.eventLoop != null) {
+			throw new IllegalStateException("The connection '" + this.connectionName + "' has already been started with a socket channel");
+		}
+		this.startedWithSocket = true;
+		super.start(socket);
+	}
+
+	/**
+	 * Returns true if the connection has been started with a channel and is
+	 * handled by an event loop.
+	 */
+	private boolean isHandledByEventLoop() {
+		return this.eventLoop != null;
+	}
+
+	/**
+	 * Starts the connection. The channel will be registered at the event
+	 * loop which handles all further I/O of this connection.
+	 *
+	 * @param channel   The channel in non-blocking mode
+	 * @param eventLoop The event loop
+	 */
+	public void start(SocketChannel channel, NioEventLoop eventLoop) {
+		if (this.startedWithSocket) {
+			throw new IllegalStateException("The connection '" + this.connectionName + "' has already been started with a socket");
+		}
+		this.channel = channel;
+		this.bufferPool = eventLoop.getGroup().getBufferPool();
+		// Must be set last, the other threads check it before they use the
+		// channel and the buffer pool
+		this.eventLoop = eventLoop;
+		this.setSocketInitialized();
+		this.startInactivityTimer(this.getInitialInactivityTime());
+		eventLoop.register(channel, this);
+	}
+
+	/**
+	 * Marks the connection as closed and wakes up blocked senders. The
+	 * channel will be closed by the event loop, because the event loop may
+	 * write to the channel at the same time. This function can be called by
+	 * any thread.
+	 */
+	@Override
+	public void stop() {
+		if (!this.isHandledByEventLoop()) {
+			super.stop();
+			return;
+		}
+		if (!this.closed.compareAndSet(false, true)) {
+			return;
+		}
+		this.stopInactivityTimer();
+		this.setSocketClosed();
+		synchronized (this.outboundLock) {
+			this.outboundLock.notifyAll();
+		}
+		this.eventLoop.execute(this::closeChannel);
+	}
+
+	/**
+	 * Closes the channel, gives the buffers of the outbound queue back to
+	 * the pool and informs the listeners. Will be called by the event loop.
+	 */
+	private void closeChannel() {
+		try {
+			this.channel.close();
+		} catch (IOException e) {
+			logger.error(Helper.getExceptionAsString(e));
+		}
+		this.releaseOutboundBuffers();
+		this.onSocketClosed();
+	}
+
+	/**
+	 * Gives the buffers which have not been written back to the pool. Will be
+	 * called by the event loop after the connection has been closed.
+	 */
+	private void releaseOutboundBuffers() {
+		while (this.writeStart < this.writeEnd) {
+			this.bufferPool.release(this.writeBuffers[this.writeStart]);
+			this.writeBuffers[this.writeStart++] = null;
+			this.outboundQueueDepth.decrementAndGet();
+		}
+		ByteBuffer buffer;
+		while ((buffer = this.outboundQueue.poll()) != null) {
+			this.bufferPool.release(buffer);
+			this.outboundQueueDepth.decrementAndGet();
+		}
+	}
+
+	@Override
+	public int getOutboundQueueDepth() {
+		if (!this.isHandledByEventLoop()) {
+			return super.getOutboundQueueDepth();
+		}
+		// A write which has been running while the connection has been
+		// stopped can decrement the depth after it has been reset
+		return Math.max(0, this.outboundQueueDepth.get());
+	}
+
+	@Override
+	public boolean isAlive() {
+		if (!this.isHandledByEventLoop()) {
+			return super.isAlive();
+		}
+		return !this.closed.get();
+	}
+
+	@Override
+	public void send(DoipTcpMessage message) {
+		if (!this.isHandledByEventLoop()) {
+			super.send(message);
+			return;
+		}
+		this.send(message.getMessage());
+	}
+
+	/**
+	 * Queues the data, it will be written by the event loop. This function
+	 * can be called by any thread.
+	 */
+	@Override
+	public void send(byte[] data) {
+		if (!this.isHandledByEventLoop()) {
+			super.send(data);
+			return;
+		}
+		if (this.closed.get()) {
+			return;
+		}
+		this.enqueue(ByteBuffer.wrap(data));
+	}
+
+	@Override
+	public void sendDiagnosticMessage(int source, int target, byte[] data) {
+		if (!this.isHandledByEventLoop()) {
+			super.sendDiagnosticMessage(source, target, data);
+			return;
+		}
+		this.sendEncoded(DIAGNOSTIC_MESSAGE, source, target, -1, data);
+	}
+
+	/**
+	 * Queues the acknowledgement. If a write coalesce time has been set it
+	 * will be held back until the response has been queued or until the
+	 * coalesce time expired.
+	 */
+	@Override
+	public void sendDiagnosticMessagePosAck(int source, int target, int ackCode) {
+		if (!this.isHandledByEventLoop()) {
+			super.sendDiagnosticMessagePosAck(source, target, ackCode);
+			return;
+		}
+		this.sendEncoded(DIAGNOSTIC_MESSAGE_POS_ACK, source, target, ackCode, null);
+	}
+
+	/**
+	 * Encodes a message with source and target address and queues it.
+	 * Messages which fit into a buffer of the pool will be encoded into a
+	 * pooled direct buffer, longer messages into a new heap buffer.
+	 *
+	 * @param payloadType The payload type
+	 * @param source      Source address
+	 * @param target      Target address
+	 * @param code        Acknowledgement code or -1 if the message does not
+	 *                    have a code
+	 * @param data        The user data or null
+	 */
+	private void sendEncoded(int payloadType, int source, int target, int code, byte[] data) {
+		if (this.closed.get()) {
+			return;
+		}
+		int payloadLength = 4 + (code >= 0 ? 1 : 0) + (data != null ? data.length : 0);
+		ByteBuffer buffer = HEADER_LENGTH + payloadLength <= this.bufferPool.getBufferSize()
+				? this.bufferPool.acquire()
+				: ByteBuffer.allocate(HEADER_LENGTH + payloadLength);
+		byte version = this.protocolVersion;
+		buffer.put(version);
+		buffer.put((byte) ~version);
+		buffer.putShort((short) payloadType);
+		buffer.putInt(payloadLength);
+		buffer.putShort((short) source);
+		buffer.putShort((short) target);
+		if (code >= 0) {
+			buffer.put((byte) code);
+		}
+		if (data != null) {
+			buffer.put(data);
+		}
+		buffer.flip();
+		if (payloadType == DIAGNOSTIC_MESSAGE_POS_ACK && this.writeCoalesceNanos > 0) {
+			this.enqueueHeld(buffer);
+		} else {
+			this.enqueue(buffer);
+		}
+	}
+
+	/**
+	 * Queues a buffer and schedules writing the outbound queue. A held back
+	 * acknowledgement will be written together with this buffer.
+	 */
+	private void enqueue(ByteBuffer buffer) {
+		if (!this.offerOutbound(buffer)) {
+			return;
+		}
+		if (this.flushState.getAndSet(FLUSH_SCHEDULED) != FLUSH_SCHEDULED) {
+			this.eventLoop.execute(this.flushTask);
+		}
+	}
+
+	/**
+	 * Queues a buffer which will be written when the next buffer will be
+	 * queued or when the coalesce time expired.
+	 */
+	private void enqueueHeld(ByteBuffer buffer) {
+		if (!this.offerOutbound(buffer)) {
+			return;
+		}
+		if (this.flushState.compareAndSet(FLUSH_IDLE, FLUSH_HELD)) {
+			long deadline = System.nanoTime() + this.writeCoalesceNanos;
+			if (this.eventLoop.inEventLoop()) {
+				this.holdFlush(deadline);
+			} else {
+				this.eventLoop.execute(() -> this.holdFlush(deadline));
+			}
+		}
+	}
+
+	/**
+	 * Puts a buffer into the outbound queue. If the queue is full the
+	 * overflow policy will be applied, except for the event loop.
+	 *
+	 * @return True if the buffer has been queued
+	 */
+	private boolean offerOutbound(ByteBuffer buffer) {
+		int capacity = this.getOutboundQueueSize();
+		if (capacity > 0 && this.outboundQueueDepth.get() >= capacity && !this.eventLoop.inEventLoop()) {
+			if (!this.waitForOutboundSpace(capacity)) {
+				this.bufferPool.release(buffer);
+				this.onOutboundQueueFull();
+				return false;
+			}
+		}
+		this.outboundQueue.add(buffer);
+		this.getOutboundQueueStatistics().onEnqueued(this.outboundQueueDepth.incrementAndGet());
+		return true;
+	}
+
+	/**
+	 * Waits until there is space in the outbound queue if the overflow
+	 * policy is BLOCK.
+	 *
+	 * @return True if there is space in the queue
+	 */
+	private boolean waitForOutboundSpace(int capacity) {
+		if (this.getOutboundQueueOverflowPolicy() != OutboundOverflowPolicy.BLOCK) {
+			return false;
+		}
+		this.getOutboundQueueStatistics().onBlocked();
+		long deadline = System.nanoTime() + this.getOutboundQueueTimeout() * 1000000L;
+		synchronized (this.outboundLock) {
+			this.waitingSenders++;
+			try {
+				while (this.outboundQueueDepth.get() >= capacity && !this.closed.get()) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					this.outboundLock.wait(remaining / 1000000L + 1);
+				}
+			} catch (InterruptedException e) {
+				logger.error("Waiting for space in the outbound queue has been interrupted");
+				Thread.currentThread().interrupt();
+				return false;
+			} finally {
+				this.waitingSenders--;
+			}
+		}
+		return !this.closed.get();
+	}
+
+	private void holdFlush(long deadline) {
+		this.heldFlushDeadline = deadline;
+		this.eventLoop.addHeldFlush(this);
+	}
+
+	/**
+	 * Will be called by the event loop to check if a held back
+	 * acknowledgement shall be written.
+	 *
+	 * @param now The current time (System.nanoTime())
+	 * @return True if the connection does not need to be checked any more
+	 */
+	boolean checkHeldFlush(long now) {
+		if (this.flushState.get() != FLUSH_HELD) {
+			// A further message has been queued in the meantime and the
+			// outbound queue has been written or will be written soon
+			return true;
+		}
+		if (now - this.heldFlushDeadline < 0) {
+			return false;
+		}
+		if (this.flushState.compareAndSet(FLUSH_HELD, FLUSH_IDLE) && this.selectionKey != null) {
+			this.flush();
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the point in time when a held back acknowledgement will be
+	 * written.
+	 */
+	long getHeldFlushDeadline() {
+		return heldFlushDeadline;
+	}
+
+	@Override
+	protected void startInactivityTimer(int millis) {
+		if (!this.isHandledByEventLoop()) {
+			super.startInactivityTimer(millis);
+			return;
+		}
+		this.inactivityDeadline = System.nanoTime() + millis * 1000000L;
+		this.inactivityTimerRunning = true;
+	}
+
+	@Override
+	protected void stopInactivityTimer() {
+		if (!this.isHandledByEventLoop()) {
+			super.stopInactivityTimer();
+			return;
+		}
+		this.inactivityTimerRunning = false;
+	}
+
+	/**
+	 * Will be called by the event loop to check if the inactivity timer
+	 * expired.
+	 *
+	 * @param now The current time (System.nanoTime())
+	 */
+	void checkInactivityTimer(long now) {
+		if (this.inactivityTimerRunning && now - this.inactivityDeadline >= 0) {
+			this.inactivityTimerRunning = false;
+			this.onInactivityTimerExpired();
+		}
+	}
+
+	void setSelectionKey(SelectionKey selectionKey) {
+		this.selectionKey = selectionKey;
+	}
+
+	private void runFlushTask() {
+		this.flushState.set(FLUSH_IDLE);
+		// The key is only null if the registration failed, the registration
+		// task has been executed before because it has been queued first
+		if (this.selectionKey != null) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Writes the outbound queue until it is empty or until the channel does
+	 * not accept further data. Up to MAX_BUFFERS_PER_WRITE queued messages
+	 * will be written with one gathering write. Will be called by the event
+	 * loop.
+	 */
+	void flush() {
+		if (!this.selectionKey.isValid()) {
+			if (this.closed.get()) {
+				// Buffers which have been queued while the connection has
+				// been closed
+				this.releaseOutboundBuffers();
+			}
+			return;
+		}
+		try {
+			while (true) {
+				// Fill up the write buffers from the queue
+				if (this.writeStart == this.writeEnd) {
+					this.writeStart = 0;
+					this.writeEnd = 0;
+				}
+				ByteBuffer buffer;
+				while (this.writeEnd < MAX_BUFFERS_PER_WRITE && (buffer = this.outboundQueue.poll()) != null) {
+					this.writeBuffers[this.writeEnd++] = buffer;
+				}
+				if (this.writeStart == this.writeEnd) {
+					break;
+				}
+				this.channel.write(this.writeBuffers, this.writeStart, this.writeEnd - this.writeStart);
+				this.numberOfWrites++;
+				while (this.writeStart < this.writeEnd && !this.writeBuffers[this.writeStart].hasRemaining()) {
+					this.bufferPool.release(this.writeBuffers[this.writeStart]);
+					this.writeBuffers[this.writeStart++] = null;
+					this.numberOfMessagesWritten++;
+					this.outboundQueueDepth.decrementAndGet();
+				}
+				if (this.writeStart < this.writeEnd) {
+					// Socket buffer is full, continue when it is writable
+					this.selectionKey.interestOps(this.selectionKey.interestOps() | SelectionKey.OP_WRITE);
+					this.onOutboundQueueDrained();
+					return;
+				}
+				if (this.writeEnd < MAX_BUFFERS_PER_WRITE) {
+					// The queue was empty
+					break;
+				}
+			}
+			this.selectionKey.interestOps(this.selectionKey.interestOps() & ~SelectionKey.OP_WRITE);
+			this.onOutboundQueueDrained();
+		} catch (IOException e) {
+			logger.debug("Connection '{}' will be closed because writing failed: {}", this.connectionName, e.getMessage());
+			this.stop();
+		}
+	}
+
+	/**
+	 * Will be called by the event loop when data has been read.
+	 *
+	 * @param buffer The data which has been read
+	 */
+	void onReadable(ByteBuffer buffer) {
+		int length = buffer.remaining();
+		if (this.receiveLength + length > this.receiveBuffer.length) {
+			this.receiveBuffer = Arrays.copyOf(this.receiveBuffer,
+					Math.max(this.receiveBuffer.length * 2, this.receiveLength + length));
+		}
+		buffer.get(this.receiveBuffer, this.receiveLength, length);
+		this.receiveLength += length;
+		this.processReceiveBuffer();
+		this.updateReadInterest();
+	}
+
+	/**
+	 * Will be called by the event loop after messages of the outbound queue
+	 * have been written. Wakes up waiting threads and resumes reading if
+	 * there is space in the queue again.
+	 */
+	private void onOutboundQueueDrained() {
+		if (this.waitingSenders > 0) {
+			synchronized (this.outboundLock) {
+				this.outboundLock.notifyAll();
+			}
+		}
+		this.updateReadInterest();
+	}
+
+	/**
+	 * Enables or disables reading from the channel. Reading is disabled
+	 * while a routing activation request is handled or while the outbound
+	 * queue is full.
+	 */
+	private void updateReadInterest() {
+		SelectionKey key = this.selectionKey;
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		int capacity = this.getOutboundQueueSize();
+		boolean enabled = !this.readSuspended && (capacity == 0 || this.outboundQueueDepth.get() < capacity);
+		int ops = key.interestOps();
+		int newOps = enabled ? ops | SelectionKey.OP_READ : ops & ~SelectionKey.OP_READ;
+		if (newOps != ops) {
+			key.interestOps(newOps);
+		}
+	}
+
+	/**
+	 * Passes all complete messages in the receive buffer to the DoIP parser.
+	 * The remaining data will be moved to the beginning of the buffer.
+	 */
+	private void processReceiveBuffer() {
+		int pos = 0;
+		while (!this.readSuspended && !this.closed.get()) {
+			int available = this.receiveLength - pos;
+			if (this.passThroughRemaining > 0) {
+				int count = (int) Math.min(this.passThroughRemaining, available);
+				if (count == 0) {
+					break;
+				}
+				this.onDataReceived(Arrays.copyOfRange(this.receiveBuffer, pos, pos + count));
+				this.passThroughRemaining -= count;
+				pos += count;
+				continue;
+			}
+			if (available < HEADER_LENGTH) {
+				break;
+			}
+			byte version = this.receiveBuffer[pos];
+			if (((version ^ this.receiveBuffer[pos + 1]) & 0xFF) != 0xFF) {
+				// Invalid protocol version, the DoIP parser will handle the
+				// error
+				this.onDataReceived(Arrays.copyOfRange(this.receiveBuffer, pos, this.receiveLength));
+				pos = this.receiveLength;
+				break;
+			}
+			long messageLength = HEADER_LENGTH + (((this.receiveBuffer[pos + 4] & 0xFFL) << 24)
+					| ((this.receiveBuffer[pos + 5] & 0xFF) << 16)
+					| ((this.receiveBuffer[pos + 6] & 0xFF) << 8)
+					| (this.receiveBuffer[pos + 7] & 0xFF));
+			this.protocolVersion = version;
+			if (messageLength > MAX_FRAMED_MESSAGE_LENGTH) {
+				this.passThroughRemaining = messageLength;
+				continue;
+			}
+			if (available < messageLength) {
+				break;
+			}
+			byte[] message = Arrays.copyOfRange(this.receiveBuffer, pos, pos + (int) messageLength);
+			pos += (int) messageLength;
+			int payloadType = ((message[2] & 0xFF) << 8) | (message[3] & 0xFF);
+			if (payloadType == ROUTING_ACTIVATION_REQUEST) {
+				this.handleRoutingActivation(message);
+			} else {
+				this.onDataReceived(message);
+			}
+		}
+		if (pos > 0) {
+			System.arraycopy(this.receiveBuffer, pos, this.receiveBuffer, 0, this.receiveLength - pos);
+			this.receiveLength -= pos;
+		}
+	}
+
+	/**
+	 * Handles a routing activation request outside of the event loop,
+	 * because it may wait for an alive check.
+	 */
+	private void handleRoutingActivation(byte[] message) {
+		this.executeWithReadingSuspended(() -> this.onDataReceived(message));
+	}
+
+	/**
+	 * Executes a task which may block in a thread for blocking tasks of the
+	 * event loop group. Reading will be suspended until the task has
+	 * finished, so the order of the messages of this connection will be
+	 * kept. If it will not be called by the event loop the task will be
+	 * executed directly by the calling thread.
+	 *
+	 * @param task The task
+	 */
+	@Override
+	public void executeWithReadingSuspended(Runnable task) {
+		if (!this.isHandledByEventLoop() || !this.eventLoop.inEventLoop()) {
+			task.run();
+			return;
+		}
+		this.readSuspended = true;
+		this.updateReadInterest();
+		boolean accepted = this.eventLoop.getGroup().executeBlocking(() -> {
+			try {
+				task.run();
+			} finally {
+				this.eventLoop.execute(this::resumeReading);
+			}
+		});
+		if (!accepted) {
+			logger.error("Message of connection '{}' could not be handled, connection will be closed",
+					this.connectionName);
+			this.stop();
+		}
+	}
+
+	private void resumeReading() {
+		this.readSuspended = false;
+		this.processReceiveBuffer();
+		this.updateReadInterest();
+	}
+}
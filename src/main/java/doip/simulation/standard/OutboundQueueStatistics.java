@@ -0,0 +1,99 @@
+package doip.simulation.standard;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics about the outbound queue of a TCP connection. All
+ * values can be read while the connection is running.
+ */
+public class OutboundQueueStatistics {
+
+	/**
+	 * Number of messages which have been put into the queue
+	 */
+	private LongAdder enqueued = new LongAdder();
+
+	/**
+	 * Number of messages for which the sender had to wait for space in the
+	 * queue
+	 */
+	private LongAdder blocked = new LongAdder();
+
+	/**
+	 * Number of messages which have been discarded because the queue was
+	 * full
+	 */
+	private LongAdder dropped = new LongAdder();
+
+	/**
+	 * Number of times the connection has been closed because the queue was
+	 * full
+	 */
+	private LongAdder closed = new LongAdder();
+
+	/**
+	 * Maximum number of messages which have been in the queue at the same
+	 * time
+	 */
+	private AtomicInteger highWaterMark = new AtomicInteger(0);
+
+	void onEnqueued(int queueDepth) {
+		this.enqueued.increment();
+		if (queueDepth > this.highWaterMark.get()) {
+			this.highWaterMark.accumulateAndGet(queueDepth, Math::max);
+		}
+	}
+
+	void onBlocked() {
+		this.blocked.increment();
+	}
+
+	void onDropped() {
+		this.dropped.increment();
+	}
+
+	void onClosed() {
+		this.closed.increment();
+	}
+
+	public long getEnqueued() {
+		return enqueued.sum();
+	}
+
+	public long getBlocked() {
+		return blocked.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public long getClosed() {
+		return closed.sum();
+	}
+
+	public int getHighWaterMark() {
+		return highWaterMark.get();
+	}
+
+	/**
+	 * Resets all values to 0.
+	 */
+	public void reset() {
+		this.enqueued.reset();
+		this.blocked.reset();
+		this.dropped.reset();
+		this.closed.reset();
+		this.highWaterMark.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "enqueued = " + this.getEnqueued()
+				+ ", blocked = " + this.getBlocked()
+				+ ", dropped = " + this.getDropped()
+				+ ", closed = " + this.getClosed()
+				+ ", high water mark = " + this.getHighWaterMark();
+	}
+}
@@ -0,0 +1,30 @@
+package doip.simulation.standard;
+
+import doip.library.message.UdsMessage;
+
+/**
+ * A request in the request queue of an ECU together with the point in time
+ * when it has been put into the queue.
+ */
+class QueuedRequest {
+
+	private UdsMessage request = null;
+
+	/**
+	 * Value of System.nanoTime() when the request has been put into the queue
+	 */
+	private long queuedTime = 0;
+
+	QueuedRequest(UdsMessage request, long queuedTime) {
+		this.request = request;
+		this.queuedTime = queuedTime;
+	}
+
+	UdsMessage getRequest() {
+		return request;
+	}
+
+	long getQueuedTime() {
+		return queuedTime;
+	}
+}
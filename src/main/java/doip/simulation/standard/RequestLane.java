@@ -0,0 +1,205 @@
+package doip.simulation.standard;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import doip.library.message.UdsMessage;
+
+/**
+ * A processing lane of an ECU. A lane processes one request at a time and
+ * contains the lock-free state machine with the states idle, pending and
+ * busy as well as the optional request queue. A standard ECU has only one
+ * lane, but an ECU can also have an own lane for each tester (source
+ * address), then requests from different testers will be processed in
+ * parallel.
+ */
+class RequestLane {
+
+	/**
+	 * The source address of the tester for which this lane has been created.
+	 * The value -1 means that the lane is used for all testers.
+	 */
+	private int sourceAddress = -1;
+
+	/**
+	 * The current state of the lane, one of the values
+	 * StandardEcu.STATE_IDLE, StandardEcu.STATE_PENDING or
+	 * StandardEcu.STATE_BUSY.
+	 */
+	private AtomicInteger state = new AtomicInteger(StandardEcu.STATE_IDLE);
+
+	/**
+	 * A new request which has been received but not been picked up for
+	 * processing. It will only be set by the thread which changed the state
+	 * from STATE_IDLE to STATE_PENDING and it will be taken exactly once by
+	 * the thread which processes the request.
+	 */
+	private AtomicReference<UdsMessage> pendingRequest = new AtomicReference<UdsMessage>(null);
+
+	/**
+	 * The current request which will be processed.
+	 */
+	private volatile UdsMessage currentRequest = null;
+
+	/**
+	 * Queue for requests which have been received while the lane was busy.
+	 * It is null if no request queue has been configured.
+	 */
+	private ArrayBlockingQueue<QueuedRequest> requestQueue = null;
+
+	/**
+	 * Flag if a task for processing a new request of this lane has been
+	 * handed over to a worker pool and has not been started yet.
+	 */
+	private AtomicBoolean isTaskScheduled = new AtomicBoolean(false);
+
+	/**
+	 * Constructor
+	 *
+	 * @param sourceAddress Source address of the tester or -1 if the lane is
+	 *                      used for all testers
+	 * @param queueSize     Size of the request queue, 0 means no queue
+	 */
+	RequestLane(int sourceAddress, int queueSize) {
+		this.sourceAddress = sourceAddress;
+		if (queueSize > 0) {
+			this.requestQueue = new ArrayBlockingQueue<QueuedRequest>(queueSize);
+		}
+	}
+
+	int getSourceAddress() {
+		return sourceAddress;
+	}
+
+	int getState() {
+		return state.get();
+	}
+
+	UdsMessage getCurrentRequest() {
+		return currentRequest;
+	}
+
+	void setCurrentRequest(UdsMessage currentRequest) {
+		this.currentRequest = currentRequest;
+	}
+
+	AtomicBoolean getTaskScheduledFlag() {
+		return isTaskScheduled;
+	}
+
+	boolean hasRequestQueue() {
+		return this.requestQueue != null;
+	}
+
+	int getRequestQueueDepth() {
+		if (this.requestQueue == null) {
+			return 0;
+		}
+		return this.requestQueue.size();
+	}
+
+	/**
+	 * Stores a new request if the lane is idle and changes the state to
+	 * STATE_PENDING. Only used if there is no request queue.
+	 *
+	 * @param request The new request
+	 * @return True if the request has been accepted, false if the lane is
+	 *         busy
+	 */
+	boolean putPendingRequest(UdsMessage request) {
+		if (this.state.compareAndSet(StandardEcu.STATE_IDLE, StandardEcu.STATE_PENDING)) {
+			this.pendingRequest.set(request);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Puts a request into the request queue if there is space in the queue.
+	 *
+	 * @param queuedRequest The request
+	 * @return True if the request has been put into the queue
+	 */
+	boolean offer(QueuedRequest queuedRequest) {
+		return this.requestQueue.offer(queuedRequest);
+	}
+
+	/**
+	 * Puts a request into the request queue and waits for space in the
+	 * queue.
+	 *
+	 * @param queuedRequest The request
+	 * @param timeoutMillis Maximum time to wait for space in the queue, 0
+	 *                      means don't wait
+	 * @return True if the request has been put into the queue
+	 * @throws InterruptedException if waiting for space has been interrupted
+	 */
+	boolean offer(QueuedRequest queuedRequest, int timeoutMillis) throws InterruptedException {
+		if (timeoutMillis > 0) {
+			return this.requestQueue.offer(queuedRequest, timeoutMillis, TimeUnit.MILLISECONDS);
+		}
+		return this.requestQueue.offer(queuedRequest);
+	}
+
+	/**
+	 * Returns true if there is a request which can be picked up for
+	 * processing.
+	 */
+	boolean isNewRequestAvailable() {
+		if (this.requestQueue != null) {
+			return this.state.get() == StandardEcu.STATE_IDLE && !this.requestQueue.isEmpty();
+		}
+		return this.pendingRequest.get() != null;
+	}
+
+	/**
+	 * Takes the pending request and changes the state to STATE_BUSY. Only
+	 * used if there is no request queue.
+	 *
+	 * @return The pending request or null if there is no pending request
+	 */
+	UdsMessage takePendingRequest() {
+		UdsMessage request = this.pendingRequest.getAndSet(null);
+		if (request != null) {
+			this.currentRequest = request;
+			this.state.set(StandardEcu.STATE_BUSY);
+		}
+		return request;
+	}
+
+	/**
+	 * Takes the next request from the request queue if the lane is idle and
+	 * changes the state to STATE_BUSY.
+	 *
+	 * @return The next request or null if the lane is busy or the queue is
+	 *         empty. If null has been returned while a request has been put
+	 *         into the queue at the same time, the caller must check again
+	 *         with "isNewRequestAvailable()".
+	 */
+	QueuedRequest pollQueuedRequest() {
+		if (!this.state.compareAndSet(StandardEcu.STATE_IDLE, StandardEcu.STATE_BUSY)) {
+			return null;
+		}
+		QueuedRequest queuedRequest = this.requestQueue.poll();
+		if (queuedRequest == null) {
+			this.state.set(StandardEcu.STATE_IDLE);
+			return null;
+		}
+		this.currentRequest = queuedRequest.getRequest();
+		return queuedRequest;
+	}
+
+	/**
+	 * Clears the current request and changes the state from STATE_BUSY to
+	 * STATE_IDLE.
+	 *
+	 * @return True if the lane was busy
+	 */
+	boolean clearCurrentRequest() {
+		this.currentRequest = null;
+		return this.state.compareAndSet(StandardEcu.STATE_BUSY, StandardEcu.STATE_IDLE);
+	}
+}
@@ -0,0 +1,144 @@
+package doip.simulation.standard;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects statistics about the request queue of an ECU. All values can
+ * be read while the ECU is running.
+ */
+public class RequestQueueStatistics {
+
+	/**
+	 * Number of requests which have been put into the queue
+	 */
+	private LongAdder enqueued = new LongAdder();
+
+	/**
+	 * Number of requests which have been answered with NRC 0x21 because the
+	 * queue was full
+	 */
+	private LongAdder rejected = new LongAdder();
+
+	/**
+	 * Number of requests which have been discarded because the queue was full
+	 */
+	private LongAdder dropped = new LongAdder();
+
+	/**
+	 * Maximum number of requests which have been in the queue at the same
+	 * time
+	 */
+	private AtomicInteger highWaterMark = new AtomicInteger(0);
+
+	/**
+	 * Number of requests which have been taken from the queue
+	 */
+	private LongAdder dequeued = new LongAdder();
+
+	/**
+	 * Sum of the wait times in the queue in nanoseconds
+	 */
+	private LongAdder totalWaitTime = new LongAdder();
+
+	/**
+	 * Maximum wait time in the queue in nanoseconds
+	 */
+	private AtomicLong maxWaitTime = new AtomicLong(0);
+
+	void onEnqueued(int queueDepth) {
+		this.enqueued.increment();
+		this.highWaterMark.accumulateAndGet(queueDepth, Math::max);
+	}
+
+	void onRejected() {
+		this.rejected.increment();
+	}
+
+	void onDropped() {
+		this.dropped.increment();
+	}
+
+	void onDequeued(long waitTimeNanos) {
+		this.dequeued.increment();
+		this.totalWaitTime.add(waitTimeNanos);
+		this.maxWaitTime.accumulateAndGet(waitTimeNanos, Math::max);
+	}
+
+	public long getEnqueued() {
+		return enqueued.sum();
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	public int getHighWaterMark() {
+		return highWaterMark.get();
+	}
+
+	public long getDequeued() {
+		return dequeued.sum();
+	}
+
+	/**
+	 * Returns the sum of all wait times in the queue.
+	 * 
+	 * @return The total wait time in nanoseconds
+	 */
+	public long getTotalWaitTime() {
+		return totalWaitTime.sum();
+	}
+
+	/**
+	 * Returns the maximum wait time in the queue.
+	 * 
+	 * @return The maximum wait time in nanoseconds
+	 */
+	public long getMaxWaitTime() {
+		return maxWaitTime.get();
+	}
+
+	/**
+	 * Returns the average wait time in the queue.
+	 * 
+	 * @return The average wait time in nanoseconds or 0 if no request has
+	 *         been taken from the queue yet
+	 */
+	public long getAverageWaitTime() {
+		long count = this.dequeued.sum();
+		if (count == 0) {
+			return 0;
+		}
+		return this.totalWaitTime.sum() / count;
+	}
+
+	/**
+	 * Resets all values to 0.
+	 */
+	public void reset() {
+		this.enqueued.reset();
+		this.rejected.reset();
+		this.dropped.reset();
+		this.highWaterMark.set(0);
+		this.dequeued.reset();
+		this.totalWaitTime.reset();
+		this.maxWaitTime.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return "enqueued = " + this.getEnqueued()
+				+ ", dequeued = " + this.getDequeued()
+				+ ", rejected = " + this.getRejected()
+				+ ", dropped = " + this.getDropped()
+				+ ", high water mark = " + this.getHighWaterMark()
+				+ ", average wait time = " + this.getAverageWaitTime() / 1000 + " us"
+				+ ", max wait time = " + this.getMaxWaitTime() / 1000 + " us";
+	}
+}
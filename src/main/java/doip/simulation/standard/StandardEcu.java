@@ -1,6 +1,9 @@
 package doip.simulation.standard;
 
-import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -11,23 +14,140 @@ import doip.library.util.Helper;
 import doip.library.util.LookupTable;
 import doip.simulation.EcuBase;
 import doip.simulation.EcuConfig;
+import doip.simulation.EcuWorkerPool;
+import doip.simulation.QueueOverflowPolicy;
+import doip.simulation.ResponseScheduler;
+import doip.simulation.lookup.CompiledLookupTable;
+import doip.simulation.lookup.DidStore;
+import doip.simulation.lookup.LookupCache;
+import doip.simulation.lookup.LookupStatistics;
+import doip.simulation.lookup.LookupTableRepository;
+import doip.simulation.lookup.MappedLookupFile;
+import doip.simulation.lookup.ResponseTemplate;
+import doip.simulation.lookup.ResponseTemplateTable;
 
 /**
  * Implements the standard behavior of an ECU. The ECU is implemented as a
  * thread and needs to be started with the function "start()" and can be stopped
  * with the function "stop()". A new request can be hand over to the ECU with
  * the function "putRequest(...)".
+ * 
+ * If a shared worker pool has been set with "setWorkerPool(...)" the ECU
+ * does not create an own thread. In this case every new request will be
+ * processed as a task in the worker pool. Also in this mode the ECU
+ * processes only one request at a time.
+ * 
+ * The intake of new requests is implemented as a lock-free state machine
+ * with the states idle, pending and busy. Therefore "putRequest(...)" never
+ * blocks, even if the ECU is processing a request at the moment.
+ * 
+ * If a request queue has been configured (see
+ * EcuConfig.setRequestQueueSize(...)) new requests will be stored in the
+ * queue while the ECU is busy. The ECU takes the next request from the
+ * queue after the current request has been cleared. In this mode the state
+ * STATE_PENDING will not be used.
+ * 
+ * If EcuConfig.setRequestLanePerTester(true) has been called the ECU
+ * creates an own processing lane for each source address. Requests of one
+ * tester will be processed one after the other, but requests of different
+ * testers will be processed in parallel. In this mode the lanes will be
+ * processed in the shared worker pool or, if no shared worker pool has been
+ * set, in a worker pool which will be created by the ECU itself.
  */
 public class StandardEcu extends EcuBase implements Runnable {
 
 	private static Logger logger = LogManager.getLogger(StandardEcu.class);
 
 	/**
-	 * The current request which will be processed by the ECU. In case the ECU
-	 * is not busy a new request will also be stored in this variable.
-	 * 
+	 * State of the ECU: No request is available and the ECU is ready to
+	 * receive a new request.
+	 */
+	public static final int STATE_IDLE = 0;
+
+	/**
+	 * State of the ECU: A new request has been received, but it has not been
+	 * picked up for processing yet.
+	 */
+	public static final int STATE_PENDING = 1;
+
+	/**
+	 * State of the ECU: The ECU is processing a request. It stays in this
+	 * state until the function "clearCurrentRequest()" will be called.
+	 */
+	public static final int STATE_BUSY = 2;
+
+	/**
+	 * The lane which will be used for all requests if there is no lane per
+	 * tester.
 	 */
-	private volatile UdsMessage currentRequest = null;
+	private RequestLane defaultLane = null;
+
+	/**
+	 * The lanes for each tester, the key is the source address of the
+	 * tester. It is null if there is no lane per tester.
+	 */
+	private ConcurrentHashMap<Integer, RequestLane> testerLanes = null;
+
+	/**
+	 * The lane which will be processed by the current thread. It will be
+	 * used by "clearCurrentRequest()" and "getCurrentRequest()" to find the
+	 * lane of the request.
+	 */
+	private ThreadLocal<RequestLane> activeLane = new ThreadLocal<RequestLane>();
+
+	/**
+	 * Worker pool which will be created by the ECU itself if there is a lane
+	 * per tester and no shared worker pool has been set. It grows with the
+	 * number of lanes up to laneWorkerPoolLimit threads, because a lane
+	 * will never be processed by more than one thread at the same time.
+	 */
+	private volatile EcuWorkerPool laneWorkerPool = null;
+
+	/**
+	 * Maximum number of threads in the laneWorkerPool
+	 */
+	private int laneWorkerPoolLimit = 0;
+
+	/**
+	 * Scheduler for delayed responses which will be created by the ECU
+	 * itself when the first response needs to be delayed and no shared
+	 * scheduler has been assigned. ECUs without delayed responses don't
+	 * need an own timer thread.
+	 */
+	private volatile ResponseScheduler ownResponseScheduler = null;
+
+	/**
+	 * Lock for creating and stopping the own response scheduler
+	 */
+	private final Object ownResponseSchedulerLock = new Object();
+
+	/**
+	 * The runtime lookup table compiled for fast matching. It will be
+	 * compiled again when the runtime lookup table has been replaced or
+	 * changed. Every request reads it exactly once, so a request which is
+	 * processed while the table will be replaced uses the old table until
+	 * its end.
+	 */
+	private AtomicReference<CompiledLookupTable> compiledLookupTable = new AtomicReference<CompiledLookupTable>(null);
+
+	/**
+	 * Hits and match times of the entries of the compiled lookup table. It
+	 * will be replaced when the compiled lookup table has been replaced.
+	 */
+	private AtomicReference<LookupStatistics> lookupStatistics = new AtomicReference<LookupStatistics>(null);
+
+	/**
+	 * Data of the DIDs for the services ReadDataByIdentifier and
+	 * WriteDataByIdentifier. It is a copy of the DIDs of the configuration,
+	 * so written data will only be visible for this ECU. It is null if no
+	 * DIDs have been configured.
+	 */
+	private volatile DidStore didStore = null;
+
+	/**
+	 * Statistics about the request queue
+	 */
+	private RequestQueueStatistics requestQueueStatistics = new RequestQueueStatistics();
 
 	/**
 	 * The message processing is implemented as a thread. This thread will be
@@ -42,12 +162,11 @@ public class StandardEcu extends EcuBase implements Runnable {
 	private volatile boolean runFlag = false;
 
 	/**
-	 * Flag to store the information if the ECU is busy which means that there
-	 * is still a request which the ECU is processing at the moment. When the
-	 * ECU has finished processing the current request the ECU must call the
-	 * function "clearCurrentRequest()".
+	 * Number of calls of "start()". Delayed responses which have been
+	 * scheduled before the ECU has been stopped and started again will be
+	 * discarded, because their request has been released by "stop()".
 	 */
-	private volatile boolean isBusy = false;
+	private volatile int startCounter = 0;
 
 	/**
 	 * Constructor
@@ -56,6 +175,16 @@ public class StandardEcu extends EcuBase implements Runnable {
 	 */
 	public StandardEcu(EcuConfig config) {
 		super(config);
+		this.defaultLane = new RequestLane(-1, config.getRequestQueueSize());
+		if (config.isRequestLanePerTester()) {
+			this.testerLanes = new ConcurrentHashMap<Integer, RequestLane>();
+		}
+		if (config.getLookupCacheSize() > 0) {
+			this.setLookupCache(new LookupCache(config.getLookupCacheSize()));
+		}
+		if (config.getDidStore() != null) {
+			this.didStore = new DidStore(config.getDidStore());
+		}
 		if (logger.isTraceEnabled()) {
 			logger.trace(">>> public StandardEcu(EcuConfig config)");
 			logger.debug("Create Standard ECU with name " + config.getName());
@@ -64,23 +193,167 @@ public class StandardEcu extends EcuBase implements Runnable {
 	}
 
 	/**
-	 * Shall be called from outside to handle a new request.
+	 * Shall be called from outside to handle a new request. This function
+	 * never blocks. If the request queue is full and the overflow policy is
+	 * BLOCK the request will be handled as if the timeout expired.
 	 * 
 	 * @param request The new request.
 	 */
-	public synchronized void putRequest(UdsMessage request) {
+	public void putRequest(UdsMessage request) {
 		logger.trace(">>> public void putRequest(UdsMessage message)");
 
-		if (isBusy) {
+		if (!this.offerRequest(request)) {
+			this.handleRequestIfQueueFull(request);
+		}
+
+		logger.trace("<<< public void putRequest(UdsMessage message)");
+	}
+
+	/**
+	 * Hands over a new request without blocking. Returns false if the
+	 * request queue is full and the overflow policy is BLOCK, then the
+	 * request has not been handled.
+	 * 
+	 * @param request The new request
+	 * @return True if the request has been handled
+	 */
+	@Override
+	public boolean offerRequest(UdsMessage request) {
+		RequestLane lane = this.getLane(request);
+		if (lane.hasRequestQueue()) {
+			QueuedRequest queuedRequest = new QueuedRequest(request, System.nanoTime());
+			if (lane.offer(queuedRequest)) {
+				this.onRequestQueued(lane);
+				return true;
+			}
+			if (this.isWaitingForQueue()) {
+				return false;
+			}
+			logger.info("Request queue is full, request can not be queued for processing");
+		} else if (lane.putPendingRequest(request)) {
+			logger.info("UDS request queued for processing");
+			this.signalNewRequest(lane);
+			return true;
+		} else {
 			logger.info(
 					"ECU is busy, request can not be queued for processing");
-			this.handleRequestIfBusy(request);
+		}
+		this.handleRequestIfQueueFull(request);
+		return true;
+	}
+
+	/**
+	 * Hands over a new request. If the request queue is full and the
+	 * overflow policy is BLOCK the calling thread waits for space in the
+	 * queue until the configured timeout expired.
+	 * 
+	 * @param request The new request
+	 */
+	@Override
+	public void putRequestAndWait(UdsMessage request) {
+		RequestLane lane = this.getLane(request);
+		if (!lane.hasRequestQueue() || !this.isWaitingForQueue()) {
+			this.putRequest(request);
+			return;
+		}
+		QueuedRequest queuedRequest = new QueuedRequest(request, System.nanoTime());
+		boolean accepted = false;
+		try {
+			accepted = lane.offer(queuedRequest, this.getConfig().getRequestQueueTimeout());
+		} catch (InterruptedException e) {
+			logger.error("Waiting for space in the request queue has been interrupted");
+			Thread.currentThread().interrupt();
+		}
+		if (accepted) {
+			this.onRequestQueued(lane);
 		} else {
-			this.setCurrentRequest(request);
-			logger.info("UDS request queued for processing");
+			logger.info("Request queue is still full, request can not be queued for processing");
+			this.handleRequestIfQueueFull(request);
 		}
+	}
 
-		logger.trace("<<< public void putRequest(UdsMessage message)");
+	/**
+	 * Returns true if a new request shall wait for space in the request
+	 * queue.
+	 */
+	private boolean isWaitingForQueue() {
+		return this.getConfig().getRequestQueueOverflowPolicy() == QueueOverflowPolicy.BLOCK
+				&& this.getConfig().getRequestQueueTimeout() > 0;
+	}
+
+	/**
+	 * Returns the lane which is responsible for the given request. If there
+	 * is a lane per tester and no lane exists for the source address of the
+	 * request, a new lane will be created.
+	 * 
+	 * @param request The request
+	 * @return The lane for the request
+	 */
+	private RequestLane getLane(UdsMessage request) {
+		if (this.testerLanes == null) {
+			return this.defaultLane;
+		}
+		RequestLane lane = this.testerLanes.get(request.getSourceAdrress());
+		if (lane != null) {
+			return lane;
+		}
+		lane = this.testerLanes.computeIfAbsent(request.getSourceAdrress(),
+				sourceAddress -> new RequestLane(sourceAddress, this.getConfig().getRequestQueueSize()));
+		this.resizeLaneWorkerPool();
+		return lane;
+	}
+
+	/**
+	 * Adjusts the number of threads in the own lane worker pool to the number
+	 * of lanes, but not more than the configured number of threads.
+	 */
+	private void resizeLaneWorkerPool() {
+		EcuWorkerPool pool = this.laneWorkerPool;
+		if (pool != null) {
+			pool.setNumberOfThreads(Math.min(this.laneWorkerPoolLimit, Math.max(1, this.testerLanes.size())));
+		}
+	}
+
+	/**
+	 * Returns the lane which is processed by the current thread or the
+	 * default lane if the current thread does not process a lane.
+	 */
+	private RequestLane getActiveLane() {
+		RequestLane lane = this.activeLane.get();
+		if (lane == null) {
+			return this.defaultLane;
+		}
+		return lane;
+	}
+
+	/**
+	 * Will be called after a new request has been put into the request
+	 * queue of the given lane.
+	 * 
+	 * @param lane The lane which contains the queue
+	 */
+	private void onRequestQueued(RequestLane lane) {
+		this.requestQueueStatistics.onEnqueued(lane.getRequestQueueDepth());
+		logger.info("UDS request queued for processing");
+		this.signalNewRequest(lane);
+	}
+
+	/**
+	 * Handles a request which can not be processed because the ECU is busy
+	 * and there is no space in the request queue. Depending on the overflow
+	 * policy the request will be discarded or the function
+	 * "handleRequestIfBusy(...)" will be called.
+	 * 
+	 * @param request The request which can not be processed
+	 */
+	private void handleRequestIfQueueFull(UdsMessage request) {
+		if (this.getConfig().getRequestQueueOverflowPolicy() == QueueOverflowPolicy.DROP) {
+			this.requestQueueStatistics.onDropped();
+			logger.info("Request will be discarded");
+		} else {
+			this.requestQueueStatistics.onRejected();
+			this.handleRequestIfBusy(request);
+		}
 	}
 
 	/**
@@ -110,11 +383,13 @@ public class StandardEcu extends EcuBase implements Runnable {
 
 	/**
 	 * Getter for the current request which will be processed at the moment.
+	 * If there is a lane per tester it returns the request of the lane which
+	 * is processed by the current thread.
 	 * 
 	 * @return
 	 */
-	public synchronized UdsMessage getCurrentRequest() {
-		return currentRequest;
+	public UdsMessage getCurrentRequest() {
+		return this.getActiveLane().getCurrentRequest();
 	}
 
 	/**
@@ -122,28 +397,129 @@ public class StandardEcu extends EcuBase implements Runnable {
 	 * 
 	 * @param currentRequest
 	 */
-	public synchronized void setCurrentRequest(UdsMessage currentRequest) {
-		this.currentRequest = currentRequest;
+	public void setCurrentRequest(UdsMessage currentRequest) {
+		this.getActiveLane().setCurrentRequest(currentRequest);
+	}
+
+	/**
+	 * Returns the current state of the ECU. If there is a lane per tester it
+	 * returns the state of the lane which is processed by the current thread.
+	 * 
+	 * @return One of the values STATE_IDLE, STATE_PENDING or STATE_BUSY
+	 */
+	public int getState() {
+		return this.getActiveLane().getState();
+	}
+
+	/**
+	 * Returns true if the ECU has received a request which has not been
+	 * finished yet. If there is a lane per tester it returns true if any of
+	 * the lanes is busy.
+	 * 
+	 * @return True if the ECU is busy
+	 */
+	public boolean isBusy() {
+		if (this.testerLanes != null) {
+			for (RequestLane lane : this.testerLanes.values()) {
+				if (lane.getState() != STATE_IDLE) {
+					return true;
+				}
+			}
+			return false;
+		}
+		return this.defaultLane.getState() != STATE_IDLE;
+	}
+
+	/**
+	 * Returns the number of requests which are waiting in the request queue.
+	 * If there is a lane per tester the requests of all lanes will be
+	 * counted.
+	 * 
+	 * @return Number of requests in the queue or 0 if there is no queue
+	 */
+	public int getRequestQueueDepth() {
+		if (this.testerLanes != null) {
+			int depth = 0;
+			for (RequestLane lane : this.testerLanes.values()) {
+				depth += lane.getRequestQueueDepth();
+			}
+			return depth;
+		}
+		return this.defaultLane.getRequestQueueDepth();
+	}
+
+	/**
+	 * Returns the statistics of the request queue. Requests which have been
+	 * rejected or dropped while the ECU was busy will also be counted if no
+	 * request queue has been configured.
+	 * 
+	 * @return The statistics of the request queue
+	 */
+	public RequestQueueStatistics getRequestQueueStatistics() {
+		return requestQueueStatistics;
+	}
+
+	public DidStore getDidStore() {
+		return didStore;
+	}
+
+	/**
+	 * Resets the ECU. Data which has been written with the service
+	 * WriteDataByIdentifier will be replaced by the data of the
+	 * configuration.
+	 */
+	@Override
+	public void reset() {
+		logger.trace(">>> public void reset()");
+		super.reset();
+		if (this.getConfig().getDidStore() != null) {
+			this.didStore = new DidStore(this.getConfig().getDidStore());
+		}
+		logger.trace("<<< public void reset()");
 	}
 
 	/**
 	 * Clears the current request (which means that current request will be set
-	 * to null) and clears the "isBusy" flag. After calling this function the
-	 * ECU is ready to receive new requests.
+	 * to null) and changes the state from STATE_BUSY to STATE_IDLE. After
+	 * calling this function the ECU is ready to receive new requests.
+	 * 
+	 * If there is a lane per tester the lane which is processed by the
+	 * current thread will be cleared. If the request will be cleared by a
+	 * different thread the function "clearCurrentRequest(UdsMessage)" must
+	 * be used.
 	 */
-	public synchronized void clearCurrentRequest() {
+	public void clearCurrentRequest() {
+		this.clearCurrentRequest(this.getActiveLane());
+	}
+
+	/**
+	 * Clears the current request of the lane which is responsible for the
+	 * given request. This function can also be called by a different thread
+	 * than the thread which processes the request.
+	 * 
+	 * @param request The request which has been processed
+	 */
+	public void clearCurrentRequest(UdsMessage request) {
+		this.clearCurrentRequest(this.getLane(request));
+	}
+
+	private void clearCurrentRequest(RequestLane lane) {
 		if (logger.isTraceEnabled()) {
-			logger.trace(">>> private synchronized void clearCurrentRequest()");
+			logger.trace(">>> public void clearCurrentRequest()");
 		}
 
-		logger.info(
-				"Processing of request finished, ready to receive new request");
-
-		this.currentRequest = null;
-		this.isBusy = false;
+		if (lane.clearCurrentRequest()) {
+			logger.info(
+					"Processing of request finished, ready to receive new request");
+			if (lane.isNewRequestAvailable()) {
+				this.signalNewRequest(lane);
+			}
+		} else {
+			logger.debug("Current request has been cleared, but the ECU was not busy");
+		}
 
 		if (logger.isTraceEnabled()) {
-			logger.trace("<<< private synchronized void clearCurrentRequest()");
+			logger.trace("<<< public void clearCurrentRequest()");
 		}
 	}
 
@@ -152,6 +528,8 @@ public class StandardEcu extends EcuBase implements Runnable {
 	 * received. It calls the functions
 	 * <ol>
 	 * <li>processRequestBeforeLookupTable</li>
+	 * <li>processRequestByDidStore</li>
+	 * <li>processRequestByResponseTemplate</li>
 	 * <li>processRequestByLookupTable</li>
 	 * <li>processRequestAfterLookupTable</li>
 	 * </ol>
@@ -185,6 +563,26 @@ public class StandardEcu extends EcuBase implements Runnable {
 			return;
 		}
 
+		ret = processRequestByDidStore(request);
+
+		if (ret) {
+			if (logger.isTraceEnabled()) {
+				logger.trace(
+						"<<< public void onRequestReceived(UdsMessage request)");
+			}
+			return;
+		}
+
+		ret = processRequestByResponseTemplate(request);
+
+		if (ret) {
+			if (logger.isTraceEnabled()) {
+				logger.trace(
+						"<<< public void onRequestReceived(UdsMessage request)");
+			}
+			return;
+		}
+
 		ret = processRequestByLookupTable(request);
 
 		if (ret) {
@@ -225,6 +623,81 @@ public class StandardEcu extends EcuBase implements Runnable {
 		return false;
 	}
 
+	/**
+	 * Will process the services ReadDataByIdentifier (0x22) and
+	 * WriteDataByIdentifier (0x2E) with the DID store of the ECU. Data which
+	 * has been written will be returned by following read requests until
+	 * the ECU will be reset. A read request with more than one DID will
+	 * only be handled if all DIDs are in the store.
+	 * 
+	 * @param request The UDS request message
+	 * @return Returns true if the request has been handled. Returns false if
+	 *         the request is not a DID request or if a DID is not in the
+	 *         store, then it will be processed by the lookup table.
+	 */
+	public boolean processRequestByDidStore(UdsMessage request) {
+		DidStore store = this.didStore;
+		if (store == null) {
+			return false;
+		}
+		byte[] requestMessage = request.getMessage();
+		if (requestMessage.length == 0) {
+			return false;
+		}
+		byte[] response = null;
+		int sid = requestMessage[0] & 0xFF;
+		if (sid == DidStore.READ_DATA_BY_IDENTIFIER) {
+			response = store.readDataByIdentifier(requestMessage);
+		} else if (sid == DidStore.WRITE_DATA_BY_IDENTIFIER) {
+			response = store.writeDataByIdentifier(requestMessage);
+		}
+		if (response == null) {
+			return false;
+		}
+		if (logger.isInfoEnabled()) {
+			int maxByteArraySizeLogging = this.getConfig().getMaxByteArraySizeLogging();
+			logger.info("Found DID in DID store, response = "
+					+ Conversion.byteArrayToHexStringShortDotted(response,
+							maxByteArraySizeLogging));
+		}
+		this.sendResponse(request, response);
+		return true;
+	}
+
+	/**
+	 * Will process a UDS request with the response templates of the
+	 * configuration. The response will be created from the template of the
+	 * first matching request pattern. Only the array of the response will
+	 * be allocated, the dynamic fields will be written directly into it.
+	 * 
+	 * @param request The UDS request message
+	 * @return Returns true if a matching template has been found and the
+	 *         response has been sent
+	 */
+	public boolean processRequestByResponseTemplate(UdsMessage request) {
+		ResponseTemplateTable templates = this.getConfig().getResponseTemplates();
+		if (templates == null) {
+			return false;
+		}
+		byte[] requestMessage = request.getMessage();
+		int length = this.getConfig().getLookupLength(requestMessage.length);
+		ResponseTemplate template = templates.find(requestMessage, length);
+		if (template == null) {
+			return false;
+		}
+		// The message keeps the array until it has been sent, so the
+		// array can not be reused for the next response.
+		byte[] response = template.createResponse(requestMessage);
+		if (logger.isInfoEnabled()) {
+			int maxByteArraySizeLogging = this.getConfig().getMaxByteArraySizeLogging();
+			logger.info("Found matching response template, response = "
+					+ Conversion.byteArrayToHexStringShortDotted(response,
+							maxByteArraySizeLogging));
+		}
+		this.sendResponse(request, response);
+		return true;
+	}
+
 	/**
 	 * Will process a UDS request by finding a matching request pattern in the
 	 * lookup table. If a request pattern matches it will send the response and
@@ -244,7 +717,7 @@ public class StandardEcu extends EcuBase implements Runnable {
 					">>> public boolean processRequestByLookupTable(UdsMessage request)");
 		}
 
-		LookupTable lookupTable = this.getConfig().getUdsLookupTable();
+		CompiledLookupTable lookupTable = this.getCompiledLookupTable();
 
 		if (lookupTable == null) {
 			logger.info("No UDS lookup table defined");
@@ -258,18 +731,15 @@ public class StandardEcu extends EcuBase implements Runnable {
 		boolean ret = false;
 
 		byte[] requestMessage = request.getMessage();
-		byte[] requestMessageShort = null;
+		int length = this.getConfig().getLookupLength(requestMessage.length);
 
-		int maxByteArraySizeLookup = this.getConfig().getMaxByteArraySizeLookup();
-		
-		if (requestMessage.length > maxByteArraySizeLookup) {
-			requestMessageShort = Arrays.copyOf(requestMessage, maxByteArraySizeLookup);
-		} else {
-			requestMessageShort = requestMessage;
+		LookupStatistics statistics = null;
+		if (this.getConfig().isLookupStatistics()) {
+			statistics = this.getLookupStatistics(lookupTable);
 		}
 
 		byte[] response = lookupTable
-				.findResultAndApplyModifiers(requestMessageShort);
+				.findResultAndApplyModifiers(requestMessage, length, this.getLookupCache(), statistics);
 
 		if (response != null) {
 			if (logger.isInfoEnabled()) {
@@ -278,23 +748,8 @@ public class StandardEcu extends EcuBase implements Runnable {
 						+ Conversion.byteArrayToHexStringShortDotted(response,
 								maxByteArraySizeLogging));
 			}
-			
-			if (response.length <= 0) {
-				// Response with 0 bytes -> Don't send an answer
-				// Just clear current request and be read to receive
-				// new requests
-				this.clearCurrentRequest();
-			} else {
-				// Send response message
-				UdsMessage udsResponse = new UdsMessage(
-						/* source address */ this.getConfig().getPhysicalAddress(),
-						/* target address */ request.getSourceAdrress(),
-						/* response */ UdsMessage.PHYSICAL, response);
-
-				this.clearCurrentRequest();
-				this.onSendUdsMessage(udsResponse);
-			}
-			
+
+			this.sendResponse(request, response);
 			ret = true;
 
 		} else {
@@ -309,6 +764,154 @@ public class StandardEcu extends EcuBase implements Runnable {
 		return ret;
 	}
 
+	/**
+	 * Sends the response for a request. The response will be delayed if a
+	 * delay has been configured for the request or if a latency model has
+	 * been configured, otherwise it will be sent immediately.
+	 * 
+	 * @param request  The request
+	 * @param response The response, if it is empty no response will be sent
+	 */
+	public void sendResponse(UdsMessage request, byte[] response) {
+		int delay = this.getConfig().getResponseDelay(request.getMessage());
+		if (delay > 0) {
+			// Response will be sent later, the request stays the
+			// current request until then.
+			this.scheduleResponse(request, response, delay);
+		} else if (this.getConfig().getLatencyP2() != null) {
+			// Response time follows the configured latency model
+			int p2 = this.getConfig().getLatencyP2().nextDelay();
+			int p2Star = -1;
+			if (this.getConfig().getLatencyP2Star() != null) {
+				p2Star = this.getConfig().getLatencyP2Star().nextDelay();
+			}
+			this.scheduleResponse(request, response, p2, p2Star);
+		} else if (response.length <= 0) {
+			// Response with 0 bytes -> Don't send an answer
+			// Just clear current request and be read to receive
+			// new requests
+			this.clearCurrentRequest();
+		} else {
+			// Send response message
+			UdsMessage udsResponse = new UdsMessage(
+					/* source address */ this.getConfig().getPhysicalAddress(),
+					/* target address */ request.getSourceAdrress(),
+					/* response */ UdsMessage.PHYSICAL, response);
+
+			this.clearCurrentRequest();
+			this.onSendUdsMessage(udsResponse);
+		}
+	}
+
+	/**
+	 * Returns the runtime lookup table compiled for fast matching. The table
+	 * will be compiled on first use and again when the runtime lookup table
+	 * has been replaced or got new entries.
+	 * 
+	 * @return The compiled lookup table or null if no lookup table has been
+	 *         configured
+	 */
+	public CompiledLookupTable getCompiledLookupTable() {
+		MappedLookupFile binary = this.getRuntimeBinaryLookupFile();
+		if (binary != null) {
+			return this.getCompiledLookupTable(binary);
+		}
+		LookupTable source = this.getSharedRuntimeLookupTable();
+		if (source == null) {
+			return null;
+		}
+		CompiledLookupTable compiled = this.compiledLookupTable.get();
+		if (compiled == null || !compiled.isCompiledFrom(source)) {
+			LookupTableRepository repository = this.getConfig().getLookupTableRepository();
+			CompiledLookupTable newCompiled = null;
+			if (repository != null) {
+				newCompiled = repository.compile(source);
+			} else {
+				newCompiled = new CompiledLookupTable(source);
+			}
+			compiled = this.swapCompiledLookupTable(compiled, newCompiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Returns the statistics of the lookup table which is currently used.
+	 * 
+	 * @return The statistics or null if statistics are not enabled or no
+	 *         request has been processed with the current lookup table
+	 */
+	public LookupStatistics getLookupStatistics() {
+		LookupStatistics statistics = this.lookupStatistics.get();
+		if (statistics == null || statistics.getTable() != this.compiledLookupTable.get()) {
+			return null;
+		}
+		return statistics;
+	}
+
+	/**
+	 * Returns the statistics for the given compiled lookup table. New
+	 * statistics will be created if the table has been replaced.
+	 */
+	private LookupStatistics getLookupStatistics(CompiledLookupTable table) {
+		LookupStatistics statistics = this.lookupStatistics.get();
+		while (statistics == null || statistics.getTable() != table) {
+			LookupStatistics newStatistics = new LookupStatistics(table);
+			if (this.lookupStatistics.compareAndSet(statistics, newStatistics)) {
+				return newStatistics;
+			}
+			statistics = this.lookupStatistics.get();
+		}
+		return statistics;
+	}
+
+	/**
+	 * Returns the compiled lookup table for a binary lookup file.
+	 */
+	private CompiledLookupTable getCompiledLookupTable(MappedLookupFile binary) {
+		CompiledLookupTable compiled = this.compiledLookupTable.get();
+		if (compiled == null || !compiled.isCompiledFrom(binary)) {
+			LookupTableRepository repository = this.getConfig().getLookupTableRepository();
+			CompiledLookupTable newCompiled = null;
+			if (repository != null) {
+				newCompiled = repository.compile(binary);
+			} else {
+				newCompiled = new CompiledLookupTable(binary);
+			}
+			compiled = this.swapCompiledLookupTable(compiled, newCompiled);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Replaces the compiled lookup table if it has not been replaced by
+	 * another thread in the meantime. The responses of the old table will be
+	 * removed from the lookup cache.
+	 * 
+	 * @param expected The compiled table which has been read before
+	 * @param compiled The new compiled table
+	 * @return The compiled table which shall be used
+	 */
+	private CompiledLookupTable swapCompiledLookupTable(CompiledLookupTable expected, CompiledLookupTable compiled) {
+		if (!this.compiledLookupTable.compareAndSet(expected, compiled)) {
+			// Another thread was faster. If its table is already outdated it
+			// will be compiled again with the next call.
+			return this.compiledLookupTable.get();
+		}
+		if (expected != null && this.getLookupCache() != null) {
+			this.getLookupCache().invalidate(expected);
+		}
+		return compiled;
+	}
+
+	/**
+	 * Compiles the new runtime lookup table immediately, so the next request
+	 * does not need to wait for it.
+	 */
+	@Override
+	protected void onLookupTableReplaced() {
+		this.getCompiledLookupTable();
+	}
+
 	/**
 	 * Handles a UDS request with a default implementation. The default
 	 * implementation sends a negative response with NRC 0x10 (general reject).
@@ -345,42 +948,248 @@ public class StandardEcu extends EcuBase implements Runnable {
 		return true;
 	}
 
+	/**
+	 * Sends a response after a delay without blocking the current thread.
+	 * While the response is pending response pending messages (NRC 0x78)
+	 * will be sent in the interval given by
+	 * EcuConfig.getResponsePendingInterval(). The request stays the current
+	 * request of the ECU until the final response has been sent, so the ECU
+	 * is busy for further requests of the same tester.
+	 * 
+	 * @param request     The request for which the response shall be sent
+	 * @param response    The final response, if it is empty no response
+	 *                    will be sent
+	 * @param delayMillis The delay in milliseconds
+	 */
+	public void scheduleResponse(UdsMessage request, byte[] response, int delayMillis) {
+		if (this.getConfig().getResponsePendingInterval() > 0) {
+			this.scheduleResponse(request, response, 0, delayMillis);
+		} else {
+			this.scheduleResponse(request, response, delayMillis, -1);
+		}
+	}
+
+	/**
+	 * Sends a response after the times P2 and P2* without blocking the
+	 * current thread. After P2 the final response will be sent, or for
+	 * long-running requests a response pending message (NRC 0x78). In that
+	 * case the final response will be sent after further P2* and the
+	 * response pending message will be repeated in the interval given by
+	 * EcuConfig.getResponsePendingInterval(). The request stays the current
+	 * request of the ECU until the final response has been sent.
+	 * 
+	 * @param request      The request for which the response shall be sent
+	 * @param response     The final response, if it is empty no response
+	 *                     will be sent
+	 * @param p2Millis     Time in milliseconds until the ECU reacts
+	 * @param p2StarMillis Additional time in milliseconds for a long-running
+	 *                     request, a negative value means that the request
+	 *                     is not long-running
+	 */
+	public void scheduleResponse(UdsMessage request, byte[] response, int p2Millis, int p2StarMillis) {
+		if (logger.isTraceEnabled()) {
+			logger.trace(">>> public void scheduleResponse(UdsMessage request, byte[] response, int p2Millis, int p2StarMillis)");
+		}
+
+		UdsMessage udsResponse = null;
+		if (response.length > 0) {
+			udsResponse = new UdsMessage(
+					/* source address */ this.getConfig().getPhysicalAddress(),
+					/* target address */ request.getSourceAdrress(),
+					/* response */ UdsMessage.PHYSICAL, response);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("Response will be sent after P2 = {} ms, P2* = {} ms", p2Millis, p2StarMillis);
+		}
+
+		DelayedResponse delayedResponse = new DelayedResponse(this, request, udsResponse, p2Millis, p2StarMillis,
+				this.getConfig().getResponsePendingInterval());
+		ResponseScheduler scheduler = this.getOrCreateResponseScheduler();
+		if (scheduler == null || !delayedResponse.start(scheduler)) {
+			logger.error("Response could not be scheduled, it will be sent immediately");
+			this.sendDelayedResponse(request, udsResponse);
+		}
+
+		if (logger.isTraceEnabled()) {
+			logger.trace("<<< public void scheduleResponse(UdsMessage request, byte[] response, int p2Millis, int p2StarMillis)");
+		}
+	}
+
+	/**
+	 * Will be called by the response scheduler when the delay of a response
+	 * has been expired. It clears the request and sends the response.
+	 * 
+	 * @param request  The request
+	 * @param response The response or null if no response shall be sent
+	 */
+	void sendDelayedResponse(UdsMessage request, UdsMessage response) {
+		this.clearCurrentRequest(request);
+		if (response != null) {
+			this.onSendUdsMessage(response);
+		}
+	}
+
+	/**
+	 * Returns the scheduler for delayed responses or null if the ECU is not
+	 * running or the own scheduler has not been created yet.
+	 */
+	ResponseScheduler getActiveResponseScheduler() {
+		if (!this.runFlag) {
+			return null;
+		}
+		ResponseScheduler scheduler = this.getResponseScheduler();
+		if (scheduler == null) {
+			scheduler = this.ownResponseScheduler;
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Returns the scheduler for delayed responses. If no shared scheduler
+	 * has been assigned the own scheduler of the ECU will be created on
+	 * first use.
+	 *
+	 * @return The scheduler or null if the ECU is not running
+	 */
+	private ResponseScheduler getOrCreateResponseScheduler() {
+		ResponseScheduler scheduler = this.getActiveResponseScheduler();
+		if (scheduler != null) {
+			return scheduler;
+		}
+		synchronized (this.ownResponseSchedulerLock) {
+			// Check the run flag inside the lock, so "stop()" will stop a
+			// scheduler which has been created at the same time.
+			if (!this.runFlag) {
+				return null;
+			}
+			if (this.ownResponseScheduler == null) {
+				this.ownResponseScheduler = new ResponseScheduler(this.getConfig().getName() + ":RESPONSE", 1,
+						this.getThreadMode());
+				this.ownResponseScheduler.start();
+			}
+			return this.ownResponseScheduler;
+		}
+	}
+
+	/**
+	 * Returns the number of calls of "start()"
+	 */
+	int getStartCounter() {
+		return this.startCounter;
+	}
+
 	@Override
 	public void run() {
 		logger.trace(">>> public void run()");
 
 		while (this.runFlag) {
-			checkAndHandleNewRequest();
-			sleep(1);
+			this.checkAndHandleNewRequest();
+			// The thread will be unparked by "putRequest(...)" and "stop()".
+			// If that happened before the thread is parked, the function
+			// park() returns immediately.
+			if (this.runFlag && !this.defaultLane.isNewRequestAvailable()) {
+				LockSupport.park(this);
+			}
 		}
 
 		logger.trace("<<< public void run()");
 	}
 
 	/**
-	 * Checks if a new request is available and handles the new request.
+	 * Wakes up the thread or hands over a task to the worker pool after a
+	 * new request has been stored in a lane.
+	 * 
+	 * @param lane The lane which contains the new request
 	 */
-	protected synchronized void checkAndHandleNewRequest() {
+	private void signalNewRequest(RequestLane lane) {
+		Thread thread = this.thread;
+		if (thread != null && lane == this.defaultLane) {
+			LockSupport.unpark(thread);
+		} else {
+			this.scheduleTask(lane);
+		}
+	}
 
-		// Don't log function entry and exit! It would be called every
-		// millisecond.
+	/**
+	 * Checks if a new request is available and handles the new request.
+	 */
+	protected void checkAndHandleNewRequest() {
+		this.checkAndHandleNewRequest(this.defaultLane);
+	}
 
-		if (isBusy == false) {
+	/**
+	 * Checks if a new request is available in the given lane and handles
+	 * the new request.
+	 * 
+	 * @param lane The lane which shall be checked
+	 */
+	private void checkAndHandleNewRequest(RequestLane lane) {
+		UdsMessage request = null;
+		if (lane.hasRequestQueue()) {
+			QueuedRequest queuedRequest = lane.pollQueuedRequest();
+			if (queuedRequest != null) {
+				this.requestQueueStatistics.onDequeued(System.nanoTime() - queuedRequest.getQueuedTime());
+				request = queuedRequest.getRequest();
+			} else if (lane.isNewRequestAvailable()) {
+				// A request has been queued while the state was busy for
+				// a short moment, in that case its signal could have been
+				// missed.
+				this.signalNewRequest(lane);
+			}
+		} else {
+			request = lane.takePendingRequest();
+		}
 
-			// Check if there is a new request
-			UdsMessage currentRequest = this.getCurrentRequest();
-			if (currentRequest != null) {
+		if (request != null) {
+			if (logger.isInfoEnabled()) {
+				logger.info("Picked up new request to handle it");
+			}
+			this.activeLane.set(lane);
+			try {
+				this.handleRequest(request);
+			} finally {
+				this.activeLane.remove();
+			}
+		}
+	}
 
-				// Now ECU is busy with processing the new request
-				this.isBusy = true;
-				if (logger.isInfoEnabled()) {
-					logger.info("Picked up new request to handle it");
-				}
-				this.handleRequest(currentRequest);
+	/**
+	 * Hands over a task to the worker pool which will process the current
+	 * request of a lane. Does nothing if there is no worker pool or if there
+	 * is already a task for this lane waiting for execution.
+	 * 
+	 * @param lane The lane which shall be processed
+	 */
+	private void scheduleTask(RequestLane lane) {
+		EcuWorkerPool workerPool = this.getWorkerPool();
+		if (workerPool == null) {
+			workerPool = this.laneWorkerPool;
+		}
+		if (workerPool == null || !this.runFlag) {
+			return;
+		}
+		AtomicBoolean isTaskScheduled = lane.getTaskScheduledFlag();
+		if (isTaskScheduled.compareAndSet(false, true)) {
+			if (!workerPool.execute(() -> this.processRequestInWorkerPool(lane))) {
+				isTaskScheduled.set(false);
 			}
 		}
 	}
 
+	/**
+	 * Will be executed by a thread of the worker pool to process the current
+	 * request of a lane.
+	 * 
+	 * @param lane The lane which shall be processed
+	 */
+	private void processRequestInWorkerPool(RequestLane lane) {
+		lane.getTaskScheduledFlag().set(false);
+		if (this.runFlag) {
+			this.checkAndHandleNewRequest(lane);
+		}
+	}
+
 	/**
 	 * Simple wrapper for Thread.sleep(int). If the thread will be interrupted a
 	 * log message with level FATAL will be logged.
@@ -407,9 +1216,36 @@ public class StandardEcu extends EcuBase implements Runnable {
 		if (logger.isTraceEnabled()) {
 			logger.trace(">>> void start()");
 		}
+		this.startCounter++;
 		this.runFlag = true;
-		this.thread = new Thread(this, this.getConfig().getName());
-		this.thread.start();
+		if (this.testerLanes != null) {
+			if (this.getWorkerPool() == null) {
+				int threads = this.getConfig().getRequestLaneThreads();
+				if (threads <= 0) {
+					threads = Runtime.getRuntime().availableProcessors();
+				}
+				this.laneWorkerPoolLimit = threads;
+				EcuWorkerPool pool = new EcuWorkerPool(this.getConfig().getName() + ":LANE",
+						Math.min(threads, Math.max(1, this.testerLanes.size())), this.getThreadMode());
+				pool.start();
+				this.laneWorkerPool = pool;
+				// Lanes might have been created while the pool has been started
+				this.resizeLaneWorkerPool();
+			}
+			for (RequestLane lane : this.testerLanes.values()) {
+				if (lane.isNewRequestAvailable()) {
+					this.scheduleTask(lane);
+				}
+			}
+		} else if (this.getWorkerPool() == null) {
+			this.thread = this.getThreadMode().newThread(this, this.getConfig().getName());
+			this.thread.start();
+		} else {
+			logger.debug("ECU will process requests in worker pool '{}'", this.getWorkerPool().getName());
+			if (this.defaultLane.isNewRequestAvailable()) {
+				this.scheduleTask(this.defaultLane);
+			}
+		}
 		if (logger.isTraceEnabled()) {
 			logger.trace("<<< void start()");
 		}
@@ -421,15 +1257,52 @@ public class StandardEcu extends EcuBase implements Runnable {
 			logger.trace(">>> void stop()");
 		}
 		this.runFlag = false;
-		try {
-			this.thread.join();
-		} catch (InterruptedException e) {
-			logger.error(Helper.getExceptionAsString(e));
+		if (this.thread != null) {
+			LockSupport.unpark(this.thread);
+			try {
+				this.thread.join();
+			} catch (InterruptedException e) {
+				logger.error(Helper.getExceptionAsString(e));
+			}
+			this.thread = null;
+		}
+		if (this.laneWorkerPool != null) {
+			this.laneWorkerPool.stop();
+			this.laneWorkerPool = null;
 		}
-		this.thread = null;
+		synchronized (this.ownResponseSchedulerLock) {
+			if (this.ownResponseScheduler != null) {
+				this.ownResponseScheduler.stop();
+				this.ownResponseScheduler = null;
+			}
+		}
+		this.releaseLanes();
 		if (logger.isTraceEnabled()) {
 			logger.trace("<<< void stop()");
 		}
 	}
 
+	/**
+	 * Releases all lanes which are still busy after the ECU has been
+	 * stopped. Delayed responses which have been pending will never be sent
+	 * because the scheduler discards them, so their requests would never be
+	 * cleared and after a restart every request would be answered with NRC
+	 * 0x21. Requests which are waiting in a lane will be processed after the
+	 * next start.
+	 */
+	private void releaseLanes() {
+		this.releaseLane(this.defaultLane);
+		if (this.testerLanes != null) {
+			for (RequestLane lane : this.testerLanes.values()) {
+				this.releaseLane(lane);
+			}
+		}
+	}
+
+	private void releaseLane(RequestLane lane) {
+		if (lane.clearCurrentRequest()) {
+			logger.info("Request in progress has been discarded because the ECU has been stopped");
+		}
+	}
+
 }
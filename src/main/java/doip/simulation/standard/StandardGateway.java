@@ -3,14 +3,20 @@ package doip.simulation.standard;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.MulticastSocket;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -20,6 +26,11 @@ import org.apache.logging.log4j.MarkerManager;
 import doip.simulation.EcuBase;
 import doip.simulation.EcuConfig;
 import doip.simulation.EcuListener;
+import doip.simulation.EcuWorkerPool;
+import doip.simulation.LookupTableWatcher;
+import doip.simulation.ResponseScheduler;
+import doip.simulation.TcpTransport;
+import doip.simulation.lookup.LookupCache;
 import doip.simulation.GatewayConfig;
 import doip.simulation.api.Gateway;
 import doip.simulation.api.ServiceState;
@@ -63,7 +74,7 @@ import doip.library.util.Helper;
  * similar to a normal ECU which is behind the gateway.
  */
 public class StandardGateway
-		implements Gateway, TcpServerListener, DoipTcpConnectionListener, EcuListener, DoipUdpMessageHandlerListener, TimerListener {
+		implements Gateway, TcpServerListener, NioServerListener, DoipTcpConnectionListener, EcuListener, DoipUdpMessageHandlerListener, TimerListener {
 
 	private static Logger logger = LogManager.getLogger(StandardGateway.class);
 
@@ -96,6 +107,24 @@ public class StandardGateway
 	 */
 	private TcpServerThread tcpServerThread = null;
 
+	/**
+	 * TCP server socket channel on which the gateway will listen for new
+	 * TCP connections if the TCP transport is "nio"
+	 */
+	private ServerSocketChannel tcpServerChannel = null;
+
+	/**
+	 * The event loops which handle the TCP connections if the TCP transport
+	 * is "nio". It can be shared with other gateways.
+	 */
+	private NioEventLoopGroup nioEventLoopGroup = null;
+
+	/**
+	 * Flag if the event loop group has been created by this gateway because
+	 * no shared group has been assigned
+	 */
+	private boolean isOwnNioEventLoopGroup = false;
+
 	/**
 	 * ConnectionManager who is responsible to handle 
 	 * routing activation messages 
@@ -106,7 +135,13 @@ public class StandardGateway
 	 * List of ECUs which are behind this gateway. To this ECUs the UDS messages 
 	 * will be send and the ECUs will send back their responses.
 	 */
-	private List<EcuBase> ecus = new LinkedList<EcuBase>();
+	private List<EcuBase> ecus = new CopyOnWriteArrayList<EcuBase>();
+
+	/**
+	 * Index of the ECUs by their physical and functional address. It will be
+	 * replaced by a new index whenever ECUs will be added or removed.
+	 */
+	private volatile EcuRoutingTable routingTable = EcuRoutingTable.EMPTY;
 
 	/**
 	 * Every TCP connection (which will be running in a thread) 
@@ -181,8 +216,21 @@ public class StandardGateway
 		return (List<doip.simulation.api.Ecu>)(List<?>)ecus;
 	}
 
+	public ConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	/**
+	 * Returns the current index of the ECUs by their addresses. It will be
+	 * replaced by a new table when ECUs will be added or removed.
+	 */
+	public EcuRoutingTable getRoutingTable() {
+		return routingTable;
+	}
+
 	public ConnectionManager createConnectionManager() {
 		ConnectionManager connectionManager = new ConnectionManager(config.getMaxNumberOfRegisteredConnections());	
+		connectionManager.setAliveCheckTimeout(config.getTcpAliveCheckTimeout());
 		return connectionManager;
 	}
 
@@ -198,7 +246,8 @@ public class StandardGateway
 		}
 		this.connectionInstanceCounter++;
 		StandardTcpConnectionGateway standardConnection = new StandardTcpConnectionGateway(
-				config.getName() + ":TCP-RECV-" + this.connectionInstanceCounter, config.getMaxByteArraySizeLogging(), config.getInitialInactivityTime(), config.getGeneralInactivityTime());
+				config.getName() + ":TCP-RECV-" + this.connectionInstanceCounter, config.getMaxByteArraySizeLogging(), config.getInitialInactivityTime(), config.getGeneralInactivityTime(), config.getThreadMode());
+		standardConnection.setOutboundQueue(config.getTcpOutboundQueueSize(), config.getTcpOutboundQueueOverflowPolicy(), config.getTcpOutboundQueueTimeout());
 
 		if (logger.isTraceEnabled()) {
 			logger.trace("<<< StandardConnection createConnection()");
@@ -206,6 +255,46 @@ public class StandardGateway
 		return standardConnection;
 	}
 
+	/**
+	 * Creates a new connection for the TCP transport "nio". This function can
+	 * be overridden to create a different type of connection.
+	 * 
+	 * @return A NioTcpConnectionGateway
+	 */
+	public NioTcpConnectionGateway createNioConnection() {
+		logger.trace(">>> public NioTcpConnectionGateway createNioConnection()");
+		this.connectionInstanceCounter++;
+		NioTcpConnectionGateway connection = new NioTcpConnectionGateway(
+				config.getName() + ":TCP-CONN-" + this.connectionInstanceCounter, config.getMaxByteArraySizeLogging(), config.getInitialInactivityTime(), config.getGeneralInactivityTime(), config.getThreadMode());
+		connection.setWriteCoalesceTime(config.getTcpWriteCoalesceTime());
+		connection.setOutboundQueue(config.getTcpOutboundQueueSize(), config.getTcpOutboundQueueOverflowPolicy(), config.getTcpOutboundQueueTimeout());
+		logger.trace("<<< public NioTcpConnectionGateway createNioConnection()");
+		return connection;
+	}
+
+	/**
+	 * Will be called by an event loop when a new TCP connection has been
+	 * established and the TCP transport is "nio". It creates a new
+	 * connection, adds itself as listener and assigns the connection to the
+	 * next event loop of the group.
+	 */
+	@Override
+	public void onChannelAccepted(NioEventLoopGroup group, SocketChannel channel) {
+		logger.trace(enter, ">>> public void onChannelAccepted(NioEventLoopGroup group, SocketChannel channel)");
+		try {
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		} catch (IOException e) {
+			logger.error(Helper.getExceptionAsString(e));
+		}
+
+		NioTcpConnectionGateway connection = createNioConnection();
+		connection.addListener(this);
+		connectionManager.addConnection(connection);
+
+		connection.start(channel, group.next());
+		logger.trace(exit, "<<< public void onChannelAccepted(NioEventLoopGroup group, SocketChannel channel)");
+	}
+
 	/**
 	 * Will be called when a new TCP connection has been established. It creates a
 	 * new connection thread, adds itself as listener and start the thread.
@@ -302,19 +391,14 @@ public class StandardGateway
 			logger.debug("Search for ECU which corresponding target address");
 		}
 
-		// Iterate over all ECUs and find ECUs which have a 
-		// physical or functional address like target address.
-		LinkedList<EcuBase> targetEcus = new LinkedList<EcuBase>();
-		for (EcuBase tmpEcu : this.ecus) {
-			if ((tmpEcu.getConfig().getPhysicalAddress() == target) ||
-				 (tmpEcu.getConfig().getFunctionalAddress() == target)) {
-				targetEcus.add(tmpEcu);
-			}
-		}
+		// Find ECUs which have a physical or functional address
+		// like target address.
+		EcuRoutingTable routingTable = this.routingTable;
+		EcuBase[] targetEcus = routingTable.getTargets(target);
 
 		// [DoIP-071] If target address is unknown then send negative acknowledgement
 		// with code 0x03.
-		if (targetEcus.size() == 0) {
+		if (targetEcus.length == 0) {
 			logger.warn("Could not find a ECU with target address " + target);
 			DoipTcpDiagnosticMessageNegAck negAck = new DoipTcpDiagnosticMessageNegAck(target,
 					source, DoipTcpDiagnosticMessageNegAck.NACK_CODE_UNKNOWN_TARGET_ADDRESS, new byte[] {});
@@ -329,20 +413,31 @@ public class StandardGateway
 		}
 
 		// A target ECU could be found; send the positive acknowledgement
-		DoipTcpDiagnosticMessagePosAck posAck = new DoipTcpDiagnosticMessagePosAck(target,
-				source, 0x00, new byte[] {});
-		doipTcpConnection.send(posAck);
+		standardConnection.sendDiagnosticMessagePosAck(target, source, 0x00);
 		
-		// Send UDS message to ECU
+		// Send UDS message to ECU. ECUs which need to wait for space in their
+		// request queue will get the request while no further messages will
+		// be read from this connection.
+		ArrayList<Runnable> waitingRequests = null;
 		for (EcuBase tmpEcu : targetEcus) {
-			if (tmpEcu.getConfig().getPhysicalAddress() == target) {
-				UdsMessage request = new UdsMessage(source, target, UdsMessage.PHYSICAL, diagnosticMessage);
-				tmpEcu.putRequest(request);
-			} else if (tmpEcu.getConfig().getFunctionalAddress() == target) {
-				UdsMessage request = new UdsMessage(source, target, UdsMessage.FUNCTIONAL, diagnosticMessage);
-				tmpEcu.putRequest(request);
+			int addressType = tmpEcu.getConfig().getPhysicalAddress() == target ? UdsMessage.PHYSICAL
+					: UdsMessage.FUNCTIONAL;
+			UdsMessage request = new UdsMessage(source, target, addressType, diagnosticMessage);
+			if (!tmpEcu.offerRequest(request)) {
+				if (waitingRequests == null) {
+					waitingRequests = new ArrayList<Runnable>();
+				}
+				waitingRequests.add(() -> tmpEcu.putRequestAndWait(request));
 			}
 		}
+		if (waitingRequests != null) {
+			final ArrayList<Runnable> requests = waitingRequests;
+			standardConnection.executeWithReadingSuspended(() -> {
+				for (Runnable request : requests) {
+					request.run();
+				}
+			});
+		}
 
 		if (logger.isTraceEnabled()) {
 			logger.trace(exit,
@@ -737,12 +832,126 @@ public class StandardGateway
 		while (iter.hasNext()) {
 			EcuConfig ecuConfig = iter.next();
 			EcuBase ecu = this.createEcu(ecuConfig);
+			ecu.setThreadMode(this.config.getThreadMode());
 			ecu.addListener(this);
 			this.ecus.add(ecu);
 		}
+		this.updateRoutingTable();
 		logger.trace(exit, "<<< public void prepareEcus()");
 	}
 
+	/**
+	 * Adds an ECU to this gateway while the gateway is running. The ECU must
+	 * already be started. Diagnostic messages to the addresses of the ECU
+	 * will be forwarded to the ECU after this function returned.
+	 * 
+	 * @param ecu The ECU
+	 */
+	public synchronized void addEcu(EcuBase ecu) {
+		logger.trace(enter, ">>> public synchronized void addEcu(EcuBase ecu)");
+		ecu.addListener(this);
+		this.ecus.add(ecu);
+		this.updateRoutingTable();
+		logger.trace(exit, "<<< public synchronized void addEcu(EcuBase ecu)");
+	}
+
+	/**
+	 * Removes an ECU from this gateway while the gateway is running. The ECU
+	 * will not be stopped. Diagnostic messages which are already on the way
+	 * to the ECU may still be processed by the ECU.
+	 * 
+	 * @param ecu The ECU
+	 * @return True if the ECU has been removed, false if it did not belong
+	 *         to this gateway
+	 */
+	public synchronized boolean removeEcu(EcuBase ecu) {
+		logger.trace(enter, ">>> public synchronized boolean removeEcu(EcuBase ecu)");
+		boolean removed = this.ecus.remove(ecu);
+		if (removed) {
+			this.updateRoutingTable();
+			ecu.removeListener(this);
+		}
+		logger.trace(exit, "<<< public synchronized boolean removeEcu(EcuBase ecu)");
+		return removed;
+	}
+
+	/**
+	 * Builds a new routing table from the current list of ECUs and replaces
+	 * the old one. Diagnostic messages which are processed at the same time
+	 * will either use the old or the new table.
+	 */
+	private synchronized void updateRoutingTable() {
+		this.routingTable = EcuRoutingTable.build(this.ecus);
+	}
+
+	/**
+	 * Assigns a shared pool of worker threads to all ECUs of this gateway.
+	 * Must be called before the gateway will be started.
+	 * 
+	 * @param workerPool The worker pool or null if every ECU shall use
+	 *                   an own thread.
+	 */
+	public void setEcuWorkerPool(EcuWorkerPool workerPool) {
+		for (EcuBase ecu : this.ecus) {
+			ecu.setWorkerPool(workerPool);
+		}
+	}
+
+	/**
+	 * Assigns a shared group of event loops which will handle the TCP
+	 * connections if the TCP transport is "nio". Must be called before the
+	 * gateway will be started.
+	 * 
+	 * @param nioEventLoopGroup The event loop group or null if the gateway
+	 *                          shall create an own group with one event loop.
+	 */
+	public void setNioEventLoopGroup(NioEventLoopGroup nioEventLoopGroup) {
+		this.nioEventLoopGroup = nioEventLoopGroup;
+	}
+
+	public NioEventLoopGroup getNioEventLoopGroup() {
+		return nioEventLoopGroup;
+	}
+
+	/**
+	 * Assigns a shared scheduler for delayed responses to all ECUs of this
+	 * gateway. Must be called before the gateway will be started.
+	 * 
+	 * @param responseScheduler The scheduler or null if every ECU shall
+	 *                          create an own scheduler.
+	 */
+	public void setResponseScheduler(ResponseScheduler responseScheduler) {
+		for (EcuBase ecu : this.ecus) {
+			ecu.setResponseScheduler(responseScheduler);
+		}
+	}
+
+	/**
+	 * Assigns a shared cache for responses of the lookup tables to all ECUs
+	 * of this gateway.
+	 * 
+	 * @param lookupCache The cache or null if no cache shall be used
+	 */
+	public void setLookupCache(LookupCache lookupCache) {
+		for (EcuBase ecu : this.ecus) {
+			ecu.setLookupCache(lookupCache);
+		}
+	}
+
+	/**
+	 * Adds all ECUs of this gateway whose lookup files shall be watched to
+	 * the given watcher. Must be called before the watcher will be started.
+	 * 
+	 * @param watcher The watcher for the lookup files
+	 */
+	public void addToLookupTableWatcher(LookupTableWatcher watcher) {
+		for (EcuBase ecu : this.ecus) {
+			if (ecu.getConfig().isUdsReloadWatch()) {
+				watcher.addEcu(ecu);
+			}
+		}
+	}
+
 	/**
 	 * Creates a new StandardEcu. This function can be overridden if a different
 	 * implementation of an ECU shall be used.
@@ -812,13 +1021,12 @@ public class StandardGateway
 		// get send out.
 		StandardTcpConnectionGateway targetConnection = connectionManager.getConnectionBySourceAddress(target); 
 		if (targetConnection != null) {
-			DoipTcpDiagnosticMessage doipMessage = new DoipTcpDiagnosticMessage(source, target, diagnosticMessage);
 			if (logger.isInfoEnabled()) {
 				logger.info("UDS-SEND: Source = " + message.getSourceAdrress() + ", target = "
 						+ message.getTargetAddress() + ", data = "
 						+ Conversion.byteArrayToHexString(diagnosticMessage));
 			}
-			targetConnection.send(doipMessage);
+			targetConnection.sendDiagnosticMessage(source, target, diagnosticMessage);
 		} else {
 			if (logger.isErrorEnabled()) {
 				logger.error("Could not find TCP connection to send out DoIP message "
@@ -874,16 +1082,29 @@ public class StandardGateway
 			this.udpSocket = Helper.createUdpSocket(config.getLocalAddress(), config.getLocalPort(),
 					config.getMulticastAddress());
 			this.udpSocket.setBroadcast(true);
-			logger.debug("Create TCP server socket");
-			this.tcpServerSocket = Helper.createTcpServerSocket(config.getLocalAddress(), config.getLocalPort());
+			if (config.getTcpTransport() == TcpTransport.NIO) {
+				logger.debug("Create TCP server socket channel");
+				this.tcpServerChannel = ServerSocketChannel.open();
+				this.tcpServerChannel.bind(new InetSocketAddress(config.getLocalAddress(), config.getLocalPort()));
+				if (this.nioEventLoopGroup == null) {
+					logger.debug("No shared event loop group has been assigned, create own event loop group");
+					this.nioEventLoopGroup = new NioEventLoopGroup(config.getName() + ":TCP-NIO", 1, config.getThreadMode());
+					this.isOwnNioEventLoopGroup = true;
+				}
+			} else {
+				logger.debug("Create TCP server socket");
+				this.tcpServerSocket = Helper.createTcpServerSocket(config.getLocalAddress(), config.getLocalPort());
+			}
 
 			logger.debug("Pepare UDP message handler");
 			this.doipUdpMessageHandler = createDoipUdpMessageHandler(config.getName() + ":UDP-RECV");
 			this.doipUdpMessageHandler.addListener(this);
 
-			logger.debug("Prepare TCP server thread");
-			this.tcpServerThread = new TcpServerThread(config.getName() + ":TCP-SERV");
-			this.tcpServerThread.addListener(this);
+			if (this.tcpServerSocket != null) {
+				logger.debug("Prepare TCP server thread");
+				this.tcpServerThread = new TcpServerThread(config.getName() + ":TCP-SERV");
+				this.tcpServerThread.addListener(this);
+			}
 
 			logger.debug("Start ECUs");
 			this.startEcus();
@@ -891,8 +1112,17 @@ public class StandardGateway
 			logger.debug("Start UDP interpreter thread");
 			this.doipUdpMessageHandler.start(this.udpSocket);
 
-			logger.debug("Start TCP receiver thread");
-			this.tcpServerThread.start(this.tcpServerSocket);
+			if (this.tcpServerChannel != null) {
+				if (this.isOwnNioEventLoopGroup) {
+					logger.debug("Start own event loop group");
+					this.nioEventLoopGroup.start();
+				}
+				logger.debug("Accept TCP connections in event loop group");
+				this.nioEventLoopGroup.addServer(this.tcpServerChannel, this);
+			} else {
+				logger.debug("Start TCP receiver thread");
+				this.tcpServerThread.start(this.tcpServerSocket);
+			}
 			
 			if (this.config.getBroadcastEnable() == true) {
 				this.timerVam = new TimerThread();
@@ -939,9 +1169,26 @@ public class StandardGateway
 			this.tcpServerThread.stop();
 		}
 
+		if (this.tcpServerChannel != null) {
+			logger.debug("Close TCP server socket channel");
+			try {
+				this.tcpServerChannel.close();
+			} catch (IOException e) {
+				logger.error(Helper.getExceptionAsString(e));
+			}
+			this.tcpServerChannel = null;
+		}
+
 		logger.debug("Stop TCP connections");
 		this.stopConnections();
 
+		if (this.isOwnNioEventLoopGroup) {
+			logger.debug("Stop own event loop group");
+			this.nioEventLoopGroup.stop();
+			this.nioEventLoopGroup = null;
+			this.isOwnNioEventLoopGroup = false;
+		}
+
 		logger.debug("Stop ECUs");
 		this.stopEcus();
 
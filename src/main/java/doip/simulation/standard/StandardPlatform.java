@@ -1,5 +1,6 @@
 package doip.simulation.standard;
 
+import java.io.IOException;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -8,30 +9,101 @@ import org.apache.logging.log4j.Logger;
 import java.util.ArrayList;
 
 import doip.library.exception.DoipException;
+import doip.library.util.Helper;
+import doip.simulation.EcuWorkerPool;
 import doip.simulation.GatewayConfig;
+import doip.simulation.LookupTableWatcher;
 import doip.simulation.PlatformConfig;
+import doip.simulation.ResponseScheduler;
+import doip.simulation.TcpTransport;
+import doip.simulation.api.Ecu;
 import doip.simulation.api.Gateway;
 import doip.simulation.api.Platform;
 import doip.simulation.api.ServiceState;
+import doip.simulation.lookup.LookupCache;
+import doip.simulation.lookup.LookupStatistics;
 
 public class StandardPlatform implements Platform {
 	
 	private List<Gateway> gateways = new ArrayList<Gateway>();
 	
 	private static Logger logger = LogManager.getLogger(StandardPlatform.class);
+
+	/**
+	 * Maximum number of patterns in each list of the lookup statistics which
+	 * will be logged when the platform will be stopped
+	 */
+	private static final int LOOKUP_STATISTICS_LIMIT = 10;
 	
 	private PlatformConfig config = null;
 	
 	private ServiceState state = ServiceState.STOPPED;
 
+	/**
+	 * Pool of worker threads which is shared by all ECUs of this platform.
+	 * It is null if every ECU has its own thread.
+	 */
+	private EcuWorkerPool ecuWorkerPool = null;
+
+	/**
+	 * Scheduler for delayed responses which is shared by all ECUs of this
+	 * platform
+	 */
+	private ResponseScheduler responseScheduler = null;
+
+	/**
+	 * Cache for responses of the lookup tables which is shared by all ECUs
+	 * of this platform. It is null if there is no shared cache.
+	 */
+	private LookupCache lookupCache = null;
+
+	/**
+	 * Watches the lookup files of all ECUs which have enabled the property
+	 * "uds.reload.watch" and reloads their lookup tables when the files
+	 * have been changed.
+	 */
+	private LookupTableWatcher lookupTableWatcher = null;
+
+	/**
+	 * Event loops which handle the TCP connections of all gateways with the
+	 * TCP transport "nio". It is null if no gateway uses this transport.
+	 */
+	private NioEventLoopGroup nioEventLoopGroup = null;
+
 	public StandardPlatform(PlatformConfig config) throws DoipException {
 		String method = "public StandardPlatform(String name)";
 		try {
 			logger.trace(">>> {}", method);
 			this.config = config;
+			if (config.getEcuWorkerThreads() > 0) {
+				this.ecuWorkerPool = new EcuWorkerPool(config.getName() + ":ECU-WORKER", config.getEcuWorkerThreads(),
+						config.getThreadMode());
+			}
+			this.responseScheduler = new ResponseScheduler(config.getName() + ":RESPONSE");
+			if (config.getLookupCacheSize() > 0) {
+				this.lookupCache = new LookupCache(config.getLookupCacheSize());
+			}
+			this.lookupTableWatcher = new LookupTableWatcher(config.getName() + ":LOOKUP-WATCHER");
 			List<GatewayConfig> gatewayConfigList = config.getCopyOfGatewayConfigList(); 
 			for (GatewayConfig gatewayConfig : gatewayConfigList) {
-				Gateway gateway = this.createGateway(gatewayConfig);
+				if (gatewayConfig.getTcpTransport() == TcpTransport.NIO && this.nioEventLoopGroup == null) {
+					this.nioEventLoopGroup = new NioEventLoopGroup(config.getName() + ":TCP-NIO", config.getTcpNioThreads(),
+							config.getThreadMode());
+				}
+			}
+			for (GatewayConfig gatewayConfig : gatewayConfigList) {
+				StandardGateway gateway = this.createGateway(gatewayConfig);
+				if (gatewayConfig.getTcpTransport() == TcpTransport.NIO) {
+					gateway.setNioEventLoopGroup(this.nioEventLoopGroup);
+				}
+				if (this.ecuWorkerPool != null) {
+					gateway.setEcuWorkerPool(this.ecuWorkerPool);
+				}
+				gateway.setResponseScheduler(this.responseScheduler);
+				if (this.lookupCache != null) {
+					gateway.setLookupCache(this.lookupCache);
+				}
+				gateway.addToLookupTableWatcher(this.lookupTableWatcher);
 				gateways.add(gateway);
 			}
 		} finally {
@@ -48,6 +120,28 @@ public class StandardPlatform implements Platform {
 		String method = "public void start()";
 		try {
 			logger.trace(">>> {}", method);
+			if (this.ecuWorkerPool != null) {
+				this.ecuWorkerPool.start();
+			}
+			this.responseScheduler.start();
+			if (this.nioEventLoopGroup != null) {
+				try {
+					this.nioEventLoopGroup.start();
+				} catch (IOException e) {
+					logger.error("Failed to start the event loops for TCP connections");
+					this.stopRunningGateways();
+					this.state = ServiceState.ERROR;
+					throw logger.throwing(new DoipException(e));
+				}
+			}
+			if (this.lookupTableWatcher.hasFiles()) {
+				try {
+					this.lookupTableWatcher.start();
+				} catch (IOException e) {
+					logger.error("Failed to watch the lookup files, lookup tables will not be reloaded automatically");
+					logger.error(Helper.getExceptionAsString(e));
+				}
+			}
 			for (Gateway gateway : this.gateways) {
 				try {
 					logger.debug("Start gateway with name {}", gateway.getName());
@@ -77,6 +171,14 @@ public class StandardPlatform implements Platform {
 					gateway.stop();
 				}
 			}
+			if (this.ecuWorkerPool != null) {
+				this.ecuWorkerPool.stop();
+			}
+			this.responseScheduler.stop();
+			this.lookupTableWatcher.stop();
+			if (this.nioEventLoopGroup != null) {
+				this.nioEventLoopGroup.stop();
+			}
 		} finally {
 			this.state = ServiceState.STOPPED;
 			logger.trace("<<< {}", method);
@@ -88,6 +190,12 @@ public class StandardPlatform implements Platform {
 		String method = "public void stop()";
 		logger.trace(">>> {}", method);
 		stopRunningGateways();
+		if (logger.isInfoEnabled()) {
+			String report = this.dumpLookupStatistics(LOOKUP_STATISTICS_LIMIT);
+			if (!report.isEmpty()) {
+				logger.info(report);
+			}
+		}
 		logger.trace("<<< {}", method);
 	}
 
@@ -111,6 +219,52 @@ public class StandardPlatform implements Platform {
 		return null;
 	}
 	
+	public EcuWorkerPool getEcuWorkerPool() {
+		return ecuWorkerPool;
+	}
+
+	public ResponseScheduler getResponseScheduler() {
+		return responseScheduler;
+	}
+
+	public LookupCache getLookupCache() {
+		return lookupCache;
+	}
+
+	/**
+	 * Creates a report with the hottest, slowest and never matched patterns
+	 * of the lookup tables of all ECUs which record lookup statistics (ECU
+	 * property "lookup.statistics").
+	 * 
+	 * @param limit Maximum number of patterns in each list
+	 * @return The report, it consists of several lines
+	 */
+	public String dumpLookupStatistics(int limit) {
+		StringBuilder sb = new StringBuilder();
+		for (Gateway gateway : this.gateways) {
+			for (Ecu ecu : gateway.getEcus()) {
+				if (!(ecu instanceof StandardEcu)) {
+					continue;
+				}
+				LookupStatistics statistics = ((StandardEcu) ecu).getLookupStatistics();
+				if (statistics != null) {
+					sb.append("ECU '").append(ecu.getName()).append("' of gateway '")
+							.append(gateway.getName()).append("': ");
+					sb.append(statistics.dump(limit));
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	public LookupTableWatcher getLookupTableWatcher() {
+		return lookupTableWatcher;
+	}
+
+	public NioEventLoopGroup getNioEventLoopGroup() {
+		return nioEventLoopGroup;
+	}
+
 	public void addGateway(Gateway gateway) {
 		this.gateways.add(gateway);
 	}
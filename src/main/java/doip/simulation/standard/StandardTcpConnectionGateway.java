@@ -1,15 +1,19 @@
 package doip.simulation.standard;
 
 import java.net.Socket;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import doip.library.comm.DoipTcpConnection;
 import doip.library.message.DoipTcpAliveCheckResponse;
-import doip.library.timer.Timer;
-import doip.library.timer.TimerListener;
-import doip.library.timer.TimerThread;
+import doip.library.message.DoipTcpDiagnosticMessage;
+import doip.library.message.DoipTcpDiagnosticMessagePosAck;
+import doip.library.message.DoipTcpMessage;
+import doip.simulation.OutboundOverflowPolicy;
+import doip.simulation.ThreadMode;
 
 /**
  * Extends the DoipTcpConnection by implementing a 'registered source address'
@@ -18,10 +22,16 @@ import doip.library.timer.TimerThread;
  * The class is specific for a DoIP gateway, it can not be used to implement a
  * diagnostic tester.
  * 
+ * If an outbound queue has been configured, messages will not be written by
+ * the thread which sends them. They will be put into a bounded queue which
+ * will be written by an own sender thread, so a tester which does not read
+ * its messages can not block an ECU. If the queue is full the configured
+ * overflow policy will be applied.
+ * 
  * @author Marco Wehnert
  *
  */
-public class StandardTcpConnectionGateway extends DoipTcpConnection implements TimerListener {
+public class StandardTcpConnectionGateway extends DoipTcpConnection {
 	
 	private static Logger logger = LogManager.getLogger(StandardTcpConnectionGateway.class);
 
@@ -40,12 +50,49 @@ public class StandardTcpConnectionGateway extends DoipTcpConnection implements T
 	 */
 	private int registeredSourceAddress = -1;
 	
-	private Timer inactivityTimer = null;
+	private InactivityTimer inactivityTimer = null;
 	
 	private int initialInactivityTime = 0;
 	
 	private int generalInactivityTime = 0;
 	
+	/**
+	 * Name of the TCP receiver thread, will also be used for the name
+	 * of the inactivity timer thread.
+	 */
+	private String tcpReceiverThreadName = null;
+	
+	/**
+	 * Defines which kind of thread will be used for the inactivity timer
+	 */
+	private ThreadMode threadMode = ThreadMode.PLATFORM;
+	
+	/**
+	 * Maximum number of messages in the outbound queue. The value 0 means
+	 * that messages will be written directly by the thread which sends them.
+	 */
+	private int outboundQueueSize = 0;
+	
+	private OutboundOverflowPolicy outboundQueueOverflowPolicy = OutboundOverflowPolicy.BLOCK;
+	
+	/**
+	 * Maximum time in milliseconds to wait for space in the outbound queue
+	 * if the overflow policy is BLOCK
+	 */
+	private int outboundQueueTimeout = 1000;
+	
+	private OutboundQueueStatistics outboundQueueStatistics = new OutboundQueueStatistics();
+	
+	/**
+	 * Messages (DoipTcpMessage or byte[]) which have not been written yet
+	 */
+	private ArrayBlockingQueue<Object> outboundQueue = null;
+	
+	/**
+	 * Thread which writes the messages of the outbound queue
+	 */
+	private volatile Thread senderThread = null;
+	
 	/*
 	private int timerType = TIMER_TYPE_INITIAL_INACTIVITY;
 	
@@ -58,28 +105,240 @@ public class StandardTcpConnectionGateway extends DoipTcpConnection implements T
 				int maxByteArraySizeLogging, 
 				int initialInactivityTime, 
 				int generalInactivityTime) {
+		this(tcpReceiverThreadName, maxByteArraySizeLogging, initialInactivityTime, generalInactivityTime, ThreadMode.PLATFORM);
+	}
+	
+	public StandardTcpConnectionGateway(
+				String tcpReceiverThreadName, 
+				int maxByteArraySizeLogging, 
+				int initialInactivityTime, 
+				int generalInactivityTime,
+				ThreadMode threadMode) {
 		super(tcpReceiverThreadName, maxByteArraySizeLogging);
+		this.tcpReceiverThreadName = tcpReceiverThreadName;
 		this.initialInactivityTime = initialInactivityTime;
 		this.generalInactivityTime = generalInactivityTime;
+		this.threadMode = threadMode;
 	}
 
 	@Override
 	public void start(Socket socket) {
-		this.state = STATE_SOCKET_INITIALIZED;
-		this.registeredSourceAddress = -1;
+		this.setSocketInitialized();
+		if (this.outboundQueueSize > 0) {
+			this.outboundQueue = new ArrayBlockingQueue<Object>(this.outboundQueueSize);
+			this.senderThread = this.threadMode.newThread(this::runSender, this.tcpReceiverThreadName + ":SEND");
+		}
 		super.start(socket);
-		inactivityTimer = new TimerThread();
-		inactivityTimer.addListener(this);
-		inactivityTimer.start(initialInactivityTime, 1);
+		if (this.senderThread != null) {
+			this.senderThread.start();
+		}
+		this.startInactivityTimer(initialInactivityTime);
 	}
 
 	@Override
 	public void stop() {
-		inactivityTimer.stop();
-		inactivityTimer.removeListener(this);
+		this.stopInactivityTimer();
+		this.setSocketClosed();
+		Thread senderThread = this.senderThread;
+		this.senderThread = null;
+		if (senderThread != null) {
+			senderThread.interrupt();
+		}
+		super.stop();
+	}
+
+	/**
+	 * Configures the outbound queue. Must be called before the connection
+	 * will be started.
+	 * 
+	 * @param size           Maximum number of messages in the queue, 0 means
+	 *                       that there is no queue
+	 * @param overflowPolicy Defines what happens with a message if the queue
+	 *                       is full
+	 * @param timeout        Maximum time in milliseconds to wait for space in
+	 *                       the queue if the overflow policy is BLOCK
+	 */
+	public void setOutboundQueue(int size, OutboundOverflowPolicy overflowPolicy, int timeout) {
+		this.outboundQueueSize = size;
+		this.outboundQueueOverflowPolicy = overflowPolicy;
+		this.outboundQueueTimeout = timeout;
+	}
+
+	public int getOutboundQueueSize() {
+		return outboundQueueSize;
+	}
+
+	public OutboundOverflowPolicy getOutboundQueueOverflowPolicy() {
+		return outboundQueueOverflowPolicy;
+	}
+
+	public int getOutboundQueueTimeout() {
+		return outboundQueueTimeout;
+	}
+
+	public OutboundQueueStatistics getOutboundQueueStatistics() {
+		return outboundQueueStatistics;
+	}
+
+	/**
+	 * Returns the number of messages which are waiting in the outbound queue
+	 */
+	public int getOutboundQueueDepth() {
+		ArrayBlockingQueue<Object> queue = this.outboundQueue;
+		return queue != null ? queue.size() : 0;
+	}
+
+	@Override
+	public void send(DoipTcpMessage message) {
+		if (this.outboundQueue == null || Thread.currentThread() == this.senderThread) {
+			super.send(message);
+		} else {
+			this.offerOutbound(message);
+		}
+	}
+
+	@Override
+	public void send(byte[] data) {
+		if (this.outboundQueue == null || Thread.currentThread() == this.senderThread) {
+			super.send(data);
+		} else {
+			this.offerOutbound(data);
+		}
+	}
+
+	/**
+	 * Puts a message into the outbound queue. If the queue is full the
+	 * overflow policy will be applied.
+	 */
+	private void offerOutbound(Object message) {
+		boolean accepted = this.outboundQueue.offer(message);
+		if (!accepted && this.outboundQueueOverflowPolicy == OutboundOverflowPolicy.BLOCK) {
+			this.outboundQueueStatistics.onBlocked();
+			try {
+				accepted = this.outboundQueue.offer(message, this.outboundQueueTimeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				logger.error("Waiting for space in the outbound queue has been interrupted");
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (accepted) {
+			this.outboundQueueStatistics.onEnqueued(this.outboundQueue.size());
+		} else {
+			this.onOutboundQueueFull();
+		}
+	}
+
+	/**
+	 * Will be called when a message can not be put into the outbound queue
+	 * because it is full. Depending on the overflow policy the message will
+	 * be discarded or the connection will be closed.
+	 */
+	protected void onOutboundQueueFull() {
+		if (this.outboundQueueOverflowPolicy == OutboundOverflowPolicy.CLOSE) {
+			this.outboundQueueStatistics.onClosed();
+			logger.warn("Outbound queue of connection '{}' is full, the connection will be closed", this.tcpReceiverThreadName);
+			this.stop();
+		} else {
+			this.outboundQueueStatistics.onDropped();
+			logger.info("Outbound queue of connection '{}' is full, the message will be discarded", this.tcpReceiverThreadName);
+		}
+	}
+
+	/**
+	 * Writes the messages of the outbound queue until the connection will be
+	 * stopped. Will be executed by the sender thread.
+	 */
+	private void runSender() {
+		Thread current = Thread.currentThread();
+		try {
+			while (this.senderThread == current) {
+				Object message = this.outboundQueue.take();
+				if (message instanceof DoipTcpMessage) {
+					super.send((DoipTcpMessage) message);
+				} else {
+					super.send((byte[]) message);
+				}
+			}
+		} catch (InterruptedException e) {
+			// The connection has been stopped
+		}
+	}
+
+	/**
+	 * Sets the state after a socket has been assigned to this connection.
+	 */
+	protected void setSocketInitialized() {
+		this.state = STATE_SOCKET_INITIALIZED;
+		this.registeredSourceAddress = -1;
+	}
+
+	/**
+	 * Sets the state after the socket of this connection has been closed.
+	 */
+	protected void setSocketClosed() {
 		this.state = STATE_SOCKET_CLOSED;
 		this.registeredSourceAddress = -1;
-		super.stop();
+	}
+
+	/**
+	 * Starts the inactivity timer. If the timer is already running it will
+	 * be restarted with the new time. This function can be overridden if
+	 * the timer shall not be implemented by an own thread.
+	 * 
+	 * @param millis Time in milliseconds until the timer expires
+	 */
+	protected void startInactivityTimer(int millis) {
+		if (inactivityTimer == null) {
+			inactivityTimer = new InactivityTimer(this.tcpReceiverThreadName + ":TIMER", this.threadMode,
+					this::onInactivityTimerExpired);
+		}
+		inactivityTimer.start(millis);
+	}
+
+	/**
+	 * Stops the inactivity timer.
+	 */
+	protected void stopInactivityTimer() {
+		if (inactivityTimer != null) {
+			inactivityTimer.stop();
+		}
+	}
+
+	public int getInitialInactivityTime() {
+		return initialInactivityTime;
+	}
+
+	public int getGeneralInactivityTime() {
+		return generalInactivityTime;
+	}
+
+	public ThreadMode getThreadMode() {
+		return threadMode;
+	}
+
+	/**
+	 * Sends a DoIP diagnostic message. This function can be overridden to
+	 * encode the message without creating a DoipTcpDiagnosticMessage.
+	 * 
+	 * @param source Source address
+	 * @param target Target address
+	 * @param data   The UDS message
+	 */
+	public void sendDiagnosticMessage(int source, int target, byte[] data) {
+		this.send(new DoipTcpDiagnosticMessage(source, target, data));
+	}
+
+	/**
+	 * Sends a DoIP diagnostic message positive acknowledgement without
+	 * previous diagnostic message data. This function can be overridden to
+	 * encode the message without creating a DoipTcpDiagnosticMessagePosAck.
+	 * 
+	 * @param source  Source address
+	 * @param target  Target address
+	 * @param ackCode The acknowledgement code
+	 */
+	public void sendDiagnosticMessagePosAck(int source, int target, int ackCode) {
+		this.send(new DoipTcpDiagnosticMessagePosAck(source, target, ackCode, new byte[] {}));
 	}
 
 	/**
@@ -95,22 +354,32 @@ public class StandardTcpConnectionGateway extends DoipTcpConnection implements T
 		return false;
 	}
 
+	/**
+	 * Executes a task which may block while no further messages will be read
+	 * from this connection, so the order of the messages will be kept. The
+	 * standard connection reads the messages with an own thread, therefore
+	 * the task will be executed directly by the calling thread.
+	 * 
+	 * @param task The task
+	 */
+	public void executeWithReadingSuspended(Runnable task) {
+		task.run();
+	}
+
 	public int getRegisteredSourceAddress() {
 		return registeredSourceAddress;
 	}
 
 	public void setRegisteredSourceAddress(int registeredSourceAddress) {
-		this.inactivityTimer.stop();
-		this.inactivityTimer.start(this.generalInactivityTime, 1);
+		this.startInactivityTimer(this.generalInactivityTime);
 		this.registeredSourceAddress = registeredSourceAddress;
 		this.state = STATE_REGISTERED_ROUTING_ACTIVE;
 	}
 
 	/**
-	 * Will be called by initial inactivity timer
+	 * Will be called by initial or general inactivity timer
 	 */
-	@Override
-	public void onTimerExpired(Timer timer) {
+	public void onInactivityTimerExpired() {
 		if (this.isRegistered()) {
 			logger.info("Connection will be closed due to general inactivity timer expired. General inactivity time was {} ms.", this.generalInactivityTime);
 		} else {
@@ -122,8 +391,7 @@ public class StandardTcpConnectionGateway extends DoipTcpConnection implements T
 	@Override
 	public void onDataReceived(byte[] data) {
 		if (this.isRegistered()) {
-			this.inactivityTimer.stop();
-			this.inactivityTimer.start(this.generalInactivityTime, 1);
+			this.startInactivityTimer(this.generalInactivityTime);
 		}
 		super.onDataReceived(data);
 	}
@@ -0,0 +1,228 @@
+package doip.simulation.oldtests;
+
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TextBuilder;
+import static com.starcode88.jtest.Assertions.*;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import doip.library.comm.DoipTcpConnection;
+import doip.library.message.DoipTcpDiagnosticMessage;
+import doip.library.message.DoipTcpRoutingActivationRequest;
+import doip.library.message.DoipTcpRoutingActivationResponse;
+import doip.library.timer.NanoTimer;
+import doip.library.util.Helper;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import doip.simulation.EcuConfig;
+import doip.simulation.GatewayConfig;
+import doip.simulation.standard.StandardGateway;
+
+/**
+ * Implements the test if ECU with a request queue handles requests
+ * correctly when another request still is in progress. The first request
+ * will be processed, the second request will be queued and the third
+ * request will be answered with a busy repeat request because the queue
+ * is full.
+ */
+public class TestBusyRepeatRequestQueue implements DoipTcpConnectionTestListener {
+
+	private static Logger logger = LogManager.getLogger(TestBusyRepeatRequestQueue.class);
+	
+	/**
+	 * Gateway which will be tested
+	 */
+	private static StandardGateway gateway = null;
+	
+	/**
+	 * Configuration for the gateway
+	 */
+	private static GatewayConfig config = null;
+	
+	/**
+	 * Test class for testing connection to gateway
+	 */
+	DoipTcpConnectionTest connTest = null;
+	
+	/**
+	 * Counter for received DoIP messages
+	 */
+	int messageCounter = 0;
+
+	@BeforeAll
+	public static void setUpBeforeClass() throws Exception {
+		logger.info("-----------------------------------------------------------------------------");
+		logger.info(">>> public static void setUpBeforeClass()");
+		
+		try {
+			config = new GatewayConfig();
+			config.setName("GW");
+			config.setLocalPort(13400);
+			config.setMaxByteArraySizeLogging(64);
+			config.setMaxByteArraySizeLookup(64);
+			config.setVin(new byte[] {0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x30, 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37});
+			config.setEid(new byte[] {(byte) 0xE1, (byte) 0xE2, (byte) 0xE3, (byte) 0xE4, (byte) 0xE5, (byte) 0xE6});
+			config.setGid(new byte[] {(byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) 0xA5, (byte) 0xA6});
+			config.setMaxNumberOfRegisteredConnections(4);
+	
+			List<EcuConfig> ecuConfigList = config.getEcuConfigList();
+			EcuConfig ecuConfig = new EcuConfig();
+			ecuConfig.setPhysicalAddress(815);
+			ecuConfig.setName("ECU");
+			ecuConfig.setRequestQueueSize(1);
+			ecuConfigList.add(ecuConfig);
+			
+			gateway = new BusyGateway(config);
+			gateway.start();
+		} catch (Exception e) {
+			throw logger.throwing(new InitializationError(
+								TextBuilder.unexpectedException(e), e));
+		}
+		logger.info("<<< public static void setUpBeforeClass()");
+		logger.info("-----------------------------------------------------------------------------");
+	}
+
+	@AfterAll
+	public static void tearDownAfterClass() throws Exception {
+		logger.info("-----------------------------------------------------------------------------");
+		logger.info(">>> public static void tearDownAfterClass()");
+		
+		try {
+			if (gateway != null) {
+				gateway.stop();
+				gateway = null;
+			}
+		} catch (Exception e) {
+			logger.error(Helper.getExceptionAsString(e));
+		}
+
+		logger.info("<<< public static void tearDownAfterClass()");
+		logger.info("-----------------------------------------------------------------------------");
+	}
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		logger.info("-----------------------------------------------------------------------------");
+		logger.info(">>> public void setUp()");
+		
+		try {
+			connTest = new DoipTcpConnectionTest();
+			connTest.addListener(this);
+			InetAddress localhost = InetAddress.getLocalHost();
+			Socket tcpSocket = new Socket(localhost, 13400);
+			connTest.start(tcpSocket);
+		} catch (Exception e) {
+			logger.error(Helper.getExceptionAsString(e));
+		}
+		logger.info("<<< public void setUp()");
+		logger.info("-----------------------------------------------------------------------------");
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		logger.info("-----------------------------------------------------------------------------");
+		logger.info(">>> public void tearDown()");
+		
+		try {
+			if (connTest != null) {
+				connTest.stop();
+				connTest.removeListener(this);
+				connTest = null;
+			}
+		} catch (Exception e) {
+			logger.error(Helper.getExceptionAsString(e));
+		}
+		
+		logger.info("<<< public void tearDown()");
+		logger.info("-----------------------------------------------------------------------------");
+	}
+
+	@Test
+	public void testBusyRepeatRequestQueue() {
+		logger.info("#############################################################################");
+		logger.info(">>> testBusyRepeatRequestQueue()");
+	
+		try {
+			performRoutingActivation();
+			
+			DoipTcpDiagnosticMessage requestA = new DoipTcpDiagnosticMessage(0xFF00, 815, new byte[] { 0x10, 0x02 });
+			DoipTcpDiagnosticMessage requestB = new DoipTcpDiagnosticMessage(0xFF00, 815, new byte[] { 0x22, (byte) 0xF1, (byte) 0x90 });
+			DoipTcpDiagnosticMessage requestC = new DoipTcpDiagnosticMessage(0xFF00, 815, new byte[] { 0x31, 0x01, 0x02, 0x03 });
+			
+			byte[] threeRequests = Helper.concat(requestA.getMessage(), requestB.getMessage());
+			threeRequests = Helper.concat(threeRequests, requestC.getMessage());
+			
+			this.messageCounter = 0;
+			DoipTcpConnection conn = connTest.getDoipTcpConnection();
+			conn.send(threeRequests);
+			
+			// 3 acknowledges, response pending for request A and busy
+			// repeat request for request C. Request B stays in the queue.
+			boolean ret = this.waitForMessageReceived(1000, 5);
+			assertTrue(ret, "Did not receive all expected messages");
+			this.sleep(100);
+			assertEquals(3, connTest.getOnDoipTcpDiagnosticMessagePosAckCounter(), "Number of positive acknowledges");
+			assertEquals(2, connTest.getOnDoipTcpDiagnosticMessageCounter(), "Number of diagnostic messages");
+		} catch (Exception e) {
+			logger.error(Helper.getExceptionAsString(e));
+			fail("Unexpected exception: " + e.getMessage());
+		}
+		logger.info("<<< testBusyRepeatRequestQueue()");
+		logger.info("#############################################################################");
+	}
+	
+	private boolean performRoutingActivation() {
+		DoipTcpConnection conn = connTest.getDoipTcpConnection();
+		DoipTcpRoutingActivationRequest request = new DoipTcpRoutingActivationRequest(0xFF00, 0x00, -1);
+		conn.send(request);
+		this.messageCounter = 0;
+		boolean ret = this.waitForMessageReceived(1000, 1);
+		assertTrue(ret, "Did not receive any response on routing activation request");
+		DoipTcpRoutingActivationResponse response = connTest.getLastDoipTcpRoutingActivationResponse();
+		assertNotNull(response, "Did not receive a routing activation response");
+		int responseCode = response.getResponseCode();
+		assertEquals(0x10, responseCode, "The response code in routing activation response");
+		return true;
+	}
+	
+	private boolean waitForMessageReceived(int millis, int expectedMessageCounter) {
+		NanoTimer timer = new NanoTimer();
+		long timeout = millis * 1000000;
+		
+		while (this.messageCounter < expectedMessageCounter && timer.getElapsedTime() < timeout) {
+			sleep(1);
+		}
+		
+		if (this.messageCounter >= expectedMessageCounter) {
+			return true;
+		}
+		
+		return false;
+	}
+	
+	private void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	@Override
+	public void onDoipTcpMessageReceived() {
+		this.messageCounter++;
+	}
+
+	@Override
+	public void onConnectionClosed() {
+		
+	}
+}
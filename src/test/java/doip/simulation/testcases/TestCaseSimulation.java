@@ -19,6 +19,7 @@ import doip.library.properties.EmptyPropertyValue;
 import doip.library.properties.MissingProperty;
 import doip.library.properties.MissingSystemProperty;
 import doip.simulation.GatewayConfig;
+import doip.simulation.TcpTransport;
 import doip.simulation.api.Gateway;
 import doip.simulation.standard.StandardGateway;
 import doip.tester.toolkit.CheckResult;
@@ -49,7 +50,9 @@ public class TestCaseSimulation extends TestCaseDescribed {
 	private static InetAddress localhost = null;
 
 	/**
-	 * Sets up the test environment.
+	 * Sets up the test environment. The TCP transport of the gateway can be
+	 * overridden with the system property "tcp.transport", so all test cases
+	 * can be run with both transports.
 	 * @param classId
 	 * @throws InitializationError
 	 * @throws DoipException 
@@ -65,6 +68,10 @@ public class TestCaseSimulation extends TestCaseDescribed {
 			testConfig = testSetup.getConfig();
 			localhost = InetAddress.getByName("localhost");
 			gatewayConfig.loadFromFile("src/test/resources/gateway.properties");
+			String tcpTransport = System.getProperty("tcp.transport");
+			if (tcpTransport != null && !tcpTransport.isEmpty()) {
+				gatewayConfig.setTcpTransport(TcpTransport.fromString(tcpTransport));
+			}
 			gateway = new StandardGateway(gatewayConfig);
 			gateway.start();
 			Thread.sleep(2000);
@@ -0,0 +1,80 @@
+package doip.simulation.unittests.basics;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import doip.library.message.UdsMessage;
+import doip.simulation.EcuConfig;
+import doip.simulation.standard.StandardEcu;
+
+/**
+ * ECU for unit tests which records all requests which are handled and all
+ * messages which are sent. A handled request stays the current request
+ * until the test clears it with "clearCurrentRequest(UdsMessage)", so the
+ * test can decide how long the ECU is busy.
+ */
+public class RecordingEcu extends StandardEcu {
+
+	/**
+	 * Requests which have been passed to "handleRequest(...)"
+	 */
+	private LinkedBlockingQueue<UdsMessage> handledRequests = new LinkedBlockingQueue<UdsMessage>();
+
+	/**
+	 * Messages which have been sent by the ECU
+	 */
+	private LinkedBlockingQueue<UdsMessage> sentMessages = new LinkedBlockingQueue<UdsMessage>();
+
+	public RecordingEcu(EcuConfig config) {
+		super(config);
+	}
+
+	@Override
+	public void handleRequest(UdsMessage request) {
+		this.handledRequests.add(request);
+	}
+
+	@Override
+	public void onSendUdsMessage(UdsMessage message) {
+		this.sentMessages.add(message);
+		super.onSendUdsMessage(message);
+	}
+
+	/**
+	 * Waits for the next request which has been passed to
+	 * "handleRequest(...)".
+	 *
+	 * @param millis Maximum time to wait in milliseconds
+	 * @return The request or null if no request has been handled in time
+	 */
+	public UdsMessage waitForHandledRequest(int millis) {
+		return poll(this.handledRequests, millis);
+	}
+
+	/**
+	 * Waits for the next message which has been sent by the ECU.
+	 *
+	 * @param millis Maximum time to wait in milliseconds
+	 * @return The message or null if no message has been sent in time
+	 */
+	public UdsMessage waitForSentMessage(int millis) {
+		return poll(this.sentMessages, millis);
+	}
+
+	public int getNumberOfHandledRequests() {
+		return this.handledRequests.size();
+	}
+
+	public int getNumberOfSentMessages() {
+		return this.sentMessages.size();
+	}
+
+	private static UdsMessage poll(LinkedBlockingQueue<UdsMessage> queue, int millis) {
+		try {
+			return queue.poll(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.message.UdsMessage;
+import doip.library.util.Conversion;
+import doip.simulation.EcuConfig;
+
+/**
+ * Tests the request intake of the StandardEcu: busy repeat request if the
+ * ECU is busy. The request queue is tested by UT_1014_RequestQueue and the
+ * lanes per tester by UT_1015_TesterLanes.
+ */
+class UT_1003_RequestLane extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1003";
+
+	private static Logger logger = LogManager.getLogger(UT_1003_RequestLane.class);
+
+	private static final int ECU_ADDRESS = 0x0815;
+
+	private static final int TESTER_A = 0x0E80;
+
+	private static final int TIMEOUT = 1000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	/**
+	 * Without request queue a request which is received while the ECU is
+	 * busy will be answered with NRC 0x21.
+	 */
+	void testImpl_01() {
+		RecordingEcu ecu = createEcu();
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			assertTrue(ecu.isBusy(), "ECU is busy while request A is processed");
+
+			ecu.putRequest(request(TESTER_A, "22 F1 90"));
+			assertBusyRepeatRequest(ecu.waitForSentMessage(TIMEOUT), TESTER_A, 0x22);
+			assertEquals(1L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+
+			ecu.clearCurrentRequest(requestA);
+			assertFalse(ecu.isBusy(), "ECU is busy after request A has been cleared");
+
+			UdsMessage requestC = request(TESTER_A, "3E 00");
+			ecu.putRequest(requestC);
+			assertHandled(ecu, requestC);
+			assertEquals(0, ecu.getNumberOfSentMessages(), "Number of further sent messages");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * Many testers put requests at the same time while the requests will be
+	 * cleared by another thread. Every request will either be handled
+	 * exactly once or be answered with NRC 0x21, no request must get lost
+	 * in the transitions between the states idle, pending and busy.
+	 */
+	void testImpl_02() {
+		final int testers = 4;
+		final int requestsPerTester = 500;
+		final int total = testers * requestsPerTester;
+		RecordingEcu ecu = createEcu();
+		try {
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < testers; i++) {
+				final int tester = TESTER_A + i;
+				threads.add(new Thread(() -> {
+					for (int j = 0; j < requestsPerTester; j++) {
+						ecu.putRequest(request(tester, "3E 00"));
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+
+			int handled = 0;
+			UdsMessage request = null;
+			while ((request = ecu.waitForHandledRequest(TIMEOUT)) != null) {
+				handled++;
+				ecu.clearCurrentRequest(request);
+			}
+			for (Thread thread : threads) {
+				join(thread);
+			}
+
+			int busy = ecu.getNumberOfSentMessages();
+			logger.info("Handled {} requests, {} requests answered with NRC 0x21", handled, busy);
+			assertTrue(handled > 0, "Number of handled requests");
+			assertEquals(total, handled + busy, "Number of handled and rejected requests");
+			assertEquals((long) busy, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+			assertFalse(ecu.isBusy(), "ECU is busy after all requests have been cleared");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	private static RecordingEcu createEcu() {
+		EcuConfig config = new EcuConfig();
+		config.setName("ECU");
+		config.setPhysicalAddress(ECU_ADDRESS);
+		RecordingEcu ecu = new RecordingEcu(config);
+		ecu.start();
+		return ecu;
+	}
+
+	private static UdsMessage request(int sourceAddress, String message) {
+		return new UdsMessage(sourceAddress, ECU_ADDRESS, Conversion.hexStringToByteArray(message));
+	}
+
+	private static void assertHandled(RecordingEcu ecu, UdsMessage expected) {
+		UdsMessage request = ecu.waitForHandledRequest(TIMEOUT);
+		assertTrue(request == expected, "Expected request has been handled");
+	}
+
+	private static void assertBusyRepeatRequest(UdsMessage message, int testerAddress, int sid) {
+		assertTrue(message != null, "Busy repeat request has been sent");
+		assertEquals(testerAddress, message.getTargetAddress(), "Target address of busy repeat request");
+		byte[] expected = new byte[] { 0x7F, (byte) sid, 0x21 };
+		assertEquals(Conversion.byteArrayToHexString(expected),
+				Conversion.byteArrayToHexString(message.getMessage()), "Busy repeat request");
+	}
+
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.message.UdsMessage;
+import doip.library.util.Conversion;
+import doip.simulation.EcuConfig;
+import doip.simulation.ResponseScheduler;
+
+/**
+ * Tests delayed responses of the StandardEcu, especially that a response
+ * which is pending while the ECU will be stopped does not keep the ECU
+ * busy after a restart.
+ */
+class UT_1004_DelayedResponse extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1004";
+
+	private static final int ECU_ADDRESS = 0x0815;
+
+	private static final int TESTER = 0x0E80;
+
+	private static final int TIMEOUT = 1000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02(false));
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_02(true));
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	/**
+	 * The final response will be sent after P2 and a response pending
+	 * message will be sent before for a long-running request. The ECU is
+	 * busy until the final response has been sent.
+	 */
+	void testImpl_01() {
+		RecordingEcu ecu = createEcu();
+		try {
+			UdsMessage request = request("31 01 02 03");
+			ecu.putRequest(request);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == request, "Request has been handled");
+
+			long start = System.nanoTime();
+			ecu.scheduleResponse(request, Conversion.hexStringToByteArray("71 01 02 03"), 50, 100);
+			assertMessage(ecu.waitForSentMessage(TIMEOUT), "7F 31 78");
+			assertTrue(ecu.isBusy(), "ECU is busy while the final response is pending");
+			assertMessage(ecu.waitForSentMessage(TIMEOUT), "71 01 02 03");
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+			assertTrue(elapsedMillis >= 145, "Final response has been sent after P2 + P2*");
+			assertFalse(ecu.isBusy(), "ECU is busy after the final response has been sent");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * The ECU will be stopped while a delayed response is pending (with
+	 * response pending messages in the default interval). After a restart
+	 * the ECU must accept new requests and the old response must not be
+	 * sent.
+	 *
+	 * @param sharedScheduler True if the ECU shall use a shared response
+	 *                        scheduler which keeps running while the ECU
+	 *                        will be stopped
+	 */
+	void testImpl_02(boolean sharedScheduler) {
+		ResponseScheduler scheduler = null;
+		RecordingEcu ecu = null;
+		try {
+			if (sharedScheduler) {
+				scheduler = new ResponseScheduler("SHARED:RESPONSE");
+				scheduler.start();
+			}
+			ecu = createEcu(scheduler);
+			UdsMessage requestA = request("10 03");
+			ecu.putRequest(requestA);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == requestA, "Request A has been handled");
+			ecu.scheduleResponse(requestA, Conversion.hexStringToByteArray("50 03"), 200);
+			assertMessage(ecu.waitForSentMessage(TIMEOUT), "7F 10 78");
+			assertTrue(ecu.isBusy(), "ECU is busy while the response is pending");
+
+			ecu.stop();
+			assertFalse(ecu.isBusy(), "ECU is busy after it has been stopped");
+			ecu.start();
+
+			UdsMessage requestB = request("22 F1 90");
+			ecu.putRequest(requestB);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == requestB, "Request B has been handled");
+			assertEquals(null, ecu.waitForSentMessage(400), "Message sent after restart");
+			assertTrue(ecu.isBusy(), "ECU is busy while request B is processed");
+		} finally {
+			if (ecu != null) {
+				ecu.stop();
+			}
+			if (scheduler != null) {
+				scheduler.stop();
+			}
+		}
+	}
+
+	/**
+	 * The ECU creates its own response scheduler only when the first
+	 * response needs to be delayed and stops it when the ECU will be
+	 * stopped.
+	 */
+	void testImpl_04() {
+		RecordingEcu ecu = createEcu(null, "ECU-04");
+		try {
+			UdsMessage request = request("10 03");
+			ecu.putRequest(request);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == request, "Request has been handled");
+			ecu.sendResponse(request, Conversion.hexStringToByteArray("50 03"));
+			assertMessage(ecu.waitForSentMessage(TIMEOUT), "50 03");
+			assertFalse(isThreadAlive("ECU-04:RESPONSE"), "Response scheduler has been created without delay");
+
+			ecu.putRequest(request);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == request, "Request has been handled");
+			ecu.scheduleResponse(request, Conversion.hexStringToByteArray("50 03"), 20, -1);
+			assertMessage(ecu.waitForSentMessage(TIMEOUT), "50 03");
+			assertTrue(isThreadAlive("ECU-04:RESPONSE"), "Response scheduler has been created for the delay");
+		} finally {
+			ecu.stop();
+		}
+		assertFalse(isThreadAlive("ECU-04:RESPONSE"), "Response scheduler is running after stop");
+	}
+
+	private static boolean isThreadAlive(String name) {
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals(name) && thread.isAlive()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static RecordingEcu createEcu() {
+		return createEcu(null, "ECU");
+	}
+
+	private static RecordingEcu createEcu(ResponseScheduler scheduler) {
+		return createEcu(scheduler, "ECU");
+	}
+
+	private static RecordingEcu createEcu(ResponseScheduler scheduler, String name) {
+		EcuConfig config = new EcuConfig();
+		config.setName(name);
+		config.setPhysicalAddress(ECU_ADDRESS);
+		RecordingEcu ecu = new RecordingEcu(config);
+		ecu.setResponseScheduler(scheduler);
+		ecu.start();
+		return ecu;
+	}
+
+	private static UdsMessage request(String message) {
+		return new UdsMessage(TESTER, ECU_ADDRESS, Conversion.hexStringToByteArray(message));
+	}
+
+	private static void assertMessage(UdsMessage message, String expected) {
+		assertTrue(message != null, "Message " + expected + " has been sent");
+		assertEquals(TESTER, message.getTargetAddress(), "Target address of message");
+		assertEquals(expected, Conversion.byteArrayToHexString(message.getMessage()), "Sent message");
+	}
+}
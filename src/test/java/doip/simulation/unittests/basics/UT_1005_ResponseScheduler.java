@@ -0,0 +1,222 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.simulation.ResponseScheduler;
+
+/**
+ * Tests the timer wheel of the ResponseScheduler: tasks are executed in the
+ * order of their deadlines and never before their deadline, also if the
+ * delay is longer than one round of the wheel (512 ticks), and tasks which
+ * are pending when the scheduler will be stopped are discarded.
+ */
+class UT_1005_ResponseScheduler extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1005";
+
+	/**
+	 * Maximum time in milliseconds a task may be executed after its deadline
+	 */
+	private static final int TOLERANCE = 100;
+
+	/**
+	 * Errors detected by the tasks. The tasks must not throw an error,
+	 * because it would terminate the timer thread.
+	 */
+	private ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	/**
+	 * Tasks will be executed in the order of their delays and not before
+	 * their delays.
+	 */
+	void testImpl_01() {
+		ResponseScheduler scheduler = new ResponseScheduler("UT-" + BASE_ID + "-01");
+		scheduler.start();
+		try {
+			int[] delays = new int[] { 60, 0, 20, 40, 10, 30 };
+			ConcurrentLinkedQueue<Integer> order = new ConcurrentLinkedQueue<Integer>();
+			CountDownLatch latch = new CountDownLatch(delays.length);
+			for (int delay : delays) {
+				scheduleAndCheck(scheduler, delay, () -> {
+					order.add(delay);
+					latch.countDown();
+				});
+			}
+			await(latch, 1000);
+			assertEquals("[0, 10, 20, 30, 40, 60]", order.toString(), "Order of executed tasks");
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	/**
+	 * Delays longer than one round of the wheel. The tasks with 88 ms, 600
+	 * ms (512 + 88) and 1112 ms (2 * 512 + 88) will be stored in the same
+	 * bucket, but must be executed in different rounds.
+	 */
+	void testImpl_02() {
+		ResponseScheduler scheduler = new ResponseScheduler("UT-" + BASE_ID + "-02");
+		scheduler.start();
+		try {
+			int[] delays = new int[] { 1112, 600, 88, 530 };
+			ConcurrentLinkedQueue<Integer> order = new ConcurrentLinkedQueue<Integer>();
+			CountDownLatch latch = new CountDownLatch(delays.length);
+			for (int delay : delays) {
+				scheduleAndCheck(scheduler, delay, () -> {
+					order.add(delay);
+					latch.countDown();
+				});
+			}
+			await(latch, 2000);
+			assertEquals("[88, 530, 600, 1112]", order.toString(), "Order of executed tasks");
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	/**
+	 * Tasks which are pending when the scheduler will be stopped will be
+	 * discarded. After a restart new tasks will be executed again.
+	 */
+	void testImpl_03() {
+		ResponseScheduler scheduler = new ResponseScheduler("UT-" + BASE_ID + "-03");
+		scheduler.start();
+		AtomicInteger executed = new AtomicInteger(0);
+		assertTrue(scheduler.schedule(() -> executed.incrementAndGet(), 100), "Task has been scheduled");
+		assertTrue(scheduler.schedule(() -> executed.incrementAndGet(), 700), "Task has been scheduled");
+		sleep(20);
+		scheduler.stop();
+		assertFalse(scheduler.isRunning(), "Scheduler is running after stop");
+		assertFalse(scheduler.schedule(() -> executed.incrementAndGet(), 0), "Task has been scheduled after stop");
+		sleep(200);
+		assertEquals(0, executed.get(), "Number of executed tasks after stop");
+
+		scheduler.start();
+		try {
+			CountDownLatch latch = new CountDownLatch(1);
+			scheduleAndCheck(scheduler, 10, () -> latch.countDown());
+			await(latch, 1000);
+			assertEquals(0, executed.get(), "Number of executed discarded tasks");
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	/**
+	 * Many tasks with random delays, every task will be executed exactly
+	 * once and not before its delay.
+	 */
+	void testImpl_04() {
+		final int tasks = 10000;
+		ResponseScheduler scheduler = new ResponseScheduler("UT-" + BASE_ID + "-04");
+		scheduler.start();
+		try {
+			CountDownLatch latch = new CountDownLatch(tasks);
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < tasks; i++) {
+				scheduleAndCheck(scheduler, random.nextInt(100), () -> latch.countDown());
+			}
+			await(latch, 2000);
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	/**
+	 * A scheduler with a tick of 5 ms does not execute a task before its
+	 * delay.
+	 */
+	void testImpl_05() {
+		ResponseScheduler scheduler = new ResponseScheduler("UT-" + BASE_ID + "-05", 5);
+		scheduler.start();
+		try {
+			CountDownLatch latch = new CountDownLatch(3);
+			scheduleAndCheck(scheduler, 1, () -> latch.countDown());
+			scheduleAndCheck(scheduler, 7, () -> latch.countDown());
+			scheduleAndCheck(scheduler, 2600, () -> latch.countDown());
+			await(latch, 3000);
+		} finally {
+			scheduler.stop();
+		}
+	}
+
+	/**
+	 * Schedules a task which records an error if it will be executed before
+	 * its delay or much later.
+	 */
+	private void scheduleAndCheck(ResponseScheduler scheduler, int delay, Runnable task) {
+		long scheduled = System.nanoTime();
+		boolean ret = scheduler.schedule(() -> {
+			long elapsed = System.nanoTime() - scheduled;
+			if (elapsed < delay * 1000000L) {
+				this.errors.add("Task with delay " + delay + " ms has been executed after " + elapsed / 1000 + " us");
+			} else if (elapsed > (delay + TOLERANCE) * 1000000L) {
+				this.errors.add("Task with delay " + delay + " ms has been executed after " + elapsed / 1000000 + " ms");
+			}
+			task.run();
+		}, delay);
+		assertTrue(ret, "Task has been scheduled");
+	}
+
+	private void await(CountDownLatch latch, int millis) {
+		boolean ret = false;
+		try {
+			ret = latch.await(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		assertTrue(ret, "All tasks have been executed in time, " + latch.getCount() + " tasks are missing");
+		assertTrue(this.errors.isEmpty(), "Tasks have been executed at the wrong time: " + this.errors.peek());
+	}
+
+	private static void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
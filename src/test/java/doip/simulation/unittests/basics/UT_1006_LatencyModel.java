@@ -0,0 +1,134 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.simulation.LatencyModel;
+import doip.simulation.LatencyModel.Distribution;
+
+/**
+ * Tests the distributions of the LatencyModel and the validation of its
+ * parameters.
+ */
+class UT_1006_LatencyModel extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1006";
+
+	private static final int SAMPLES = 10000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	/**
+	 * A fixed latency always returns the same time.
+	 */
+	void testImpl_01() {
+		LatencyModel model = LatencyModel.fromString(" fixed : 25 ");
+		assertEquals(Distribution.FIXED, model.getDistribution(), "Distribution");
+		for (int i = 0; i < 100; i++) {
+			assertEquals(25, model.nextDelay(), "Fixed delay");
+		}
+		assertEquals(0, LatencyModel.fromString("fixed:0").nextDelay(), "Fixed delay of 0 ms");
+	}
+
+	/**
+	 * A uniform latency stays between minimum and maximum and covers the
+	 * whole range.
+	 */
+	void testImpl_02() {
+		LatencyModel model = LatencyModel.fromString("uniform:10:50");
+		assertEquals(Distribution.UNIFORM, model.getDistribution(), "Distribution");
+		int min = Integer.MAX_VALUE;
+		int max = Integer.MIN_VALUE;
+		for (int i = 0; i < SAMPLES; i++) {
+			int delay = model.nextDelay();
+			min = Math.min(min, delay);
+			max = Math.max(max, delay);
+		}
+		assertTrue(min >= 10, "Minimum delay " + min + " is not less than 10 ms");
+		assertTrue(max <= 50, "Maximum delay " + max + " is not greater than 50 ms");
+		assertTrue(min <= 12, "Minimum delay " + min + " is close to 10 ms");
+		assertTrue(max >= 48, "Maximum delay " + max + " is close to 50 ms");
+
+		LatencyModel constant = LatencyModel.fromString("uniform:30:30");
+		assertEquals(30, constant.nextDelay(), "Delay of uniform latency with minimum = maximum");
+	}
+
+	/**
+	 * A log-normal latency has the given median and a long tail, a sigma of
+	 * 0 gives always the median.
+	 */
+	void testImpl_03() {
+		LatencyModel model = LatencyModel.fromString("lognormal:40:0.5");
+		assertEquals(Distribution.LOGNORMAL, model.getDistribution(), "Distribution");
+		int[] delays = new int[SAMPLES];
+		for (int i = 0; i < SAMPLES; i++) {
+			delays[i] = model.nextDelay();
+			assertTrue(delays[i] >= 0, "Delay is not negative");
+		}
+		Arrays.sort(delays);
+		int median = delays[SAMPLES / 2];
+		int p99 = delays[SAMPLES * 99 / 100];
+		assertTrue(median >= 36 && median <= 44, "Median " + median + " is close to 40 ms");
+		// exp(2.326 * 0.5) = 3.2
+		assertTrue(p99 > 2 * median, "99th percentile " + p99 + " is in the long tail");
+
+		assertEquals(40, LatencyModel.fromString("lognormal:40:0").nextDelay(), "Delay with sigma 0");
+		assertEquals(0, LatencyModel.fromString("lognormal:0:1").nextDelay(), "Delay with median 0");
+		int huge = new LatencyModel(Distribution.LOGNORMAL, Double.MAX_VALUE, 1000).nextDelay();
+		assertTrue(huge >= 0, "Delay is not negative for an overflow");
+	}
+
+	/**
+	 * Invalid parameters will be rejected.
+	 */
+	void testImpl_04() {
+		String[] invalidValues = new String[] { "", "fixed", "fixed:", "fixed:-1", "fixed:1:2", "fixed:abc",
+				"fixed:NaN", "fixed:Infinity", "uniform:10", "uniform:50:10", "uniform:-5:10", "lognormal:40",
+				"lognormal:40:-1", "lognormal:40:NaN", "gauss:40:1" };
+		for (String value : invalidValues) {
+			try {
+				LatencyModel.fromString(value);
+				fail("Value '" + value + "' has been accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		}
+		try {
+			new LatencyModel(Distribution.UNIFORM, 10, 5);
+			fail("Uniform latency with maximum less than minimum has been accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.util.Conversion;
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+import doip.simulation.EcuConfig;
+import doip.simulation.lookup.BytePattern;
+import doip.simulation.lookup.CompiledLookupTable;
+import doip.simulation.lookup.LookupCache;
+import doip.simulation.lookup.MappedLookupFile;
+import doip.simulation.lookup.UdsCompiler;
+
+/**
+ * Compares the results of the CompiledLookupTable with the results of
+ * LookupTable.findResultAndApplyModifiers() for the same entries and the
+ * same sequence of requests. Both tables must return the same result for
+ * every request, also after modifiers have changed results. The compiled
+ * table will be tested when it has been compiled from the lookup table,
+ * when it has been created from a binary lookup file and when a lookup
+ * cache is used.
+ */
+class UT_1007_CompiledLookupTable extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1007";
+
+	/**
+	 * The entries of the lookup table: regular expression, result and the
+	 * modifiers as "regex=result" separated by ";". The comment describes
+	 * which feature of the matcher is covered by the entry.
+	 */
+	private static final String[][] ENTRIES = new String[][] {
+		// Literal byte patterns
+		{ "1003", "5003003201F4", "" },
+		{ "22F190", "62F190313233343536", "" },
+		{ "22F186", "62F18601", "" },
+		// Regular expression with alternation after a literal prefix, it
+		// is before the wildcard entry below and must win against it
+		{ "22F1(8C|93)", "62F1AA", "" },
+		// Wildcards "\w" and "." with quantifier
+		{ "22F1\\w{2}", "62F1FF", "" },
+		{ "22F1..", "62F1EE", "" },
+		{ "22..\\w\\w", "62000000", "" },
+		// Trailing ".*" which is compiled to a byte pattern
+		{ "3101FF00.*", "7101FF00", "" },
+		{ "31010203", "71010203", "" },
+		{ "2E\\w{4}.*", "6E", "" },
+		// Half-byte wildcards can not be compiled to a byte pattern
+		{ "19020\\w", "5902FF", "" },
+		{ "1901\\w*", "590100", "" },
+		// Regular expression with ".*" at the end, only the beginning of
+		// the request needs to match
+		{ "2701[0-9A-F]{4}.*", "6701", "" },
+		// Alternation at the beginning and alternation with ".*" which
+		// only belongs to the last alternative
+		{ "(3D|23)F1A0.*", "7DF1A0", "" },
+		{ "85(01|02.*)", "C5", "" },
+		{ "28(01|02).*", "68", "" },
+		{ "3E01|3E02", "7E0102", "" },
+		// Modifiers with several targets
+		{ "1002", "5002003201F4", "22F186=62F18602;22F1\\w{2}=62F1F2" },
+		{ "1001", "5001003201F4", "22F186=62F18601;22F1\\w{2}=62F1FF" },
+		// Second entry with the same regular expression as a modifier
+		// target, it will never match, but it is also a target
+		{ "22F186", "62F18699", "" },
+		// Entry without result
+		{ "3E80", "", "" },
+		{ "3E00", "7E00", "" },
+		// Catch all for service 0x14 and any other request
+		{ "14.*", "54", "" },
+		{ ".*", "7F0011", "" },
+	};
+
+	/**
+	 * The requests in the order in which they will be sent
+	 */
+	private static final String[] REQUESTS = new String[] {
+		"10 03", "10 03 00", "22 F1 90", "22 F1 8C", "22 F1 93", "22 F1 91", "22 F2 90", "22 F2 90 00",
+		"31 01 FF 00", "31 01 FF 00 01 02 03 04 05 06 07 08 09 0A 0B 0C", "31 01 02 03", "31 01 02 03 04",
+		"2E F1 90", "2E F1 90 41 42", "2E F1", "19 02 0A", "19 02 1A", "19 01", "19 01 FF 0F",
+		"27 01", "27 01 12 34", "27 01 12 34 56 78", "3D F1 A0", "3D F1 A0 01", "23 F1 A0 FF", "23 F1 A1",
+		"85 01", "85 01 00", "85 02", "85 02 FF FF",
+		"28 01", "28 02 FF", "28 03", "3E 01", "3E 02", "3E 02 00", "22 F1 86", "10 02", "22 F1 86", "22 F1 44", "10 01",
+		"22 F1 86", "22 F1 44", "10 02", "22 F1 86", "3E 80", "3E 00", "14 FF FF FF", "14", "00", "FF FF FF",
+	};
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	/**
+	 * Table which has been compiled from the lookup table
+	 */
+	void testImpl_01() {
+		compare(new CompiledLookupTable(createLookupTable()), null, 0);
+	}
+
+	/**
+	 * Table which has been created from a binary lookup file
+	 */
+	void testImpl_02() throws TestExecutionError {
+		File file = null;
+		MappedLookupFile binary = null;
+		try {
+			file = File.createTempFile("UT-" + BASE_ID, ".udsb");
+			UdsCompiler.compile(new ArrayList<LookupEntry>(createLookupTable().getLookupEntries()),
+					file.getPath());
+			binary = MappedLookupFile.open(file.getPath());
+			compare(new CompiledLookupTable(binary), null, 0);
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			if (file != null) {
+				file.delete();
+			}
+		}
+	}
+
+	/**
+	 * Table with a lookup cache, every request will be sent twice, so the
+	 * second lookup can be answered by the cache.
+	 */
+	void testImpl_03() {
+		compare(new CompiledLookupTable(createLookupTable()), new LookupCache(16), 0);
+	}
+
+	/**
+	 * Only the first bytes of the requests will be used for the lookup
+	 * (property "maxByteArraySize.lookup").
+	 */
+	void testImpl_04() {
+		compare(new CompiledLookupTable(createLookupTable()), null, 3);
+		compare(new CompiledLookupTable(createLookupTable()), new LookupCache(16), 4);
+	}
+
+	/**
+	 * Table without the catch all entry, so some requests don't match any
+	 * entry.
+	 */
+	void testImpl_05() {
+		int numberOfEntries = ENTRIES.length - 1;
+		LookupTable reference = createLookupTable(numberOfEntries);
+		compare(new CompiledLookupTable(createLookupTable(numberOfEntries)), reference, null, 0);
+	}
+
+	/**
+	 * Literal prefixes of regular expressions which can not be compiled to
+	 * a byte pattern. The entries will be stored at the node of the prefix
+	 * in the trie.
+	 */
+	void testImpl_06() {
+		String[][] prefixes = new String[][] {
+			{ "22F1(8C|90)", "22 F1" },
+			{ "22F1(8C|90).*", "22 F1" },
+			{ "(22|2E)F190", "" },
+			{ "22F190|2EF190", "" },
+			{ "22(F1|F2)|2E", "" },
+			{ "22\\|", "22" },
+			{ "22[|]F1(01|02)", "22" },
+			{ "19020\\w", "19 02" },
+			{ "1901\\w*", "19 01" },
+			{ "1901F*", "19 01" },
+			{ "19018?", "19 01" },
+			{ "2701[0-9A-F]{4}.*", "27 01" },
+			{ ".*", "" },
+		};
+		for (String[] values : prefixes) {
+			String prefix = Conversion.byteArrayToHexString(BytePattern.literalPrefix(values[0]));
+			assertEquals(values[1], prefix, "Literal prefix of " + values[0]);
+		}
+	}
+
+	/**
+	 * Sends all requests to the compiled table and to a new lookup table
+	 * and compares the results.
+	 *
+	 * @param compiled               The compiled table
+	 * @param cache                  The cache or null
+	 * @param maxByteArraySizeLookup Maximum number of bytes which will be
+	 *                               used for the lookup, 0 means no limit
+	 */
+	private static void compare(CompiledLookupTable compiled, LookupCache cache, int maxByteArraySizeLookup) {
+		compare(compiled, createLookupTable(), cache, maxByteArraySizeLookup);
+	}
+
+	private static void compare(CompiledLookupTable compiled, LookupTable reference, LookupCache cache,
+			int maxByteArraySizeLookup) {
+		EcuConfig config = new EcuConfig();
+		config.setMaxByteArraySizeLookup(maxByteArraySizeLookup);
+		int repeat = cache != null ? 2 : 1;
+		for (String hex : REQUESTS) {
+			byte[] request = Conversion.hexStringToByteArray(hex);
+			int length = config.getLookupLength(request.length);
+			for (int i = 0; i < repeat; i++) {
+				byte[] expected = reference.findResultAndApplyModifiers(Arrays.copyOf(request, length));
+				byte[] actual = compiled.findResultAndApplyModifiers(request, length, cache);
+				assertEquals(toString(expected), toString(actual),
+						"Result for request " + hex + " with lookup length " + length);
+			}
+		}
+	}
+
+	private static LookupTable createLookupTable() {
+		return createLookupTable(ENTRIES.length);
+	}
+
+	private static LookupTable createLookupTable(int numberOfEntries) {
+		LookupTable table = new LookupTable();
+		for (String[] values : Arrays.copyOf(ENTRIES, numberOfEntries)) {
+			LookupEntry entry = new LookupEntry(values[0], values[1]);
+			if (!values[2].isEmpty()) {
+				for (String modifier : values[2].split(";")) {
+					String[] parts = modifier.split("=");
+					entry.getModifiers().add(new LookupEntry(parts[0], parts[1]));
+				}
+			}
+			table.addEntry(entry);
+		}
+		return table;
+	}
+
+	private static String toString(byte[] result) {
+		if (result == null) {
+			return "null";
+		}
+		return "[" + Conversion.byteArrayToHexString(result) + "]";
+	}
+}
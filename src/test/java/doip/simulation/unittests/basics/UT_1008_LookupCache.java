@@ -0,0 +1,190 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.util.Conversion;
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+import doip.simulation.lookup.CompiledLookupTable;
+import doip.simulation.lookup.LookupCache;
+
+/**
+ * Tests the counters, the LRU order and the segments of the LookupCache and
+ * the concurrent use of one cache by several threads.
+ */
+class UT_1008_LookupCache extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1008";
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	/**
+	 * Lookups of entries with modifiers, of modifier targets and of requests
+	 * without matching entry are counted as uncacheable and not as misses.
+	 */
+	void testImpl_01() {
+		LookupTable table = new LookupTable();
+		table.addEntry(new LookupEntry("1003", "5003"));
+		LookupEntry entry = new LookupEntry("1001", "5001");
+		entry.getModifiers().add(new LookupEntry("22F186", "62F18602"));
+		table.addEntry(entry);
+		table.addEntry(new LookupEntry("22F186", "62F18601"));
+		CompiledLookupTable compiled = new CompiledLookupTable(table);
+		LookupCache cache = new LookupCache(16);
+
+		String[] requests = new String[] { "10 03", "10 03", "10 01", "10 01", "22 F1 86", "22 F1 86", "00" };
+		for (String request : requests) {
+			byte[] bytes = Conversion.hexStringToByteArray(request);
+			compiled.findResultAndApplyModifiers(bytes, bytes.length, cache);
+		}
+		assertEquals(1L, cache.getHits(), "Hits");
+		assertEquals(1L, cache.getMisses(), "Misses");
+		assertEquals(5L, cache.getUncacheable(), "Uncacheable lookups");
+		assertTrue(cache.getHitRatio() == 0.5, "Hit ratio " + cache.getHitRatio() + " is 0.5");
+		assertEquals(1, cache.getSize(), "Number of cached responses");
+
+		cache.clear();
+		assertEquals(0L, cache.getUncacheable(), "Uncacheable lookups after clear");
+		assertEquals(0, cache.getSize(), "Number of cached responses after clear");
+	}
+
+	/**
+	 * A small cache has only one segment and removes the least recently
+	 * used response.
+	 */
+	void testImpl_02() {
+		CompiledLookupTable table = new CompiledLookupTable(new LookupTable());
+		LookupCache cache = new LookupCache(2);
+		assertEquals(1, cache.getNumberOfSegments(), "Number of segments");
+		byte[] a = Conversion.hexStringToByteArray("10 01");
+		byte[] b = Conversion.hexStringToByteArray("10 02");
+		byte[] c = Conversion.hexStringToByteArray("10 03");
+		cache.put(table, a, a.length, a);
+		cache.put(table, b, b.length, b);
+		assertTrue(cache.get(table, a, a.length) != null, "Response for A is cached");
+		cache.put(table, c, c.length, c);
+
+		assertEquals(1L, cache.getEvictions(), "Evictions");
+		assertEquals(null, cache.get(table, b, b.length), "Response for least recently used B");
+		assertTrue(cache.get(table, a, a.length) != null, "Response for A is cached");
+		assertTrue(cache.get(table, c, c.length) != null, "Response for C is cached");
+		assertEquals(3L, cache.getHits(), "Hits");
+		assertEquals(3L, cache.getMisses(), "Misses");
+	}
+
+	/**
+	 * A large cache will be divided into segments, it never holds more than
+	 * the maximum number of responses and responses of one table can be
+	 * removed without removing the responses of another table.
+	 */
+	void testImpl_03() {
+		assertEquals(2, new LookupCache(200).getNumberOfSegments(), "Number of segments for 200 entries");
+		LookupCache cache = new LookupCache(4096);
+		assertEquals(16, cache.getNumberOfSegments(), "Number of segments for 4096 entries");
+
+		CompiledLookupTable table1 = new CompiledLookupTable(new LookupTable());
+		CompiledLookupTable table2 = new CompiledLookupTable(new LookupTable());
+		final int requests = 10000;
+		for (int i = 0; i < requests; i++) {
+			byte[] request = new byte[] { 0x22, (byte) (i >> 8), (byte) i };
+			cache.put(table1, request, request.length, request);
+		}
+		assertEquals(4096, cache.getSize(), "Number of cached responses");
+		assertEquals((long) (requests - 4096), cache.getEvictions(), "Evictions");
+
+		byte[] request = Conversion.hexStringToByteArray("10 03");
+		cache.put(table2, request, request.length, request);
+		cache.invalidate(table1);
+		assertEquals(1, cache.getSize(), "Number of cached responses after invalidate");
+		assertTrue(cache.get(table2, request, request.length) != null, "Response of other table is cached");
+	}
+
+	/**
+	 * Several threads use the same cache, every lookup returns the right
+	 * result and is counted exactly once.
+	 */
+	void testImpl_04() {
+		LookupTable table = new LookupTable();
+		table.addEntry(new LookupEntry("22F1\\w{2}", "62F1"));
+		table.addEntry(new LookupEntry("1003", "5003"));
+		table.addEntry(new LookupEntry(".*", "7F0011"));
+		CompiledLookupTable compiled = new CompiledLookupTable(table);
+		LookupCache cache = new LookupCache(1024);
+		ConcurrentLinkedQueue<String> errors = new ConcurrentLinkedQueue<String>();
+
+		final int threads = 8;
+		final int lookups = 5000;
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int j = 0; j < lookups; j++) {
+					int value = random.nextInt(2000);
+					byte[] request = null;
+					String expected = null;
+					if (value < 1000) {
+						request = new byte[] { 0x22, (byte) 0xF1, (byte) value };
+						expected = "62 F1";
+					} else if (value < 1500) {
+						request = new byte[] { 0x10, 0x03 };
+						expected = "50 03";
+					} else {
+						request = new byte[] { 0x31, 0x01, (byte) value };
+						expected = "7F 00 11";
+					}
+					byte[] result = compiled.findResultAndApplyModifiers(request, request.length, cache);
+					String actual = Conversion.byteArrayToHexString(result);
+					if (!expected.equals(actual)) {
+						errors.add("Result for request " + Conversion.byteArrayToHexString(request) + " is " + actual);
+					}
+				}
+			}, "UT-" + BASE_ID + "-04-" + i);
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join(10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			assertFalse(worker.isAlive(), "Thread " + worker.getName() + " has finished");
+		}
+		assertTrue(errors.isEmpty(), "Wrong results: " + errors.peek());
+		assertEquals((long) (threads * lookups), cache.getHits() + cache.getMisses(), "Counted lookups");
+		assertEquals(0L, cache.getUncacheable(), "Uncacheable lookups");
+		assertTrue(cache.getSize() <= 1024, "Number of cached responses " + cache.getSize() + " is not greater than 1024");
+	}
+}
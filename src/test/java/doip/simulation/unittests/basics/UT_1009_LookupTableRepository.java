@@ -0,0 +1,230 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+import doip.simulation.EcuConfig;
+import doip.simulation.lookup.CompiledLookupTable;
+import doip.simulation.lookup.LookupTableRepository;
+
+/**
+ * Tests that the LookupTableRepository shares the entries of identical
+ * files and the indices of identical tables, and that it removes them when
+ * they are no longer used, for example after hot reloads.
+ */
+class UT_1009_LookupTableRepository extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1009";
+
+	/**
+	 * Maximum time in milliseconds to wait for the garbage collector
+	 */
+	private static final int GC_TIMEOUT = 5000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	/**
+	 * Files with the same content share their entries, tables with the same
+	 * entries share their index. Both will be removed when no table uses
+	 * them anymore.
+	 */
+	void testImpl_01() throws TestExecutionError {
+		File file1 = null;
+		File file2 = null;
+		try {
+			file1 = createFile("10 03 : 50 03 00 32 01 F4\n22 F1 90 : 62 F1 90 31 32 33\n");
+			file2 = createFile("10 03 : 50 03 00 32 01 F4\n22 F1 90 : 62 F1 90 31 32 33\n");
+			LookupTableRepository repository = new LookupTableRepository();
+			List<LookupEntry> fragment1 = repository.getFragment(file1.getParent() + File.separator, file1.getName());
+			List<LookupEntry> fragment2 = repository.getFragment(file2.getParent() + File.separator, file2.getName());
+			assertEquals(2, fragment1.size(), "Number of entries");
+			assertTrue(fragment1.get(0) == fragment2.get(0), "Files with the same content share their entries");
+			assertEquals(1, repository.getNumberOfFragments(), "Number of fragments");
+
+			CompiledLookupTable compiled1 = repository.compile(createTable(fragment1));
+			CompiledLookupTable compiled2 = repository.compile(createTable(fragment2));
+			assertEquals(1, repository.getNumberOfIndices(), "Number of indices");
+			assertEquals(2, compiled1.getNumberOfEntries(), "Number of entries of the first compiled table");
+			assertEquals(2, compiled2.getNumberOfEntries(), "Number of entries of the second compiled table");
+
+			fragment1 = null;
+			fragment2 = null;
+			compiled1 = null;
+			compiled2 = null;
+			waitForGarbageCollection(repository, 0, 0);
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			delete(file1);
+			delete(file2);
+		}
+	}
+
+	/**
+	 * An ECU reloads a changed file many times. Only the entries of the
+	 * configured table and of the current runtime table and the index of
+	 * the current runtime table stay in the repository.
+	 */
+	void testImpl_02() throws TestExecutionError {
+		File file = null;
+		try {
+			file = createFile("10 03 : 50 03\n");
+			LookupTableRepository repository = new LookupTableRepository();
+			EcuConfig config = createConfig(repository, file.getParent() + File.separator, file.getName());
+			RecordingEcu ecu = new RecordingEcu(config);
+			ecu.getCompiledLookupTable();
+
+			for (int i = 0; i < 20; i++) {
+				Files.write(file.toPath(), ("10 03 : 50 03 " + String.format("%02X", i) + "\n")
+						.getBytes(StandardCharsets.US_ASCII));
+				ecu.reloadLookupTable();
+			}
+			waitForGarbageCollection(repository, 2, 1);
+			// Keeps the ECU alive until the repository has been checked
+			assertEquals(1, ecu.getCompiledLookupTable().getNumberOfEntries(), "Number of entries");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			delete(file);
+		}
+	}
+
+	/**
+	 * The public getters for the lookup tables return copies if the entries
+	 * are shared with other ECUs, so callers can not change the results of
+	 * other ECUs. Without repository the tables will be returned directly.
+	 */
+	void testImpl_03() throws TestExecutionError {
+		File file = null;
+		try {
+			file = createFile("10 03 : 50 03\n22 F1 90 : 62 F1 90 31\n");
+			String path = file.getParent() + File.separator;
+			LookupTableRepository repository = new LookupTableRepository();
+			EcuConfig config1 = createConfig(repository, path, file.getName());
+			EcuConfig config2 = createConfig(repository, path, file.getName());
+			LookupEntry shared = repository.getFragment(path, file.getName()).get(0);
+			RecordingEcu ecu1 = new RecordingEcu(config1);
+			RecordingEcu ecu2 = new RecordingEcu(config2);
+			assertTrue(ecu1.getCompiledLookupTable().getSource().getLookupEntries().get(0) == shared,
+					"ECU 1 uses the shared entries");
+			assertTrue(ecu2.getCompiledLookupTable().getSource().getLookupEntries().get(0) == shared,
+					"ECU 2 uses the shared entries");
+
+			LookupTable copy = config1.getUdsLookupTable();
+			assertCopy(copy, shared, "configured");
+			assertTrue(config1.getUdsLookupTable() == copy, "The same copy will be returned again");
+			assertTrue(ecu1.getRuntimeLookupTable() == copy, "Runtime lookup table is the configured table");
+
+			ecu1.reloadLookupTable();
+			LookupTable runtimeCopy = ecu1.getRuntimeLookupTable();
+			assertCopy(runtimeCopy, shared, "runtime");
+			assertTrue(runtimeCopy != copy, "Copy of the reloaded table is a new copy");
+			assertTrue(ecu1.getRuntimeLookupTable() == runtimeCopy, "The same copy will be returned again");
+
+			LookupTable own = new LookupTable();
+			ecu1.setRuntimeLookupTable(own);
+			assertTrue(ecu1.getRuntimeLookupTable() == own, "A table which has been set will not be copied");
+
+			EcuConfig config3 = createConfig(null, path, file.getName());
+			LookupTable table = config3.getUdsLookupTable();
+			assertTrue(config3.getUdsLookupTable() == table, "Table without repository will not be copied");
+			assertTrue(table.getLookupEntries().get(0) != shared, "Table without repository has own entries");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			delete(file);
+		}
+	}
+
+	private static void assertCopy(LookupTable copy, LookupEntry shared, String name) {
+		assertEquals(2, copy.getLookupEntries().size(), "Number of entries in the copy of the " + name + " table");
+		LookupEntry entry = copy.getLookupEntries().get(0);
+		assertTrue(entry != shared, "The copy of the " + name + " table has own entries");
+		assertEquals(shared.getRegex(), entry.getRegex(), "Regular expression of the copied entry");
+		assertEquals(shared.getResult(), entry.getResult(), "Result of the copied entry");
+	}
+
+	private static EcuConfig createConfig(LookupTableRepository repository, String path, String file)
+			throws IOException {
+		EcuConfig config = new EcuConfig();
+		config.setName("ECU");
+		config.setPhysicalAddress(0x0815);
+		config.setLookupTableRepository(repository);
+		config.setUdsLookupTable(config.createLookupTable());
+		config.loadUdsLookupTable(path, file);
+		return config;
+	}
+
+	/**
+	 * Runs the garbage collector until the repository contains only the
+	 * expected number of fragments and indices.
+	 */
+	private static void waitForGarbageCollection(LookupTableRepository repository, int fragments, int indices) {
+		long end = System.currentTimeMillis() + GC_TIMEOUT;
+		while ((repository.getNumberOfFragments() > fragments || repository.getNumberOfIndices() > indices)
+				&& System.currentTimeMillis() < end) {
+			System.gc();
+			try {
+				Thread.sleep(10);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		assertEquals(fragments, repository.getNumberOfFragments(), "Number of fragments");
+		assertEquals(indices, repository.getNumberOfIndices(), "Number of indices");
+	}
+
+	private static LookupTable createTable(List<LookupEntry> entries) {
+		LookupTable table = new LookupTable();
+		for (LookupEntry entry : entries) {
+			table.addEntry(entry);
+		}
+		return table;
+	}
+
+	private static File createFile(String content) throws IOException {
+		File file = File.createTempFile("UT-" + BASE_ID, ".uds");
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.US_ASCII));
+		return file;
+	}
+
+	private static void delete(File file) {
+		if (file != null) {
+			file.delete();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.util.Conversion;
+import doip.library.util.LookupEntry;
+import doip.simulation.lookup.CompiledLookupTable;
+import doip.simulation.lookup.LookupTableRepository;
+import doip.simulation.lookup.MappedLookupFile;
+import doip.simulation.lookup.UdsCompiler;
+
+/**
+ * Tests that a binary lookup file can be replaced while it is mapped and
+ * that truncated or corrupt files will be rejected.
+ */
+class UT_1010_MappedLookupFile extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1010";
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	/**
+	 * The UdsCompiler replaces a file which is mapped by an atomic rename.
+	 * The old mapping still returns the old results, a new mapping returns
+	 * the new results and no temporary file is left.
+	 */
+	void testImpl_01() throws TestExecutionError {
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("UT-" + BASE_ID);
+			String filename = directory.resolve("ECU.udsb").toString();
+			UdsCompiler.compile(createEntries("50 03 00 32 01 F4"), filename);
+			MappedLookupFile oldFile = MappedLookupFile.open(filename);
+
+			UdsCompiler.compile(createEntries("50 03"), filename);
+			MappedLookupFile newFile = MappedLookupFile.open(filename);
+
+			assertResult(new CompiledLookupTable(oldFile), "10 03", "50 03 00 32 01 F4");
+			assertResult(new CompiledLookupTable(newFile), "10 03", "50 03");
+			assertEquals(1, directory.toFile().list().length, "Number of files in the directory");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * Every truncated version of a valid file and files with offsets out of
+	 * bounds will be rejected with an IOException.
+	 */
+	void testImpl_02() throws TestExecutionError {
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("UT-" + BASE_ID);
+			Path path = directory.resolve("ECU.udsb");
+			UdsCompiler.compile(createEntries("50 03 00 32 01 F4"), path.toString());
+			byte[] content = Files.readAllBytes(path);
+
+			for (int length = 0; length < content.length; length++) {
+				Files.write(path, Arrays.copyOf(content, length));
+				assertRejected(path, "File truncated to " + length + " bytes");
+			}
+
+			// Result offset and result length of the first entry (the header
+			// has 16 bytes), number of entries and number of modifiers
+			int[] positions = new int[] { 16 + 12, 16 + 16, 8, 12 };
+			int[] values = new int[] { content.length, -1, 1000000, -1 };
+			for (int i = 0; i < positions.length; i++) {
+				byte[] corrupt = Arrays.copyOf(content, content.length);
+				ByteBuffer.wrap(corrupt).putInt(positions[i], values[i]);
+				Files.write(path, corrupt);
+				assertRejected(path, "File with value " + values[i] + " at position " + positions[i]);
+			}
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	/**
+	 * A reload of a file which has been replaced by a truncated file will be
+	 * rejected, the repository keeps the old mapping.
+	 */
+	void testImpl_03() throws TestExecutionError {
+		Path directory = null;
+		try {
+			directory = Files.createTempDirectory("UT-" + BASE_ID);
+			Path path = directory.resolve("ECU.udsb");
+			UdsCompiler.compile(createEntries("50 03"), path.toString());
+			LookupTableRepository repository = new LookupTableRepository();
+			MappedLookupFile file = repository.getBinaryFile(path.toString());
+
+			byte[] content = Files.readAllBytes(path);
+			Path temp = directory.resolve("ECU.udsb.tmp");
+			Files.write(temp, Arrays.copyOf(content, content.length - 1));
+			Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			try {
+				repository.reloadBinaryFile(path.toString());
+				fail("Reload of a truncated file has been accepted");
+			} catch (IOException e) {
+				// Expected
+			}
+			assertTrue(repository.getBinaryFile(path.toString()) == file, "Repository keeps the old mapping");
+			assertResult(repository.compile(file), "10 03", "50 03");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			deleteDirectory(directory);
+		}
+	}
+
+	private static List<LookupEntry> createEntries(String result) {
+		List<LookupEntry> entries = new ArrayList<LookupEntry>();
+		LookupEntry entry = new LookupEntry("1001", "5001");
+		entry.getModifiers().add(new LookupEntry("22F186", "62F18601"));
+		entries.add(entry);
+		entries.add(new LookupEntry("1003", result.replace(" ", "")));
+		entries.add(new LookupEntry("22F186", "62F18602"));
+		entries.add(new LookupEntry("2701[0-9A-F]{4}.*", "6701"));
+		return entries;
+	}
+
+	private static void assertRejected(Path path, String description) {
+		try {
+			MappedLookupFile.open(path.toString());
+			fail(description + " has been accepted");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	private static void assertResult(CompiledLookupTable table, String request, String expected) {
+		byte[] bytes = Conversion.hexStringToByteArray(request);
+		byte[] result = table.findResultAndApplyModifiers(bytes, bytes.length);
+		assertEquals(expected, Conversion.byteArrayToHexString(result), "Result for request " + request);
+	}
+
+	private static void deleteDirectory(Path directory) {
+		if (directory == null) {
+			return;
+		}
+		File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.toFile().delete();
+	}
+}
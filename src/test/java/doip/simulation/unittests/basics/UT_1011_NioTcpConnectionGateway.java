@@ -0,0 +1,698 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.util.Conversion;
+import doip.simulation.OutboundOverflowPolicy;
+import doip.simulation.ThreadMode;
+import doip.simulation.standard.NioEventLoopGroup;
+import doip.simulation.standard.NioTcpConnectionGateway;
+
+/**
+ * Tests the NioTcpConnectionGateway with a real TCP connection on the
+ * loopback interface. The connection records the data which it passes to
+ * the DoIP parser, so the framing of the received data can be checked
+ * without a gateway.
+ */
+class UT_1011_NioTcpConnectionGateway extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1011";
+
+	private static final int TIMEOUT = 2000;
+
+	/**
+	 * Time in milliseconds to wait for data which shall not be received
+	 */
+	private static final int SILENCE = 200;
+
+	/**
+	 * Length of messages which fill the socket buffers, so the outbound
+	 * queue will not be written completely as long as the client does not
+	 * read
+	 */
+	private static final int LARGE_MESSAGE_LENGTH = 256 * 1024;
+
+	private static final String REQUEST = "02 FD 80 01 00 00 00 06 0E 80 08 15 10 03";
+
+	private static final String RESPONSE = "02 FD 80 01 00 00 00 06 08 15 0E 80 50 03";
+
+	private static final String POS_ACK = "02 FD 80 02 00 00 00 05 08 15 0E 80 00";
+
+	private static final String ROUTING_ACTIVATION = "02 FD 00 05 00 00 00 07 0E 80 00 00 00 00 00";
+
+	private NioEventLoopGroup group = null;
+
+	private ServerSocketChannel serverChannel = null;
+
+	private Socket client = null;
+
+	private RecordingConnection connection = null;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@BeforeEach
+	void setUp() throws IOException {
+		this.group = new NioEventLoopGroup("UT-" + BASE_ID, 1);
+		this.group.start();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		if (this.connection != null) {
+			this.connection.stop();
+		}
+		if (this.client != null) {
+			this.client.close();
+		}
+		if (this.serverChannel != null) {
+			this.serverChannel.close();
+		}
+		this.group.stop();
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	@Test
+	void test_07() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-07", () -> testImpl_07());
+	}
+
+	@Test
+	void test_08() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-08", () -> testImpl_08());
+	}
+
+	@Test
+	void test_09() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-09", () -> testImpl_09());
+	}
+
+	@Test
+	void test_10() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-10", () -> testImpl_10());
+	}
+
+	@Test
+	void test_11() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-11", () -> testImpl_11());
+	}
+
+	@Test
+	void test_12() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-12", () -> testImpl_12());
+	}
+
+	/**
+	 * A connection which has been started with a socket works like a
+	 * StandardTcpConnectionGateway: it receives and sends data without an
+	 * event loop. It can not be started again with a channel.
+	 */
+	void testImpl_01() throws TestExecutionError {
+		try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+			this.client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+			Socket socket = server.accept();
+			this.connection = new RecordingConnection();
+			this.connection.start(socket);
+			assertTrue(this.connection.isAlive(), "Connection is alive after start");
+
+			byte[] request = Conversion.hexStringToByteArray("02 FD 80 01 00 00 00 06 0E 80 08 15 10 03");
+			this.client.getOutputStream().write(request);
+			assertEquals(Conversion.byteArrayToHexString(request),
+					Conversion.byteArrayToHexString(this.connection.waitForData(request.length)), "Received data");
+
+			byte[] response = Conversion.hexStringToByteArray("02 FD 80 01 00 00 00 06 08 15 0E 80 50 03");
+			this.connection.send(response);
+			assertEquals(Conversion.byteArrayToHexString(response),
+					Conversion.byteArrayToHexString(read(this.client, response.length)), "Sent data");
+			assertEquals(0, this.connection.getOutboundQueueDepth(), "Depth of the outbound queue");
+
+			try {
+				this.connection.start(SocketChannel.open(), this.group.next());
+				fail("Connection has been started again with a channel");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+
+			this.connection.stop();
+			assertFalse(this.connection.isAlive(), "Connection is alive after stop");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * A connection which has been started with a channel receives and sends
+	 * data by the event loop. It can not be started again with a socket.
+	 */
+	void testImpl_02() throws TestExecutionError {
+		try {
+			this.connect();
+			assertTrue(this.connection.isAlive(), "Connection is alive after start");
+
+			byte[] request = Conversion.hexStringToByteArray("02 FD 80 01 00 00 00 06 0E 80 08 15 10 03");
+			this.client.getOutputStream().write(request);
+			assertEquals(Conversion.byteArrayToHexString(request),
+					Conversion.byteArrayToHexString(this.connection.waitForFrame()), "Received message");
+
+			byte[] response = Conversion.hexStringToByteArray("02 FD 80 01 00 00 00 06 08 15 0E 80 50 03");
+			this.connection.send(response);
+			assertEquals(Conversion.byteArrayToHexString(response),
+					Conversion.byteArrayToHexString(read(this.client, response.length)), "Sent message");
+
+			try (Socket socket = new Socket()) {
+				this.connection.start(socket);
+				fail("Connection has been started again with a socket");
+			} catch (IllegalStateException e) {
+				// Expected
+			}
+
+			this.connection.stop();
+			assertFalse(this.connection.isAlive(), "Connection is alive after stop");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * A message which will be received byte by byte and a header which will
+	 * be split over two reads will be passed as one complete message to the
+	 * DoIP parser. Messages which will be received together will be passed
+	 * one by one.
+	 */
+	void testImpl_03() throws TestExecutionError {
+		try {
+			this.connect();
+			byte[] request = Conversion.hexStringToByteArray(REQUEST);
+			for (byte value : request) {
+				this.write(new byte[] { value });
+				sleep(5);
+			}
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Message received byte by byte");
+
+			this.write(Conversion.hexStringToByteArray(REQUEST + " 02 FD 80"));
+			sleep(50);
+			this.write(Conversion.hexStringToByteArray("01 00 00 00 06 0E 80 08 15 22 F1 02 FD"));
+			assertFrame(REQUEST, this.connection.waitForFrame(), "First message");
+			assertFrame("02 FD 80 01 00 00 00 06 0E 80 08 15 22 F1", this.connection.waitForFrame(),
+					"Message with split header");
+			sleep(50);
+			this.write(Conversion.hexStringToByteArray("80 01 00 00 00 06 0E 80 08 15 3E 00" + " " + REQUEST));
+			assertFrame("02 FD 80 01 00 00 00 06 0E 80 08 15 3E 00", this.connection.waitForFrame(),
+					"Message with split version");
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Last message");
+			assertNoFrame();
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * A message which is longer than 1 MiB will not be collected, its data
+	 * will be passed to the DoIP parser as it will be received. The next
+	 * message will be framed again.
+	 */
+	void testImpl_04() throws TestExecutionError {
+		try {
+			this.connect();
+			int payloadLength = 1024 * 1024 + 1;
+			byte[] message = new byte[8 + payloadLength];
+			ByteBuffer.wrap(message).put((byte) 0x02).put((byte) 0xFD).putShort((short) 0x8001).putInt(payloadLength);
+			for (int i = 8; i < message.length; i++) {
+				message[i] = (byte) i;
+			}
+			byte[] request = Conversion.hexStringToByteArray(REQUEST);
+			byte[] data = Arrays.copyOf(message, message.length + request.length);
+			System.arraycopy(request, 0, data, message.length, request.length);
+			this.write(data);
+
+			byte[] received = this.connection.waitForData(message.length);
+			assertEquals(message.length, received.length, "Number of bytes of the long message");
+			assertTrue(Arrays.equals(message, received), "Content of the long message");
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Message after the long message");
+			assertNoFrame();
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * Data with an invalid protocol version will be passed unchanged to the
+	 * DoIP parser, which will handle the error.
+	 */
+	void testImpl_05() throws TestExecutionError {
+		try {
+			this.connect();
+			String invalid = "02 FC 80 01 00 00 00 06 0E 80 08 15 10 03";
+			this.write(Conversion.hexStringToByteArray(invalid + " " + REQUEST));
+			assertFrame(invalid + " " + REQUEST,
+					this.connection.waitForData(2 * Conversion.hexStringToByteArray(REQUEST).length),
+					"Data with invalid protocol version");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * A positive acknowledgement which will be held back will be written
+	 * together with the response if the response will be sent within the
+	 * coalesce time. Without response it will be written when the coalesce
+	 * time expired.
+	 */
+	void testImpl_06() throws TestExecutionError {
+		try {
+			this.connect();
+			byte[] ack = Conversion.hexStringToByteArray(POS_ACK);
+			byte[] response = Conversion.hexStringToByteArray(RESPONSE);
+
+			this.connection.setWriteCoalesceTime(10000000);
+			this.connection.sendDiagnosticMessagePosAck(0x0815, 0x0E80, 0);
+			sleep(50);
+			assertEquals(0L, this.connection.getNumberOfWrites(), "Number of writes while the acknowledgement is held back");
+			this.connection.sendDiagnosticMessage(0x0815, 0x0E80, Conversion.hexStringToByteArray("50 03"));
+			assertFrame(POS_ACK + " " + RESPONSE, read(this.client, ack.length + response.length),
+					"Acknowledgement and response");
+			this.waitForMessagesWritten(2);
+			assertEquals(1L, this.connection.getNumberOfWrites(), "Number of writes");
+			assertEquals(2L, this.connection.getNumberOfMessagesWritten(), "Number of messages written");
+
+			this.connection.setWriteCoalesceTime(100000);
+			long start = System.nanoTime();
+			this.connection.sendDiagnosticMessagePosAck(0x0815, 0x0E80, 0);
+			assertFrame(POS_ACK, read(this.client, ack.length), "Acknowledgement without response");
+			long elapsed = (System.nanoTime() - start) / 1000000L;
+			assertTrue(elapsed >= 90, "Acknowledgement has been held back for " + elapsed + " ms");
+			this.waitForMessagesWritten(3);
+			assertEquals(2L, this.connection.getNumberOfWrites(), "Number of writes");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * With the overflow policy BLOCK a sender waits until the client reads
+	 * and there is space in the outbound queue again.
+	 */
+	void testImpl_07() throws TestExecutionError {
+		try {
+			this.connect(1, OutboundOverflowPolicy.BLOCK, 5000);
+			byte[] message = createLargeMessage();
+			this.connection.send(message);
+			Thread sender = new Thread(() -> this.connection.send(message), "UT-" + BASE_ID + ":SENDER");
+			sender.start();
+			sender.join(SILENCE);
+			assertTrue(sender.isAlive(), "Sender waits for space in the outbound queue");
+			assertEquals(1L, this.connection.getOutboundQueueStatistics().getBlocked(), "Number of blocked senders");
+
+			assertEquals(message.length, read(this.client, message.length).length, "Length of first message");
+			sender.join(TIMEOUT);
+			assertFalse(sender.isAlive(), "Sender finished after the client has read");
+			assertEquals(message.length, read(this.client, message.length).length, "Length of second message");
+			assertEquals(0L, this.connection.getOutboundQueueStatistics().getDropped(), "Number of dropped messages");
+			assertTrue(this.connection.isAlive(), "Connection is alive");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * With the overflow policy DROP messages will be discarded while the
+	 * outbound queue is full. Reading from the client is suspended until
+	 * there is space in the queue again.
+	 */
+	void testImpl_08() throws TestExecutionError {
+		try {
+			this.connect(2, OutboundOverflowPolicy.DROP, 0);
+			byte[] message = createLargeMessage();
+			for (int i = 0; i < 10; i++) {
+				this.connection.send(message);
+			}
+			assertEquals(2, this.connection.getOutboundQueueDepth(), "Depth of the outbound queue");
+			assertEquals(8L, this.connection.getOutboundQueueStatistics().getDropped(), "Number of dropped messages");
+			assertTrue(this.connection.isAlive(), "Connection is alive");
+
+			// Let the event loop try to write the queue, then it stops reading
+			sleep(50);
+			this.write(Conversion.hexStringToByteArray(REQUEST));
+			assertNoFrame();
+
+			assertEquals(2 * message.length, read(this.client, 2 * message.length).length, "Number of bytes read");
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Request after the outbound queue has been written");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * With the overflow policy CLOSE the connection will be closed when the
+	 * outbound queue is full.
+	 */
+	void testImpl_09() throws TestExecutionError {
+		try {
+			this.connect(1, OutboundOverflowPolicy.CLOSE, 0);
+			byte[] message = createLargeMessage();
+			this.connection.send(message);
+			this.connection.send(message);
+			assertFalse(this.connection.isAlive(), "Connection is alive after the outbound queue was full");
+			assertEquals(1L, this.connection.getOutboundQueueStatistics().getClosed(), "Number of closed connections");
+			this.waitForOutboundQueueDepth(0);
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * Reading is suspended while a routing activation request is handled in
+	 * a thread for blocking tasks of the event loop group, so a message which has been received together with
+	 * the request will be passed to the DoIP parser after the routing
+	 * activation.
+	 */
+	void testImpl_10() throws TestExecutionError {
+		try {
+			this.connect();
+			CountDownLatch latch = new CountDownLatch(1);
+			this.connection.routingActivationLatch = latch;
+			this.write(Conversion.hexStringToByteArray(ROUTING_ACTIVATION + " " + REQUEST));
+			assertFrame(ROUTING_ACTIVATION, this.connection.waitForFrame(), "Routing activation request");
+			assertTrue(this.connection.routingActivationThread.startsWith("UT-" + BASE_ID + ":BLOCKING-"),
+					"Routing activation has been handled by thread " + this.connection.routingActivationThread);
+			assertNoFrame();
+			latch.countDown();
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Request after routing activation");
+			this.write(Conversion.hexStringToByteArray(REQUEST));
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Request after reading has been resumed");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * Connects a client to a new server channel and starts the connection
+	 * with the accepted channel.
+	 */
+	private void connect() throws IOException {
+		this.connect(0, OutboundOverflowPolicy.BLOCK, 0);
+	}
+
+	/**
+	 * Connects a client with small socket buffers and starts the connection
+	 * with the given outbound queue.
+	 */
+	private void connect(int queueSize, OutboundOverflowPolicy policy, int timeout) throws IOException {
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		this.client = new Socket();
+		this.client.setReceiveBufferSize(4096);
+		this.client.connect(this.serverChannel.getLocalAddress(), TIMEOUT);
+		this.client.setSoTimeout(TIMEOUT);
+		SocketChannel channel = this.serverChannel.accept();
+		channel.setOption(StandardSocketOptions.SO_SNDBUF, 4096);
+		channel.configureBlocking(false);
+		this.connection = new RecordingConnection();
+		this.connection.setOutboundQueue(queueSize, policy, timeout);
+		this.connection.start(channel, this.group.next());
+	}
+
+	/**
+	 * Messages which have not been written when the connection will be
+	 * stopped give their pooled buffers back to the pool.
+	 */
+	void testImpl_11() throws TestExecutionError {
+		try {
+			this.connect();
+			// The client does not read, so the large message fills the socket
+			// buffers and the following messages stay in the outbound queue
+			this.connection.send(createLargeMessage());
+			sleep(50);
+			int freeBuffers = this.group.getBufferPool().getNumberOfFreeBuffers();
+			for (int i = 0; i < 20; i++) {
+				this.connection.sendDiagnosticMessage(0x0815, 0x0E80, Conversion.hexStringToByteArray("50 03"));
+			}
+			sleep(50);
+			assertEquals(21, this.connection.getOutboundQueueDepth(), "Depth of the outbound queue");
+
+			this.connection.stop();
+			this.waitForOutboundQueueDepth(0);
+			assertEquals(freeBuffers + 20, this.group.getBufferPool().getNumberOfFreeBuffers(),
+					"Number of free buffers in the pool");
+			assertEquals(1, this.connection.closedCount, "Number of calls of onSocketClosed()");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * A task which waits for space in the request queue of an ECU will be
+	 * executed outside of the event loop. Reading is suspended until the
+	 * task has finished, so the next request will be passed to the DoIP
+	 * parser afterwards.
+	 */
+	void testImpl_12() throws TestExecutionError {
+		try {
+			this.connect();
+			CountDownLatch latch = new CountDownLatch(1);
+			this.connection.blockingTaskLatch = latch;
+			this.write(Conversion.hexStringToByteArray(REQUEST + " " + REQUEST));
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Request which starts the blocking task");
+			assertNoFrame();
+			assertTrue(this.connection.blockingTaskThread.startsWith("UT-" + BASE_ID + ":BLOCKING-"),
+					"Blocking task has been executed by thread " + this.connection.blockingTaskThread);
+			latch.countDown();
+			assertFrame(REQUEST, this.connection.waitForFrame(), "Request after the blocking task");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	/**
+	 * Waits until the event loop has released the outbound queue to the
+	 * given depth.
+	 */
+	private void waitForOutboundQueueDepth(int depth) {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (this.connection.getOutboundQueueDepth() != depth && System.currentTimeMillis() < end) {
+			sleep(1);
+		}
+		assertEquals(depth, this.connection.getOutboundQueueDepth(), "Depth of the outbound queue");
+	}
+
+	/**
+	 * Waits until the event loop has counted the written messages. The
+	 * client can read them before they have been counted.
+	 */
+	private void waitForMessagesWritten(long count) {
+		long end = System.currentTimeMillis() + TIMEOUT;
+		while (this.connection.getNumberOfMessagesWritten() < count && System.currentTimeMillis() < end) {
+			sleep(1);
+		}
+		assertEquals(count, this.connection.getNumberOfMessagesWritten(), "Number of messages written");
+	}
+
+	private void write(byte[] data) throws IOException {
+		this.client.getOutputStream().write(data);
+		this.client.getOutputStream().flush();
+	}
+
+	/**
+	 * Checks that no further data will be passed to the DoIP parser.
+	 */
+	private void assertNoFrame() {
+		try {
+			byte[] frame = this.connection.received.poll(SILENCE, TimeUnit.MILLISECONDS);
+			assertTrue(frame == null, "Unexpected data " + (frame != null ? Conversion.byteArrayToHexString(frame) : ""));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void assertFrame(String expected, byte[] frame, String description) {
+		assertTrue(frame != null, description + " has been received");
+		assertEquals(expected, Conversion.byteArrayToHexString(frame), description);
+	}
+
+	private static byte[] createLargeMessage() {
+		byte[] message = new byte[LARGE_MESSAGE_LENGTH];
+		ByteBuffer.wrap(message).put((byte) 0x02).put((byte) 0xFD).putShort((short) 0x8001)
+				.putInt(LARGE_MESSAGE_LENGTH - 8);
+		return message;
+	}
+
+	private static void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads exactly the given number of bytes from the socket.
+	 */
+	private static byte[] read(Socket socket, int length) throws IOException {
+		socket.setSoTimeout(TIMEOUT);
+		InputStream in = socket.getInputStream();
+		byte[] data = new byte[length];
+		int pos = 0;
+		while (pos < length) {
+			int count = in.read(data, pos, length - pos);
+			if (count < 0) {
+				break;
+			}
+			pos += count;
+		}
+		return Arrays.copyOf(data, pos);
+	}
+
+	/**
+	 * Connection which records the data passed to the DoIP parser instead
+	 * of parsing it.
+	 */
+	private static class RecordingConnection extends NioTcpConnectionGateway {
+
+		private LinkedBlockingQueue<byte[]> received = new LinkedBlockingQueue<byte[]>();
+
+		/**
+		 * If set the handling of a routing activation request waits until
+		 * the latch has been counted down
+		 */
+		private volatile CountDownLatch routingActivationLatch = null;
+
+		private volatile String routingActivationThread = null;
+
+		private volatile int closedCount = 0;
+
+		/**
+		 * If set the next diagnostic message starts a blocking task which
+		 * waits until the latch has been counted down
+		 */
+		private volatile CountDownLatch blockingTaskLatch = null;
+
+		private volatile String blockingTaskThread = null;
+
+		private RecordingConnection() {
+			super("UT-" + BASE_ID + ":TCP-CONN", 64, 60000, 60000, ThreadMode.PLATFORM);
+		}
+
+		@Override
+		public void onSocketClosed() {
+			this.closedCount++;
+			super.onSocketClosed();
+		}
+
+		@Override
+		public void onDataReceived(byte[] data) {
+			if (data.length >= 4 && data[2] == 0x00 && data[3] == 0x05) {
+				this.routingActivationThread = Thread.currentThread().getName();
+			}
+			this.received.add(data);
+			CountDownLatch taskLatch = this.blockingTaskLatch;
+			if (taskLatch != null && data.length >= 4 && (data[2] & 0xFF) == 0x80 && data[3] == 0x01) {
+				this.blockingTaskLatch = null;
+				this.executeWithReadingSuspended(() -> {
+					this.blockingTaskThread = Thread.currentThread().getName();
+					try {
+						taskLatch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				});
+			}
+			CountDownLatch latch = this.routingActivationLatch;
+			if (latch != null && this.routingActivationThread != null) {
+				try {
+					latch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		/**
+		 * Returns the next data which has been passed to the DoIP parser.
+		 */
+		private byte[] waitForFrame() {
+			try {
+				return this.received.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return null;
+			}
+		}
+
+		/**
+		 * Collects the data passed to the DoIP parser until the given number
+		 * of bytes has been received, independent of the framing.
+		 */
+		private byte[] waitForData(int length) {
+			byte[] data = new byte[0];
+			while (data.length < length) {
+				byte[] frame = this.waitForFrame();
+				if (frame == null) {
+					break;
+				}
+				int pos = data.length;
+				data = Arrays.copyOf(data, pos + frame.length);
+				System.arraycopy(frame, 0, data, pos, frame.length);
+			}
+			return data;
+		}
+	}
+}
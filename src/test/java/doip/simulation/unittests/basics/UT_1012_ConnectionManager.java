@@ -0,0 +1,390 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.comm.DoipTcpConnectionListener;
+import doip.library.message.DoipTcpAliveCheckRequest;
+import doip.library.message.DoipTcpAliveCheckResponse;
+import doip.library.message.DoipTcpMessage;
+import doip.library.message.DoipTcpRoutingActivationRequest;
+import doip.simulation.standard.ConnectionManager;
+import doip.simulation.standard.StandardTcpConnectionGateway;
+
+/**
+ * Tests the alive checks of the ConnectionManager and its index of the
+ * registered connections by source address. The connections do not have a
+ * socket, they answer an alive check request after a delay, stay silent or
+ * will be closed.
+ */
+class UT_1012_ConnectionManager extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1012";
+
+	/**
+	 * The connection answers the alive check request
+	 */
+	private static final int ANSWER = 0;
+
+	/**
+	 * The connection does not answer the alive check request
+	 */
+	private static final int SILENT = 1;
+
+	/**
+	 * The connection will be closed instead of answering the alive check
+	 * request
+	 */
+	private static final int CLOSE = 2;
+
+	/**
+	 * The connection answers the alive check request with a different
+	 * source address than the registered one
+	 */
+	private static final int ANSWER_OTHER = 3;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	@Test
+	void test_07() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-07", () -> testImpl_07());
+	}
+
+	/**
+	 * The alive check finishes as soon as all connections have answered,
+	 * long before the timeout expires.
+	 */
+	void testImpl_01() throws TestExecutionError {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(5000);
+		TestConnection conn1 = register(manager, 0x0E01, ANSWER, 20);
+		TestConnection conn2 = register(manager, 0x0E02, ANSWER, 40);
+
+		long start = System.currentTimeMillis();
+		HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> map =
+				manager.performAliveCheck(Arrays.asList(conn1, conn2));
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue(elapsed < 1000, "Alive check finished after " + elapsed + " ms");
+		assertEquals(2, map.size(), "Number of connections which answered");
+		assertEquals(0x0E01, (int) map.get(conn1).get(0), "Source address in response on connection 1");
+		assertEquals(0x0E02, (int) map.get(conn2).get(0), "Source address in response on connection 2");
+		assertFalse(conn1.stopped, "Connection 1 has been stopped");
+		assertFalse(conn2.stopped, "Connection 2 has been stopped");
+		assertEquals(0, conn1.listeners.size(), "Number of listeners on connection 1");
+		assertEquals(0, conn2.listeners.size(), "Number of listeners on connection 2");
+	}
+
+	/**
+	 * If one connection does not answer the alive check finishes when the
+	 * timeout expired and the silent connection will be closed.
+	 */
+	void testImpl_02() throws TestExecutionError {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(300);
+		TestConnection conn1 = register(manager, 0x0E01, ANSWER, 20);
+		TestConnection conn2 = register(manager, 0x0E02, SILENT, 0);
+
+		long start = System.currentTimeMillis();
+		HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> map =
+				manager.performAliveCheck(Arrays.asList(conn1, conn2));
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue(elapsed >= 290, "Alive check finished after " + elapsed + " ms");
+		assertTrue(elapsed < 2000, "Alive check finished after " + elapsed + " ms");
+		assertEquals(1, map.size(), "Number of connections which answered");
+		assertTrue(map.containsKey(conn1), "Connection 1 answered");
+		assertFalse(conn1.stopped, "Connection 1 has been stopped");
+		assertTrue(conn2.stopped, "Silent connection 2 has been stopped");
+		assertTrue(manager.getConnectionBySourceAddress(0x0E02) == null, "Source address of connection 2 is registered");
+		assertEquals(0, conn2.listeners.size(), "Number of listeners on connection 2");
+	}
+
+	/**
+	 * A connection which will be closed during the alive check counts as
+	 * finished, so the alive check does not wait for the timeout.
+	 */
+	void testImpl_03() throws TestExecutionError {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(5000);
+		TestConnection conn1 = register(manager, 0x0E01, ANSWER, 20);
+		TestConnection conn2 = register(manager, 0x0E02, CLOSE, 50);
+
+		long start = System.currentTimeMillis();
+		HashMap<StandardTcpConnectionGateway, LinkedList<Integer>> map =
+				manager.performAliveCheck(Arrays.asList(conn1, conn2));
+		long elapsed = System.currentTimeMillis() - start;
+
+		assertTrue(elapsed < 1000, "Alive check finished after " + elapsed + " ms");
+		assertEquals(1, map.size(), "Number of connections which answered");
+		assertTrue(map.containsKey(conn1), "Connection 1 answered");
+		assertTrue(conn2.stopped, "Connection 2 has been closed");
+	}
+
+	/**
+	 * A routing activation which performs an alive check does not block a
+	 * second routing activation on another connection. The first routing
+	 * activation will be denied because the source address answered.
+	 */
+	void testImpl_04() throws TestExecutionError {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(5000);
+		TestConnection conn1 = register(manager, 0x0E01, ANSWER, 500);
+		TestConnection conn2 = new TestConnection("2", ANSWER, 0);
+		TestConnection conn3 = new TestConnection("3", ANSWER, 0);
+		manager.addConnection(conn2);
+		manager.addConnection(conn3);
+
+		AtomicInteger firstResult = new AtomicInteger(-1);
+		Thread first = new Thread(
+				() -> firstResult.set(manager.routingActivationSocketHandler(conn2, new DoipTcpRoutingActivationRequest(0x0E01, 0, -1))),
+				"UT-" + BASE_ID + ":FIRST");
+		first.start();
+		try {
+			long end = System.currentTimeMillis() + 2000;
+			while (conn1.aliveCheckRequests.get() == 0 && System.currentTimeMillis() < end) {
+				Thread.sleep(1);
+			}
+			assertEquals(1, conn1.aliveCheckRequests.get(), "Number of alive check requests on connection 1");
+
+			long start = System.currentTimeMillis();
+			int result = manager.routingActivationSocketHandler(conn3, new DoipTcpRoutingActivationRequest(0x0E03, 0, -1));
+			long elapsed = System.currentTimeMillis() - start;
+			assertEquals(0x10, result, "Result of the second routing activation");
+			assertTrue(elapsed < 250, "Second routing activation finished after " + elapsed + " ms");
+			assertTrue(first.isAlive(), "First routing activation is still waiting for the alive check");
+			assertTrue(manager.getConnectionBySourceAddress(0x0E03) == conn3, "Connection 3 is registered");
+
+			first.join(5000);
+			assertFalse(first.isAlive(), "First routing activation finished");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+		assertEquals(0x03, firstResult.get(), "Result of the first routing activation");
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn1, "Connection 1 is still registered");
+		assertFalse(conn2.isRegistered(), "Connection 2 is registered");
+	}
+
+	/**
+	 * A registered source address can be found in the index. If the old
+	 * connection does not answer the alive check the source address will be
+	 * registered on the new connection, and removing the old connection
+	 * afterwards does not remove the new connection from the index.
+	 */
+	void testImpl_05() {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(100);
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == null, "Source address is registered before the routing activation");
+		TestConnection conn1 = register(manager, 0x0E01, SILENT, 0);
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn1, "Connection 1 is registered");
+		assertTrue(manager.getConnectionBySourceAddress(0x0E02) == null, "Source address 0x0E02 is registered");
+
+		TestConnection conn2 = new TestConnection("2", ANSWER, 0);
+		manager.addConnection(conn2);
+		int result = manager.routingActivationSocketHandler(conn2, new DoipTcpRoutingActivationRequest(0x0E01, 0, -1));
+		assertEquals(0x10, result, "Result of the routing activation on connection 2");
+		assertTrue(conn1.stopped, "Silent connection 1 has been stopped");
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn2, "Connection 2 is registered");
+
+		manager.removeConnection(conn1);
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn2, "Connection 2 is registered after removing connection 1");
+		manager.removeConnection(conn2);
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == null, "Source address is registered after removing connection 2");
+		assertEquals(0, manager.getNumberOfCurrentConnections(), "Number of connections");
+	}
+
+	/**
+	 * A connection which has been closed but not yet removed will not be
+	 * returned for its old source address. The source address can be
+	 * registered on a new connection without alive check.
+	 */
+	void testImpl_06() {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(5000);
+		TestConnection conn1 = register(manager, 0x0E01, ANSWER, 0);
+		conn1.stop();
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == null, "Closed connection 1 is returned");
+
+		TestConnection conn2 = register(manager, 0x0E01, ANSWER, 0);
+		assertEquals(0, conn1.aliveCheckRequests.get(), "Number of alive check requests on closed connection 1");
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn2, "Connection 2 is registered");
+
+		manager.removeConnection(conn1);
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn2, "Connection 2 is registered after removing connection 1");
+	}
+
+	/**
+	 * An alive check response with a different source address than the
+	 * registered one will be ignored. The old connection will be closed like
+	 * a silent connection, the source address will be registered on the new
+	 * connection and the index returns the new connection.
+	 */
+	void testImpl_07() {
+		ConnectionManager manager = new ConnectionManager(2);
+		manager.setAliveCheckTimeout(100);
+		TestConnection conn1 = register(manager, 0x0E01, ANSWER_OTHER, 0);
+		TestConnection conn2 = new TestConnection("2", ANSWER, 0);
+		manager.addConnection(conn2);
+
+		int result = manager.routingActivationSocketHandler(conn2, new DoipTcpRoutingActivationRequest(0x0E01, 0, -1));
+		assertEquals(0x10, result, "Result of the routing activation on connection 2");
+		assertEquals(1, conn1.aliveCheckRequests.get(), "Number of alive check requests on connection 1");
+		assertTrue(conn1.stopped, "Connection 1 has been stopped");
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn2, "Connection 2 is registered");
+		assertEquals(0x0E01, conn2.getRegisteredSourceAddress(), "Source address registered on connection 2");
+
+		manager.removeConnection(conn1);
+		assertTrue(manager.getConnectionBySourceAddress(0x0E01) == conn2, "Connection 2 is registered after removing connection 1");
+	}
+
+	/**
+	 * Creates a connection and registers it with a routing activation.
+	 */
+	private static TestConnection register(ConnectionManager manager, int sourceAddress, int behaviour, int delay) {
+		TestConnection conn = new TestConnection(String.format("%04X", sourceAddress), behaviour, delay);
+		manager.addConnection(conn);
+		int result = manager.routingActivationSocketHandler(conn, new DoipTcpRoutingActivationRequest(sourceAddress, 0, -1));
+		assertEquals(0x10, result, "Result of the routing activation for source address " + String.format("0x%04X", sourceAddress));
+		return conn;
+	}
+
+	/**
+	 * Connection without socket which handles alive check requests in an own
+	 * thread like a tester would do.
+	 */
+	private static class TestConnection extends StandardTcpConnectionGateway {
+
+		private int behaviour = ANSWER;
+
+		/**
+		 * Time in milliseconds until the alive check request will be
+		 * answered or the connection will be closed
+		 */
+		private int delay = 0;
+
+		private List<DoipTcpConnectionListener> listeners = new CopyOnWriteArrayList<DoipTcpConnectionListener>();
+
+		private AtomicInteger aliveCheckRequests = new AtomicInteger(0);
+
+		private volatile boolean stopped = false;
+
+		private TestConnection(String name, int behaviour, int delay) {
+			super("UT-" + BASE_ID + ":TCP-CONN-" + name, 64, 60000, 60000);
+			this.behaviour = behaviour;
+			this.delay = delay;
+		}
+
+		@Override
+		public void addListener(DoipTcpConnectionListener listener) {
+			this.listeners.add(listener);
+			super.addListener(listener);
+		}
+
+		@Override
+		public void removeListener(DoipTcpConnectionListener listener) {
+			this.listeners.remove(listener);
+			super.removeListener(listener);
+		}
+
+		@Override
+		public void send(DoipTcpMessage message) {
+			if (!(message instanceof DoipTcpAliveCheckRequest)) {
+				return;
+			}
+			this.aliveCheckRequests.incrementAndGet();
+			if (this.behaviour == SILENT) {
+				return;
+			}
+			int sourceAddress = this.getRegisteredSourceAddress();
+			Thread thread = new Thread(() -> {
+				try {
+					Thread.sleep(this.delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				if (this.behaviour == CLOSE) {
+					this.stop();
+				} else {
+					int responseAddress = this.behaviour == ANSWER_OTHER ? sourceAddress + 1 : sourceAddress;
+					DoipTcpAliveCheckResponse response = new DoipTcpAliveCheckResponse(responseAddress);
+					for (DoipTcpConnectionListener listener : this.listeners) {
+						listener.onDoipTcpAliveCheckResponse(this, response);
+					}
+				}
+			}, "UT-" + BASE_ID + ":TESTER");
+			thread.start();
+		}
+
+		/**
+		 * Closes the connection without socket and informs the listeners
+		 */
+		@Override
+		public void stop() {
+			if (this.stopped) {
+				return;
+			}
+			this.stopped = true;
+			this.setSocketClosed();
+			for (DoipTcpConnectionListener listener : this.listeners) {
+				listener.onConnectionClosed(this);
+			}
+		}
+
+		@Override
+		protected void startInactivityTimer(int millis) {
+		}
+
+		@Override
+		protected void stopInactivityTimer() {
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.simulation.ThreadMode;
+import doip.simulation.standard.InactivityTimer;
+import doip.simulation.standard.NioEventLoopGroup;
+
+/**
+ * Tests the thread modes and the threads which will be created with them:
+ * virtual threads will only be created if the Java runtime supports them,
+ * otherwise platform threads will be created. Also tests the inactivity
+ * timer which runs in such a thread.
+ */
+class UT_1013_ThreadMode extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1013";
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	@Test
+	void test_07() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-07", () -> testImpl_07());
+	}
+
+	/**
+	 * The thread mode PLATFORM creates a platform thread with the given name
+	 * which has not been started yet.
+	 */
+	void testImpl_01() throws TestExecutionError {
+		AtomicReference<Thread> runner = new AtomicReference<Thread>();
+		Thread thread = ThreadMode.PLATFORM.newThread(() -> runner.set(Thread.currentThread()), "UT-" + BASE_ID + "-01");
+		assertEquals(Thread.State.NEW, thread.getState(), "State of the new thread");
+		assertEquals("UT-" + BASE_ID + "-01", thread.getName(), "Name of the thread");
+		assertFalse(isVirtual(thread), "Thread is virtual");
+		join(thread);
+		assertTrue(runner.get() == thread, "Runnable has been executed by the new thread");
+	}
+
+	/**
+	 * The thread mode VIRTUAL creates a virtual thread if the Java runtime
+	 * supports virtual threads, otherwise it falls back to a platform
+	 * thread. In both cases the thread executes the runnable.
+	 */
+	void testImpl_02() throws TestExecutionError {
+		AtomicReference<Thread> runner = new AtomicReference<Thread>();
+		Thread thread = ThreadMode.VIRTUAL.newThread(() -> runner.set(Thread.currentThread()), "UT-" + BASE_ID + "-02");
+		assertEquals(Thread.State.NEW, thread.getState(), "State of the new thread");
+		assertEquals("UT-" + BASE_ID + "-02", thread.getName(), "Name of the thread");
+		assertEquals(ThreadMode.isVirtualThreadSupported(), isVirtual(thread), "Thread is virtual");
+		join(thread);
+		assertTrue(runner.get() == thread, "Runnable has been executed by the new thread");
+	}
+
+	/**
+	 * The values of the property will be converted to thread modes without
+	 * regard to case and surrounding spaces. Unknown values will be rejected.
+	 */
+	void testImpl_03() {
+		assertEquals(ThreadMode.PLATFORM, ThreadMode.fromString(" Platform "), "Thread mode for ' Platform '");
+		assertEquals(ThreadMode.VIRTUAL, ThreadMode.fromString("virtual"), "Thread mode for 'virtual'");
+		try {
+			ThreadMode.fromString("green");
+			fail("Thread mode 'green' has been accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * The inactivity timer expires once after the given time. The expiry will
+	 * be reported by the thread of the timer.
+	 */
+	void testImpl_04() throws TestExecutionError {
+		AtomicInteger expired = new AtomicInteger(0);
+		AtomicReference<String> threadName = new AtomicReference<String>();
+		CountDownLatch latch = new CountDownLatch(1);
+		InactivityTimer timer = new InactivityTimer("UT-" + BASE_ID + "-04", ThreadMode.VIRTUAL, () -> {
+			threadName.set(Thread.currentThread().getName());
+			expired.incrementAndGet();
+			latch.countDown();
+		});
+
+		long start = System.currentTimeMillis();
+		timer.start(100);
+		await(latch, 2000);
+		long elapsed = System.currentTimeMillis() - start;
+		sleep(200);
+
+		assertTrue(elapsed >= 95, "Timer expired after " + elapsed + " ms");
+		assertEquals(1, expired.get(), "Number of expiries");
+		assertEquals("UT-" + BASE_ID + "-04", threadName.get(), "Name of the timer thread");
+	}
+
+	/**
+	 * Restarting a running timer moves its deadline, the timer expires only
+	 * once after the last restart.
+	 */
+	void testImpl_05() throws TestExecutionError {
+		AtomicInteger expired = new AtomicInteger(0);
+		CountDownLatch latch = new CountDownLatch(1);
+		InactivityTimer timer = new InactivityTimer("UT-" + BASE_ID + "-05", ThreadMode.PLATFORM, () -> {
+			expired.incrementAndGet();
+			latch.countDown();
+		});
+
+		long start = System.currentTimeMillis();
+		timer.start(200);
+		sleep(100);
+		timer.start(200);
+		sleep(150);
+		assertEquals(0, expired.get(), "Number of expiries after the first deadline");
+
+		await(latch, 2000);
+		long elapsed = System.currentTimeMillis() - start;
+		sleep(200);
+
+		assertTrue(elapsed >= 295, "Timer expired after " + elapsed + " ms");
+		assertEquals(1, expired.get(), "Number of expiries");
+	}
+
+	/**
+	 * A stopped timer does not expire. It can be started again afterwards.
+	 */
+	void testImpl_06() throws TestExecutionError {
+		AtomicInteger expired = new AtomicInteger(0);
+		CountDownLatch latch = new CountDownLatch(1);
+		InactivityTimer timer = new InactivityTimer("UT-" + BASE_ID + "-06", ThreadMode.PLATFORM, () -> {
+			expired.incrementAndGet();
+			latch.countDown();
+		});
+
+		timer.start(100);
+		sleep(50);
+		timer.stop();
+		sleep(150);
+		assertEquals(0, expired.get(), "Number of expiries of the stopped timer");
+
+		timer.start(50);
+		await(latch, 2000);
+		assertEquals(1, expired.get(), "Number of expiries after the restart");
+	}
+
+	/**
+	 * The threads of the event loops will be created with the thread mode of
+	 * the event loop group.
+	 */
+	void testImpl_07() throws TestExecutionError {
+		NioEventLoopGroup group = new NioEventLoopGroup("UT-" + BASE_ID + "-07", 1, ThreadMode.VIRTUAL);
+		try {
+			group.start();
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+		try {
+			AtomicReference<Thread> runner = new AtomicReference<Thread>();
+			CountDownLatch latch = new CountDownLatch(1);
+			group.next().execute(() -> {
+				runner.set(Thread.currentThread());
+				latch.countDown();
+			});
+			await(latch, 2000);
+			assertEquals("UT-" + BASE_ID + "-07-1", runner.get().getName(), "Name of the event loop thread");
+			assertEquals(ThreadMode.isVirtualThreadSupported(), isVirtual(runner.get()), "Event loop thread is virtual");
+		} finally {
+			group.stop();
+		}
+	}
+
+	/**
+	 * Returns true if the thread is a virtual thread. Thread.isVirtual() will
+	 * be called by reflection, because it is not available before Java 21.
+	 */
+	private static boolean isVirtual(Thread thread) {
+		try {
+			Method isVirtual = Thread.class.getMethod("isVirtual");
+			return (Boolean) isVirtual.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+
+	private static void join(Thread thread) throws TestExecutionError {
+		thread.start();
+		try {
+			thread.join(2000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+		assertFalse(thread.isAlive(), "Thread is still running");
+	}
+
+	private static void await(CountDownLatch latch, int millis) throws TestExecutionError {
+		try {
+			assertTrue(latch.await(millis, TimeUnit.MILLISECONDS), "Timer did not expire within " + millis + " ms");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	private static void sleep(int millis) throws TestExecutionError {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+}
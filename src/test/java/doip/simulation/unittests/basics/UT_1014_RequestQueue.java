@@ -0,0 +1,321 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.message.UdsMessage;
+import doip.library.util.Conversion;
+import doip.simulation.EcuConfig;
+import doip.simulation.QueueOverflowPolicy;
+import doip.simulation.standard.RequestQueueStatistics;
+
+/**
+ * Tests the request queue of the StandardEcu: the overflow policies
+ * BUSY_REPEAT_REQUEST, DROP and BLOCK and the statistics of the queue.
+ */
+class UT_1014_RequestQueue extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1014";
+
+	private static Logger logger = LogManager.getLogger(UT_1014_RequestQueue.class);
+
+	private static final int ECU_ADDRESS = 0x0815;
+
+	private static final int TESTER_A = 0x0E80;
+
+	private static final int TIMEOUT = 1000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	/**
+	 * With policy BUSY_REPEAT_REQUEST a request will be queued while the
+	 * ECU is busy and a request which does not fit into the queue will be
+	 * answered with NRC 0x21. The queued request will be processed after
+	 * the current request has been cleared.
+	 */
+	void testImpl_01() {
+		RecordingEcu ecu = createEcu(1, QueueOverflowPolicy.BUSY_REPEAT_REQUEST, 0);
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			UdsMessage requestB = request(TESTER_A, "22 F1 90");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			ecu.putRequest(requestB);
+			assertEquals(1, ecu.getRequestQueueDepth(), "Depth of request queue");
+
+			ecu.putRequest(request(TESTER_A, "31 01 02 03"));
+			assertBusyRepeatRequest(ecu.waitForSentMessage(TIMEOUT), TESTER_A, 0x31);
+
+			sleep(20);
+			ecu.clearCurrentRequest(requestA);
+			assertHandled(ecu, requestB);
+			ecu.clearCurrentRequest(requestB);
+			assertFalse(ecu.isBusy(), "ECU is busy after all requests have been cleared");
+
+			RequestQueueStatistics statistics = ecu.getRequestQueueStatistics();
+			assertEquals(2L, statistics.getEnqueued(), "Number of enqueued requests");
+			assertEquals(2L, statistics.getDequeued(), "Number of dequeued requests");
+			assertEquals(1L, statistics.getRejected(), "Number of rejected requests");
+			assertEquals(0L, statistics.getDropped(), "Number of dropped requests");
+			assertEquals(1, statistics.getHighWaterMark(), "High water mark of request queue");
+			assertTrue(statistics.getMaxWaitTime() >= 20000000L,
+					"Maximum wait time is at least the time request B has been waiting");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * With policy DROP a request which does not fit into the queue will be
+	 * discarded without any response.
+	 */
+	void testImpl_02() {
+		RecordingEcu ecu = createEcu(1, QueueOverflowPolicy.DROP, 0);
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			UdsMessage requestB = request(TESTER_A, "22 F1 90");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			ecu.putRequest(requestB);
+			ecu.putRequest(request(TESTER_A, "31 01 02 03"));
+			assertEquals(null, ecu.waitForSentMessage(100), "Message sent for dropped request");
+
+			ecu.clearCurrentRequest(requestA);
+			assertHandled(ecu, requestB);
+			ecu.clearCurrentRequest(requestB);
+			assertEquals(null, ecu.waitForHandledRequest(100), "Dropped request has been handled");
+
+			RequestQueueStatistics statistics = ecu.getRequestQueueStatistics();
+			assertEquals(1L, statistics.getDropped(), "Number of dropped requests");
+			assertEquals(0L, statistics.getRejected(), "Number of rejected requests");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * With policy BLOCK a request for a full queue will not be accepted by
+	 * "offerRequest(...)", then "putRequestAndWait(...)" waits for space in
+	 * the queue. The request will be accepted if the queue gets space before
+	 * the timeout.
+	 */
+	void testImpl_03() {
+		RecordingEcu ecu = createEcu(1, QueueOverflowPolicy.BLOCK, TIMEOUT);
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			UdsMessage requestB = request(TESTER_A, "22 F1 90");
+			UdsMessage requestC = request(TESTER_A, "31 01 02 03");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			assertTrue(ecu.offerRequest(requestB), "Request B has been accepted");
+			assertFalse(ecu.offerRequest(requestC), "Request C has been accepted while the queue is full");
+			assertEquals(0, ecu.getNumberOfSentMessages(), "Number of messages sent for request C");
+
+			Thread clearThread = new Thread(() -> {
+				sleep(100);
+				ecu.clearCurrentRequest(requestA);
+			});
+			clearThread.start();
+			long start = System.nanoTime();
+			ecu.putRequestAndWait(requestC);
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+			join(clearThread);
+
+			assertTrue(elapsedMillis >= 90, "Caller has been blocked until the queue had space");
+			assertTrue(elapsedMillis < TIMEOUT, "Caller has been blocked until the timeout");
+			assertHandled(ecu, requestB);
+			ecu.clearCurrentRequest(requestB);
+			assertHandled(ecu, requestC);
+			ecu.clearCurrentRequest(requestC);
+
+			assertEquals(0, ecu.getNumberOfSentMessages(), "Number of sent messages");
+			assertEquals(3L, ecu.getRequestQueueStatistics().getEnqueued(), "Number of enqueued requests");
+			assertEquals(0L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * With policy BLOCK a request will be answered with NRC 0x21 if the
+	 * queue does not get space before the timeout.
+	 */
+	void testImpl_04() {
+		RecordingEcu ecu = createEcu(1, QueueOverflowPolicy.BLOCK, 200);
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			ecu.putRequest(request(TESTER_A, "22 F1 90"));
+
+			long start = System.nanoTime();
+			ecu.putRequestAndWait(request(TESTER_A, "31 01 02 03"));
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+			assertTrue(elapsedMillis >= 190, "Caller has been blocked for the timeout");
+			assertBusyRepeatRequest(ecu.waitForSentMessage(TIMEOUT), TESTER_A, 0x31);
+			assertEquals(1L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * With policy BLOCK "putRequest(...)" does not wait for space in a full
+	 * queue, it answers the request with NRC 0x21 immediately.
+	 */
+	void testImpl_05() {
+		RecordingEcu ecu = createEcu(1, QueueOverflowPolicy.BLOCK, TIMEOUT);
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			ecu.putRequest(request(TESTER_A, "22 F1 90"));
+
+			long start = System.nanoTime();
+			ecu.putRequest(request(TESTER_A, "31 01 02 03"));
+			long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+			assertTrue(elapsedMillis < 100, "Caller has been blocked for " + elapsedMillis + " ms");
+			assertBusyRepeatRequest(ecu.waitForSentMessage(TIMEOUT), TESTER_A, 0x31);
+			assertEquals(1L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+			assertEquals(1, ecu.getRequestQueueDepth(), "Depth of request queue");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * Many testers put requests into the queue at the same time while the
+	 * requests will be cleared by another thread. No request must get lost,
+	 * even if a request has been queued while the lane was busy only for a
+	 * short moment and its signal has been missed.
+	 */
+	void testImpl_06() {
+		final int testers = 4;
+		final int requestsPerTester = 500;
+		final int total = testers * requestsPerTester;
+		RecordingEcu ecu = createEcu(total, QueueOverflowPolicy.BUSY_REPEAT_REQUEST, 0);
+		try {
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < testers; i++) {
+				final int tester = TESTER_A + i;
+				threads.add(new Thread(() -> {
+					for (int j = 0; j < requestsPerTester; j++) {
+						ecu.putRequest(request(tester, "3E 00"));
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+
+			int handled = 0;
+			UdsMessage request = null;
+			while ((request = ecu.waitForHandledRequest(TIMEOUT)) != null) {
+				handled++;
+				ecu.clearCurrentRequest(request);
+			}
+			for (Thread thread : threads) {
+				join(thread);
+			}
+
+			logger.info("Handled {} requests", handled);
+			assertEquals(total, handled, "Number of handled requests");
+			assertEquals(0L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+			assertEquals((long) total, ecu.getRequestQueueStatistics().getDequeued(), "Number of dequeued requests");
+			assertFalse(ecu.isBusy(), "ECU is busy after all requests have been cleared");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	private static RecordingEcu createEcu(int queueSize, QueueOverflowPolicy policy, int timeout) {
+		EcuConfig config = new EcuConfig();
+		config.setName("ECU");
+		config.setPhysicalAddress(ECU_ADDRESS);
+		config.setRequestQueueSize(queueSize);
+		config.setRequestQueueOverflowPolicy(policy);
+		config.setRequestQueueTimeout(timeout);
+		RecordingEcu ecu = new RecordingEcu(config);
+		ecu.start();
+		return ecu;
+	}
+
+	private static UdsMessage request(int sourceAddress, String message) {
+		return new UdsMessage(sourceAddress, ECU_ADDRESS, Conversion.hexStringToByteArray(message));
+	}
+
+	private static void assertHandled(RecordingEcu ecu, UdsMessage expected) {
+		UdsMessage request = ecu.waitForHandledRequest(TIMEOUT);
+		assertTrue(request == expected, "Expected request has been handled");
+	}
+
+	private static void assertBusyRepeatRequest(UdsMessage message, int testerAddress, int sid) {
+		assertTrue(message != null, "Busy repeat request has been sent");
+		assertEquals(testerAddress, message.getTargetAddress(), "Target address of busy repeat request");
+		byte[] expected = new byte[] { 0x7F, (byte) sid, 0x21 };
+		assertEquals(Conversion.byteArrayToHexString(expected),
+				Conversion.byteArrayToHexString(message.getMessage()), "Busy repeat request");
+	}
+
+	private static void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,275 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.message.UdsMessage;
+import doip.library.util.Conversion;
+import doip.simulation.EcuConfig;
+import doip.simulation.ThreadMode;
+
+/**
+ * Tests the lanes per tester of the StandardEcu: requests of different
+ * testers will be processed in parallel, requests of the same tester one
+ * after the other. The worker pool of the lanes grows with the number of
+ * lanes and creates its threads with the thread mode of the ECU.
+ */
+class UT_1015_TesterLanes extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1015";
+
+	private static Logger logger = LogManager.getLogger(UT_1015_TesterLanes.class);
+
+	private static final int ECU_ADDRESS = 0x0815;
+
+	private static final int TESTER_A = 0x0E80;
+
+	private static final int TESTER_B = 0x0E81;
+
+	private static final int TIMEOUT = 1000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	/**
+	 * With a lane per tester a busy tester does not block the requests of
+	 * another tester, the busy repeat request will only be sent to the
+	 * tester whose lane is busy.
+	 */
+	void testImpl_01() {
+		RecordingEcu ecu = createEcu(0);
+		try {
+			UdsMessage requestA = request(TESTER_A, "10 03");
+			UdsMessage requestB = request(TESTER_B, "22 F1 90");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			ecu.putRequest(requestB);
+			assertHandled(ecu, requestB);
+
+			ecu.putRequest(request(TESTER_A, "31 01 02 03"));
+			assertBusyRepeatRequest(ecu.waitForSentMessage(TIMEOUT), TESTER_A, 0x31);
+
+			ecu.clearCurrentRequest(requestB);
+			assertTrue(ecu.isBusy(), "ECU is busy while request A is processed");
+			UdsMessage requestD = request(TESTER_B, "3E 00");
+			ecu.putRequest(requestD);
+			assertHandled(ecu, requestD);
+
+			ecu.clearCurrentRequest(requestA);
+			ecu.clearCurrentRequest(requestD);
+			assertFalse(ecu.isBusy(), "ECU is busy after all requests have been cleared");
+			assertEquals(0, ecu.getNumberOfSentMessages(), "Number of further sent messages");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * Many testers put requests into the queues of their lanes at the same
+	 * time while the requests will be cleared by another thread. No request
+	 * must get lost, even if a request has been queued while its lane was
+	 * busy only for a short moment and its signal has been missed.
+	 */
+	void testImpl_02() {
+		final int testers = 4;
+		final int requestsPerTester = 500;
+		final int total = testers * requestsPerTester;
+		RecordingEcu ecu = createEcu(total);
+		try {
+			List<Thread> threads = new ArrayList<Thread>();
+			for (int i = 0; i < testers; i++) {
+				final int tester = TESTER_A + i;
+				threads.add(new Thread(() -> {
+					for (int j = 0; j < requestsPerTester; j++) {
+						ecu.putRequest(request(tester, "3E 00"));
+					}
+				}));
+			}
+			for (Thread thread : threads) {
+				thread.start();
+			}
+
+			int handled = 0;
+			UdsMessage request = null;
+			while ((request = ecu.waitForHandledRequest(TIMEOUT)) != null) {
+				handled++;
+				ecu.clearCurrentRequest(request);
+			}
+			for (Thread thread : threads) {
+				join(thread);
+			}
+
+			logger.info("Handled {} requests", handled);
+			assertEquals(total, handled, "Number of handled requests");
+			assertEquals(0L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+			assertEquals((long) total, ecu.getRequestQueueStatistics().getDequeued(), "Number of dequeued requests");
+			assertFalse(ecu.isBusy(), "ECU is busy after all requests have been cleared");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * The own worker pool of the lanes does not start more threads than there
+	 * are lanes and never more than the configured number of threads.
+	 */
+	void testImpl_03() {
+		String name = "UT-" + BASE_ID + "-03";
+		RecordingEcu ecu = createEcu(name, 0);
+		try {
+			assertEquals(0, countThreads(name + ":LANE-"), "Number of lane threads without lanes");
+
+			UdsMessage requestA = request(TESTER_A, "3E 00");
+			ecu.putRequest(requestA);
+			assertHandled(ecu, requestA);
+			ecu.clearCurrentRequest(requestA);
+			assertEquals(1, countThreads(name + ":LANE-"), "Number of lane threads with one lane");
+
+			for (int i = 1; i <= 3; i++) {
+				UdsMessage request = request(TESTER_A + i, "3E 00");
+				ecu.putRequest(request);
+				assertHandled(ecu, request);
+				ecu.clearCurrentRequest(request);
+			}
+			assertEquals(2, countThreads(name + ":LANE-"), "Number of lane threads with four lanes");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	/**
+	 * The threads of the own worker pool of the lanes will be created with
+	 * the thread mode of the ECU.
+	 */
+	void testImpl_04() {
+		String name = "UT-" + BASE_ID + "-04";
+		AtomicReference<Thread> worker = new AtomicReference<Thread>();
+		EcuConfig config = createConfig(name, 0);
+		RecordingEcu ecu = new RecordingEcu(config) {
+			@Override
+			public void handleRequest(UdsMessage request) {
+				worker.set(Thread.currentThread());
+				super.handleRequest(request);
+			}
+		};
+		ecu.setThreadMode(ThreadMode.VIRTUAL);
+		ecu.start();
+		try {
+			UdsMessage request = request(TESTER_A, "3E 00");
+			ecu.putRequest(request);
+			assertHandled(ecu, request);
+			ecu.clearCurrentRequest(request);
+			assertEquals(name + ":LANE-1", worker.get().getName(), "Name of the lane thread");
+			assertEquals(ThreadMode.isVirtualThreadSupported(), isVirtual(worker.get()), "Lane thread is virtual");
+		} finally {
+			ecu.stop();
+		}
+	}
+
+	private static RecordingEcu createEcu(int queueSize) {
+		return createEcu("ECU", queueSize);
+	}
+
+	private static RecordingEcu createEcu(String name, int queueSize) {
+		RecordingEcu ecu = new RecordingEcu(createConfig(name, queueSize));
+		ecu.start();
+		return ecu;
+	}
+
+	private static EcuConfig createConfig(String name, int queueSize) {
+		EcuConfig config = new EcuConfig();
+		config.setName(name);
+		config.setPhysicalAddress(ECU_ADDRESS);
+		config.setRequestQueueSize(queueSize);
+		config.setRequestLanePerTester(true);
+		config.setRequestLaneThreads(2);
+		return config;
+	}
+
+	/**
+	 * Returns the number of living platform threads whose name starts with
+	 * the given prefix.
+	 */
+	private static int countThreads(String prefix) {
+		int count = 0;
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns true if the thread is a virtual thread. Thread.isVirtual() will
+	 * be called by reflection, because it is not available before Java 21.
+	 */
+	private static boolean isVirtual(Thread thread) {
+		try {
+			Method isVirtual = Thread.class.getMethod("isVirtual");
+			return (Boolean) isVirtual.invoke(thread);
+		} catch (ReflectiveOperationException e) {
+			return false;
+		}
+	}
+
+	private static UdsMessage request(int sourceAddress, String message) {
+		return new UdsMessage(sourceAddress, ECU_ADDRESS, Conversion.hexStringToByteArray(message));
+	}
+
+	private static void assertHandled(RecordingEcu ecu, UdsMessage expected) {
+		UdsMessage request = ecu.waitForHandledRequest(TIMEOUT);
+		assertTrue(request == expected, "Expected request has been handled");
+	}
+
+	private static void assertBusyRepeatRequest(UdsMessage message, int testerAddress, int sid) {
+		assertTrue(message != null, "Busy repeat request has been sent");
+		assertEquals(testerAddress, message.getTargetAddress(), "Target address of busy repeat request");
+		byte[] expected = new byte[] { 0x7F, (byte) sid, 0x21 };
+		assertEquals(Conversion.byteArrayToHexString(expected),
+				Conversion.byteArrayToHexString(message.getMessage()), "Busy repeat request");
+	}
+
+	private static void join(Thread thread) {
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,258 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.message.UdsMessage;
+import doip.library.util.Conversion;
+import doip.simulation.EcuConfig;
+import doip.simulation.lookup.DidStore;
+
+/**
+ * Tests the DID store which handles the services ReadDataByIdentifier and
+ * WriteDataByIdentifier without the lookup table, and its usage by the
+ * StandardEcu.
+ */
+class UT_1016_DidStore extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1016";
+
+	private static final int ECU_ADDRESS = 0x0815;
+
+	private static final int TESTER_ADDRESS = 0x0E80;
+
+	private static final int TIMEOUT = 1000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	/**
+	 * A ReadDataByIdentifier request with more than one DID will be answered
+	 * with the DIDs in the order of the request, not in the order in which
+	 * they have been added to the store.
+	 */
+	void testImpl_01() {
+		DidStore store = createStore();
+		assertResponse("62 F1 90 01 02 03", store.readDataByIdentifier(hex("22 F1 90")));
+		assertResponse("62 F1 87 0A 0B F1 90 01 02 03 01 00 FF",
+				store.readDataByIdentifier(hex("22 F1 87 F1 90 01 00")));
+		assertResponse("62 01 00 FF F1 87 0A 0B", store.readDataByIdentifier(hex("22 01 00 F1 87")));
+	}
+
+	/**
+	 * A read request will not be handled if one of its DIDs is unknown or if
+	 * it is not a valid ReadDataByIdentifier request, then the lookup table
+	 * will be used.
+	 */
+	void testImpl_02() {
+		DidStore store = createStore();
+		assertTrue(store.get(0x1234) == null, "Data of an unknown DID");
+		assertTrue(store.readDataByIdentifier(hex("22 12 34")) == null, "Response for an unknown DID");
+		assertTrue(store.readDataByIdentifier(hex("22 F1 90 12 34")) == null,
+				"Response for a known and an unknown DID");
+		assertTrue(store.readDataByIdentifier(hex("22 F1")) == null, "Response for an incomplete DID");
+		assertTrue(store.readDataByIdentifier(hex("22 F1 90 F1")) == null, "Response for an odd request length");
+		assertTrue(store.readDataByIdentifier(hex("2E F1 90")) == null, "Response for another service");
+	}
+
+	/**
+	 * A WriteDataByIdentifier request replaces the data of a DID if the new
+	 * data has the same length as the current data, otherwise it will be
+	 * answered with NRC 0x13 and the data stays unchanged.
+	 */
+	void testImpl_03() {
+		DidStore store = createStore();
+		assertResponse("7F 2E 13", store.writeDataByIdentifier(hex("2E F1 90 04 05")));
+		assertResponse("7F 2E 13", store.writeDataByIdentifier(hex("2E F1 90 04 05 06 07")));
+		assertResponse("62 F1 90 01 02 03", store.readDataByIdentifier(hex("22 F1 90")));
+
+		assertResponse("6E F1 90", store.writeDataByIdentifier(hex("2E F1 90 04 05 06")));
+		assertResponse("62 F1 90 04 05 06", store.readDataByIdentifier(hex("22 F1 90")));
+		assertEquals(3, store.size(), "Number of DIDs after writing");
+
+		assertTrue(store.writeDataByIdentifier(hex("2E 12 34 00")) == null, "Response for writing an unknown DID");
+		assertTrue(store.get(0x1234) == null, "Unknown DID has been added by writing");
+	}
+
+	/**
+	 * The table grows when it would become more than half full. All DIDs can
+	 * still be found afterwards, replacing data does not add a DID and a copy
+	 * of the store does not change with the original.
+	 */
+	void testImpl_04() {
+		DidStore store = new DidStore();
+		final int count = 1000;
+		for (int did = 0; did < count; did++) {
+			store.put(did, new byte[] { (byte) (did >> 8), (byte) did });
+		}
+		assertEquals(count, store.size(), "Number of DIDs");
+		for (int did = 0; did < count; did++) {
+			byte[] data = store.get(did);
+			assertTrue(data != null, "DID " + did + " has been found");
+			assertTrue(Arrays.equals(new byte[] { (byte) (did >> 8), (byte) did }, data), "Data of DID " + did);
+		}
+		assertTrue(store.get(count) == null, "Data of a DID which has not been added");
+
+		DidStore copy = new DidStore(store);
+		store.put(0, hex("FF"));
+		store.put(0xFFFF, hex("EE"));
+		assertEquals(count + 1, store.size(), "Number of DIDs after replacing and adding");
+		assertEquals(count, copy.size(), "Number of DIDs in the copy");
+		assertResponse("00 00", copy.get(0));
+		assertTrue(copy.get(0xFFFF) == null, "DID has been added to the copy");
+
+		try {
+			store.put(0x10000, hex("00"));
+			fail("DID 0x10000 has been accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * A DID file may contain comments, empty lines and spaces. Lines which
+	 * don't have the format "&lt;DID&gt; : &lt;data&gt;" will be rejected with
+	 * the number of the line.
+	 */
+	void testImpl_05() throws TestExecutionError {
+		DidStore store = new DidStore();
+		addFromFile(store, "# Identification\n\nF1 90 : 01 02 03\n  F187:0A0B  \n");
+		assertEquals(2, store.size(), "Number of DIDs in the file");
+		assertResponse("01 02 03", store.get(0xF190));
+		assertResponse("0A 0B", store.get(0xF187));
+
+		assertMalformed("F1 90 01 02 03\n", "Line 1");
+		assertMalformed("# DIDs\nF1 9 : 01\n", "Line 2");
+		assertMalformed("F1 90 : 01\nF1 87 : 02 : 03\n", "Line 2");
+		assertMalformed("F1 90 00 : 01\n", "Line 1");
+	}
+
+	/**
+	 * Data which has been written to the ECU will be returned by following
+	 * read requests until the ECU will be reset. Requests for unknown DIDs
+	 * will not be handled by the DID store.
+	 */
+	void testImpl_06() {
+		EcuConfig config = new EcuConfig();
+		config.setName("ECU");
+		config.setPhysicalAddress(ECU_ADDRESS);
+		config.setDidStore(createStore());
+		RecordingEcu ecu = new RecordingEcu(config);
+		ecu.reset();
+
+		assertTrue(ecu.processRequestByDidStore(request("2E F1 90 04 05 06")), "Write request has been handled");
+		assertSentResponse(ecu, "6E F1 90");
+		for (int i = 0; i < 2; i++) {
+			assertTrue(ecu.processRequestByDidStore(request("22 F1 90")), "Read request has been handled");
+			assertSentResponse(ecu, "62 F1 90 04 05 06");
+		}
+		assertResponse("01 02 03", config.getDidStore().get(0xF190));
+
+		assertFalse(ecu.processRequestByDidStore(request("22 12 34")), "Request for an unknown DID has been handled");
+		assertFalse(ecu.processRequestByDidStore(request("10 03")), "Request for another service has been handled");
+		assertEquals(0, ecu.getNumberOfSentMessages(), "Number of further sent messages");
+
+		ecu.reset();
+		assertTrue(ecu.processRequestByDidStore(request("22 F1 90")), "Read request has been handled after reset");
+		assertSentResponse(ecu, "62 F1 90 01 02 03");
+	}
+
+	private static DidStore createStore() {
+		DidStore store = new DidStore();
+		store.put(0xF190, hex("01 02 03"));
+		store.put(0xF187, hex("0A 0B"));
+		store.put(0x0100, hex("FF"));
+		return store;
+	}
+
+	private static void addFromFile(DidStore store, String content) throws TestExecutionError {
+		Path file = null;
+		try {
+			file = Files.createTempFile("UT-" + BASE_ID, ".did");
+			Files.write(file, content.getBytes());
+			store.addFromFile(file.toString());
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			if (file != null) {
+				file.toFile().delete();
+			}
+		}
+	}
+
+	private static void assertMalformed(String content, String expectedLine) throws TestExecutionError {
+		DidStore store = new DidStore();
+		try {
+			addFromFile(store, content);
+			fail("Malformed DID file has been accepted: " + content);
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().startsWith(expectedLine + " "), "Error message '" + e.getMessage()
+					+ "' starts with '" + expectedLine + "'");
+		}
+	}
+
+	private static UdsMessage request(String message) {
+		return new UdsMessage(TESTER_ADDRESS, ECU_ADDRESS, hex(message));
+	}
+
+	private static void assertSentResponse(RecordingEcu ecu, String expected) {
+		UdsMessage response = ecu.waitForSentMessage(TIMEOUT);
+		assertTrue(response != null, "Response has been sent");
+		assertEquals(TESTER_ADDRESS, response.getTargetAddress(), "Target address of the response");
+		assertResponse(expected, response.getMessage());
+	}
+
+	private static void assertResponse(String expected, byte[] actual) {
+		assertTrue(actual != null, "Response for " + expected);
+		assertEquals(Conversion.byteArrayToHexString(hex(expected)), Conversion.byteArrayToHexString(actual),
+				"Response");
+	}
+
+	private static byte[] hex(String message) {
+		return Conversion.hexStringToByteArray(message);
+	}
+}
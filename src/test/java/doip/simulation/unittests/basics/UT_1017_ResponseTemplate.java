@@ -0,0 +1,264 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.library.util.Conversion;
+import doip.simulation.lookup.ResponseTemplate;
+import doip.simulation.lookup.ResponseTemplateTable;
+
+/**
+ * Tests the response templates: compiling the templates, filling their
+ * dynamic fields and finding the template for a request.
+ */
+class UT_1017_ResponseTemplate extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1017";
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	@Test
+	void test_06() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-06", () -> testImpl_06());
+	}
+
+	@Test
+	void test_07() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-07", () -> testImpl_07());
+	}
+
+	/**
+	 * The constant bytes and the slots of a template will be compiled into a
+	 * response of fixed length, spaces will be ignored. The response can also
+	 * be written into a buffer at an offset without touching the other bytes
+	 * of the buffer.
+	 */
+	void testImpl_01() {
+		ResponseTemplate template = ResponseTemplate.compile("67 $echo(1,1) $counter(4)");
+		assertEquals(6, template.getLength(), "Length of the response");
+		assertEquals(2, template.getNumberOfSlots(), "Number of slots");
+		assertResponse("67 01 00 00 00 01", template.createResponse(hex("27 01")));
+
+		template = ResponseTemplate.compile("62F18C$counter(2)0A0B");
+		assertEquals(7, template.getLength(), "Length of the response without spaces");
+		assertEquals(1, template.getNumberOfSlots(), "Number of slots without spaces");
+		byte[] buffer = hex("AA AA AA AA AA AA AA AA AA AA");
+		template.fill(hex("22 F1 8C"), buffer, 2);
+		assertResponse("AA AA 62 F1 8C 00 01 0A 0B AA", buffer);
+
+		template = ResponseTemplate.compile("7E 00");
+		assertEquals(0, template.getNumberOfSlots(), "Number of slots of a static template");
+		assertResponse("7E 00", template.createResponse(hex("3E 00")));
+	}
+
+	/**
+	 * The width of the slots $counter, $time and $random must be from 1 to 8
+	 * bytes.
+	 */
+	void testImpl_02() {
+		for (String name : new String[] { "counter", "time", "random" }) {
+			assertEquals(2, ResponseTemplate.compile("62 $" + name + "(1)").getLength(), "Length with $" + name + "(1)");
+			assertEquals(9, ResponseTemplate.compile("62 $" + name + "(8)").getLength(), "Length with $" + name + "(8)");
+			assertInvalid("62 $" + name + "(0)");
+			assertInvalid("62 $" + name + "(9)");
+			assertInvalid("62 $" + name + "()");
+			assertInvalid("62 $" + name + "(1,2)");
+		}
+	}
+
+	/**
+	 * Templates with incomplete bytes, unknown slots or invalid slot
+	 * arguments will be rejected.
+	 */
+	void testImpl_03() {
+		assertInvalid("62 F");
+		assertInvalid("62 F $counter(1)");
+		assertInvalid("6 2F");
+		assertInvalid("62 $unknown(1)");
+		assertInvalid("62 $counter(1");
+		assertInvalid("62 $counter");
+		assertInvalid("62 $echo(1)");
+		assertInvalid("62 $echo(-1,1)");
+		assertInvalid("62 $echo(1,0)");
+	}
+
+	/**
+	 * $echo copies bytes of the request. Bytes behind the end of the request
+	 * will be 0x00, even if the slot starts behind the end of the request.
+	 */
+	void testImpl_04() {
+		ResponseTemplate template = ResponseTemplate.compile("71 $echo(1,4) FF");
+		assertResponse("71 01 02 03 04 FF", template.createResponse(hex("31 01 02 03 04 05")));
+		assertResponse("71 01 02 00 00 FF", template.createResponse(hex("31 01 02")));
+		assertResponse("71 00 00 00 00 FF", template.createResponse(hex("31")));
+
+		template = ResponseTemplate.compile("71 $echo(5,2)");
+		assertResponse("71 00 00", template.createResponse(hex("31 01")));
+
+		// The buffer may contain old data which must be overwritten
+		byte[] buffer = hex("AA AA AA AA AA AA");
+		ResponseTemplate.compile("71 $echo(1,4) FF").fill(hex("31 01"), buffer, 0);
+		assertResponse("71 01 00 00 00 FF", buffer);
+	}
+
+	/**
+	 * The counter will be incremented for every response and stored in
+	 * big-endian byte order. Values which don't fit into the width will be
+	 * truncated to the lower bytes.
+	 */
+	void testImpl_05() {
+		ResponseTemplate template = ResponseTemplate.compile("62 $counter(4)");
+		assertResponse("62 00 00 00 01", template.createResponse(hex("22")));
+		assertResponse("62 00 00 00 02", template.createResponse(hex("22")));
+
+		template = ResponseTemplate.compile("62 $counter(1)");
+		for (int i = 1; i <= 255; i++) {
+			template.createResponse(hex("22"));
+		}
+		assertResponse("62 00", template.createResponse(hex("22")));
+		assertResponse("62 01", template.createResponse(hex("22")));
+
+		template = ResponseTemplate.compile("62 $counter(1) $counter(2)");
+		assertResponse("62 01 00 02", template.createResponse(hex("22")));
+	}
+
+	/**
+	 * $time contains the current time in milliseconds in big-endian byte
+	 * order, $random fills the whole width.
+	 */
+	void testImpl_06() {
+		ResponseTemplate template = ResponseTemplate.compile("62 $time(8)");
+		long before = System.currentTimeMillis();
+		byte[] response = template.createResponse(hex("22"));
+		long after = System.currentTimeMillis();
+		long time = 0;
+		for (int i = 1; i <= 8; i++) {
+			time = (time << 8) | (response[i] & 0xFF);
+		}
+		assertTrue(time >= before && time <= after, "Time " + time + " is between " + before + " and " + after);
+
+		template = ResponseTemplate.compile("67 01 $random(4)");
+		response = template.createResponse(hex("27 01"));
+		assertEquals(6, response.length, "Length of the response with random bytes");
+		assertEquals("67 01", Conversion.byteArrayToHexString(new byte[] { response[0], response[1] }),
+				"Constant bytes of the response with random bytes");
+	}
+
+	/**
+	 * The table returns the template of the first matching request pattern.
+	 * Only byte patterns are allowed as request patterns. The templates can
+	 * be loaded from a file.
+	 */
+	void testImpl_07() throws TestExecutionError {
+		ResponseTemplateTable table = new ResponseTemplateTable();
+		table.add("27 01", "67 01 $random(4)");
+		table.add("22 F1 ..", "62 F1 $echo(2,1) $counter(2)");
+		table.add("22 .*", "7F 22 31");
+		assertEquals(3, table.size(), "Number of templates");
+
+		assertResponse("62 F1 90 00 01", find(table, "22 F1 90").createResponse(hex("22 F1 90")));
+		assertResponse("7F 22 31", find(table, "22 F1 90 01").createResponse(hex("22 F1 90 01")));
+		assertResponse("7F 22 31", find(table, "22 01 00").createResponse(hex("22 01 00")));
+		assertEquals(6, find(table, "27 01").getLength(), "Length of the SecurityAccess response");
+		assertTrue(table.find(hex("27 01 00"), 3) == null, "Template for a longer request");
+		assertTrue(table.find(hex("10 03"), 2) == null, "Template for an unknown request");
+		// Only the given number of bytes of the request will be compared
+		assertTrue(table.find(hex("27 01 00"), 2) != null, "Template for the first two bytes");
+
+		try {
+			table.add("22 (F1|F2) 90", "62 F1 90");
+			fail("Request pattern which is not a byte pattern has been accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+		assertEquals(3, table.size(), "Number of templates after invalid pattern");
+
+		table = new ResponseTemplateTable();
+		Path file = null;
+		try {
+			file = Files.createTempFile("UT-" + BASE_ID, ".template");
+			Files.write(file, "# SecurityAccess\n\n27 01 : 67 01 $random(4)\n3E 00 : 7E 00\n".getBytes());
+			table.addFromFile(file.toString());
+			assertEquals(2, table.size(), "Number of templates in the file");
+			assertResponse("7E 00", find(table, "3E 00").createResponse(hex("3E 00")));
+
+			Files.write(file, "3E 00 : 7E 00\n3E 80 7E 80\n".getBytes());
+			try {
+				new ResponseTemplateTable().addFromFile(file.toString());
+				fail("Line without separator has been accepted");
+			} catch (IllegalArgumentException e) {
+				assertTrue(e.getMessage().startsWith("Line 2 "), "Error message '" + e.getMessage() + "' starts with 'Line 2'");
+			}
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			if (file != null) {
+				file.toFile().delete();
+			}
+		}
+	}
+
+	private static ResponseTemplate find(ResponseTemplateTable table, String request) {
+		byte[] bytes = hex(request);
+		ResponseTemplate template = table.find(bytes, bytes.length);
+		assertTrue(template != null, "Template for request " + request + " has been found");
+		return template;
+	}
+
+	private static void assertInvalid(String template) {
+		try {
+			ResponseTemplate.compile(template);
+			fail("Template '" + template + "' has been accepted");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	private static void assertResponse(String expected, byte[] actual) {
+		assertEquals(Conversion.byteArrayToHexString(hex(expected)), Conversion.byteArrayToHexString(actual),
+				"Response");
+	}
+
+	private static byte[] hex(String message) {
+		return Conversion.hexStringToByteArray(message);
+	}
+}
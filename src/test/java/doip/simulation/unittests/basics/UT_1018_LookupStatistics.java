@@ -0,0 +1,211 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.util.Conversion;
+import doip.library.util.LookupEntry;
+import doip.library.util.LookupTable;
+import doip.simulation.lookup.CompiledLookupTable;
+import doip.simulation.lookup.LookupStatistics;
+import doip.simulation.lookup.LookupStatistics.PatternStatistics;
+
+/**
+ * Tests the lookup statistics: the counters and histograms of the entries,
+ * the lists of hottest, slowest and never matched patterns and the report.
+ */
+class UT_1018_LookupStatistics extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1018";
+
+	private static final String[] PATTERNS = new String[] { "1003", "22F190", "22F1..", "3E00", "3101.*" };
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	@Test
+	void test_05() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-05", () -> testImpl_05());
+	}
+
+	/**
+	 * Bucket 0 contains the times below 256 ns, bucket n the times from
+	 * 2^(n+7) ns to 2^(n+8) ns and the last bucket all longer times.
+	 */
+	void testImpl_01() {
+		assertEquals(0, LookupStatistics.bucketOf(0), "Bucket of 0 ns");
+		assertEquals(0, LookupStatistics.bucketOf(255), "Bucket of 255 ns");
+		assertEquals(1, LookupStatistics.bucketOf(256), "Bucket of 256 ns");
+		assertEquals(1, LookupStatistics.bucketOf(511), "Bucket of 511 ns");
+		assertEquals(2, LookupStatistics.bucketOf(512), "Bucket of 512 ns");
+		for (int n = 1; n < LookupStatistics.BUCKETS - 1; n++) {
+			long lower = 1L << (n + 7);
+			assertEquals(n, LookupStatistics.bucketOf(lower), "Bucket of " + lower + " ns");
+			assertEquals(n, LookupStatistics.bucketOf((lower << 1) - 1), "Bucket of " + ((lower << 1) - 1) + " ns");
+		}
+		int last = LookupStatistics.BUCKETS - 1;
+		assertEquals(last, LookupStatistics.bucketOf(1L << (last + 7)), "Bucket of the lower bound of the last bucket");
+		assertEquals(last, LookupStatistics.bucketOf(1L << 40), "Bucket of 2^40 ns");
+		assertEquals(last, LookupStatistics.bucketOf(Long.MAX_VALUE), "Bucket of Long.MAX_VALUE");
+	}
+
+	/**
+	 * Matches will be counted per entry, misses separately. Only entries which
+	 * matched at least once will be reported.
+	 */
+	void testImpl_02() {
+		LookupStatistics statistics = createStatistics();
+		statistics.recordMatch(1, 100);
+		statistics.recordMatch(1, 300);
+		statistics.recordMatch(1, 1000);
+		statistics.recordMiss(50);
+		statistics.recordMiss(70);
+
+		List<PatternStatistics> matched = statistics.getMatchedPatterns();
+		assertEquals(1, matched.size(), "Number of matched patterns");
+		PatternStatistics entry = matched.get(0);
+		assertEquals(1, entry.getEntry(), "Index of the matched entry");
+		assertEquals(PATTERNS[1], entry.getPattern(), "Pattern of the matched entry");
+		assertEquals(3L, entry.getHits(), "Number of hits");
+		assertEquals(1400L, entry.getTotalNanos(), "Total time");
+		assertEquals(466L, entry.getAverageNanos(), "Average time");
+		assertEquals(1000L, entry.getMaxNanos(), "Maximum time");
+		long[] histogram = entry.getHistogram();
+		assertEquals(1L, histogram[0], "Hits in bucket 0");
+		assertEquals(1L, histogram[1], "Hits in bucket 1");
+		assertEquals(1L, histogram[2], "Hits in bucket 2");
+		assertEquals(512L, entry.getPercentileNanos(50), "Upper bound of the median");
+		assertEquals(1024L, entry.getPercentileNanos(99), "Upper bound of the 99th percentile");
+
+		PatternStatistics misses = statistics.getMisses();
+		assertTrue(misses.getPattern() == null, "Pattern of the misses");
+		assertEquals(2L, misses.getHits(), "Number of misses");
+		assertEquals(70L, misses.getMaxNanos(), "Maximum time of the misses");
+
+		statistics.recordMatch(4, 1L << 40);
+		PatternStatistics slow = statistics.getMatchedPatterns().get(1);
+		assertEquals(Long.MAX_VALUE, slow.getPercentileNanos(99), "Upper bound in the last bucket");
+	}
+
+	/**
+	 * The hottest patterns are sorted by hits, the slowest by average time.
+	 * Entries which never matched are listed in the order of the table.
+	 */
+	void testImpl_03() {
+		LookupStatistics statistics = createStatistics();
+		statistics.recordMatch(0, 5000);
+		for (int i = 0; i < 5; i++) {
+			statistics.recordMatch(1, 100);
+		}
+		statistics.recordMatch(3, 2000);
+		statistics.recordMatch(3, 2000);
+
+		assertEntries(new int[] { 1, 3 }, statistics.getHottestPatterns(2), "Hottest patterns");
+		assertEntries(new int[] { 1, 3, 0 }, statistics.getHottestPatterns(10), "All hottest patterns");
+		assertEntries(new int[] { 0, 3 }, statistics.getSlowestPatterns(2), "Slowest patterns");
+		assertEntries(new int[] { 0, 3, 1 }, statistics.getSlowestPatterns(10), "All slowest patterns");
+
+		List<String> neverMatched = statistics.getNeverMatchedPatterns();
+		assertEquals(2, neverMatched.size(), "Number of never matched patterns");
+		assertEquals(PATTERNS[2], neverMatched.get(0), "First never matched pattern");
+		assertEquals(PATTERNS[4], neverMatched.get(1), "Second never matched pattern");
+	}
+
+	/**
+	 * The report contains each list with at most the given number of
+	 * patterns, the number of never matched patterns and the misses.
+	 */
+	void testImpl_04() {
+		LookupStatistics statistics = createStatistics();
+		statistics.recordMatch(0, 5000);
+		statistics.recordMatch(1, 100);
+		statistics.recordMatch(1, 100);
+		statistics.recordMiss(100);
+
+		String[] lines = statistics.dump(1).split("\n");
+		assertEquals(8, lines.length, "Number of lines in the report");
+		assertEquals("Lookup statistics, 5 entries", lines[0], "Header of the report");
+		assertEquals("Hottest patterns:", lines[1], "Header of the hottest patterns");
+		assertTrue(lines[2].trim().startsWith(PATTERNS[1] + ": hits = 2"), "Hottest pattern: " + lines[2]);
+		assertEquals("Slowest patterns:", lines[3], "Header of the slowest patterns");
+		assertTrue(lines[4].trim().startsWith(PATTERNS[0] + ": hits = 1"), "Slowest pattern: " + lines[4]);
+		assertEquals("Never matched patterns (3):", lines[5], "Header of the never matched patterns");
+		assertEquals(PATTERNS[2], lines[6].trim(), "Never matched pattern");
+		assertTrue(lines[7].startsWith("No match: hits = 1"), "Misses: " + lines[7]);
+
+		assertEquals(12, statistics.dump(10).split("\n").length, "Number of lines in the report with limit 10");
+	}
+
+	/**
+	 * The compiled lookup table records every match of an entry and every
+	 * request which did not match.
+	 */
+	void testImpl_05() {
+		CompiledLookupTable table = new CompiledLookupTable(createLookupTable());
+		LookupStatistics statistics = new LookupStatistics(table);
+		lookup(table, statistics, "22 F1 90");
+		lookup(table, statistics, "22 F1 90");
+		lookup(table, statistics, "22 F1 86");
+		lookup(table, statistics, "31 01 02 03");
+		lookup(table, statistics, "10 01");
+
+		assertEntries(new int[] { 1, 2, 4 }, statistics.getHottestPatterns(10), "Matched entries");
+		assertEquals(2L, statistics.getHottestPatterns(1).get(0).getHits(), "Hits of entry 1");
+		assertEquals(1L, statistics.getMisses().getHits(), "Number of misses");
+		assertEquals(2, statistics.getNeverMatchedPatterns().size(), "Number of never matched patterns");
+	}
+
+	private static LookupStatistics createStatistics() {
+		return new LookupStatistics(new CompiledLookupTable(createLookupTable()));
+	}
+
+	private static LookupTable createLookupTable() {
+		LookupTable table = new LookupTable();
+		for (String pattern : PATTERNS) {
+			table.addEntry(new LookupEntry(pattern, "7F" + pattern.substring(0, 2) + "11"));
+		}
+		return table;
+	}
+
+	private static void lookup(CompiledLookupTable table, LookupStatistics statistics, String request) {
+		byte[] bytes = Conversion.hexStringToByteArray(request);
+		table.findResultAndApplyModifiers(bytes, bytes.length, null, statistics);
+	}
+
+	private static void assertEntries(int[] expected, List<PatternStatistics> actual, String message) {
+		assertEquals(expected.length, actual.size(), message + ": number of entries");
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], actual.get(i).getEntry(), message + ": entry at position " + i);
+		}
+	}
+}
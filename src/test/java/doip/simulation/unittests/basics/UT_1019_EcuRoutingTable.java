@@ -0,0 +1,180 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.simulation.EcuBase;
+import doip.simulation.EcuConfig;
+import doip.simulation.GatewayConfig;
+import doip.simulation.standard.EcuRoutingTable;
+import doip.simulation.standard.StandardGateway;
+
+/**
+ * Tests the routing table which finds the target ECUs of a diagnostic
+ * message by its target address, and its replacement when ECUs will be
+ * added to or removed from a gateway.
+ */
+class UT_1019_EcuRoutingTable extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1019";
+
+	private static final int FUNCTIONAL_ADDRESS = 0xE400;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	/**
+	 * The table returns the ECUs with the physical or functional address.
+	 * ECUs which share a functional address will be returned in the order of
+	 * the list, unknown addresses return an empty array.
+	 */
+	void testImpl_01() {
+		EcuBase ecuA = createEcu("A", 0x0010, FUNCTIONAL_ADDRESS);
+		EcuBase ecuB = createEcu("B", 0x0011, FUNCTIONAL_ADDRESS);
+		EcuBase ecuC = createEcu("C", 0x0012, -1);
+		EcuRoutingTable table = EcuRoutingTable.build(Arrays.asList(ecuA, ecuB, ecuC));
+
+		assertTargets(new EcuBase[] { ecuA }, table.getTargets(0x0010), "Targets of 0x0010");
+		assertTargets(new EcuBase[] { ecuB }, table.getTargets(0x0011), "Targets of 0x0011");
+		assertTargets(new EcuBase[] { ecuC }, table.getTargets(0x0012), "Targets of 0x0012");
+		assertTargets(new EcuBase[] { ecuA, ecuB }, table.getTargets(FUNCTIONAL_ADDRESS), "Functional targets");
+		assertEquals(0, table.getTargets(0x0013).length, "Number of targets of an unknown address");
+		assertTrue(table.getTargets(0x0013) == table.getTargets(0x0014),
+				"The same empty array will be returned for every unknown address");
+	}
+
+	/**
+	 * The ECUs of an address keep the order of the list, even if the address
+	 * is the functional address of the first ECU and the physical address of
+	 * the second ECU. An ECU whose physical and functional address are equal
+	 * will only be returned once.
+	 */
+	void testImpl_02() {
+		EcuBase ecuA = createEcu("A", 0x0020, 0x0030);
+		EcuBase ecuB = createEcu("B", 0x0030, FUNCTIONAL_ADDRESS);
+		EcuBase ecuC = createEcu("C", 0x0040, 0x0040);
+		EcuRoutingTable table = EcuRoutingTable.build(Arrays.asList(ecuA, ecuB, ecuC));
+
+		assertTargets(new EcuBase[] { ecuA, ecuB }, table.getTargets(0x0030), "Targets of 0x0030");
+		assertTargets(new EcuBase[] { ecuC }, table.getTargets(0x0040), "Targets of 0x0040");
+
+		table = EcuRoutingTable.build(Arrays.asList(ecuB, ecuA));
+		assertTargets(new EcuBase[] { ecuB, ecuA }, table.getTargets(0x0030), "Targets of 0x0030 in reverse order");
+	}
+
+	/**
+	 * Addresses outside of the 16 bit range will be ignored when the table
+	 * will be built and return no targets.
+	 */
+	void testImpl_03() {
+		EcuBase ecuA = createEcu("A", 0xFFFF, 0x10000);
+		EcuBase ecuB = createEcu("B", -1, 0x0000);
+		EcuRoutingTable table = EcuRoutingTable.build(Arrays.asList(ecuA, ecuB));
+
+		assertTargets(new EcuBase[] { ecuA }, table.getTargets(0xFFFF), "Targets of 0xFFFF");
+		assertTargets(new EcuBase[] { ecuB }, table.getTargets(0x0000), "Targets of 0x0000");
+		assertEquals(0, table.getTargets(-1).length, "Number of targets of -1");
+		assertEquals(0, table.getTargets(0x10000).length, "Number of targets of 0x10000");
+
+		assertTrue(EcuRoutingTable.build(new ArrayList<EcuBase>()) == EcuRoutingTable.EMPTY,
+				"Table for an empty list");
+		assertEquals(0, EcuRoutingTable.EMPTY.getTargets(0x0010).length, "Number of targets in the empty table");
+	}
+
+	/**
+	 * Adding and removing an ECU replaces the routing table of the gateway.
+	 * The old table stays unchanged, so messages which are processed at the
+	 * same time still find the old targets.
+	 */
+	void testImpl_04() {
+		GatewayConfig config = createGatewayConfig();
+		config.getEcuConfigList().add(createEcuConfig("A", 0x0010, FUNCTIONAL_ADDRESS));
+		StandardGateway gateway = new StandardGateway(config);
+		EcuRoutingTable initial = gateway.getRoutingTable();
+		assertEquals(1, initial.getTargets(0x0010).length, "Number of targets of 0x0010 after creation");
+		EcuBase ecuA = initial.getTargets(0x0010)[0];
+
+		EcuBase ecuB = createEcu("B", 0x0011, FUNCTIONAL_ADDRESS);
+		gateway.addEcu(ecuB);
+		EcuRoutingTable added = gateway.getRoutingTable();
+		assertTrue(added != initial, "Routing table has been replaced after adding an ECU");
+		assertTargets(new EcuBase[] { ecuB }, added.getTargets(0x0011), "Targets of 0x0011 after adding");
+		assertTargets(new EcuBase[] { ecuA, ecuB }, added.getTargets(FUNCTIONAL_ADDRESS),
+				"Functional targets after adding");
+		assertEquals(0, initial.getTargets(0x0011).length, "Number of targets of 0x0011 in the old table");
+
+		assertTrue(gateway.removeEcu(ecuA), "ECU A has been removed");
+		EcuRoutingTable removed = gateway.getRoutingTable();
+		assertTrue(removed != added, "Routing table has been replaced after removing an ECU");
+		assertEquals(0, removed.getTargets(0x0010).length, "Number of targets of 0x0010 after removing");
+		assertTargets(new EcuBase[] { ecuB }, removed.getTargets(FUNCTIONAL_ADDRESS),
+				"Functional targets after removing");
+		assertTargets(new EcuBase[] { ecuA, ecuB }, added.getTargets(FUNCTIONAL_ADDRESS),
+				"Functional targets in the old table");
+
+		assertFalse(gateway.removeEcu(ecuA), "ECU A has been removed twice");
+		assertTrue(gateway.getRoutingTable() == removed, "Routing table stays the same if no ECU has been removed");
+	}
+
+	private static EcuBase createEcu(String name, int physicalAddress, int functionalAddress) {
+		return new RecordingEcu(createEcuConfig(name, physicalAddress, functionalAddress));
+	}
+
+	private static EcuConfig createEcuConfig(String name, int physicalAddress, int functionalAddress) {
+		EcuConfig config = new EcuConfig();
+		config.setName(name);
+		config.setPhysicalAddress(physicalAddress);
+		config.setFunctionalAddress(functionalAddress);
+		return config;
+	}
+
+	private static GatewayConfig createGatewayConfig() {
+		GatewayConfig config = new GatewayConfig();
+		config.setName("GW");
+		config.setLocalPort(13400);
+		config.setVin(new byte[] { 0x31, 0x32, 0x33, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x30, 0x31, 0x32, 0x33, 0x34,
+				0x35, 0x36, 0x37 });
+		config.setEid(new byte[] { (byte) 0xE1, (byte) 0xE2, (byte) 0xE3, (byte) 0xE4, (byte) 0xE5, (byte) 0xE6 });
+		config.setGid(new byte[] { (byte) 0xA1, (byte) 0xA2, (byte) 0xA3, (byte) 0xA4, (byte) 0xA5, (byte) 0xA6 });
+		config.setMaxNumberOfRegisteredConnections(4);
+		return config;
+	}
+
+	private static void assertTargets(EcuBase[] expected, EcuBase[] actual, String message) {
+		assertEquals(expected.length, actual.length, message + ": number of ECUs");
+		for (int i = 0; i < expected.length; i++) {
+			assertTrue(expected[i] == actual[i], message + ": ECU at position " + i + " is " + expected[i].getName());
+		}
+	}
+}
@@ -0,0 +1,278 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+import com.starcode88.jtest.TextBuilder;
+
+import doip.simulation.EcuConfig;
+import doip.simulation.LookupTableWatcher;
+
+/**
+ * Tests the watcher which reloads the lookup tables of the ECUs when their
+ * lookup files have been changed.
+ */
+class UT_1020_LookupTableWatcher extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1020";
+
+	private static final int TIMEOUT = 2000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	/**
+	 * Several changes of a file within the settle time reload the ECUs of
+	 * this file only once. ECUs with other files will not be reloaded.
+	 */
+	void testImpl_01() throws TestExecutionError {
+		Path directory = createDirectory();
+		LookupTableWatcher watcher = new LookupTableWatcher("UT-" + BASE_ID + "-01");
+		watcher.setSettleTime(100);
+		try {
+			WatchedEcu ecuA = createEcu("A", directory, "A.uds");
+			WatchedEcu ecuB = createEcu("B", directory, "A.uds");
+			WatchedEcu ecuC = createEcu("C", directory, "C.uds");
+			watcher.addEcu(ecuA);
+			watcher.addEcu(ecuB);
+			watcher.addEcu(ecuC);
+			assertTrue(watcher.hasFiles(), "Watcher has files");
+			watcher.start();
+
+			for (int i = 0; i < 3; i++) {
+				write(directory.resolve("A.uds"), "1003 : 5003" + i);
+				sleep(20);
+			}
+			ecuA.awaitReloads(1);
+			ecuB.awaitReloads(1);
+			sleep(300);
+
+			assertEquals(1, ecuA.getReloads(), "Number of reloads of ECU A");
+			assertEquals(1, ecuB.getReloads(), "Number of reloads of ECU B with the same file");
+			assertEquals(0, ecuC.getReloads(), "Number of reloads of ECU C with another file");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			watcher.stop();
+			delete(directory);
+		}
+	}
+
+	/**
+	 * Changes of files in the same directory which are not watched don't
+	 * delay the reload, even if they happen more often than the settle time.
+	 */
+	void testImpl_02() throws TestExecutionError {
+		Path directory = createDirectory();
+		LookupTableWatcher watcher = new LookupTableWatcher("UT-" + BASE_ID + "-02");
+		watcher.setSettleTime(300);
+		try {
+			WatchedEcu ecu = createEcu("A", directory, "A.uds");
+			watcher.addEcu(ecu);
+			watcher.start();
+
+			long start = System.currentTimeMillis();
+			write(directory.resolve("A.uds"), "1003 : 500301");
+			int writes = 0;
+			while (ecu.getReloads() == 0 && System.currentTimeMillis() - start < TIMEOUT) {
+				write(directory.resolve("other.log"), "line " + writes++);
+				sleep(50);
+			}
+			long elapsed = System.currentTimeMillis() - start;
+
+			assertEquals(1, ecu.getReloads(), "Number of reloads while another file has been changed");
+			assertTrue(elapsed < 1000, "ECU has been reloaded after " + elapsed + " ms");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			watcher.stop();
+			delete(directory);
+		}
+	}
+
+	/**
+	 * If the file system lost events because too many files have been
+	 * changed, all ECUs will be reloaded.
+	 */
+	void testImpl_03() throws TestExecutionError {
+		Path directory = createDirectory();
+		LookupTableWatcher watcher = new LookupTableWatcher("UT-" + BASE_ID + "-03");
+		watcher.setSettleTime(100);
+		CountDownLatch reloading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			WatchedEcu ecuA = createEcu("A", directory, "A.uds");
+			WatchedEcu ecuB = createEcu("B", directory, "B.uds");
+			ecuA.block(reloading, release);
+			watcher.addEcu(ecuA);
+			watcher.addEcu(ecuB);
+			watcher.start();
+
+			// Keep the watcher busy while more events occur than the
+			// watch service can queue
+			write(directory.resolve("A.uds"), "1003 : 500301");
+			assertTrue(await(reloading), "ECU A is reloading");
+			for (int i = 0; i < 1000; i++) {
+				Files.createFile(directory.resolve("file" + i + ".tmp"));
+			}
+			sleep(500);
+			release.countDown();
+
+			ecuB.awaitReloads(1);
+			ecuA.awaitReloads(2);
+			assertEquals(2, ecuA.getReloads(), "Number of reloads of ECU A");
+			assertEquals(1, ecuB.getReloads(), "Number of reloads of ECU B after lost events");
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		} finally {
+			release.countDown();
+			watcher.stop();
+			delete(directory);
+		}
+	}
+
+	private static WatchedEcu createEcu(String name, Path directory, String file) throws IOException {
+		Path path = directory.resolve(file);
+		if (!Files.exists(path)) {
+			write(path, "1003 : 500300");
+		}
+		EcuConfig config = new EcuConfig();
+		config.setName(name);
+		config.setUdsLookupTable(config.createLookupTable());
+		config.loadUdsLookupTable(directory.toString() + File.separator, file);
+		return new WatchedEcu(config);
+	}
+
+	private static Path createDirectory() throws TestExecutionError {
+		try {
+			return Files.createTempDirectory("UT-" + BASE_ID).toRealPath();
+		} catch (IOException e) {
+			throw new TestExecutionError(TextBuilder.unexpectedException(e), e);
+		}
+	}
+
+	private static void write(Path file, String content) throws IOException {
+		Files.write(file, (content + "\n").getBytes());
+	}
+
+	private static void delete(Path directory) {
+		File[] files = directory.toFile().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.toFile().delete();
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * ECU which counts how often its lookup table has been reloaded. The
+	 * reload can be blocked to keep the thread of the watcher busy.
+	 */
+	private static class WatchedEcu extends RecordingEcu {
+
+		private AtomicInteger reloads = new AtomicInteger(0);
+
+		private volatile CountDownLatch reloading = null;
+
+		private volatile CountDownLatch release = null;
+
+		private WatchedEcu(EcuConfig config) {
+			super(config);
+		}
+
+		/**
+		 * Blocks the next reload until the latch "release" has been counted
+		 * down. The latch "reloading" will be counted down when the reload
+		 * has been started.
+		 */
+		private void block(CountDownLatch reloading, CountDownLatch release) {
+			this.reloading = reloading;
+			this.release = release;
+		}
+
+		@Override
+		public void reloadLookupTable() throws IOException {
+			CountDownLatch release = this.release;
+			this.release = null;
+			if (release != null) {
+				this.reloading.countDown();
+				await(release);
+			}
+			super.reloadLookupTable();
+			synchronized (this) {
+				this.reloads.incrementAndGet();
+				this.notifyAll();
+			}
+		}
+
+		private int getReloads() {
+			return this.reloads.get();
+		}
+
+		/**
+		 * Waits until the lookup table has been reloaded at least the given
+		 * number of times.
+		 */
+		private synchronized void awaitReloads(int expected) {
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			long remaining = TIMEOUT;
+			while (this.reloads.get() < expected && remaining > 0) {
+				try {
+					this.wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				remaining = deadline - System.currentTimeMillis();
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package doip.simulation.unittests.basics;
+
+import static com.starcode88.jtest.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.starcode88.jtest.InitializationError;
+import com.starcode88.jtest.TestCaseDescribed;
+import com.starcode88.jtest.TestExecutionError;
+
+import doip.library.message.UdsMessage;
+import doip.library.util.Conversion;
+import doip.simulation.EcuConfig;
+import doip.simulation.EcuWorkerPool;
+import doip.simulation.ThreadMode;
+
+/**
+ * Tests the worker pool which can be shared by many ECUs and the processing
+ * of the requests of an ECU in such a pool.
+ */
+class UT_1021_EcuWorkerPool extends TestCaseDescribed {
+
+	public static final String BASE_ID = "1021";
+
+	private static final int ECU_ADDRESS = 0x0815;
+
+	private static final int TESTER_ADDRESS = 0x0E80;
+
+	private static final int TIMEOUT = 2000;
+
+	@BeforeAll
+	static void setUpBeforeClass() throws InitializationError {
+		TestCaseDescribed.setUpBeforeClass("UT-" + BASE_ID);
+	}
+
+	@Test
+	void test_01() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-01", () -> testImpl_01());
+	}
+
+	@Test
+	void test_02() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-02", () -> testImpl_02());
+	}
+
+	@Test
+	void test_03() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-03", () -> testImpl_03());
+	}
+
+	@Test
+	void test_04() throws TestExecutionError {
+		this.runTest("UT-" + BASE_ID + "-04", () -> testImpl_04());
+	}
+
+	/**
+	 * Tasks will only be accepted while the pool is running. The threads
+	 * will be named after the pool.
+	 */
+	void testImpl_01() {
+		EcuWorkerPool pool = new EcuWorkerPool("UT-" + BASE_ID + "-01", 2, ThreadMode.PLATFORM);
+		assertFalse(pool.isRunning(), "Pool is running before start");
+		assertFalse(pool.execute(() -> {}), "Task has been accepted before start");
+
+		pool.start();
+		try {
+			assertTrue(pool.isRunning(), "Pool is running after start");
+			List<String> names = new ArrayList<String>();
+			CountDownLatch latch = new CountDownLatch(1);
+			assertTrue(pool.execute(() -> {
+				synchronized (names) {
+					names.add(Thread.currentThread().getName());
+				}
+				latch.countDown();
+			}), "Task has been accepted");
+			assertTrue(await(latch), "Task has been executed");
+			assertTrue(names.get(0).startsWith("UT-" + BASE_ID + "-01-"), "Name of the worker thread " + names.get(0));
+		} finally {
+			pool.stop();
+		}
+		assertFalse(pool.isRunning(), "Pool is running after stop");
+		assertFalse(pool.execute(() -> {}), "Task has been accepted after stop");
+
+		try {
+			new EcuWorkerPool("UT-" + BASE_ID + "-01", 0);
+			fail("Pool without threads has been created");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * The number of threads of a running pool can be increased and decreased.
+	 */
+	void testImpl_02() {
+		EcuWorkerPool pool = new EcuWorkerPool("UT-" + BASE_ID + "-02", 1);
+		pool.start();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			CountDownLatch first = new CountDownLatch(1);
+			CountDownLatch second = new CountDownLatch(1);
+			pool.execute(() -> {
+				first.countDown();
+				await(release);
+			});
+			pool.execute(() -> second.countDown());
+			assertTrue(await(first), "First task has been started");
+			assertFalse(await(second, 200), "Second task has been started while the only thread is busy");
+
+			pool.setNumberOfThreads(2);
+			assertEquals(2, pool.getNumberOfThreads(), "Number of threads after increasing");
+			CountDownLatch third = new CountDownLatch(1);
+			pool.execute(() -> third.countDown());
+			assertTrue(await(second), "Second task has been started after increasing the number of threads");
+			assertTrue(await(third), "Third task has been started after increasing the number of threads");
+
+			pool.setNumberOfThreads(1);
+			assertEquals(1, pool.getNumberOfThreads(), "Number of threads after decreasing");
+			release.countDown();
+			CountDownLatch fourth = new CountDownLatch(1);
+			pool.execute(() -> fourth.countDown());
+			assertTrue(await(fourth), "Task has been executed after decreasing the number of threads");
+
+			try {
+				pool.setNumberOfThreads(0);
+				fail("Number of threads 0 has been accepted");
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+		} finally {
+			release.countDown();
+			pool.stop();
+		}
+	}
+
+	/**
+	 * The requests of an ECU will be processed one after the other, even if
+	 * the pool has more threads and the tasks are executed by different
+	 * threads.
+	 */
+	void testImpl_03() {
+		final int total = 200;
+		EcuWorkerPool pool = new EcuWorkerPool("UT-" + BASE_ID + "-03", 4);
+		pool.start();
+		AtomicInteger active = new AtomicInteger(0);
+		AtomicInteger maxActive = new AtomicInteger(0);
+		List<UdsMessage> handled = new ArrayList<UdsMessage>();
+		CountDownLatch done = new CountDownLatch(total);
+		RecordingEcu ecu = new RecordingEcu(createConfig(total)) {
+			@Override
+			public void handleRequest(UdsMessage request) {
+				int count = active.incrementAndGet();
+				maxActive.accumulateAndGet(count, Math::max);
+				synchronized (handled) {
+					handled.add(request);
+				}
+				Thread.yield();
+				active.decrementAndGet();
+				this.clearCurrentRequest(request);
+				done.countDown();
+			}
+		};
+		ecu.setWorkerPool(pool);
+		ecu.start();
+		try {
+			List<UdsMessage> requests = new ArrayList<UdsMessage>();
+			for (int i = 0; i < total; i++) {
+				UdsMessage request = request("3E " + String.format("%02X", i & 0xFF));
+				requests.add(request);
+				ecu.putRequest(request);
+			}
+			assertTrue(await(done), "All requests have been handled");
+			assertEquals(1, maxActive.get(), "Maximum number of requests handled at the same time");
+			synchronized (handled) {
+				assertEquals(total, handled.size(), "Number of handled requests");
+				for (int i = 0; i < total; i++) {
+					assertTrue(handled.get(i) == requests.get(i), "Request " + i + " has been handled in order");
+				}
+			}
+			assertEquals(0L, ecu.getRequestQueueStatistics().getRejected(), "Number of rejected requests");
+			assertEquals(0, ecu.getNumberOfSentMessages(), "Number of sent messages");
+		} finally {
+			ecu.stop();
+			pool.stop();
+		}
+	}
+
+	/**
+	 * If the pool does not accept the task for a request, the lane does not
+	 * stay marked as scheduled. When the pool runs again, the request will
+	 * be scheduled and handled after the ECU has been started again.
+	 */
+	void testImpl_04() {
+		EcuWorkerPool pool = new EcuWorkerPool("UT-" + BASE_ID + "-04", 2);
+		pool.start();
+		RecordingEcu ecu = new RecordingEcu(createConfig(0));
+		ecu.setWorkerPool(pool);
+		ecu.start();
+		try {
+			UdsMessage requestA = request("10 03");
+			ecu.putRequest(requestA);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == requestA, "Request A has been handled");
+			ecu.clearCurrentRequest(requestA);
+
+			pool.stop();
+			UdsMessage requestB = request("22 F1 90");
+			ecu.putRequest(requestB);
+			assertTrue(ecu.waitForHandledRequest(200) == null, "Request has been handled while the pool is stopped");
+
+			pool.start();
+			ecu.start();
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == requestB, "Request B has been handled after restart");
+			ecu.clearCurrentRequest(requestB);
+
+			UdsMessage requestC = request("3E 00");
+			ecu.putRequest(requestC);
+			assertTrue(ecu.waitForHandledRequest(TIMEOUT) == requestC, "Request C has been handled");
+			ecu.clearCurrentRequest(requestC);
+			assertFalse(ecu.isBusy(), "ECU is busy after all requests have been cleared");
+		} finally {
+			ecu.stop();
+			pool.stop();
+		}
+	}
+
+	private static EcuConfig createConfig(int queueSize) {
+		EcuConfig config = new EcuConfig();
+		config.setName("ECU");
+		config.setPhysicalAddress(ECU_ADDRESS);
+		config.setRequestQueueSize(queueSize);
+		return config;
+	}
+
+	private static UdsMessage request(String message) {
+		return new UdsMessage(TESTER_ADDRESS, ECU_ADDRESS, Conversion.hexStringToByteArray(message));
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		return await(latch, TIMEOUT);
+	}
+
+	private static boolean await(CountDownLatch latch, int millis) {
+		try {
+			return latch.await(millis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+}